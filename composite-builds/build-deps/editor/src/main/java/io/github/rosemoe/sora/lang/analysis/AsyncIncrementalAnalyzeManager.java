@@ -488,9 +488,10 @@ public abstract class AsyncIncrementalAnalyzeManager<S, T> extends BaseAnalyzeMa
                                 shadowed.delete(IntPair.getFirst(mod.start), IntPair.getSecond(mod.start),
                                         IntPair.getFirst(mod.end), IntPair.getSecond(mod.end));
                                 S state = startLine == 0 ? getInitialState() : states.get(startLine - 1).state;
-                                // Remove states
+                                // Remove states. The joined line ends where the old end line did, so its
+                                // state is kept for the comparison below.
                                 if (endLine >= startLine + 1) {
-                                    var subList = states.subList(startLine + 1, endLine + 1);
+                                    var subList = states.subList(startLine, endLine);
                                     for (LineTokenizeResult<S, T> stLineTokenizeResult : subList) {
                                         onAbandonState(stLineTokenizeResult.state);
                                     }
@@ -1454,7 +1454,7 @@ public class CodeEditor extends View implements ContentListener, Formatter.Forma
         }
         var lineLeft = text.getCharIndex(line, 0);
         var lineRight = lineLeft + text.getColumnCount(line);
-        for (int i = Math.max(0, positions.lowerBoundByFirst(lineLeft) - 1); i < res.size(); i++) {
+        for (int i = Math.max(0, res.lowerBoundByFirst(lineLeft) - 1); i < res.size(); i++) {
             var region = res.get(i);
             var start = IntPair.getFirst(region);
             var end = IntPair.getSecond(region);
@@ -40,7 +40,6 @@ import io.github.rosemoe.sora.event.ContentChangeEvent;
 import io.github.rosemoe.sora.event.PublishSearchResultEvent;
 import io.github.rosemoe.sora.event.SelectionChangeEvent;
 import io.github.rosemoe.sora.text.Content;
-import io.github.rosemoe.sora.text.TextUtils;
 import io.github.rosemoe.sora.util.IntPair;
 import io.github.rosemoe.sora.util.LongArrayList;
 import io.github.rosemoe.sora.util.regex.RegexBackrefGrammar;
@@ -54,7 +53,8 @@ import io.github.rosemoe.sora.util.regex.RegexBackrefToken;
  * the searcher does not match empty text. For example, you will never match a single empty
  * line by regex '^.*$'. What's more, zero-length pattern is not permitted.
  * The searcher updates its search results automatically when editor text is changed, even after {@link CodeEditor#setText(CharSequence)}
- * is invoked. So be careful that the search result is changing and {@link PublishSearchResultEvent} is
+ * is invoked. For most patterns, only the lines around the change are searched again, in main thread. Regular expressions
+ * that may match line separators are searched again in the whole text. So be careful that the search result is changing and {@link PublishSearchResultEvent} is
  * re-triggered when search result is available for changed text.
  *
  * @see PublishSearchResultEvent
@@ -72,12 +72,13 @@ public class EditorSearcher {
      * No overlapping region is permitted.
      */
     protected LongArrayList lastResults;
+    private SearchMatcher matcher;
     private boolean cyclicJumping = true;
 
     EditorSearcher(@NonNull CodeEditor editor) {
         this.editor = editor;
         this.editor.subscribeEvent(ContentChangeEvent.class, ((event, unsubscribe) -> {
-            if (hasQuery()) {
+            if (hasQuery() && !updateMatch(event)) {
                 executeMatch();
             }
         }));
@@ -133,11 +134,56 @@ public class EditorSearcher {
         if (currentThread != null && currentThread.isAlive()) {
             currentThread.interrupt();
         }
-        var runnable = new SearchRunnable(editor.getText(), searchOptions, currentPattern);
+        var runnable = new SearchRunnable(editor.getText(), obtainMatcher());
         currentThread = new Thread(runnable);
         currentThread.start();
     }
 
+    /**
+     * Update current results for a single text change, by searching only the lines around it.
+     *
+     * @return {@code false} if a full search is required instead
+     */
+    private boolean updateMatch(@NonNull ContentChangeEvent event) {
+        // A finished search thread may still have its results queued in postInLifecycle. They were
+        // computed on the text before this change, so only update results that are already published.
+        if (event.getAction() == ContentChangeEvent.ACTION_SET_NEW_TEXT || currentThread != null || lastResults == null) {
+            return false;
+        }
+        var matcher = obtainMatcher();
+        if (!matcher.isIncremental()) {
+            return false;
+        }
+        var changeStart = event.getChangeStart().index;
+        var changeLength = event.getChangedText().length();
+        LongArrayList results;
+        if (event.getAction() == ContentChangeEvent.ACTION_INSERT) {
+            results = matcher.update(editor.getText(), lastResults, changeStart, changeStart, changeStart + changeLength);
+        } else {
+            results = matcher.update(editor.getText(), lastResults, changeStart, changeStart + changeLength, changeStart);
+        }
+        if (results == null) {
+            return false;
+        }
+        lastResults = results;
+        editor.invalidate();
+        editor.dispatchEvent(new PublishSearchResultEvent(editor));
+        return true;
+    }
+
+    /**
+     * Get matcher for current pattern and options. Options may be replaced without a new search by subclasses.
+     */
+    @NonNull
+    private SearchMatcher obtainMatcher() {
+        var matcher = this.matcher;
+        if (matcher == null || !matcher.pattern.equals(currentPattern) || matcher.options != searchOptions) {
+            matcher = new SearchMatcher(currentPattern, searchOptions);
+            this.matcher = matcher;
+        }
+        return matcher;
+    }
+
     /**
      * Stop searching.
      */
@@ -147,6 +193,7 @@ public class EditorSearcher {
         }
         currentThread = null;
         lastResults = null;
+        matcher = null;
         currentPattern = null;
         searchOptions = null;
         editor.dispatchEvent(new PublishSearchResultEvent(editor));
@@ -488,14 +535,12 @@ public class EditorSearcher {
     private final class SearchRunnable implements Runnable {
 
         private final StringBuilder text;
-        private final String pattern;
-        private final SearchOptions options;
+        private final SearchMatcher matcher;
         private Thread localThread;
 
-        public SearchRunnable(@NonNull Content content, @NonNull SearchOptions options, @NonNull String pattern) {
+        public SearchRunnable(@NonNull Content content, @NonNull SearchMatcher matcher) {
             this.text = content.toStringBuilder();
-            this.options = options;
-            this.pattern = pattern;
+            this.matcher = matcher;
         }
 
         private boolean checkNotCancelled() {
@@ -505,43 +550,7 @@ public class EditorSearcher {
         @Override
         public void run() {
             localThread = Thread.currentThread();
-            var results = new LongArrayList();
-            var textLength = text.length();
-            var ignoreCase = options.caseInsensitive;
-            var pattern = this.pattern;
-            switch (options.type) {
-                case SearchOptions.TYPE_NORMAL: {
-                    int nextStart = 0;
-                    var patternLength = pattern.length();
-                    while (nextStart != -1 && nextStart < textLength && checkNotCancelled()) {
-                        nextStart = TextUtils.indexOf(text, pattern, ignoreCase, nextStart);
-                        if (nextStart != -1) {
-                            results.add(IntPair.pack(nextStart, nextStart + patternLength));
-                            nextStart += patternLength;
-                        }
-                    }
-                    break;
-                }
-                case SearchOptions.TYPE_WHOLE_WORD:
-                    pattern = "\\b" + Pattern.quote(pattern) + "\\b";
-                    // fall-through
-                case SearchOptions.TYPE_REGULAR_EXPRESSION:
-                    var regex = Pattern.compile(pattern, (ignoreCase ? Pattern.CASE_INSENSITIVE : 0) | Pattern.MULTILINE);
-                    int lastEnd = 0;
-                    // Matcher will call toString() on input several times
-                    var string = text.toString();
-                    var matcher = regex.matcher(string);
-                    while (lastEnd < textLength && matcher.find(lastEnd) && checkNotCancelled()) {
-                        lastEnd = matcher.end();
-                        var start = matcher.start();
-                        if (start == lastEnd) {
-                            // Do not match empty text
-                            lastEnd ++;
-                            continue;
-                        }
-                        results.add(IntPair.pack(matcher.start(), lastEnd));
-                    }
-            }
+            var results = matcher.searchAll(text, () -> !checkNotCancelled());
             if (checkNotCancelled()) {
                 editor.postInLifecycle(() -> {
                     if (currentThread == localThread) {
@@ -0,0 +1,330 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.github.rosemoe.sora.text.Content;
+import io.github.rosemoe.sora.text.TextUtils;
+import io.github.rosemoe.sora.util.IntPair;
+import io.github.rosemoe.sora.util.LongArrayList;
+
+/**
+ * Finds matches of a search pattern for {@link EditorSearcher}, either in the whole text or
+ * incrementally after an edit.
+ * <p>
+ * Results are {@link IntPair}s of start and end index, sorted and non-overlapping, as produced by a
+ * greedy scan from the start of text. After an edit, only the lines around the change (widened by
+ * the pattern length for literal patterns) are searched again, and the matches after them are
+ * reused with their indices shifted. Regular expressions that may match a line separator cannot
+ * be bounded like that, so they always need a full search.
+ *
+ * @author Rosemoe
+ */
+final class SearchMatcher {
+
+    private final static long NO_MATCH = -1L;
+
+    final String pattern;
+    final EditorSearcher.SearchOptions options;
+    /**
+     * Compiled pattern, or {@code null} for {@link EditorSearcher.SearchOptions#TYPE_NORMAL}
+     */
+    private final Pattern regex;
+    private final boolean incremental;
+    /**
+     * Count of characters around a change, in which matches may be affected by the change.
+     * Widened to whole lines when used.
+     */
+    private final int margin;
+
+    SearchMatcher(@NonNull String pattern, @NonNull EditorSearcher.SearchOptions options) {
+        this.pattern = pattern;
+        this.options = options;
+        var flags = (options.caseInsensitive ? Pattern.CASE_INSENSITIVE : 0) | Pattern.MULTILINE;
+        switch (options.type) {
+            case EditorSearcher.SearchOptions.TYPE_WHOLE_WORD:
+                regex = Pattern.compile("\\b" + Pattern.quote(pattern) + "\\b", flags);
+                incremental = true;
+                // Word boundary checks the character after match
+                margin = pattern.length() + 1;
+                break;
+            case EditorSearcher.SearchOptions.TYPE_REGULAR_EXPRESSION:
+                regex = Pattern.compile(pattern, flags);
+                incremental = !mayMatchLineSeparator(pattern);
+                // Matches never leave their lines
+                margin = 0;
+                break;
+            default:
+                regex = null;
+                incremental = true;
+                margin = pattern.length();
+        }
+    }
+
+    /**
+     * Check if the given regex can possibly match (or look around) a line separator.
+     * This is conservative: some patterns that can not are also reported.
+     */
+    static boolean mayMatchLineSeparator(@NonNull String regex) {
+        if (regex.indexOf('\n') != -1 || regex.indexOf('\r') != -1) {
+            return true;
+        }
+        if (enablesDotAll(regex)) {
+            return true;
+        }
+        // Negated classes, escapes of line separators or of classes containing them, escapes
+        // by code point, lookaround and input boundaries
+        final String[] tokens = {"[^", "(?=", "(?!", "(?<", "\\n", "\\r", "\\R", "\\s", "\\S",
+                "\\v", "\\V", "\\H", "\\W", "\\D", "\\p", "\\P", "\\x", "\\u", "\\0", "\\c", "\\X",
+                "\\Z", "\\z", "\\A", "\\G", "\\N", "\\Q"};
+        for (var token : tokens) {
+            if (regex.contains(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check if any inline flag group of the given regex, such as {@code (?is)} or
+     * {@code (?ms-i:...)}, turns on the DOTALL flag {@code s}
+     */
+    private static boolean enablesDotAll(@NonNull String regex) {
+        int index = regex.indexOf("(?");
+        while (index != -1) {
+            boolean on = true;
+            boolean dotAll = false;
+            int i = index + 2;
+            for (; i < regex.length(); i++) {
+                char c = regex.charAt(i);
+                if (c == '-') {
+                    on = false;
+                } else if (c == 's') {
+                    dotAll |= on;
+                } else if (!Character.isLetter(c) && c != ' ') {
+                    break;
+                }
+            }
+            if (dotAll && i < regex.length() && (regex.charAt(i) == ')' || regex.charAt(i) == ':')) {
+                return true;
+            }
+            index = regex.indexOf("(?", index + 2);
+        }
+        return false;
+    }
+
+    /**
+     * Whether {@link #update(Content, LongArrayList, int, int, int)} can be used for this pattern
+     */
+    boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Search the whole text.
+     *
+     * @param cancelled Checked periodically. Search stops early when it returns {@code true}
+     */
+    @NonNull
+    LongArrayList searchAll(@NonNull CharSequence text, @NonNull BooleanSupplier cancelled) {
+        var results = new LongArrayList();
+        var textLength = text.length();
+        if (regex == null) {
+            int nextStart = 0;
+            var patternLength = pattern.length();
+            var ignoreCase = options.caseInsensitive;
+            while (nextStart != -1 && nextStart < textLength && !cancelled.getAsBoolean()) {
+                nextStart = TextUtils.indexOf(text, pattern, ignoreCase, nextStart);
+                if (nextStart != -1) {
+                    results.add(IntPair.pack(nextStart, nextStart + patternLength));
+                    nextStart += patternLength;
+                }
+            }
+        } else {
+            int lastEnd = 0;
+            // Matcher will call toString() on input several times
+            var matcher = regex.matcher(text.toString());
+            while (lastEnd < textLength && matcher.find(lastEnd) && !cancelled.getAsBoolean()) {
+                lastEnd = matcher.end();
+                var start = matcher.start();
+                if (start == lastEnd) {
+                    // Do not match empty text
+                    lastEnd++;
+                    continue;
+                }
+                results.add(IntPair.pack(start, lastEnd));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Compute results for the text after a single insertion or deletion, based on the results
+     * before it. The change replaced the text in {@code [changeStart, oldChangeEnd)} of the old text
+     * with the text in {@code [changeStart, newChangeEnd)} of {@code text}.
+     *
+     * @param text     Text after the change
+     * @param previous Results of text before the change, which is not modified
+     * @return Results of the changed text, or {@code null} if this pattern needs a full search
+     */
+    @Nullable
+    LongArrayList update(@NonNull Content text, @NonNull LongArrayList previous, int changeStart, int oldChangeEnd, int newChangeEnd) {
+        if (!incremental) {
+            return null;
+        }
+        var length = text.length();
+        var delta = newChangeEnd - oldChangeEnd;
+        var window = new TextWindow(text);
+        var results = new LongArrayList();
+
+        // Keep matches before the affected lines. A match across the first affected line is
+        // searched again, as its start is the nearest position where the scan state is known.
+        int pos = window.lineStart(Math.max(0, changeStart - margin));
+        int kept = previous.lowerBoundByFirst(pos);
+        if (kept > 0 && IntPair.getSecond(previous.get(kept - 1)) > pos) {
+            kept--;
+            pos = IntPair.getFirst(previous.get(kept));
+        }
+        for (int i = 0; i < kept; i++) {
+            results.add(previous.get(i));
+        }
+
+        int target = window.lineEnd(Math.min(length, newChangeEnd + margin));
+        while (pos < length) {
+            var match = find(window, pos, target);
+            if (match != NO_MATCH) {
+                var start = IntPair.getFirst(match);
+                var end = IntPair.getSecond(match);
+                if (start == end) {
+                    // Do not match empty text
+                    pos = end + 1;
+                } else {
+                    results.add(match);
+                    pos = end;
+                }
+                continue;
+            }
+            // No match crosses pos in new text. The rest of old results can be reused if none crosses
+            // the same position in old text: both scans then continue from there on the same text.
+            pos = Math.max(pos, target);
+            int oldPos = pos - delta;
+            int next = previous.lowerBoundByFirst(oldPos);
+            if (next > 0 && IntPair.getSecond(previous.get(next - 1)) > oldPos) {
+                target = IntPair.getSecond(previous.get(next - 1)) + delta;
+                continue;
+            }
+            for (int i = next; i < previous.size(); i++) {
+                var region = previous.get(i);
+                results.add(IntPair.pack(IntPair.getFirst(region) + delta, IntPair.getSecond(region) + delta));
+            }
+            break;
+        }
+        return results;
+    }
+
+    /**
+     * Find the first match starting in {@code [from, before)}.
+     *
+     * @return The match, or {@link #NO_MATCH}
+     */
+    private long find(@NonNull TextWindow window, int from, int before) {
+        if (from >= before) {
+            return NO_MATCH;
+        }
+        window.cover(from, before + margin);
+        if (regex == null) {
+            var index = TextUtils.indexOf(window.chars, pattern, options.caseInsensitive, from - window.start);
+            if (index == -1 || index + window.start >= before) {
+                return NO_MATCH;
+            }
+            return IntPair.pack(index + window.start, index + window.start + pattern.length());
+        } else {
+            var matcher = window.matcher(regex);
+            if (!matcher.find(from - window.start) || matcher.start() + window.start >= before) {
+                return NO_MATCH;
+            }
+            return IntPair.pack(matcher.start() + window.start, matcher.end() + window.start);
+        }
+    }
+
+    /**
+     * A piece of text copied from {@link Content}, made of whole lines (plus the character before)
+     * so that matches of single-line patterns are the same as in the full text.
+     */
+    private static final class TextWindow {
+
+        private final Content text;
+        private String chars;
+        private int start;
+        private int end;
+        private Matcher matcher;
+
+        TextWindow(@NonNull Content text) {
+            this.text = text;
+        }
+
+        int lineStart(int index) {
+            var line = text.getIndexer().getCharPosition(index).line;
+            return text.getCharIndex(line, 0);
+        }
+
+        /**
+         * Get the start index of next line, or text length for the last line
+         */
+        int lineEnd(int index) {
+            var line = text.getIndexer().getCharPosition(index).line;
+            return line + 1 < text.getLineCount() ? text.getCharIndex(line + 1, 0) : text.length();
+        }
+
+        /**
+         * Make sure the window contains {@code [from - 1, to)}, clamped to text bounds
+         */
+        void cover(int from, int to) {
+            from = Math.max(0, from - 1);
+            to = Math.min(to, text.length());
+            if (chars != null && start <= from && end >= to) {
+                return;
+            }
+            start = from;
+            end = lineEnd(to == 0 ? 0 : to - 1);
+            chars = text.substring(start, end);
+            matcher = null;
+        }
+
+        @NonNull
+        Matcher matcher(@NonNull Pattern regex) {
+            if (matcher == null) {
+                matcher = regex.matcher(chars);
+            }
+            return matcher;
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.widget.layout;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.List;
+
+import io.github.rosemoe.sora.lang.styling.inlayHint.InlayHint;
+
+/**
+ * Row table of {@link WordwrapLayout}, sorted by line and then by column.
+ * <p>
+ * Rows are stored in primitive arrays (line, start column and end column) with a gap at the
+ * position of last modification, so that replacing the rows of edited lines only moves the rows
+ * between two successive edit positions. Line indices of rows after the gap are stored relative
+ * to {@link #lineOffset}, so line count changes do not have to update every row after the edit.
+ * Inlay hints are rare, and their array is only created when a row has any.
+ *
+ * @author Rosemoe
+ */
+final class RowTable {
+
+    private int[] lines;
+    private int[] startColumns;
+    private int[] endColumns;
+    @Nullable
+    private List<InlayHint>[] inlayHints;
+    /**
+     * Gap in the arrays, from {@code gapStart} (inclusive) to {@code gapEnd} (exclusive)
+     */
+    private int gapStart;
+    private int gapEnd;
+    /**
+     * Added to stored line index of rows after the gap
+     */
+    private int lineOffset;
+
+    RowTable() {
+        this(16);
+    }
+
+    RowTable(int capacity) {
+        capacity = Math.max(capacity, 1);
+        lines = new int[capacity];
+        startColumns = new int[capacity];
+        endColumns = new int[capacity];
+        gapEnd = capacity;
+    }
+
+    int size() {
+        return lines.length - (gapEnd - gapStart);
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    void clear() {
+        gapStart = 0;
+        gapEnd = lines.length;
+        lineOffset = 0;
+        inlayHints = null;
+    }
+
+    private int physicalIndex(int row) {
+        if (row < 0 || row >= size()) {
+            throw new IndexOutOfBoundsException("row " + row + ", size " + size());
+        }
+        return row < gapStart ? row : row + (gapEnd - gapStart);
+    }
+
+    int getLine(int row) {
+        var index = physicalIndex(row);
+        return row < gapStart ? lines[index] : lines[index] + lineOffset;
+    }
+
+    int getStartColumn(int row) {
+        return startColumns[physicalIndex(row)];
+    }
+
+    int getEndColumn(int row) {
+        return endColumns[physicalIndex(row)];
+    }
+
+    /**
+     * @return inlay hints of the row, or {@code null} if there is none
+     */
+    @Nullable
+    List<InlayHint> getInlayHints(int row) {
+        var index = physicalIndex(row);
+        return inlayHints == null ? null : inlayHints[index];
+    }
+
+    /**
+     * Append a row. Rows must be added in order.
+     */
+    void add(int line, int startColumn, int endColumn, @Nullable List<InlayHint> hints) {
+        moveGap(size());
+        ensureGap(1);
+        put(gapStart++, line, startColumn, endColumn, hints);
+    }
+
+    /**
+     * Append all rows of the given table
+     */
+    void addAll(@NonNull RowTable rows) {
+        moveGap(size());
+        ensureGap(rows.size());
+        copyRows(rows);
+    }
+
+    /**
+     * Find the first row whose line is not less than the given one.
+     *
+     * @return Row index, or {@link #size()} if there is no such row
+     */
+    int lowerBound(int line) {
+        int low = 0;
+        int high = size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getLine(mid) < line) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Replace rows of old lines from {@code startLine} to {@code oldEndLine} (both inclusive) with the
+     * given rows of new lines from {@code startLine} to {@code newEndLine}. Rows of later lines are
+     * shifted by {@code newEndLine - oldEndLine} lines.
+     */
+    void replaceLines(int startLine, int oldEndLine, int newEndLine, @NonNull RowTable rows) {
+        int from = lowerBound(startLine);
+        int to = lowerBound(oldEndLine + 1);
+        moveGap(to);
+        // Drop the replaced rows into the gap
+        clearInlayHints(from, gapStart);
+        gapStart = from;
+        lineOffset += newEndLine - oldEndLine;
+        ensureGap(rows.size());
+        copyRows(rows);
+    }
+
+    private void copyRows(@NonNull RowTable rows) {
+        for (int i = 0; i < rows.size(); i++) {
+            put(gapStart++, rows.getLine(i), rows.getStartColumn(i), rows.getEndColumn(i), rows.getInlayHints(i));
+        }
+    }
+
+    private void put(int index, int line, int startColumn, int endColumn, @Nullable List<InlayHint> hints) {
+        lines[index] = line;
+        startColumns[index] = startColumn;
+        endColumns[index] = endColumn;
+        if (hints != null && !hints.isEmpty()) {
+            if (inlayHints == null) {
+                //noinspection unchecked
+                inlayHints = new List[lines.length];
+            }
+            inlayHints[index] = hints;
+        } else if (inlayHints != null) {
+            inlayHints[index] = null;
+        }
+    }
+
+    /**
+     * Move the gap to the given row index
+     */
+    private void moveGap(int row) {
+        if (row < gapStart) {
+            int count = gapStart - row;
+            int dest = gapEnd - count;
+            for (int i = 0; i < count; i++) {
+                lines[row + i] -= lineOffset;
+            }
+            System.arraycopy(lines, row, lines, dest, count);
+            System.arraycopy(startColumns, row, startColumns, dest, count);
+            System.arraycopy(endColumns, row, endColumns, dest, count);
+            if (inlayHints != null) {
+                System.arraycopy(inlayHints, row, inlayHints, dest, count);
+                clearInlayHints(row, Math.min(gapStart, dest));
+            }
+            gapStart = row;
+            gapEnd = dest;
+        } else if (row > gapStart) {
+            int count = row - gapStart;
+            for (int i = 0; i < count; i++) {
+                lines[gapEnd + i] += lineOffset;
+            }
+            System.arraycopy(lines, gapEnd, lines, gapStart, count);
+            System.arraycopy(startColumns, gapEnd, startColumns, gapStart, count);
+            System.arraycopy(endColumns, gapEnd, endColumns, gapStart, count);
+            if (inlayHints != null) {
+                System.arraycopy(inlayHints, gapEnd, inlayHints, gapStart, count);
+                clearInlayHints(Math.max(gapEnd, gapStart + count), gapEnd + count);
+            }
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private void clearInlayHints(int fromIndex, int toIndex) {
+        if (inlayHints != null && fromIndex < toIndex) {
+            Arrays.fill(inlayHints, fromIndex, toIndex, null);
+        }
+    }
+
+    /**
+     * Make sure the gap can hold at least {@code count} rows
+     */
+    private void ensureGap(int count) {
+        if (gapEnd - gapStart >= count) {
+            return;
+        }
+        int size = size();
+        int capacity = Math.max(lines.length * 2, size + count + 16);
+        int tail = lines.length - gapEnd;
+        int newGapEnd = capacity - tail;
+        lines = grow(lines, capacity, newGapEnd, tail);
+        startColumns = grow(startColumns, capacity, newGapEnd, tail);
+        endColumns = grow(endColumns, capacity, newGapEnd, tail);
+        if (inlayHints != null) {
+            //noinspection unchecked
+            List<InlayHint>[] newHints = new List[capacity];
+            System.arraycopy(inlayHints, 0, newHints, 0, gapStart);
+            System.arraycopy(inlayHints, gapEnd, newHints, newGapEnd, tail);
+            inlayHints = newHints;
+        }
+        gapEnd = newGapEnd;
+    }
+
+    private int[] grow(int[] array, int capacity, int newGapEnd, int tail) {
+        var result = new int[capacity];
+        System.arraycopy(array, 0, result, 0, gapStart);
+        System.arraycopy(array, gapEnd, result, newGapEnd, tail);
+        return result;
+    }
+
+}
@@ -39,7 +39,6 @@ import io.github.rosemoe.sora.lang.analysis.StyleUpdateRange;
 import io.github.rosemoe.sora.lang.styling.Span;
 import io.github.rosemoe.sora.lang.styling.SpanFactory;
 import io.github.rosemoe.sora.lang.styling.TextStyle;
-import io.github.rosemoe.sora.lang.styling.inlayHint.InlayHint;
 import io.github.rosemoe.sora.text.Content;
 import io.github.rosemoe.sora.text.ContentLine;
 import io.github.rosemoe.sora.util.IntPair;
@@ -71,12 +70,12 @@ public class WordwrapLayout extends AbstractLayout {
     private final int width;
     private final float miniGraphWidth;
     private final boolean antiWordBreaking;
-    private List<RowRegion> rowTable;
+    private RowTable rowTable;
 
     public WordwrapLayout(@NonNull CodeEditor editor, @NonNull Content text, boolean antiWordBreaking, @Nullable WordwrapLayout oldLayout, boolean clearCache) {
         super(editor, text);
         this.antiWordBreaking = antiWordBreaking;
-        rowTable = oldLayout != null ? oldLayout.rowTable : new ArrayList<>();
+        rowTable = oldLayout != null ? oldLayout.rowTable : new RowTable();
         if (clearCache) {
             rowTable.clear();
         }
@@ -94,7 +93,9 @@ public class WordwrapLayout extends AbstractLayout {
             if (editor != null) {
                 List<WordwrapResult> r2 = new ArrayList<>();
                 for (Object result : results) {
-                    r2.add((WordwrapResult) result);
+                    if (result != null) {
+                        r2.add((WordwrapResult) result);
+                    }
                 }
                 Collections.sort(r2);
                 editor.postInLifecycle(() -> {
@@ -103,14 +104,15 @@ public class WordwrapLayout extends AbstractLayout {
                         // See #307
                         return;
                     }
-                    if (rowTable != null) {
-                        rowTable.clear();
-                    } else {
-                        rowTable = new ArrayList<>();
+                    int rowCount = 0;
+                    for (WordwrapResult wordwrapResult : r2) {
+                        rowCount += wordwrapResult.rows.size();
                     }
+                    var table = new RowTable(rowCount);
                     for (WordwrapResult wordwrapResult : r2) {
-                        rowTable.addAll(wordwrapResult.regions);
+                        table.addAll(wordwrapResult.rows);
                     }
+                    rowTable = table;
                     editor.setLayoutBusy(false);
                     editor.getEventHandler().scrollBy(0, 0);
                 });
@@ -124,82 +126,49 @@ public class WordwrapLayout extends AbstractLayout {
         }
     }
 
+    /**
+     * Find the first row of the given line
+     */
     private int findRow(int line) {
-        int index;
-        // Binary find line
-        int left = 0, right = rowTable.size();
-        while (left <= right) {
-            var mid = (left + right) / 2;
-            if (mid < 0 || mid >= rowTable.size()) {
-                left = Math.max(0, Math.min(rowTable.size() - 1, mid));
-                break;
-            }
-            int value = rowTable.get(mid).line;
-            if (value < line) {
-                left = mid + 1;
-            } else if (value > line) {
-                right = mid - 1;
-            } else {
-                left = mid;
-                break;
-            }
-        }
-        index = left;
-        while (index > 0 && rowTable.get(index).startColumn > 0) {
-            index--;
+        int row = rowTable.lowerBound(line);
+        if (row == rowTable.size() && row > 0) {
+            // Line out of range, use the last line
+            row = rowTable.lowerBound(rowTable.getLine(row - 1));
         }
-        return index;
+        return row;
     }
 
     public int findRow(int line, int column) {
         int row = findRow(line);
-        while (rowTable.get(row).endColumn <= column && row + 1 < rowTable.size() && rowTable.get(row + 1).line == line) {
+        while (rowTable.getEndColumn(row) <= column && row + 1 < rowTable.size() && rowTable.getLine(row + 1) == line) {
             row++;
         }
         return row;
     }
 
-    private void breakLines(int startLine, int endLine) {
-        int insertPosition = 0;
-        while (insertPosition < rowTable.size()) {
-            if (rowTable.get(insertPosition).line < startLine) {
-                insertPosition++;
-            } else {
-                break;
-            }
-        }
-        while (insertPosition < rowTable.size()) {
-            int line = rowTable.get(insertPosition).line;
-            if (line >= startLine && line <= endLine) {
-                rowTable.remove(insertPosition);
-            } else {
-                break;
-            }
-        }
-        List<RowRegion> newRegions = new ArrayList<>();
+    /**
+     * Break the given lines
+     */
+    private RowTable breakLines(int startLine, int endLine) {
+        var rows = new RowTable(endLine - startLine + 1);
+        var paint = new Paint(editor.isRenderFunctionCharacters());
+        paint.set(editor.getTextPaint());
         for (int i = startLine; i <= endLine; i++) {
-            newRegions.addAll(breakLine(i, text.getLine(i), null));
+            breakLine(i, text.getLine(i), paint, rows);
         }
-        rowTable.addAll(insertPosition, newRegions);
+        return rows;
     }
 
     /**
-     * Break a single line
+     * Break a single line, and append its rows to the given table
      */
-    private List<RowRegion> breakLine(int line, ContentLine sequence, Paint paint) {
-        Paint p = paint;
-        if (p == null) {
-            p = new Paint(editor.isRenderFunctionCharacters());
-            p.set(editor.getTextPaint());
-        }
+    private void breakLine(int line, ContentLine sequence, Paint paint, RowTable dest) {
         var tr = new TextRow();
-        tr.set(sequence, 0, sequence.length(), sSpansForWordwrap, getInlayHints(line), text.getLineDirections(line), p, null, editor.getRenderer().createTextRowParams());
+        tr.set(sequence, 0, sequence.length(), sSpansForWordwrap, getInlayHints(line), text.getLineDirections(line), paint, null, editor.getRenderer().createTextRowParams());
         var rows = tr.breakText(width, antiWordBreaking);
-        var results = new ArrayList<RowRegion>();
         for (var row : rows) {
-            results.add(new RowRegion(line, row.startColumn, row.endColumn, row.inlayHints));
+            dest.add(line, row.startColumn, row.endColumn, row.inlayHints);
         }
-        return results;
     }
 
     @Override
@@ -210,38 +179,22 @@ public class WordwrapLayout extends AbstractLayout {
     @Override
     public void afterInsert(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence insertedContent) {
         super.afterInsert(content, startLine, startColumn, endLine, endColumn, insertedContent);
-        // Update line numbers
-        int delta = endLine - startLine;
-        if (delta != 0) {
-            for (int row = findRow(startLine + 1); row < rowTable.size(); row++) {
-                rowTable.get(row).line += delta;
-            }
+        if (rowTable.isEmpty()) {
+            // Layout is still in progress
+            return;
         }
-        // Re-break
-        breakLines(startLine, endLine);
+        // Old start line becomes the inserted lines, and later lines are shifted
+        rowTable.replaceLines(startLine, startLine, endLine, breakLines(startLine, endLine));
     }
 
     @Override
     public void afterDelete(@NonNull Content content, int startLine, int startColumn, int endLine, int endColumn, @NonNull CharSequence deletedContent) {
         super.afterDelete(content, startLine, startColumn, endLine, endColumn, deletedContent);
-        int delta = endLine - startLine;
-        if (delta != 0) {
-            int startRow = findRow(startLine);
-            while (startRow < rowTable.size()) {
-                int line = rowTable.get(startRow).line;
-                if (line >= startLine && line <= endLine) {
-                    rowTable.remove(startRow);
-                } else {
-                    break;
-                }
-            }
-            for (int row = findRow(endLine + 1); row < rowTable.size(); row++) {
-                var region = rowTable.get(row);
-                if (region.line >= endLine)
-                    region.line -= delta;
-            }
+        if (rowTable.isEmpty()) {
+            return;
         }
-        breakLines(startLine, startLine);
+        // Deleted lines are merged into the start line, and later lines are shifted
+        rowTable.replaceLines(startLine, endLine, startLine, breakLines(startLine, startLine));
     }
 
     @Override
@@ -262,7 +215,14 @@ public class WordwrapLayout extends AbstractLayout {
             r.inlayHints = getInlayHints(rowIndex);
             return r;
         }
-        return rowTable.get(rowIndex).toRow();
+        var row = new Row();
+        row.startColumn = rowTable.getStartColumn(rowIndex);
+        row.endColumn = rowTable.getEndColumn(rowIndex);
+        row.isLeadingRow = row.startColumn == 0;
+        row.lineIndex = rowTable.getLine(rowIndex);
+        var inlayHints = rowTable.getInlayHints(rowIndex);
+        row.inlayHints = inlayHints == null ? Collections.emptyList() : inlayHints;
+        return row;
     }
 
     @Override
@@ -270,7 +230,7 @@ public class WordwrapLayout extends AbstractLayout {
         if (rowTable.isEmpty()) {
             return Math.max(0, Math.min(row, text.getLineCount() - 1));
         }
-        return row >= rowTable.size() ? rowTable.get(rowTable.size() - 1).line : rowTable.get(row).line;
+        return rowTable.getLine(Math.min(row, rowTable.size() - 1));
     }
 
     @NonNull
@@ -293,11 +253,11 @@ public class WordwrapLayout extends AbstractLayout {
         }
         int row = findRow(line, column);
         if (row > 0) {
-            var offset = column - rowTable.get(row).startColumn;
-            var lastRow = rowTable.get(row - 1);
-            var max = lastRow.endColumn - lastRow.startColumn;
+            var offset = column - rowTable.getStartColumn(row);
+            var lastRowStart = rowTable.getStartColumn(row - 1);
+            var max = rowTable.getEndColumn(row - 1) - lastRowStart;
             offset = Math.min(offset, max);
-            return IntPair.pack(lastRow.line, lastRow.startColumn + offset);
+            return IntPair.pack(rowTable.getLine(row - 1), lastRowStart + offset);
         }
         return IntPair.pack(0, 0);
     }
@@ -318,11 +278,11 @@ public class WordwrapLayout extends AbstractLayout {
         }
         int row = findRow(line, column);
         if (row + 1 < rowTable.size()) {
-            var offset = column - rowTable.get(row).startColumn;
-            var nextRow = rowTable.get(row + 1);
-            var max = nextRow.endColumn - nextRow.startColumn;
+            var offset = column - rowTable.getStartColumn(row);
+            var nextRowStart = rowTable.getStartColumn(row + 1);
+            var max = rowTable.getEndColumn(row + 1) - nextRowStart;
             offset = Math.min(offset, max);
-            return IntPair.pack(nextRow.line, nextRow.startColumn + offset);
+            return IntPair.pack(rowTable.getLine(row + 1), nextRowStart + offset);
         } else {
             return IntPair.pack(line, text.getColumnCount(line));
         }
@@ -351,14 +311,12 @@ public class WordwrapLayout extends AbstractLayout {
         var column = pos.column;
         int row = findRow(line);
         if (row < rowTable.size()) {
-            var region = rowTable.get(row);
-            if (region.line != line) {
+            if (rowTable.getLine(row) != line) {
                 return 0;
             }
-            while (region.startColumn < column && row + 1 < rowTable.size()) {
+            while (rowTable.getStartColumn(row) < column && row + 1 < rowTable.size()) {
                 row++;
-                region = rowTable.get(row);
-                if (region.line != line || region.startColumn > column) {
+                if (rowTable.getLine(row) != line || rowTable.getStartColumn(row) > column) {
                     row--;
                     break;
                 }
@@ -370,10 +328,13 @@ public class WordwrapLayout extends AbstractLayout {
 
     @Override
     public void invalidateLines(StyleUpdateRange range) {
+        if (rowTable.isEmpty()) {
+            return;
+        }
         var itr = range.lineIndexIterator(text.getLineCount() - 1);
         while (itr.hasNext()) {
             var line = itr.nextInt();
-            breakLines(line, line);
+            rowTable.replaceLines(line, line, line, breakLines(line, line));
         }
     }
 
@@ -388,13 +349,12 @@ public class WordwrapLayout extends AbstractLayout {
         }
         int row = (int) (yOffset / editor.getRowHeight());
         row = Math.max(0, Math.min(row, rowTable.size() - 1));
-        RowRegion region = rowTable.get(row);
-        if (region.startColumn != 0) {
+        if (rowTable.getStartColumn(row) != 0) {
             xOffset -= miniGraphWidth;
         }
         var tr = editor.getRenderer().createTextRow(row);
         int column = tr.getIndexForCursorOffset(xOffset);
-        return IntPair.pack(region.line, column);
+        return IntPair.pack(rowTable.getLine(row), column);
     }
 
     @NonNull
@@ -411,24 +371,21 @@ public class WordwrapLayout extends AbstractLayout {
         }
         int row = findRow(line);
         if (row < rowTable.size()) {
-            RowRegion region = rowTable.get(row);
-            if (region.line != line) {
+            if (rowTable.getLine(row) != line) {
                 dest[0] = dest[1] = 0;
                 return dest;
             }
-            while (region.startColumn < column && row + 1 < rowTable.size()) {
+            while (rowTable.getStartColumn(row) < column && row + 1 < rowTable.size()) {
                 row++;
-                region = rowTable.get(row);
-                if (region.line != line || region.startColumn > column) {
+                if (rowTable.getLine(row) != line || rowTable.getStartColumn(row) > column) {
                     row--;
-                    region = rowTable.get(row);
                     break;
                 }
             }
             dest[0] = editor.getRowBottom(row);
             var tr = editor.getRenderer().createTextRow(row);
             dest[1] = tr.getCursorOffsetForIndex(column);
-            if (region.startColumn != 0) {
+            if (rowTable.getStartColumn(row) != 0) {
                 dest[1] += miniGraphWidth;
             }
         } else {
@@ -442,13 +399,7 @@ public class WordwrapLayout extends AbstractLayout {
         if (rowTable.isEmpty()) {
             return 1;
         }
-        int row = findRow(line);
-        int count = 0;
-        while (row < rowTable.size() && rowTable.get(row).line == line) {
-            count++;
-            row++;
-        }
-        return count;
+        return rowTable.lowerBound(line + 1) - rowTable.lowerBound(line);
     }
 
     /**
@@ -460,8 +411,8 @@ public class WordwrapLayout extends AbstractLayout {
         }
         int row = findRow(line);
         var list = new ArrayList<Integer>();
-        while (row < rowTable.size() && rowTable.get(row).line == line) {
-            var column = rowTable.get(row).startColumn;
+        while (row < rowTable.size() && rowTable.getLine(row) == line) {
+            var column = rowTable.getStartColumn(row);
             if (column != 0) {
                 list.add(column);
             }
@@ -478,49 +429,14 @@ public class WordwrapLayout extends AbstractLayout {
         return rowTable.size();
     }
 
-    static class RowRegion {
-
-        final int startColumn;
-        final int endColumn;
-        List<InlayHint> inlayHints;
-        int line;
-
-        RowRegion(int line, int start, int end, List<InlayHint> inlayHints) {
-            this.line = line;
-            startColumn = start;
-            endColumn = end;
-            this.inlayHints = inlayHints;
-        }
-
-        public Row toRow() {
-            var row = new Row();
-            row.isLeadingRow = startColumn == 0;
-            row.startColumn = startColumn;
-            row.endColumn = endColumn;
-            row.lineIndex = line;
-            row.inlayHints = inlayHints == null ? Collections.emptyList() : inlayHints;
-            return row;
-        }
-
-        @NonNull
-        @Override
-        public String toString() {
-            return "RowRegion{" +
-                    "startColumn=" + startColumn +
-                    ", endColumn=" + endColumn +
-                    ", line=" + line +
-                    '}';
-        }
-    }
-
     private static class WordwrapResult implements Comparable<WordwrapResult> {
 
         int index;
-        List<RowRegion> regions;
+        RowTable rows;
 
-        public WordwrapResult(int idx, List<RowRegion> r) {
+        public WordwrapResult(int idx, RowTable r) {
             index = idx;
-            regions = r;
+            rows = r;
         }
 
         @Override
@@ -546,12 +462,12 @@ public class WordwrapLayout extends AbstractLayout {
             if (!hasNext()) {
                 throw new NoSuchElementException();
             }
-            RowRegion region = rowTable.get(currentRow);
-            result.lineIndex = region.line;
-            result.startColumn = region.startColumn;
-            result.endColumn = region.endColumn;
-            result.inlayHints = region.inlayHints == null ? Collections.emptyList() : region.inlayHints;
-            result.isLeadingRow = currentRow <= 0 || rowTable.get(currentRow - 1).line != region.line;
+            result.lineIndex = rowTable.getLine(currentRow);
+            result.startColumn = rowTable.getStartColumn(currentRow);
+            result.endColumn = rowTable.getEndColumn(currentRow);
+            var inlayHints = rowTable.getInlayHints(currentRow);
+            result.inlayHints = inlayHints == null ? Collections.emptyList() : inlayHints;
+            result.isLeadingRow = currentRow <= 0 || rowTable.getLine(currentRow - 1) != result.lineIndex;
             currentRow++;
             return result;
         }
@@ -584,14 +500,14 @@ public class WordwrapLayout extends AbstractLayout {
 
         @Override
         protected WordwrapResult compute() {
-            var list = new ArrayList<RowRegion>();
+            var rows = new RowTable(end - start + 1);
             text.runReadActionsOnLines(start, end, (int index, ContentLine line, Content.ContentLineConsumer2.AbortFlag abortFlag) -> {
-                list.addAll(breakLine(index, line, paint));
+                breakLine(index, line, paint, rows);
                 if (!shouldRun()) {
                     abortFlag.set = true;
                 }
             });
-            return new WordwrapResult(id, list);
+            return new WordwrapResult(id, rows);
         }
     }
 
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.widget
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.util.LongArrayList
+import org.junit.Test
+import kotlin.random.Random
+
+class SearchMatcherTest {
+
+    private val alphabet = "aabbx yA\n_"
+
+    @Test
+    fun `test incremental literal search`() {
+        testRandomEdits("ab", EditorSearcher.SearchOptions.TYPE_NORMAL, false)
+        // Overlaps with itself, so an edit can move matches far after it
+        testRandomEdits("aa", EditorSearcher.SearchOptions.TYPE_NORMAL, false)
+        testRandomEdits("aba", EditorSearcher.SearchOptions.TYPE_NORMAL, true)
+        testRandomEdits("b\na", EditorSearcher.SearchOptions.TYPE_NORMAL, false)
+    }
+
+    @Test
+    fun `test incremental whole word search`() {
+        testRandomEdits("ab", EditorSearcher.SearchOptions.TYPE_WHOLE_WORD, false)
+        testRandomEdits("a a", EditorSearcher.SearchOptions.TYPE_WHOLE_WORD, true)
+        testRandomEdits("b\na", EditorSearcher.SearchOptions.TYPE_WHOLE_WORD, false)
+    }
+
+    @Test
+    fun `test incremental regex search`() {
+        testRandomEdits("a+b", EditorSearcher.SearchOptions.TYPE_REGULAR_EXPRESSION, false)
+        testRandomEdits("\\ba\\w*", EditorSearcher.SearchOptions.TYPE_REGULAR_EXPRESSION, true)
+        testRandomEdits("^a|b$", EditorSearcher.SearchOptions.TYPE_REGULAR_EXPRESSION, false)
+        testRandomEdits("a*", EditorSearcher.SearchOptions.TYPE_REGULAR_EXPRESSION, false)
+        testRandomEdits("(a|b)\\1", EditorSearcher.SearchOptions.TYPE_REGULAR_EXPRESSION, false)
+    }
+
+    @Test
+    fun `test multiline regex requires full search`() {
+        for (regex in listOf("a\\sb", "a\\nb", "[^a]+", "(?s)a.b", "(?is)a.b", "(?ms)a.b",
+            "(?is:a.b)", "(?u-i)(?x s-i)a.b", "a(?=b)", "a\nb")) {
+            val matcher = SearchMatcher(regex, EditorSearcher.SearchOptions(EditorSearcher.SearchOptions.TYPE_REGULAR_EXPRESSION, false))
+            assertThat(matcher.isIncremental).isFalse()
+            assertThat(matcher.update(Content("ab"), LongArrayList(), 0, 0, 1)).isNull()
+        }
+        assertThat(SearchMatcher.mayMatchLineSeparator("a.*b[cd]\\w+$")).isFalse()
+        for (regex in listOf("(?i)a.b", "(?-s)a.b", "(?i-s:a.b)", "(?:s)", "(s)")) {
+            assertThat(SearchMatcher.mayMatchLineSeparator(regex)).isFalse()
+        }
+    }
+
+    private fun testRandomEdits(pattern: String, type: Int, ignoreCase: Boolean) {
+        repeat(20) { seed ->
+            val random = Random(seed)
+            val matcher = SearchMatcher(pattern, EditorSearcher.SearchOptions(type, ignoreCase))
+            val content = Content(randomText(random, random.nextInt(2000)))
+            var results = matcher.searchAll(content.toString()) { false }
+            repeat(300) {
+                val length = content.length
+                val changeStart = random.nextInt(length + 1)
+                results = if (length == 0 || random.nextBoolean()) {
+                    val inserted = randomText(random, 1 + random.nextInt(if (random.nextInt(10) == 0) 200 else 6))
+                    val pos = content.indexer.getCharPosition(changeStart)
+                    content.insert(pos.line, pos.column, inserted)
+                    matcher.update(content, results, changeStart, changeStart, changeStart + inserted.length)!!
+                } else {
+                    val changeEnd = minOf(length, changeStart + 1 + random.nextInt(8))
+                    content.delete(changeStart, changeEnd)
+                    matcher.update(content, results, changeStart, changeEnd, changeStart)!!
+                }
+                val expected = matcher.searchAll(content.toString()) { false }
+                assertThat(results.toList()).isEqualTo(expected.toList())
+            }
+        }
+    }
+
+    private fun randomText(random: Random, length: Int): String {
+        val sb = StringBuilder(length)
+        repeat(length) {
+            sb.append(alphabet[random.nextInt(alphabet.length)])
+        }
+        return sb.toString()
+    }
+
+    private fun LongArrayList.toList() = List(size()) { get(it) }
+
+}
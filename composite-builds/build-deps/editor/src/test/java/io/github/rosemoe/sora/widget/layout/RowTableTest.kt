@@ -0,0 +1,164 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.widget.layout
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.styling.inlayHint.InlayHint
+import org.junit.Test
+import kotlin.random.Random
+
+class RowTableTest {
+
+    /**
+     * Row of the reference table, the same as the row objects previously kept by [WordwrapLayout]
+     */
+    private class RowRegion(var line: Int, val startColumn: Int, val endColumn: Int, val inlayHints: List<InlayHint>?)
+
+    @Test
+    fun `test random edits against list of rows`() {
+        repeat(50) { seed ->
+            val random = Random(seed)
+            val table = RowTable()
+            val reference = ArrayList<RowRegion>()
+            var lineCount = 1 + random.nextInt(200)
+            for (line in 0 until lineCount) {
+                for (row in breakLine(random, line)) {
+                    table.add(row.line, row.startColumn, row.endColumn, row.inlayHints)
+                    reference.add(row)
+                }
+            }
+            repeat(500) {
+                val startLine = random.nextInt(lineCount)
+                val oldEndLine = minOf(lineCount - 1, startLine + if (random.nextBoolean()) 0 else random.nextInt(5))
+                val newEndLine = startLine + if (random.nextBoolean()) 0 else random.nextInt(5)
+                val rows = RowTable()
+                val regions = ArrayList<RowRegion>()
+                for (line in startLine..newEndLine) {
+                    for (row in breakLine(random, line)) {
+                        rows.add(row.line, row.startColumn, row.endColumn, row.inlayHints)
+                        regions.add(row)
+                    }
+                }
+                table.replaceLines(startLine, oldEndLine, newEndLine, rows)
+                replaceLines(reference, startLine, oldEndLine, newEndLine, regions)
+                lineCount += newEndLine - oldEndLine
+
+                assertThat(table.size()).isEqualTo(reference.size)
+                for (i in reference.indices) {
+                    assertThat(table.getLine(i)).isEqualTo(reference[i].line)
+                    assertThat(table.getStartColumn(i)).isEqualTo(reference[i].startColumn)
+                    assertThat(table.getEndColumn(i)).isEqualTo(reference[i].endColumn)
+                    assertThat(table.getInlayHints(i)).isSameInstanceAs(reference[i].inlayHints)
+                }
+                val line = random.nextInt(lineCount + 1)
+                assertThat(table.lowerBound(line)).isEqualTo(reference.indexOfFirst { it.line >= line }.let { if (it == -1) reference.size else it })
+            }
+        }
+    }
+
+    @Test
+    fun `benchmark edits on a large file`() {
+        val lineCount = 100_000
+        val edits = 2_000
+        val random = Random(42)
+        val rowsOfLines = Array(lineCount) { breakLine(random, it, withInlayHints = false) }
+
+        System.gc()
+        val memoryBefore = usedMemory()
+        val table = RowTable()
+        rowsOfLines.forEach { rows -> rows.forEach { table.add(it.line, it.startColumn, it.endColumn, null) } }
+        System.gc()
+        val tableMemory = usedMemory() - memoryBefore
+
+        val reference = ArrayList<RowRegion>()
+        rowsOfLines.forEach { rows -> rows.forEach { reference.add(RowRegion(it.line, it.startColumn, it.endColumn, null)) } }
+        System.gc()
+        val referenceMemory = usedMemory() - memoryBefore - tableMemory
+
+        // Typing with occasional line breaks around the middle of file
+        fun editAt(i: Int): Triple<Int, Int, Int> {
+            val startLine = lineCount / 2 + i % 50
+            return if (i % 10 == 0) Triple(startLine, startLine, startLine + 1) else Triple(startLine, startLine, startLine)
+        }
+
+        var editRandom = Random(7)
+        var start = System.nanoTime()
+        for (i in 0 until edits) {
+            val (startLine, oldEndLine, newEndLine) = editAt(i)
+            val regions = (startLine..newEndLine).flatMap { breakLine(editRandom, it, withInlayHints = false) }
+            replaceLines(reference, startLine, oldEndLine, newEndLine, regions)
+        }
+        val referenceNanos = (System.nanoTime() - start) / edits
+
+        editRandom = Random(7)
+        start = System.nanoTime()
+        for (i in 0 until edits) {
+            val (startLine, oldEndLine, newEndLine) = editAt(i)
+            val rows = RowTable()
+            (startLine..newEndLine).flatMap { breakLine(editRandom, it, withInlayHints = false) }
+                .forEach { rows.add(it.line, it.startColumn, it.endColumn, null) }
+            table.replaceLines(startLine, oldEndLine, newEndLine, rows)
+        }
+        val tableNanos = (System.nanoTime() - start) / edits
+
+        println("${reference.size} rows: list of rows ${referenceMemory / 1024} KiB, ${referenceNanos / 1000} us/edit; " +
+                "row table ${tableMemory / 1024} KiB, ${tableNanos / 1000} us/edit")
+        assertThat(table.size()).isEqualTo(reference.size)
+        assertThat(rowsOfLines.size).isEqualTo(lineCount)
+    }
+
+    private fun usedMemory(): Long {
+        val runtime = Runtime.getRuntime()
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    private fun breakLine(random: Random, line: Int, withInlayHints: Boolean = true): List<RowRegion> {
+        val rowCount = 1 + random.nextInt(3)
+        return List(rowCount) {
+            val hints = if (withInlayHints && random.nextInt(20) == 0) listOf(InlayHint(line, it * 80, "test")) else null
+            RowRegion(line, it * 80, (it + 1) * 80, hints)
+        }
+    }
+
+    /**
+     * Splice the same way as previous [WordwrapLayout] did on a list of rows
+     */
+    private fun replaceLines(rows: MutableList<RowRegion>, startLine: Int, oldEndLine: Int, newEndLine: Int, newRows: List<RowRegion>) {
+        var insertPosition = 0
+        while (insertPosition < rows.size && rows[insertPosition].line < startLine) {
+            insertPosition++
+        }
+        while (insertPosition < rows.size && rows[insertPosition].line <= oldEndLine) {
+            rows.removeAt(insertPosition)
+        }
+        val delta = newEndLine - oldEndLine
+        if (delta != 0) {
+            for (i in insertPosition until rows.size) {
+                rows[i].line += delta
+            }
+        }
+        rows.addAll(insertPosition, newRows)
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ */
+package io.github.rosemoe.sora.langs.textmate;
+
+import androidx.annotation.Nullable;
+
+import org.eclipse.tm4e.core.grammar.IStateStack;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Keeps one canonical instance for each distinct tokenizer rule stack, so that equal states of
+ * different lines share the same object, and comparing them is a reference check.
+ * <p>
+ * Stacks are only weakly held, so a stack is dropped once no line state refers to it anymore and
+ * the table does not grow with every state the document has ever had.
+ * <p>
+ * Not thread-safe.
+ *
+ * @author Rosemoe
+ */
+final class StateInterner {
+
+    private final Map<IStateStack, WeakReference<IStateStack>> stacks = new WeakHashMap<>();
+
+    /**
+     * Get the canonical instance of the given stack
+     */
+    @Nullable
+    IStateStack intern(@Nullable IStateStack stack) {
+        if (stack == null) {
+            return null;
+        }
+        var ref = stacks.get(stack);
+        var canonical = ref == null ? null : ref.get();
+        if (canonical != null) {
+            return canonical;
+        }
+        stacks.put(stack, new WeakReference<>(stack));
+        return stack;
+    }
+
+    /**
+     * Count of stacks which are still referenced
+     */
+    int size() {
+        return stacks.size();
+    }
+
+    void clear() {
+        stacks.clear();
+    }
+
+}
@@ -43,7 +43,6 @@ import org.eclipse.tm4e.languageconfiguration.internal.model.LanguageConfigurati
 import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
 
 import io.github.rosemoe.sora.lang.analysis.AsyncIncrementalAnalyzeManager;
 import io.github.rosemoe.sora.lang.brackets.BracketsProvider;
@@ -79,6 +78,11 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
     private OnigRegExp cachedRegExp;
     private boolean foldingOffside;
     private BracketsProvider bracketsProvider;
+    /**
+     * Rule stacks of line states are interned, so that {@link #stateEquals(MyState, MyState)} is a
+     * reference check. Guarded by this analyzer's lock, like {@link #tokenizeLine(CharSequence, MyState, int)}.
+     */
+    private final StateInterner stateInterner = new StateInterner();
     final IdentifierAutoComplete.SyncIdentifiers syncIdentifiers = new IdentifierAutoComplete.SyncIdentifiers();
 
 
@@ -147,7 +151,8 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
             return true;
         }
         if (state != null && another != null) {
-            return Objects.equals(state.tokenizeState, another.tokenizeState);
+            // Both are interned in tokenizeLine
+            return state.tokenizeState == another.tokenizeState;
         }
         return false;
     }
@@ -253,7 +258,7 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
 
             tokens.add(span);
         }
-        return new LineTokenizeResult<>(new MyState(lineTokens.getRuleStack(), cachedRegExp == null ? null : cachedRegExp.search(OnigString.of(line), 0), IndentRange.computeIndentLevel(((ContentLine) lineC).getBackingCharArray(), line.length() - 1, language.getTabSize()), identifiers), null, tokens);
+        return new LineTokenizeResult<>(new MyState(stateInterner.intern(lineTokens.getRuleStack()), cachedRegExp == null ? null : cachedRegExp.search(OnigString.of(line), 0), IndentRange.computeIndentLevel(((ContentLine) lineC).getBackingCharArray(), line.length() - 1, language.getTabSize()), identifiers), null, tokens);
     }
 
     @Override
@@ -278,6 +283,10 @@ public class TextMateAnalyzer extends AsyncIncrementalAnalyzeManager<MyState, Sp
 
     @Override
     public void reset(@NonNull ContentReference content, @NonNull Bundle extraArguments) {
+        synchronized (this) {
+            // All states are computed again
+            stateInterner.clear();
+        }
         super.reset(content, extraArguments);
         syncIdentifiers.clear();
     }
@@ -123,6 +123,19 @@ public final class AttributedScopeStack {
 		} while (true);
 	}
 
+	/**
+	 * Hash code consistent with {@link #equals(AttributedScopeStack, AttributedScopeStack)}
+	 */
+	public static int hashCode(@Nullable AttributedScopeStack a) {
+		int result = 1;
+		while (a != null) {
+			result = 31 * result + a.tokenAttributes;
+			result = 31 * result + Objects.hashCode(a.scopeName());
+			a = a.parent;
+		}
+		return result;
+	}
+
 	public static int mergeAttributes(
 			final int existingTokenAttributes,
 			final BasicScopeAttributes basicScopeAttributes,
@@ -192,13 +192,22 @@ public final class StateStack implements IStateStack {
 		return depth;
 	}
 
+	/**
+	 * Consistent with {@link #equals(Object)}: hashes the same fields as {@link #_structuralEquals} along
+	 * the whole stack, and only the `contentNameScopesList` of this element.
+	 */
 	@Override
 	public int hashCode() {
-		int result = 31 + Objects.hashCode(contentNameScopesList);
-		result = 31 * result + Objects.hashCode(endRule);
-		result = 31 * result + Objects.hashCode(parent);
-		result = 31 * result + Objects.hashCode(ruleId);
-		return 31 * result + depth;
+		int result = 31 + AttributedScopeStack.hashCode(contentNameScopesList);
+		@Nullable
+		StateStack el = this;
+		while (el != null) {
+			result = 31 * result + Objects.hashCode(el.endRule);
+			result = 31 * result + Objects.hashCode(el.ruleId);
+			result = 31 * result + el.depth;
+			el = el.parent;
+		}
+		return result;
 	}
 
 	void reset() {
@@ -0,0 +1,379 @@
+/**
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.eclipse.tm4e.core.internal.oniguruma.impl.joni;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Cheap check of where a match of a pattern may start, done before running Joni.
+ * <p>
+ * Built from the pattern source: either a literal that every match starts with, or the set of
+ * bytes a match can start with (for alternations of literals). Zero-width assertions (`^`, `\b`,
+ * lookaround) before the literal are skipped over. Patterns that cannot be analyzed safely
+ * (ignore-case, inline options, `\G`, ...) get no prefilter.
+ */
+final class JoniOnigPrefilter {
+
+	/**
+	 * UTF-8 bytes every match starts with, or null
+	 */
+	@Nullable
+	private final byte[] literal;
+
+	/**
+	 * Bytes a match can start with, indexed by unsigned byte value. Null if {@link #literal} is set.
+	 */
+	@Nullable
+	private final boolean[] firstBytes;
+
+	private JoniOnigPrefilter(@Nullable final byte[] literal, @Nullable final boolean[] firstBytes) {
+		this.literal = literal;
+		this.firstBytes = firstBytes;
+	}
+
+	/**
+	 * @return null if nothing is known about the start of matches
+	 */
+	@Nullable
+	static JoniOnigPrefilter of(final String pattern, final boolean ignoreCase) {
+		if (ignoreCase || pattern.contains("\\G") || pattern.contains("(?#")) {
+			return null;
+		}
+		try {
+			final var parser = new Parser(pattern);
+			final var prefix = parser.parseAlternation();
+			if (parser.unsupported || parser.pos != pattern.length()) {
+				return null;
+			}
+			if (!prefix.literal.isEmpty()) {
+				return new JoniOnigPrefilter(prefix.literal.getBytes(StandardCharsets.UTF_8), null);
+			}
+			if (prefix.firstBytes != null) {
+				return new JoniOnigPrefilter(null, prefix.firstBytes);
+			}
+		} catch (final IndexOutOfBoundsException ex) {
+			// Malformed pattern, Joni reports it
+		}
+		return null;
+	}
+
+	/**
+	 * @return the required leading literal of matches, or null
+	 */
+	@Nullable
+	String literal() {
+		return literal == null ? null : new String(literal, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the first byte index in [start, end) where a match may start, or -1 if there is none
+	 */
+	int nextCandidate(final byte[] data, final int start, final int end) {
+		final var literal = this.literal;
+		if (literal != null) {
+			final byte first = literal[0];
+			final int last = end - literal.length;
+			outer: for (int i = start; i <= last; i++) {
+				if (data[i] != first) {
+					continue;
+				}
+				for (int j = 1; j < literal.length; j++) {
+					if (data[i + j] != literal[j]) {
+						continue outer;
+					}
+				}
+				return i;
+			}
+			return -1;
+		}
+		final var firstBytes = this.firstBytes;
+		if (firstBytes != null) {
+			for (int i = start; i < end; i++) {
+				if (firstBytes[data[i] & 0xFF]) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		return start;
+	}
+
+	/**
+	 * What is known about the start of a (sub) pattern
+	 */
+	private static final class Prefix {
+
+		/**
+		 * Literal every match starts with, may be empty
+		 */
+		final String literal;
+
+		/**
+		 * Whether the whole sub pattern matches exactly {@link #literal}, so that what follows it
+		 * can be appended
+		 */
+		final boolean complete;
+
+		/**
+		 * Possible first bytes, when {@link #literal} is empty
+		 */
+		@Nullable
+		final boolean[] firstBytes;
+
+		Prefix(final String literal, final boolean complete, @Nullable final boolean[] firstBytes) {
+			this.literal = literal;
+			this.complete = complete;
+			this.firstBytes = firstBytes;
+		}
+	}
+
+	/**
+	 * Conservative reader of Oniguruma (Ruby syntax) patterns. It only understands enough to find
+	 * the leading literal, and skips over the rest.
+	 */
+	private static final class Parser {
+
+		private final String pattern;
+		int pos;
+		boolean unsupported;
+
+		Parser(final String pattern) {
+			this.pattern = pattern;
+		}
+
+		private boolean at(final String s) {
+			return pattern.startsWith(s, pos);
+		}
+
+		Prefix parseAlternation() {
+			final var first = parseSequence();
+			if (pos >= pattern.length() || pattern.charAt(pos) != '|') {
+				return first;
+			}
+			var common = first.literal;
+			final var bytes = new boolean[256];
+			var known = addFirstBytes(bytes, first);
+			while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+				pos++;
+				final var branch = parseSequence();
+				common = commonPrefix(common, branch.literal);
+				known &= addFirstBytes(bytes, branch);
+			}
+			return new Prefix(common, false, known ? bytes : null);
+		}
+
+		private Prefix parseSequence() {
+			final var sb = new StringBuilder();
+			var complete = true;
+			boolean[] firstBytes = null;
+			while (pos < pattern.length()) {
+				final char c = pattern.charAt(pos);
+				if (c == '|' || c == ')') {
+					break;
+				}
+				if (!complete) {
+					skipAtom();
+					continue;
+				}
+				switch (c) {
+					case '\\': {
+						final char escaped = pattern.charAt(pos + 1);
+						if (escaped == 'b' || escaped == 'B' || escaped == 'A') {
+							// Zero-width
+							pos += 2;
+						} else if (Character.isLetterOrDigit(escaped) || Character.isSurrogate(escaped)) {
+							// Classes, anchors, back references, code points ...
+							complete = false;
+						} else {
+							pos += 2;
+							sb.append(escaped);
+							complete = afterLiteral(sb, 1);
+						}
+						break;
+					}
+					case '(': {
+						if (at("(?=") || at("(?!") || at("(?<=") || at("(?<!")) {
+							// Zero-width
+							skipGroup();
+							break;
+						}
+						if (at("(?:") || at("(?>")) {
+							pos += 3;
+						} else if (at("(?<") || at("(?'")) {
+							final int nameEnd = pattern.indexOf(at("(?<") ? '>' : '\'', pos + 3);
+							if (nameEnd == -1) {
+								unsupported = true;
+								return new Prefix("", false, null);
+							}
+							pos = nameEnd + 1;
+						} else if (at("(?")) {
+							// Options, absent operator, conditionals
+							unsupported = true;
+							return new Prefix("", false, null);
+						} else {
+							pos++;
+						}
+						final var inner = parseAlternation();
+						if (pos >= pattern.length() || pattern.charAt(pos) != ')') {
+							unsupported = true;
+							return new Prefix("", false, null);
+						}
+						pos++;
+						if (isQuantifier(true)) {
+							// The group may be absent
+							complete = false;
+							break;
+						}
+						if (sb.length() == 0 && inner.literal.isEmpty()) {
+							firstBytes = inner.firstBytes;
+						}
+						sb.append(inner.literal);
+						complete = inner.complete && !isQuantifier(false);
+						break;
+					}
+					case '^':
+						pos++;
+						break;
+					case '[':
+					case '.':
+					case '$':
+					case '?':
+					case '*':
+					case '+':
+					case '{':
+						complete = false;
+						break;
+					default: {
+						final int codePoint = pattern.codePointAt(pos);
+						final int count = Character.charCount(codePoint);
+						pos += count;
+						sb.appendCodePoint(codePoint);
+						complete = afterLiteral(sb, count);
+					}
+				}
+			}
+			return new Prefix(sb.toString(), complete, sb.length() == 0 ? firstBytes : null);
+		}
+
+		/**
+		 * Check the quantifier after a literal of {@code count} chars, just appended to {@code sb}.
+		 * The literal is removed if it is optional.
+		 *
+		 * @return whether following atoms can be appended
+		 */
+		private boolean afterLiteral(final StringBuilder sb, final int count) {
+			if (isQuantifier(true)) {
+				sb.setLength(sb.length() - count);
+				return false;
+			}
+			return !isQuantifier(false);
+		}
+
+		/**
+		 * @param optional true to check for quantifiers that allow zero repetition (and `{`, which
+		 *                 is not parsed), false for `+`
+		 */
+		private boolean isQuantifier(final boolean optional) {
+			if (pos >= pattern.length()) {
+				return false;
+			}
+			final char c = pattern.charAt(pos);
+			return optional ? c == '?' || c == '*' || c == '{' : c == '+';
+		}
+
+		private void skipAtom() {
+			final char c = pattern.charAt(pos);
+			if (c == '\\') {
+				pos += 2;
+			} else if (c == '[') {
+				skipClass();
+			} else if (c == '(') {
+				skipGroup();
+			} else {
+				pos++;
+			}
+		}
+
+		private void skipGroup() {
+			int depth = 0;
+			while (true) {
+				final char c = pattern.charAt(pos);
+				if (c == '\\') {
+					pos += 2;
+					continue;
+				}
+				if (c == '[') {
+					skipClass();
+					continue;
+				}
+				pos++;
+				if (c == '(') {
+					depth++;
+				} else if (c == ')' && --depth == 0) {
+					return;
+				}
+			}
+		}
+
+		private void skipClass() {
+			pos++;
+			if (pattern.charAt(pos) == '^') {
+				pos++;
+			}
+			if (pattern.charAt(pos) == ']') {
+				// Literal at the start of class
+				pos++;
+			}
+			while (true) {
+				final char c = pattern.charAt(pos);
+				if (c == '\\') {
+					pos += 2;
+					continue;
+				}
+				if (c == '[') {
+					// Nested class or POSIX bracket
+					skipClass();
+					continue;
+				}
+				pos++;
+				if (c == ']') {
+					return;
+				}
+			}
+		}
+
+		private static boolean addFirstBytes(final boolean[] bytes, final Prefix prefix) {
+			if (!prefix.literal.isEmpty()) {
+				bytes[prefix.literal.getBytes(StandardCharsets.UTF_8)[0] & 0xFF] = true;
+				return true;
+			}
+			final var firstBytes = prefix.firstBytes;
+			if (firstBytes != null) {
+				for (int i = 0; i < bytes.length; i++) {
+					bytes[i] |= firstBytes[i];
+				}
+				return true;
+			}
+			return false;
+		}
+
+		private static String commonPrefix(final String a, final String b) {
+			int length = 0;
+			final int max = Math.min(a.length(), b.length());
+			while (length < max && a.charAt(length) == b.charAt(length)) {
+				length++;
+			}
+			if (length > 0 && length < a.length() && Character.isHighSurrogate(a.charAt(length - 1))) {
+				length--;
+			}
+			return a.substring(0, length);
+		}
+	}
+}
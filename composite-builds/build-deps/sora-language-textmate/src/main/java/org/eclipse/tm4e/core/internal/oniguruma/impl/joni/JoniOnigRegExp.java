@@ -54,6 +54,14 @@ public final class JoniOnigRegExp implements OnigRegExp {
 
     private final boolean hasGAnchor;
 
+    /**
+     * Can be turned off to compare with plain Joni search
+     */
+    static boolean usePrefilter = true;
+
+    @Nullable
+    private final JoniOnigPrefilter prefilter;
+
     /**
      * @throws TMException if parsing fails
      */
@@ -67,6 +75,7 @@ public final class JoniOnigRegExp implements OnigRegExp {
     public JoniOnigRegExp(final String pattern, final boolean ignoreCase) {
         this.pattern = pattern;
         hasGAnchor = pattern.contains("\\G");
+        prefilter = JoniOnigPrefilter.of(pattern, ignoreCase);
         final byte[] patternBytes = pattern.getBytes(StandardCharsets.UTF_8);
         try {
             int options = Option.CAPTURE_GROUP;
@@ -108,10 +117,24 @@ public final class JoniOnigRegExp implements OnigRegExp {
         return lastSearchResult;
     }
 
+    /**
+     * @return the first byte index in [start, end) where a match may start, or -1 if the pattern
+     * cannot match there. This is only a quick check on the pattern's leading literal.
+     */
+    int nextCandidate(final byte[] data, final int start, final int end) {
+        final var prefilter = this.prefilter;
+        return prefilter == null || !usePrefilter ? start : prefilter.nextCandidate(data, start, end);
+    }
+
     @Nullable
     private JoniOnigResult search(final byte[] data, final int startPosition, final int end) {
+        // No match starts before the candidate, so searching from it finds the same match
+        final int start = nextCandidate(data, startPosition, end);
+        if (start == -1) {
+            return null;
+        }
         final Matcher matcher = regex.matcher(data);
-        final int status = matcher.search(startPosition, end, Option.DEFAULT);
+        final int status = matcher.search(start, end, Option.DEFAULT);
         if (status != Matcher.FAILED) {
             final Region region = matcher.getEagerRegion();
             return new JoniOnigResult(region, -1);
@@ -54,12 +54,19 @@ final class JoniOnigSearcher {
 	@Nullable
 	public JoniOnigResult search(final OnigString source, final int charOffset) {
 		final int byteOffset = source.getByteIndexOfChar(charOffset);
+		final byte[] data = source.getUtf8Bytes();
 
 		int bestLocation = 0;
 		JoniOnigResult bestResult = null;
 		int index = 0;
 
 		for (final var regExp : regExps) {
+			// Skip patterns that cannot match before the best match so far
+			final int candidate = regExp.nextCandidate(data, byteOffset, source.bytesCount);
+			if (candidate == -1 || bestResult != null && candidate >= bestLocation) {
+				index++;
+				continue;
+			}
 			final var result = regExp.search(source, byteOffset);
 			if (result != null && result.count() > 0) {
 				final int location = result.locationAt(0);
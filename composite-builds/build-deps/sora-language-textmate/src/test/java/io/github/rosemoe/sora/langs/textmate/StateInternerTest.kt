@@ -0,0 +1,185 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.langs.textmate
+
+import org.eclipse.tm4e.core.grammar.IGrammar
+import org.eclipse.tm4e.core.grammar.IStateStack
+import org.eclipse.tm4e.core.registry.IGrammarSource
+import org.eclipse.tm4e.core.registry.Registry
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.random.Random
+
+class StateInternerTest {
+
+    private val grammarJson = """
+        {
+          "scopeName": "source.test",
+          "patterns": [ { "include": "#code" } ],
+          "repository": {
+            "code": {
+              "patterns": [
+                { "begin": "/\\*", "end": "\\*/", "name": "comment.block.test" },
+                { "match": "//.*$", "name": "comment.line.test" },
+                { "begin": "\"", "end": "\"", "name": "string.quoted.test" },
+                { "match": "\\b(class|void|int|return|if|else)\\b", "name": "keyword.test" },
+                { "begin": "\\{", "end": "\\}", "name": "meta.block.test", "patterns": [ { "include": "#code" } ] }
+              ]
+            }
+          }
+        }
+    """.trimIndent()
+
+    private fun loadGrammar(): IGrammar {
+        return Registry().addGrammar(IGrammarSource.fromString(IGrammarSource.ContentType.JSON, grammarJson))
+    }
+
+    private fun generateLines(count: Int): MutableList<String> {
+        val random = Random(42)
+        val lines = ArrayList<String>(count)
+        lines.add("class Test {")
+        while (lines.size < count - 1) {
+            lines.add("    /* method ${lines.size}")
+            lines.add("     * returns a value */")
+            lines.add("    int method${lines.size}(int a) {")
+            repeat(1 + random.nextInt(5)) {
+                lines.add("        if (a > ${random.nextInt(100)}) { a = a * 2; } // twice")
+                lines.add("        log(\"value \" + a);")
+            }
+            lines.add("        return a;")
+            lines.add("    }")
+        }
+        lines.add("}")
+        return lines
+    }
+
+    /**
+     * Tokenize lines until the end state of a line is the same instance as the cached one, in the
+     * same way as [io.github.rosemoe.sora.lang.analysis.AsyncIncrementalAnalyzeManager] does after
+     * an edit on a single line.
+     *
+     * @return Count of tokenized lines
+     */
+    private fun retokenize(grammar: IGrammar, interner: StateInterner, lines: List<String>, states: MutableList<IStateStack?>, startLine: Int): Int {
+        var state = if (startLine == 0) null else states[startLine - 1]
+        var line = startLine
+        while (line < lines.size) {
+            val newState = interner.intern(grammar.tokenizeLine2(lines[line] + "\n", state, null).ruleStack)
+            val old = states.set(line, newState)
+            line++
+            if (old === newState) {
+                break
+            }
+            state = newState
+        }
+        return line - startLine
+    }
+
+    private fun tokenizeAll(grammar: IGrammar, interner: StateInterner, lines: List<String>): MutableList<IStateStack?> {
+        val states = ArrayList<IStateStack?>(lines.size)
+        var state: IStateStack? = null
+        for (line in lines) {
+            state = interner.intern(grammar.tokenizeLine2(line + "\n", state, null).ruleStack)
+            states.add(state)
+        }
+        return states
+    }
+
+    @Test
+    fun `test equal states are interned`() {
+        val grammar = loadGrammar()
+        val interner = StateInterner()
+        val lines = generateLines(2000)
+        val states = tokenizeAll(grammar, interner, lines)
+        // Much fewer distinct states than lines
+        assertTrue(interner.size() < 20)
+        val fresh = tokenizeAll(grammar, StateInterner(), lines)
+        for (i in lines.indices) {
+            assertEquals(fresh[i], states[i])
+            assertEquals(fresh[i].hashCode(), states[i].hashCode())
+        }
+        for (i in 1 until lines.size) {
+            if (states[i] == states[i - 1]) {
+                assertSame(states[i], states[i - 1])
+            }
+        }
+    }
+
+    @Test
+    fun `test unused states are released`() {
+        val grammar = loadGrammar()
+        val interner = StateInterner()
+        var states: List<IStateStack?>? = tokenizeAll(grammar, interner, generateLines(2000))
+        assertTrue(states!!.isNotEmpty() && interner.size() > 0)
+
+        // All lines are tokenized again, e.g. after the text is replaced
+        states = null
+        var attempts = 0
+        while (interner.size() > 0 && attempts++ < 50) {
+            System.gc()
+            Thread.sleep(10)
+        }
+        assertEquals(0, interner.size())
+    }
+
+    @Test
+    fun `benchmark retokenized lines per single character edit`() {
+        val grammar = loadGrammar()
+        val interner = StateInterner()
+        val lines = generateLines(20_000)
+        val states = tokenizeAll(grammar, interner, lines)
+        val random = Random(7)
+
+        // Typing in code, in a comment, and opening or closing a construct
+        val edits = listOf("x" to "identifier", "*" to "operator", "\"" to "quote", "{" to "brace", "/" to "slash")
+        for ((text, kind) in edits) {
+            var lineCount = 0L
+            var count = 0
+            val start = System.nanoTime()
+            repeat(100) {
+                val line = 1 + random.nextInt(lines.size - 2)
+                val original = lines[line]
+                val column = random.nextInt(original.length + 1)
+                lines[line] = original.substring(0, column) + text + original.substring(column)
+                lineCount += retokenize(grammar, interner, lines, states, line)
+                // Undo
+                lines[line] = original
+                lineCount += retokenize(grammar, interner, lines, states, line)
+                count += 2
+            }
+            val micros = (System.nanoTime() - start) / 1000 / count
+            println("Insert or remove '$text' ($kind) on ${lines.size} lines: ${lineCount.toDouble() / count} lines/edit, $micros us/edit")
+        }
+
+        // Cached states are still correct after all the edits
+        val expected = tokenizeAll(grammar, interner, lines)
+        for (i in lines.indices) {
+            assertSame(expected[i], states[i])
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+/**
+ * This program and the accompanying materials are made
+ * available under the terms of the Eclipse Public License 2.0
+ * which is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.eclipse.tm4e.core.internal.oniguruma.impl.joni
+
+import org.eclipse.tm4e.core.grammar.IGrammar
+import org.eclipse.tm4e.core.grammar.IStateStack
+import org.eclipse.tm4e.core.internal.oniguruma.OnigString
+import org.eclipse.tm4e.core.registry.IGrammarSource
+import org.eclipse.tm4e.core.registry.Registry
+import org.jcodings.specific.UTF8Encoding
+import org.joni.Matcher
+import org.joni.Option
+import org.joni.Regex
+import org.joni.Syntax
+import org.joni.WarnCallback
+import org.joni.exception.JOniException
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assume.assumeTrue
+import org.junit.Test
+import java.io.File
+import kotlin.random.Random
+
+class JoniOnigSearcherTest {
+
+    /**
+     * Search without prefilter, in the same way as [JoniOnigSearcher] did before it had one
+     *
+     * @return index of regex, start and end of each group, or null if nothing matches
+     */
+    private fun referenceSearch(regexes: List<Regex>, source: OnigString, charOffset: Int): IntArray? {
+        val byteOffset = source.getByteIndexOfChar(charOffset)
+        var best: IntArray? = null
+        for ((index, regex) in regexes.withIndex()) {
+            val matcher = regex.matcher(source.utf8Bytes)
+            if (matcher.search(byteOffset, source.bytesCount, Option.DEFAULT) == Matcher.FAILED) {
+                continue
+            }
+            val region = matcher.eagerRegion
+            val location = maxOf(region.getBeg(0), 0)
+            if (best == null || location < best[1]) {
+                best = IntArray(1 + region.numRegs * 2)
+                best[0] = index
+                for (i in 0 until region.numRegs) {
+                    best[1 + i * 2] = maxOf(region.getBeg(i), 0)
+                    best[2 + i * 2] = maxOf(region.getBeg(i), 0) + maxOf(region.getEnd(i) - region.getBeg(i), 0)
+                }
+            }
+            if (location == byteOffset) {
+                break
+            }
+        }
+        return best
+    }
+
+    private fun search(searcher: JoniOnigSearcher, source: OnigString, charOffset: Int): IntArray? {
+        val result = searcher.search(source, charOffset) ?: return null
+        val groups = IntArray(1 + result.count() * 2)
+        groups[0] = result.indexOfRegex
+        for (i in 0 until result.count()) {
+            groups[1 + i * 2] = result.locationAt(i)
+            groups[2 + i * 2] = result.locationAt(i) + result.lengthAt(i)
+        }
+        return groups
+    }
+
+    private fun compile(pattern: String): Regex? {
+        val bytes = pattern.toByteArray()
+        return try {
+            Regex(bytes, 0, bytes.size, Option.CAPTURE_GROUP, UTF8Encoding.INSTANCE, Syntax.DEFAULT, WarnCallback.NONE)
+        } catch (e: JOniException) {
+            null
+        }
+    }
+
+    @Test
+    fun `test prefilter literals`() {
+        assertEquals("class", JoniOnigPrefilter.of("\\bclass\\b", false)!!.literal())
+        assertEquals("foo", JoniOnigPrefilter.of("(?<=\\.)foo", false)!!.literal())
+        assertEquals("a", JoniOnigPrefilter.of("ab?c", false)!!.literal())
+        assertEquals("ab", JoniOnigPrefilter.of("ab+c", false)!!.literal())
+        assertEquals("fo", JoniOnigPrefilter.of("(?:foo|for)\\b", false)!!.literal())
+        assertEquals("abc", JoniOnigPrefilter.of("(?<name>ab)c", false)!!.literal())
+        assertEquals("/**", JoniOnigPrefilter.of("/\\*\\*", false)!!.literal())
+        // First bytes only
+        assertNull(JoniOnigPrefilter.of("(\\()|(\\[)", false)!!.literal())
+        for (pattern in listOf("^\\s*import", "(abc)?d", "a|[bc]", "(?i)abc", "\\G\\s+", "x{2}", "(?x) a b", "(?#c)a")) {
+            assertNull(pattern, JoniOnigPrefilter.of(pattern, false))
+        }
+        assertNull(JoniOnigPrefilter.of("abc", true))
+    }
+
+    @Test
+    fun `test search is the same as without prefilter`() {
+        val atoms = listOf("a", "b", "c", "ab", "\\.", "\\b", "^", "$", ".", "[ab]", "[^a]", "\\w", "\\s", "(?=a)",
+            "(?<=b)", "(?!c)", "?", "*", "+", "{2}", "|", "(", ")", "(?:", "\\(", "é", "\\G", "(?i)")
+        val random = Random(42)
+        repeat(3000) {
+            val patterns = List(1 + random.nextInt(6)) {
+                buildString { repeat(1 + random.nextInt(8)) { append(atoms[random.nextInt(atoms.size)]) } }
+            }.filter { compile(it) != null }
+            if (patterns.isEmpty()) {
+                return@repeat
+            }
+            val searcher = JoniOnigSearcher(patterns)
+            val regexes = patterns.map { compile(it)!! }
+            repeat(5) {
+                val text = buildString { repeat(random.nextInt(30)) { append("abc.( é"[random.nextInt(7)]) } }
+                val source = OnigString.of(text)
+                for (offset in 0..text.length) {
+                    assertArrayEquals("$patterns on '$text' at $offset", referenceSearch(regexes, source, offset), search(searcher, source, offset))
+                }
+            }
+        }
+    }
+
+    private fun tokenizeFile(grammar: IGrammar, lines: List<String>): List<IntArray> {
+        var state: IStateStack? = null
+        return lines.map { line ->
+            val result = grammar.tokenizeLine2(line + "\n", state, null)
+            state = result.ruleStack
+            result.tokens
+        }
+    }
+
+    @Test
+    fun `benchmark tokenizing large files`() {
+        // Grammars bundled with the IDE, and large sources of this repository
+        val root = File("../../..")
+        val samples = listOf(
+            "core/resources/src/main/assets/textmate/java/syntaxes/java.tmLanguage.json" to
+                    "composite-builds/build-deps/jdk-compiler/src/main/java/openjdk/tools/javac/parser/JavacParser.java",
+            "core/resources/src/main/assets/textmate/kotlin/syntaxes/Kotlin.tmLanguage" to
+                    "core/Git/src/main/java/com/catpuppyapp/puppygit/screen/DiffScreen.kt",
+            "core/resources/src/main/assets/textmate/xml/syntaxes/xml.tmLanguage.json" to
+                    "core/resources/src/main/res/values/strings_git.xml"
+        )
+        for ((grammarPath, samplePath) in samples) {
+            val grammarFile = File(root, grammarPath)
+            val sampleFile = File(root, samplePath)
+            assumeTrue(grammarFile.exists() && sampleFile.exists())
+            val lines = sampleFile.readLines()
+
+            fun measure(prefilter: Boolean): Pair<Long, List<IntArray>> {
+                JoniOnigRegExp.usePrefilter = prefilter
+                try {
+                    // A new grammar for each pass, so that regexes are compiled again
+                    val grammar = Registry().addGrammar(IGrammarSource.fromFile(grammarFile))
+                    // Warm up
+                    tokenizeFile(grammar, lines)
+                    val start = System.nanoTime()
+                    val tokens = tokenizeFile(grammar, lines)
+                    return (System.nanoTime() - start) / 1_000_000 to tokens
+                } finally {
+                    JoniOnigRegExp.usePrefilter = true
+                }
+            }
+
+            val (plainMillis, plainTokens) = measure(false)
+            val (prefilterMillis, prefilterTokens) = measure(true)
+            println("${sampleFile.name} (${lines.size} lines): plain ${plainMillis}ms, prefilter ${prefilterMillis}ms")
+            for (i in lines.indices) {
+                assertArrayEquals(plainTokens[i], prefilterTokens[i])
+            }
+        }
+    }
+}
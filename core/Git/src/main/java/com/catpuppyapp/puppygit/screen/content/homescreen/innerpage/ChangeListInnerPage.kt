@@ -127,6 +127,7 @@ import com.catpuppyapp.puppygit.utils.StateRequestType
 import com.catpuppyapp.puppygit.utils.UIHelper
 import com.catpuppyapp.puppygit.utils.cache.Cache
 import com.catpuppyapp.puppygit.utils.cache.ThumbCache
+import com.catpuppyapp.puppygit.utils.cache.WorktreeStatusCache
 import com.catpuppyapp.puppygit.utils.changeStateTriggerRefreshPage
 import com.catpuppyapp.puppygit.utils.createAndInsertError
 import com.catpuppyapp.puppygit.utils.dbIntToBool
@@ -4186,23 +4187,17 @@ private suspend fun changeListInit(
             // 检测index是否为空，如果不为空，会在图标有红点提示(最好红点，高亮图标也行)，如果worktree status为空(包含conflict条目) 且 index不为空，则会提示用户可去index区查看status
 
             if(fromTo == Cons.gitDiffFromIndexToWorktree) {  //查询worktree页面条目，就是从首页抽屉打开的changelist
-                //查询status页面的条目
-                val wtStatusList = Libgit2Helper.getWorkdirStatusList(gitRepository)
+                //查询status页面的条目，只有第一次或index、HEAD变化后才会扫描整个worktree，其他时候只查询有变化的路径
+                val worktreeItems = WorktreeStatusCache.getWorktreeChangeList(gitRepository, curRepoFromParentPage.id)
 
                 // 这个可以说是最重要的一处检测，因为重新执行git status最费时间的
                 if(repoChanged()) {
                     return
                 }
 
-                val hasWorktreeItem = wtStatusList.entryCount() > 0
+                val hasWorktreeItem = worktreeItems.isNotEmpty()
                 changeListPageHasWorktreeItem.value = hasWorktreeItem
                 if (hasWorktreeItem) {
-                    val worktreeItems = Libgit2Helper.getWorktreeChangeList(gitRepository, wtStatusList, curRepoFromParentPage.id)
-
-                    if(repoChanged()) {
-                        return
-                    }
-
                     itemList.value.clear()
                     itemList.value.addAll(worktreeItems)
                 }
@@ -2103,6 +2103,15 @@ private suspend fun doInit(
 
 
 
+        //分块存储的快照文件只是个清单，打开还原出的临时文件，清单保持不变
+        try {
+            SnapshotUtil.restoreToTempFileIfChunkedSnapshot(File(editorPageShowingFilePath.value.ioPath))?.let {
+                editorPageShowingFilePath.value = FilePath(it.canonicalPath)
+            }
+        }catch (e:Exception) {
+            MyLog.e(TAG, "#doInit: restore snapshot '${editorPageShowingFilePath.value.ioPath}' err: ${e.stackTraceToString()}")
+        }
+
         //到这，文件路径就确定了
         val editorPageShowingFilePath = editorPageShowingFilePath.value
         val requireOpenFilePath = editorPageShowingFilePath.ioPath
@@ -2120,7 +2129,6 @@ private suspend fun doInit(
 
         //读取文件内容
         try {
-
             //reset undo stack if needed
             undoStack.reset(requireOpenFilePath, force = false)
 
@@ -169,6 +169,7 @@ import com.catpuppyapp.puppygit.utils.saf.MyOpenDocumentTree
 import com.catpuppyapp.puppygit.utils.saf.SafAndFileCmpUtil
 import com.catpuppyapp.puppygit.utils.saf.SafAndFileCmpUtil.OpenInputStreamFailed
 import com.catpuppyapp.puppygit.utils.saf.SafUtil
+import com.catpuppyapp.puppygit.utils.snapshot.SnapshotUtil
 import com.catpuppyapp.puppygit.utils.showToast
 import com.catpuppyapp.puppygit.utils.state.CustomStateListSaveable
 import com.catpuppyapp.puppygit.utils.state.CustomStateSaveable
@@ -627,10 +628,22 @@ fun FilesInnerPage(
     val fileNameForOpenAsDialog = remember { derivedStateOf { getFileNameFromCanonicalPath(openAsDialogFilePath.value) } }
 
     val initOpenAsDialog = { fileFullPath: String, showOpenInInnerTextEditor: Boolean ->
-        openAsDialogFilePath.value = fileFullPath
-        showOpenInEditor.value = showOpenInInnerTextEditor
+        doJobThenOffLoading {
+            //分块存储的快照只是清单，用其他程序打开的是还原出的临时文件
+            val filePath = try {
+                SnapshotUtil.restoreToTempFileIfChunkedSnapshot(File(fileFullPath))?.canonicalPath ?: fileFullPath
+            }catch (e: Exception) {
+                MyLog.e(TAG, "#initOpenAsDialog: restore snapshot '$fileFullPath' err: ${e.stackTraceToString()}")
+                fileFullPath
+            }
+
+            openAsDialogFilePath.value = filePath
+            showOpenInEditor.value = showOpenInInnerTextEditor
+
+            showOpenAsDialog.value = true
+        }
 
-        showOpenAsDialog.value = true
+        Unit
     }
 
     if (showOpenAsDialog.value) {
@@ -930,13 +943,24 @@ fun FilesInnerPage(
     }
 
     val shareFiles = { files: List<FileItemDto> ->
-        try {
-            FsUtils.shareFiles(activityContext, files)
-        }catch (e: Exception) {
-            Msg.requireShowLongDuration("err: ${e.localizedMessage}")
-            MyLog.e(TAG, "$TAG#shareFiles err: ${e.localizedMessage}")
-            e.printStackTrace()
+        doJobThenOffLoading {
+            try {
+                //分块存储的快照只是清单，分享的是还原出的临时文件
+                val sharedFiles = files.map { item ->
+                    SnapshotUtil.restoreToTempFileIfChunkedSnapshot(item.toFile())?.let { FileItemDto.genFileItemDtoByFile(it, activityContext) } ?: item
+                }
+
+                withMainContext {
+                    FsUtils.shareFiles(activityContext, sharedFiles)
+                }
+            }catch (e: Exception) {
+                Msg.requireShowLongDuration("err: ${e.localizedMessage}")
+                MyLog.e(TAG, "$TAG#shareFiles err: ${e.localizedMessage}")
+                e.printStackTrace()
+            }
         }
+
+        Unit
     }
 
     val fileMenuKeyActList = listOf<(FileItemDto) -> Unit>(
@@ -1844,18 +1868,31 @@ fun FilesInnerPage(
                                             val showInnerEditor = true
                                             initOpenAsDialog(it.fullPath, showInnerEditor)
                                         } else { // 非 text 非*/* ，有具体类型，请求系统打开，若失败，显示open as弹窗，不过一般不会失败
-                                            //请求外部打开（实际会显示支持此类型的app供用户选择）
-                                            val openSuccess = FsUtils.openFile(
-                                                activityContext,
-                                                it.toFile(),
-                                                mimeType,
-                                                readOnly = false
-                                            )
+                                            val item = it
+                                            doJobThenOffLoading {
+                                                //分块存储的快照只是清单，用其他程序打开的是还原出的临时文件
+                                                val file = try {
+                                                    SnapshotUtil.restoreToTempFileIfChunkedSnapshot(item.toFile()) ?: item.toFile()
+                                                }catch (e: Exception) {
+                                                    MyLog.e(TAG, "#itemOnClick: restore snapshot '${item.fullPath}' err: ${e.stackTraceToString()}")
+                                                    item.toFile()
+                                                }
 
-                                            //若打开失败，显示弹窗，用户可选择具体以哪种类型打开
-                                            if (!openSuccess) {
-                                                val showInnerEditor = true
-                                                initOpenAsDialog(it.fullPath, showInnerEditor)
+                                                withMainContext {
+                                                    //请求外部打开（实际会显示支持此类型的app供用户选择）
+                                                    val openSuccess = FsUtils.openFile(
+                                                        activityContext,
+                                                        file,
+                                                        mimeType,
+                                                        readOnly = false
+                                                    )
+
+                                                    //若打开失败，显示弹窗，用户可选择具体以哪种类型打开
+                                                    if (!openSuccess) {
+                                                        val showInnerEditor = true
+                                                        initOpenAsDialog(file.canonicalPath, showInnerEditor)
+                                                    }
+                                                }
                                             }
                                         }
                                     }
@@ -2008,7 +2045,16 @@ fun FilesInnerPage(
         //其实不管拷贝还是移动都要先拷贝，区别在于移动后需要删除源目录
         //如果发现同名，添加到同名列表，弹窗询问是否覆盖。
         doJobThenOffLoading(loadingOn = loadingOn, loadingOff = loadingOff) {
-            val ret = FsUtils.copyOrMoveOrExportFile(srcList.map { it.toFile() }, File(targetFullPath), requireDeleteSrc)
+            //分块存储的快照只是清单，拷贝、移动的是还原出的临时文件，完成后删除临时文件
+            val srcFiles = srcList.map { it.toFile() }
+            val ret = SnapshotUtil.useRestoredIfChunkedSnapshots(srcFiles) { files ->
+                FsUtils.copyOrMoveOrExportFile(files, File(targetFullPath), requireDeleteSrc).also {
+                    //移动的是临时文件，快照清单也要删除
+                    if (requireDeleteSrc && !it.hasError()) {
+                        srcFiles.forEachIndexed { idx, f -> if (files[idx] !== f) f.delete() }
+                    }
+                }
+            }
             if (ret.hasError()) {
                 if (ret.code == Ret.ErrCode.srcListIsEmpty) {
                     Msg.requireShow(activityContext.getString(R.string.no_item_selected))
@@ -2144,13 +2190,16 @@ fun FilesInnerPage(
                     loadingOnCancellable(loadingText)
 
                     if (trueExportFalseImport) {
-                        FsUtils.recursiveExportFiles_Saf(
-                            contentResolver = activityContext.contentResolver,
-                            targetDir = chosenDir,
-                            srcFiles = itemListForExport.value.map<FileItemDto, File> { it.toFile() }.toTypedArray(),
-                            canceled = { requireCancelAct.value },
-                            conflictStrategy = conflictStrategy
-                        )
+                        //分块存储的快照只是清单，导出的是还原出的临时文件
+                        SnapshotUtil.useRestoredIfChunkedSnapshots(itemListForExport.value.map<FileItemDto, File> { it.toFile() }) { files ->
+                            FsUtils.recursiveExportFiles_Saf(
+                                contentResolver = activityContext.contentResolver,
+                                targetDir = chosenDir,
+                                srcFiles = files.toTypedArray(),
+                                canceled = { requireCancelAct.value },
+                                conflictStrategy = conflictStrategy
+                            )
+                        }
                     } else {
                         FsUtils.recursiveImportFiles_Saf(
                             contentResolver = activityContext.contentResolver,
@@ -2327,12 +2376,15 @@ fun FilesInnerPage(
                 try {
                     loadingOnCancellable(loadingText)
 
-                    FsUtils.recursiveExportFiles_Saf(
-                        contentResolver = activityContext.contentResolver,
-                        targetDir = chosenDir,
-                        srcFiles = selectedItems.value.map<FileItemDto, File> { it.toFile() }.toTypedArray(),
-                        canceled = { requireCancelAct.value }
-                    )
+                    //分块存储的快照只是清单，导出的是还原出的临时文件
+                    SnapshotUtil.useRestoredIfChunkedSnapshots(selectedItems.value.map<FileItemDto, File> { it.toFile() }) { files ->
+                        FsUtils.recursiveExportFiles_Saf(
+                            contentResolver = activityContext.contentResolver,
+                            targetDir = chosenDir,
+                            srcFiles = files.toTypedArray(),
+                            canceled = { requireCancelAct.value }
+                        )
+                    }
                     // throw RuntimeException("测试异常！")  passed
                     Msg.requireShow(activityContext.getString(R.string.export_success))
                 } catch (cancelled: CancellationException) {
@@ -3271,7 +3323,8 @@ fun FilesInnerPage(
             }
 
             if (curPathReadable) {
-                val subFiles = curFile.listFiles()
+                //快照存储块的目录不导出
+                val subFiles = curFile.listFiles()?.filter { !SnapshotUtil.isSnapshotStoreInternalDir(it) }
                 if (subFiles == null || subFiles.isEmpty()) { //空文件夹没什么好导出的
                     Msg.requireShow(activityContext.getString(R.string.folder_is_empty))
                 } else { //执行导出
@@ -3671,9 +3724,15 @@ private suspend fun doInit(
     //获取文件列表之类的
     var folderCount = 0
     var fileCount = 0
+
     // 遍历文件列表
     currentDir.listFiles()?.let {
         for(file in it) {
+            //不显示快照存储块的目录
+            if(SnapshotUtil.isSnapshotStoreInternalDir(file)) {
+                continue
+            }
+
             val fdto = FileItemDto.genFileItemDtoByFile(file, activityContext)
 
             if(fdto.isFile) {
@@ -600,13 +600,20 @@ object AppModel {
             //删除过期的快照文件
             try {
                 val snapshotKeepInDays = settings.snapshotKeepInDays
-                val snapshotSaveFolder = AppModel.getOrCreateFileSnapshotDir()
-                FsUtils.delFilesOverKeepInDays(snapshotKeepInDays, snapshotSaveFolder, "snapshot folder")
+                //快照是分块存储的，不能只按时间删除快照文件，否则不再被引用的块会一直留着
+                SnapshotUtil.deleteExpiredSnapshots(snapshotKeepInDays)
 
                 //                 //   AppModel.getOrCreateFileSnapshotDir()  // is delete expired files, is not del the folder, so no need call this make sure folder exist
             }catch (e:Exception) {
                 MyLog.e(TAG, "#$funName del expired snapshot files err: "+e.stackTraceToString())
             }
+
+            //删除打开、分享快照时还原出的临时文件
+            try {
+                SnapshotUtil.deleteRestoredTempFiles()
+            }catch (e:Exception) {
+                MyLog.e(TAG, "#$funName del restored snapshot temp files err: "+e.stackTraceToString())
+            }
         }
 
 
@@ -390,14 +390,23 @@ object Libgit2Helper {
 
 
 
+    /**
+     * @param pathspecs 只查询这些路径（目录代表其下所有文件），按字面匹配，不支持通配符；为null时查询整个仓库
+     */
     private fun getRepoStatusList(
         repo:Repository,
         showType:Status.ShowT = Status.ShowT.INDEX_AND_WORKDIR,
-        flags:EnumSet<Status.OptT> = getDefaultStatusOptTypeSet()
+        flags:EnumSet<Status.OptT> = getDefaultStatusOptTypeSet(),
+        pathspecs:List<String>? = null,
     ) :StatusList {
         val statusOpts: Status.Options = Status.Options.newDefault()
         statusOpts.show = showType.bit  //e.g. Status.ShowT.INDEX_AND_WORKDIR
         statusOpts.flags = flags;  // e.g. EnumSet.of(Status.OptT.OPT_INCLUDE_UNTRACKED, Status.OptT.OPT_RENAMES_HEAD_TO_INDEX, Status.OptT.OPT_SORT_CASE_INSENSITIVELY)
+        if(pathspecs != null) {
+            //按字面匹配时libgit2只遍历这些路径，而不是遍历整个worktree再过滤
+            statusOpts.flags = EnumSet.copyOf(flags).apply { add(Status.OptT.OPT_DISABLE_PATHSPEC_MATCH) }
+            statusOpts.pathspec = pathspecs
+        }
 
         if (repo.isBare) {
             throw RuntimeException("Cannot report status on bare repository: " + getRepoWorkdirNoEndsWithSlash(repo))
@@ -465,9 +474,10 @@ object Libgit2Helper {
 
     fun getWorkdirStatusList(
         repo:Repository,
-        flags:EnumSet<Status.OptT> = getDefaultStatusOptTypeSet()
+        flags:EnumSet<Status.OptT> = getDefaultStatusOptTypeSet(),
+        pathspecs:List<String>? = null,
     ) :StatusList {
-        return getRepoStatusList(repo,Status.ShowT.WORKDIR_ONLY,flags)
+        return getRepoStatusList(repo,Status.ShowT.WORKDIR_ONLY,flags,pathspecs)
     }
 
     @Deprecated("建议分别获取index和workdir的list，不要混在一起")
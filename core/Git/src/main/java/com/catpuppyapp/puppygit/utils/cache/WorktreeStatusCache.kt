@@ -0,0 +1,52 @@
+package com.catpuppyapp.puppygit.utils.cache
+
+import com.catpuppyapp.puppygit.git.StatusTypeEntrySaver
+import com.catpuppyapp.puppygit.utils.AppModel
+import com.catpuppyapp.puppygit.utils.Libgit2Helper
+import com.catpuppyapp.puppygit.utils.MyLog
+import com.github.git24j.core.Repository
+import java.io.File
+
+/**
+ * 缓存仓库的worktree修改列表，ChangeList页面刷新时只重新查询变化过的路径，详见 [WorktreeStatusSnapshot]
+ */
+object WorktreeStatusCache {
+    private const val TAG = "WorktreeStatusCache"
+
+    //每个仓库都会监听其worktree下的所有目录，所以只保留最近用过的几个仓库
+    private const val MAX_REPOS = 3
+
+    private val snapshots = object : LinkedHashMap<String, WorktreeStatusSnapshot>(MAX_REPOS + 1, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, WorktreeStatusSnapshot>): Boolean {
+            if(size > MAX_REPOS) {
+                eldest.value.close()
+                return true
+            }
+            return false
+        }
+    }
+
+    /**
+     * 获取worktree修改列表，包含冲突条目，和 [Libgit2Helper.getWorktreeChangeList] 的结果一样
+     */
+    fun getWorktreeChangeList(repo: Repository, repoId: String): List<StatusTypeEntrySaver> {
+        val workdir = Libgit2Helper.getRepoWorkdirNoEndsWithSlash(repo)
+        val gitDir = Libgit2Helper.getRepoGitDirPathNoEndsWithSlash(repo)
+        val snapshot = synchronized(snapshots) {
+            snapshots.getOrPut("$repoId:$workdir") {
+                WorktreeStatusSnapshot(File(workdir), File(gitDir), File(AppModel.getOrCreateExternalCacheDir(), "status-watch"))
+            }
+        }
+
+        val headId = Libgit2Helper.resolveHEAD(repo)?.id()?.toString() ?: ""
+        val start = System.currentTimeMillis()
+        val items = snapshot.refresh(headId) { pathspecs ->
+            MyLog.d(TAG, "#getWorktreeChangeList: query status of ${pathspecs?.size?.let { "$it paths" } ?: "whole worktree"}")
+            Libgit2Helper.getWorktreeChangeList(repo, Libgit2Helper.getWorkdirStatusList(repo, pathspecs = pathspecs), repoId)
+        }
+        MyLog.d(TAG, "#getWorktreeChangeList: spent ${System.currentTimeMillis() - start}ms")
+
+        //页面会修改列表，所以返回拷贝
+        return items.toList()
+    }
+}
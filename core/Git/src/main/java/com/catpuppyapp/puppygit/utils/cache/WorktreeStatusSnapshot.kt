@@ -0,0 +1,110 @@
+package com.catpuppyapp.puppygit.utils.cache
+
+import com.catpuppyapp.puppygit.constants.Cons
+import com.catpuppyapp.puppygit.git.StatusTypeEntrySaver
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.LinkOption
+import java.nio.file.attribute.BasicFileAttributes
+
+/**
+ * 一个仓库的worktree修改列表的快照。
+ *
+ * 第一次刷新时扫描整个worktree，之后由 [WorktreeWatcher] 得知哪些路径变了，只用这些路径作为pathspec重新查询status，再合并到快照里，
+ * 修改一个文件后刷新不用再遍历整个worktree。
+ * index、HEAD、config 或 ignore 文件变了时所有条目的状态都可能变，这时重新扫描整个worktree，
+ * 其中index和config文件用最后修改时间、大小和inode判断是否变化（libgit2写这些文件时是写临时文件再重命名，inode必然会变）。
+ */
+class WorktreeStatusSnapshot(
+    workdir: File,
+    private val gitDir: File,
+    syncDir: File,
+    watchBudget: WatchBudget = WorktreeWatcher.SHARED_BUDGET,
+) : Closeable {
+    private val watcher = WorktreeWatcher(workdir, gitDir, syncDir, watchBudget)
+    private var stamp: List<Any?>? = null
+    private var items: List<StatusTypeEntrySaver> = listOf()
+
+    /**
+     * 刷新并返回worktree的修改列表
+     *
+     * @param headId HEAD指向的提交
+     * @param queryStatus 查询worktree的修改列表，参数为要查询的路径（目录代表其下所有文件），为null时查询整个worktree
+     */
+    @Synchronized
+    fun refresh(headId: String, queryStatus: (pathspecs: List<String>?) -> List<StatusTypeEntrySaver>): List<StatusTypeEntrySaver> {
+        val newStamp = stampOf(headId)
+        val changedPaths = watcher.pollChangedPaths()
+
+        if (newStamp != stamp || changedPaths == null || changedPaths.size > MAX_PATHSPECS || changedPaths.any { isIgnoreFile(it) }) {
+            // 先开始监听再扫描，扫描期间的修改下次刷新时会查到
+            if (watcher.start()) {
+                watcher.pollChangedPaths()
+            }
+            stamp = null
+            items = queryStatus(null)
+            stamp = newStamp
+        } else if (changedPaths.isNotEmpty()) {
+            // 查询失败时变化的路径已经取走了，下次只能重新扫描
+            stamp = null
+            items = merge(items, changedPaths, queryStatus(changedPaths.sorted()))
+            stamp = newStamp
+        }
+
+        return items
+    }
+
+    @Synchronized
+    override fun close() {
+        watcher.close()
+    }
+
+    private fun stampOf(headId: String): List<Any?> {
+        return listOf(
+            headId,
+            fileStamp(File(gitDir, "index")),
+            fileStamp(File(gitDir, "config")),
+            fileStamp(File(gitDir, "info/exclude")),
+        )
+    }
+
+    private fun fileStamp(file: File): List<Any?>? {
+        return try {
+            val attrs = Files.readAttributes(file.toPath(), BasicFileAttributes::class.java, LinkOption.NOFOLLOW_LINKS)
+            listOf(attrs.lastModifiedTime(), attrs.size(), attrs.fileKey())
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    companion object {
+        // 变化的路径太多时（例如在其他app里切换了分支），扫描整个worktree更快
+        const val MAX_PATHSPECS = 1000
+
+        private fun isIgnoreFile(path: String) = path == ".gitignore" || path.endsWith("/.gitignore")
+
+        /**
+         * 用 [changedPaths] 下新查询的条目 [fresh] 替换 [items] 中这些路径下的条目
+         */
+        fun merge(items: List<StatusTypeEntrySaver>, changedPaths: Set<String>, fresh: List<StatusTypeEntrySaver>): List<StatusTypeEntrySaver> {
+            val result = ArrayList<StatusTypeEntrySaver>(items.size + fresh.size)
+            items.filterNotTo(result) { isSameOrUnderAny(it.relativePathUnderRepo, changedPaths) }
+            result.addAll(fresh)
+            // 和getWorktreeChangeList()一样，冲突条目在前面，其他条目按路径排序（不区分大小写）
+            result.sortWith(compareBy<StatusTypeEntrySaver> { it.changeType != Cons.gitStatusConflict }.thenBy(String.CASE_INSENSITIVE_ORDER) { it.relativePathUnderRepo })
+            return result
+        }
+
+        private fun isSameOrUnderAny(path: String, parents: Set<String>): Boolean {
+            var p = path.trimEnd('/')
+            while (true) {
+                if (p in parents) return true
+                val slash = p.lastIndexOf('/')
+                if (slash < 0) return false
+                p = p.substring(0, slash)
+            }
+        }
+    }
+}
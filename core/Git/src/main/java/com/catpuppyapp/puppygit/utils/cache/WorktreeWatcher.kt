@@ -0,0 +1,236 @@
+package com.catpuppyapp.puppygit.utils.cache
+
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.LinkOption
+import java.nio.file.Path
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.StandardWatchEventKinds
+import java.nio.file.WatchKey
+import java.nio.file.WatchService
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.TimeUnit
+
+/**
+ * 监听worktree下所有目录（不包括 .git 目录）的变化，记录变化的路径。
+ *
+ * WatchService 只能监听单个目录，所以需要注册每个目录，新建的目录在收到事件时注册。
+ * 目录太多（inotify的监听数有上限）或丢失了事件时 [pollChangedPaths] 返回null，调用者只能重新扫描整个worktree。
+ *
+ * @param syncDir 用来确认事件已全部送达的目录，见 [pollChangedPaths]，不能在worktree里
+ * @param budget 可以使用的监听数，默认所有仓库共用 [SHARED_BUDGET]
+ */
+class WorktreeWatcher(
+    private val workdir: File,
+    private val gitDir: File,
+    private val syncDir: File,
+    private val budget: WatchBudget = SHARED_BUDGET,
+) : Closeable {
+    private val workdirPath = workdir.toPath()
+    private val gitDirPath = gitDir.toPath()
+
+    private var watchService: WatchService? = null
+    private var failed = false
+
+    // key -> 目录相对worktree的路径，根目录为空字符串
+    private val dirs = HashMap<WatchKey, String>()
+    private var syncKey: WatchKey? = null
+    private val syncFilePrefix = "sync-${System.identityHashCode(this)}-${System.nanoTime()}-"
+    private var syncCount = 0L
+    // 从budget借到的监听数，close时归还
+    private var acquired = 0
+
+    /**
+     * 开始监听，已开始时什么都不做，无法监听时返回false。
+     * 监听数不够或事件不可靠（见 [pollChangedPaths]）时不会再尝试。
+     */
+    fun start(): Boolean {
+        if (watchService != null) return true
+        if (failed) return false
+
+        try {
+            val service = workdirPath.fileSystem.newWatchService()
+            watchService = service
+            syncDir.mkdirs()
+            acquire()
+            syncKey = syncDir.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY)
+            registerTree(workdirPath)
+            return true
+        } catch (e: Exception) {
+            // 例如目录太多或超出inotify的上限，这时不再尝试
+            failed = true
+            close()
+            return false
+        }
+    }
+
+    /**
+     * 返回上次调用后变化过的路径（相对worktree，用 / 分隔），目录的路径代表其下所有文件。
+     * 未开始监听、丢失了事件或新目录无法监听时返回null。
+     *
+     * WatchService 在后台线程里转发事件，所以先在 [syncDir] 里新建一个文件，等收到它的事件，之前的事件就都送达了，
+     * 不会出现刚改了文件马上刷新却看不到修改的情况。
+     * 等不到这个事件时说明事件不可靠（例如文件系统不支持），这时停止监听，之后的调用不用再等直接返回null。
+     */
+    fun pollChangedPaths(): Set<String>? {
+        val service = watchService ?: return null
+        val changed = HashSet<String>()
+        var lost = false
+
+        // 每次用新的文件名，上次的文件的事件可能还没处理完
+        val syncFile = File(syncDir, syncFilePrefix + (++syncCount))
+        try {
+            syncFile.createNewFile()
+        } catch (e: IOException) {
+            return null
+        }
+
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SYNC_TIMEOUT_MILLIS)
+        var synced = false
+        while (!synced) {
+            val timeout = deadline - System.nanoTime()
+            val key = (if (timeout > 0) service.poll(timeout, TimeUnit.NANOSECONDS) else null)
+            if (key == null) {
+                syncFile.delete()
+                failed = true
+                close()
+                return null
+            }
+
+            for (event in key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    lost = true
+                    continue
+                }
+
+                val name = (event.context() as Path).toString()
+                if (key == syncKey) {
+                    synced = synced || name == syncFile.name
+                    continue
+                }
+
+                val dir = dirs[key] ?: continue
+                if (name == DOT_GIT) continue
+                val relativePath = if (dir.isEmpty()) name else "$dir/$name"
+                changed += relativePath
+
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    val path = workdirPath.resolve(relativePath)
+                    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                        try {
+                            registerTree(path)
+                        } catch (e: Exception) {
+                            lost = true
+                        }
+                    }
+                }
+            }
+
+            if (!key.reset()) {
+                // 目录被删除了，删除事件会在父目录收到
+                if (dirs.remove(key) != null) {
+                    release(1)
+                }
+            }
+        }
+        syncFile.delete()
+
+        if (lost) {
+            close()
+            return null
+        }
+        return changed
+    }
+
+    private fun registerTree(root: Path) {
+        val service = watchService ?: return
+        Files.walkFileTree(root, object : SimpleFileVisitor<Path>() {
+            override fun preVisitDirectory(dir: Path, attrs: BasicFileAttributes): FileVisitResult {
+                if (dir == gitDirPath || (dir != root && dir.fileName?.toString() == DOT_GIT)) {
+                    return FileVisitResult.SKIP_SUBTREE
+                }
+                acquire()
+                val key = dir.register(
+                    service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                )
+                if (dirs.put(key, workdirPath.relativize(dir).toString().replace(File.separatorChar, '/')) != null) {
+                    // 同一个目录注册两次得到的是同一个key
+                    release(1)
+                }
+                return FileVisitResult.CONTINUE
+            }
+
+            override fun visitFileFailed(file: Path, exc: IOException): FileVisitResult {
+                // 无权限的目录，status也读不了，忽略
+                return FileVisitResult.CONTINUE
+            }
+        })
+    }
+
+    override fun close() {
+        try {
+            watchService?.close()
+        } catch (e: IOException) {
+        }
+        watchService = null
+        syncKey = null
+        dirs.clear()
+        release(acquired)
+    }
+
+    private fun acquire() {
+        if (!budget.tryAcquire()) {
+            throw IOException("too many directories to watch under '$workdir'")
+        }
+        ++acquired
+    }
+
+    private fun release(count: Int) {
+        budget.release(count)
+        acquired -= count
+    }
+
+    companion object {
+        // 不要超过inotify的监听数上限（很多设备是8192，而且是整个app共用的）
+        const val MAX_WATCHED_DIRS = 4096
+
+        /**
+         * 所有仓库共用的监听数，[WorktreeStatusCache] 会同时保留几个仓库，每个仓库单独计数的话加起来会超过上限
+         */
+        val SHARED_BUDGET = WatchBudget(MAX_WATCHED_DIRS)
+        private const val SYNC_TIMEOUT_MILLIS = 1000L
+        private const val DOT_GIT = ".git"
+    }
+}
+
+/**
+ * 多个 [WorktreeWatcher] 共用的监听数上限
+ */
+class WatchBudget(val limit: Int) {
+    private var used = 0
+
+    @Synchronized
+    fun tryAcquire(): Boolean {
+        if (used >= limit) return false
+        ++used
+        return true
+    }
+
+    @Synchronized
+    fun release(count: Int) {
+        used -= count
+    }
+
+    /**
+     * 正在使用的监听数
+     */
+    @get:Synchronized
+    val inUse: Int
+        get() = used
+}
@@ -0,0 +1,311 @@
+package com.catpuppyapp.puppygit.utils.snapshot
+
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.security.MessageDigest
+import java.util.Random
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+
+/**
+ * 按内容寻址的快照存储。
+ *
+ * 快照内容按内容切分为块（content-defined chunking，gear hash，平均约16KB），每个块以其sha-256前16字节命名，
+ * 压缩后存到 `dir/.chunks/` 下，已存在的块不会重复写入；每个快照只写一个很小的清单文件（manifest），
+ * 记录它由哪些块组成。所以对大文件的小改动只会写入改动所在的一两个块和清单。
+ *
+ * 清单文件就是快照文件本身（存在 `dir` 下，文件名和以前的快照文件一样），用 [isSnapshot] 判断，用 [restore] 还原。
+ * 快照要交给用户或其他程序使用前（打开、分享、导出等），用 [restore] 还原到临时文件，清单本身保持不变。
+ */
+class SnapshotStore(private val dir: File) {
+    private val chunksDir = File(dir, CHUNKS_DIR_NAME)
+
+    /**
+     * 把 [writer] 写出的内容存为快照 [manifestFile]，[writer] 抛异常时不会创建快照。
+     *
+     * @return 实际写入硬盘的字节数（新的块和清单）
+     */
+    fun write(manifestFile: File, writer: (OutputStream) -> Unit): Long {
+        val out = ChunkingOutputStream()
+        out.use(writer)
+
+        val manifest = ByteArrayOutputStream()
+        DataOutputStream(manifest).use { data ->
+            data.write(MAGIC)
+            data.writeLong(out.size)
+            data.writeInt(out.chunks.size)
+            out.chunks.forEach { (id, length) ->
+                data.write(id)
+                data.writeInt(length)
+            }
+        }
+        writeAtomically(manifestFile, manifest.toByteArray())
+        return out.bytesWritten + manifest.size()
+    }
+
+    /**
+     * 把快照 [manifestFile] 的内容写到 [out]，不会关闭 [out]
+     */
+    fun restore(manifestFile: File, out: OutputStream) {
+        DataInputStream(FileInputStream(manifestFile).buffered()).use { data ->
+            val magic = ByteArray(MAGIC.size)
+            data.readFully(magic)
+            if (!magic.contentEquals(MAGIC)) {
+                throw IOException("not a snapshot: ${manifestFile.name}")
+            }
+
+            val size = data.readLong()
+            val count = data.readInt()
+            var restored = 0L
+            val inflater = Inflater()
+            try {
+                repeat(count) {
+                    val id = ByteArray(ID_LENGTH)
+                    data.readFully(id)
+                    val length = data.readInt()
+                    out.write(readChunk(id, length, inflater))
+                    restored += length
+                }
+            } finally {
+                inflater.end()
+            }
+            if (restored != size) {
+                throw IOException("snapshot is incomplete: ${manifestFile.name}, expected $size bytes, got $restored")
+            }
+        }
+    }
+
+    /**
+     * 文件是否是此存储的快照清单，旧版本直接拷贝的快照文件返回false
+     */
+    fun isSnapshot(file: File): Boolean {
+        if (!file.isFile || file.length() < MAGIC.size) return false
+        val magic = ByteArray(MAGIC.size)
+        FileInputStream(file).use { input ->
+            if (input.read(magic) != magic.size) return false
+        }
+        return magic.contentEquals(MAGIC)
+    }
+
+    /**
+     * 删除快照并回收不再被引用的块：
+     * 1. 删除最后修改时间超过 [maxAgeMillis] 的快照（包括旧版本的普通快照文件）
+     * 2. 如果剩下的快照和它们引用的块的总大小超过 [maxBytes]，从最旧的快照开始删除直到不超过
+     * 3. 删除没有被任何快照引用的块
+     *
+     * 刚写入的块可能属于正在创建的快照，所以只回收最后修改时间超过 [CHUNK_GRACE_MILLIS] 的块。
+     *
+     * @return 删除的快照数
+     */
+    fun gc(maxAgeMillis: Long, maxBytes: Long, now: Long = System.currentTimeMillis()): Int {
+        var deleted = 0
+        val snapshots = (dir.listFiles() ?: return 0)
+            .filter { it.isFile }
+            .filter {
+                val expired = now - it.lastModified() > maxAgeMillis
+                if (expired && it.delete()) deleted++
+                !expired
+            }
+            .sortedBy { it.lastModified() }
+
+        // 每个块被多少个快照引用
+        val refs = HashMap<String, Int>()
+        val chunksOf = snapshots.associateWith { file ->
+            if (isSnapshot(file)) readChunkIds(file) else emptyList()
+        }
+        chunksOf.values.forEach { ids -> ids.forEach { refs.merge(it, 1, Int::plus) } }
+
+        var total = snapshots.sumOf { it.length() } + refs.keys.sumOf { chunkFile(it).length() }
+        for (file in snapshots) {
+            if (total <= maxBytes) break
+            total -= file.length()
+            if (file.delete()) deleted++
+            chunksOf.getValue(file).forEach { id ->
+                val count = refs.getValue(id) - 1
+                if (count == 0) {
+                    refs.remove(id)
+                    total -= chunkFile(id).length()
+                } else {
+                    refs[id] = count
+                }
+            }
+        }
+
+        chunksDir.listFiles()?.forEach { prefixDir ->
+            prefixDir.listFiles()?.forEach { chunk ->
+                if (prefixDir.name + chunk.name !in refs && now - chunk.lastModified() > CHUNK_GRACE_MILLIS) {
+                    chunk.delete()
+                }
+            }
+        }
+        return deleted
+    }
+
+    private fun readChunkIds(manifestFile: File): List<String> {
+        return try {
+            DataInputStream(FileInputStream(manifestFile).buffered()).use { data ->
+                data.skipBytes(MAGIC.size + Long.SIZE_BYTES)
+                val id = ByteArray(ID_LENGTH)
+                List(data.readInt()) {
+                    data.readFully(id)
+                    data.readInt()
+                    toHex(id)
+                }
+            }
+        } catch (e: IOException) {
+            emptyList()
+        }
+    }
+
+    private fun readChunk(id: ByteArray, length: Int, inflater: Inflater): ByteArray {
+        val stored = chunkFile(toHex(id)).readBytes()
+        if (stored.isEmpty()) throw IOException("chunk is empty: ${toHex(id)}")
+        if (stored[0] == STORED) {
+            return stored.copyOfRange(1, stored.size)
+        }
+
+        inflater.reset()
+        inflater.setInput(stored, 1, stored.size - 1)
+        val chunk = ByteArray(length)
+        var offset = 0
+        while (offset < length && !inflater.finished()) {
+            offset += inflater.inflate(chunk, offset, length - offset)
+        }
+        if (offset != length) throw IOException("chunk is corrupted: ${toHex(id)}")
+        return chunk
+    }
+
+    private fun chunkFile(hex: String) = File(File(chunksDir, hex.substring(0, 2)), hex.substring(2))
+
+    /**
+     * 写入一个块，返回写入的字节数，块已存在时只更新它的最后修改时间
+     */
+    private fun writeChunk(id: ByteArray, data: ByteArray, length: Int, deflater: Deflater): Long {
+        val file = chunkFile(toHex(id))
+        if (file.exists()) {
+            // 避免被同时执行的gc当作未引用的块删除
+            file.setLastModified(System.currentTimeMillis())
+            return 0
+        }
+
+        deflater.reset()
+        deflater.setInput(data, 0, length)
+        deflater.finish()
+        val compressed = ByteArrayOutputStream(length / 2 + 16)
+        compressed.write(DEFLATED.toInt())
+        val buffer = ByteArray(8192)
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer))
+        }
+
+        val bytes = if (compressed.size() < length + 1) {
+            compressed.toByteArray()
+        } else {
+            ByteArray(length + 1).also {
+                it[0] = STORED
+                System.arraycopy(data, 0, it, 1, length)
+            }
+        }
+        file.parentFile?.mkdirs()
+        writeAtomically(file, bytes)
+        return bytes.size.toLong()
+    }
+
+    private fun writeAtomically(file: File, bytes: ByteArray) {
+        // 同一个块可能被两个快照同时写入，所以临时文件名不能固定
+        val tmp = File.createTempFile(file.name, ".tmp", file.parentFile)
+        tmp.writeBytes(bytes)
+        if (!tmp.renameTo(file)) {
+            file.delete()
+            if (!tmp.renameTo(file)) {
+                tmp.delete()
+                throw IOException("rename '${tmp.name}' to '${file.name}' failed")
+            }
+        }
+    }
+
+    /**
+     * 边写边分块，块边界由内容决定（gear hash），所以插入或删除内容只影响附近的块
+     */
+    private inner class ChunkingOutputStream : OutputStream() {
+        val chunks = ArrayList<Pair<ByteArray, Int>>()
+        var size = 0L
+        var bytesWritten = 0L
+
+        private val buffer = ByteArray(MAX_CHUNK_SIZE)
+        private var length = 0
+        private var hash = 0L
+        private val digest = MessageDigest.getInstance("SHA-256")
+        private val deflater = Deflater(Deflater.DEFAULT_COMPRESSION)
+        private var closed = false
+
+        override fun write(b: Int) {
+            buffer[length++] = b.toByte()
+            hash = (hash shl 1) + GEAR[b and 0xFF]
+            if (length >= MAX_CHUNK_SIZE || (length >= MIN_CHUNK_SIZE && hash and CHUNK_MASK == 0L)) {
+                cut()
+            }
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            for (i in off until off + len) {
+                val byte = b[i].toInt() and 0xFF
+                buffer[length++] = byte.toByte()
+                hash = (hash shl 1) + GEAR[byte]
+                if (length >= MAX_CHUNK_SIZE || (length >= MIN_CHUNK_SIZE && hash and CHUNK_MASK == 0L)) {
+                    cut()
+                }
+            }
+        }
+
+        private fun cut() {
+            digest.update(buffer, 0, length)
+            val id = digest.digest().copyOf(ID_LENGTH)
+            bytesWritten += writeChunk(id, buffer, length, deflater)
+            chunks += id to length
+            size += length
+            length = 0
+            hash = 0
+        }
+
+        override fun close() {
+            if (closed) return
+            closed = true
+            try {
+                if (length > 0) cut()
+            } finally {
+                deflater.end()
+            }
+        }
+    }
+
+    companion object {
+        const val CHUNKS_DIR_NAME = ".chunks"
+
+        const val MIN_CHUNK_SIZE = 4 * 1024
+        const val MAX_CHUNK_SIZE = 64 * 1024
+        // 平均块大小约为 MIN_CHUNK_SIZE + 16KB，用高位是因为gear hash的高位取决于最近64个字节，低位只取决于最近几个字节
+        private const val CHUNK_MASK = -1L shl 50
+
+        private const val CHUNK_GRACE_MILLIS = 60 * 60 * 1000L
+        private const val ID_LENGTH = 16
+
+        private const val STORED: Byte = 0
+        private const val DEFLATED: Byte = 1
+
+        private val MAGIC = "PGSNAP1\n".toByteArray()
+
+        private val GEAR = Random(0x5EED_5EEDL).let { random -> LongArray(256) { random.nextLong() } }
+
+        private fun toHex(bytes: ByteArray): String {
+            val sb = StringBuilder(bytes.size * 2)
+            bytes.forEach { sb.append(Character.forDigit(it.toInt() shr 4 and 0xF, 16)).append(Character.forDigit(it.toInt() and 0xF, 16)) }
+            return sb.toString()
+        }
+    }
+}
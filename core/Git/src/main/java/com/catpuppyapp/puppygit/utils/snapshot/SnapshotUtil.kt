@@ -8,9 +8,11 @@ import com.catpuppyapp.puppygit.utils.AppModel
 import com.catpuppyapp.puppygit.utils.EncodingUtil
 import com.catpuppyapp.puppygit.utils.FsUtils
 import com.catpuppyapp.puppygit.utils.MyLog
+import com.catpuppyapp.puppygit.utils.generateRandomString
 import com.catpuppyapp.puppygit.utils.getNowInSecFormatted
 import com.catpuppyapp.puppygit.utils.getShortUUID
 import java.io.File
+import java.io.OutputStream
 
 object SnapshotUtil:SnapshotCreator {
     private const val TAG = "SnapshotUtil"
@@ -24,6 +26,9 @@ object SnapshotUtil:SnapshotCreator {
     private val contentSnapshotDisable_FileNamePlaceHolder = "ContentSnapshotDisable-name"  //内容快照禁用时，一律返回此文件名
     private val contentSnapshotDisable_FilePathPlaceHolder = "ContentSnapshotDisable-path"  //内容快照禁用时，一律返回此路径
 
+    private const val maxSnapshotDirBytes = 512L * 1024 * 1024  //快照目录（包括所有块）的大小上限
+    private const val restoredTempDirName = "restored-snapshots"  //打开、分享、导出分块存储的快照时，还原出的临时文件存到缓存目录下的这个目录
+
 
     private var enableFileSnapshotForEditor = true
     private var enableContentSnapshotForEditor = true
@@ -65,14 +70,14 @@ object SnapshotUtil:SnapshotCreator {
             if((trueUseContentFalseUseEditorState && fileContent!!.isNotEmpty()) || (trueUseContentFalseUseEditorState.not() && editorState!!.contentIsEmpty().not())) {
                 val (snapshotFileName, snapFileFullPath, snapFile) = getSnapshotFileNameAndFullPathAndFile(srcFileName, flag)
                 MyLog.d(TAG, "#$funName: will save snapFile to: '$snapFileFullPath'")
-                val snapRet = if(trueUseContentFalseUseEditorState) {
-                    FsUtils.saveFileAndGetResult(
-                        fileFullPath = snapFileFullPath,
-                        text = fileContent!!,
-                        charsetName = editorState.codeEditor?.editorCharset?.value
-                    )
-                } else {
-                    editorState.dumpLinesAndGetRet(File(snapFileFullPath).outputStream())
+                val charsetName = editorState.codeEditor?.editorCharset?.value
+                val snapRet = writeSnapshotAndGetResult(snapFile) { output ->
+                    if(trueUseContentFalseUseEditorState) {
+                        EncodingUtil.addBomIfNeed(output, charsetName)
+                        output.bufferedWriter(EncodingUtil.resolveCharset(charsetName)).use { it.write(fileContent!!) }
+                    } else {
+                        editorState.dumpLines(output)
+                    }
                 }
 
                 if(snapRet.hasError()) {
@@ -120,7 +125,7 @@ object SnapshotUtil:SnapshotCreator {
             MyLog.d(TAG, "#$funName: will save snapFile to: '$snapFileFullPath'")
 
             // copy src to snap file
-            srcFile.copyTo(snapFile.outputStream())
+            snapshotStore().write(snapFile) { srcFile.copyTo(it) }
 
             if(!snapFile.exists()) {  //拷贝失败
                 MyLog.e(TAG, "#$funName: save snapFile '$snapshotFileName' failed!")
@@ -151,6 +156,104 @@ object SnapshotUtil:SnapshotCreator {
         )
     }
 
+    /**
+     * 快照按内容分块存储，只有新的块会写入硬盘，快照文件本身只是一个很小的清单，详见 [SnapshotStore]
+     */
+    private fun snapshotStore() = SnapshotStore(AppModel.getOrCreateFileSnapshotDir())
+
+    private fun writeSnapshotAndGetResult(snapFile: File, writer: (OutputStream) -> Unit): Ret<Unit?> {
+        try {
+            val bytesWritten = snapshotStore().write(snapFile, writer)
+            MyLog.d(TAG, "#writeSnapshotAndGetResult: snapshot '${snapFile.name}' saved, $bytesWritten bytes written")
+            return Ret.createSuccess(null)
+        }catch (e:Exception) {
+            return Ret.createError(null, e.localizedMessage ?: "write snapshot err", exception = e)
+        }
+    }
+
+    /**
+     * 如果 [file] 是快照目录下分块存储的快照，把内容还原到缓存目录下的同名临时文件并返回它，否则返回null。
+     * 快照清单本身保持不变，只在用户打开、分享、导出快照时调用。旧版本创建的快照本来就是普通文件，返回null。
+     * 临时文件用完后用 [deleteRestoredTempFile] 删除，交给编辑器或其他程序的由 [deleteRestoredTempFiles] 在app启动时清理。
+     * 会读写文件，不要在主线程调用。
+     */
+    fun restoreToTempFileIfChunkedSnapshot(file: File): File? {
+        if(file.parentFile?.canonicalPath != AppModel.getOrCreateFileSnapshotDir().canonicalPath) {
+            return null
+        }
+
+        val store = snapshotStore()
+        if(!store.isSnapshot(file)) {
+            return null
+        }
+
+        //每个快照放在单独的目录下，保持文件名不变，这样分享、导出后的文件名和快照一样
+        val tmpDir = File(restoredTempDir(), generateRandomString(8)).apply { mkdirs() }
+        val tmp = File(tmpDir, file.name)
+        try {
+            tmp.outputStream().buffered().use { store.restore(file, it) }
+            tmp.setLastModified(file.lastModified())
+        }catch (e:Exception) {
+            tmpDir.deleteRecursively()
+            throw e
+        }
+        return tmp
+    }
+
+    /**
+     * 用 [act] 处理 [files]，其中分块存储的快照换成还原出的临时文件（见 [restoreToTempFileIfChunkedSnapshot]），[act] 执行完后删除临时文件。
+     * 传给 [act] 的列表和 [files] 一一对应。
+     */
+    inline fun <T> useRestoredIfChunkedSnapshots(files: List<File>, act: (List<File>) -> T): T {
+        val restored = ArrayList<File>(files.size)
+        try {
+            files.forEach { restored.add(restoreToTempFileIfChunkedSnapshot(it) ?: it) }
+            return act(restored)
+        }finally {
+            restored.forEachIndexed { idx, it ->
+                if(it !== files[idx]) {
+                    deleteRestoredTempFile(it)
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除 [restoreToTempFileIfChunkedSnapshot] 还原出的临时文件，其他文件不处理
+     */
+    fun deleteRestoredTempFile(file: File) {
+        val tmpDir = file.parentFile ?: return
+        if(tmpDir.parentFile?.canonicalPath == restoredTempDir().canonicalPath) {
+            tmpDir.deleteRecursively()
+        }
+    }
+
+    /**
+     * 删除所有还原出的临时文件，app启动时调用，清理交给编辑器或其他程序后没法确定何时用完的临时文件
+     */
+    fun deleteRestoredTempFiles() {
+        restoredTempDir().deleteRecursively()
+    }
+
+    private fun restoredTempDir() = File(AppModel.getOrCreateExternalCacheDir(), restoredTempDirName)
+
+    /**
+     * 快照目录下存储块的目录，文件管理页面不显示它
+     */
+    fun isSnapshotStoreInternalDir(file: File): Boolean {
+        return file.name == SnapshotStore.CHUNKS_DIR_NAME && file.parentFile?.canonicalPath == AppModel.getOrCreateFileSnapshotDir().canonicalPath
+    }
+
+    /**
+     * 删除超过 [keepInDays] 天的快照，快照总大小超过 [maxSnapshotDirBytes] 时从最旧的开始删除，然后回收不再被引用的块
+     */
+    fun deleteExpiredSnapshots(keepInDays: Int) {
+        val funName = "deleteExpiredSnapshots"
+        val keepInMillSec = keepInDays * 24 * 60 * 60 * 1000L
+        val deleted = snapshotStore().gc(maxAgeMillis = keepInMillSec, maxBytes = maxSnapshotDirBytes)
+        MyLog.w(TAG, "#$funName: deleted $deleted snapshots")
+    }
+
     private fun getSnapshotFileNameAndFullPathAndFile(
         srcFileName: String,
         flag: SnapshotFileFlag
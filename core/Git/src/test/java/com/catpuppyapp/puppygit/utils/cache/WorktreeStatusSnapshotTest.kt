@@ -0,0 +1,233 @@
+package com.catpuppyapp.puppygit.utils.cache
+
+import com.catpuppyapp.puppygit.constants.Cons
+import com.catpuppyapp.puppygit.git.StatusTypeEntrySaver
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * libgit2的native库在单元测试里用不了，这里用一个按最后修改时间和大小判断文件是否修改的假status代替，
+ * 它和libgit2一样，不给pathspec时会stat整个worktree的文件。
+ */
+class WorktreeStatusSnapshotTest {
+    private val root = Files.createTempDirectory("status").toFile()
+    private val workdir = File(root, "repo").apply { mkdirs() }
+    private val gitDir = File(workdir, ".git").apply { mkdirs() }
+    private val syncDir = File(root, "sync")
+    private val snapshots = ArrayList<WorktreeStatusSnapshot>()
+
+    @After
+    fun deleteDir() {
+        snapshots.forEach { it.close() }
+        root.deleteRecursively()
+    }
+
+    @Test
+    fun changedPathsShouldBeMergedIntoTheSnapshot() {
+        createFiles(dirs = 3, filesPerDir = 3)
+        val status = FakeStatus(workdir)
+        val snapshot = newSnapshot()
+
+        assertEquals(listOf<String>(), refresh(snapshot, status))
+        assertEquals(listOf(null), status.queries)
+
+        File(workdir, "d1/f1.txt").appendText("changed")
+        File(workdir, "d0/f2.txt").delete()
+        File(workdir, "d2/new/deep").mkdirs()
+        File(workdir, "d2/new/deep/a.txt").writeText("new")
+
+        assertEquals(listOf("d0/f2.txt", "d1/f1.txt", "d2/new/deep/a.txt"), refresh(snapshot, status))
+        assertEquals(listOf("d0/f2.txt", "d1/f1.txt", "d2/new"), status.queries.last())
+
+        // 新建的目录也会被监听
+        File(workdir, "d2/new/deep/b.txt").writeText("new")
+        assertEquals(listOf("d0/f2.txt", "d1/f1.txt", "d2/new/deep/a.txt", "d2/new/deep/b.txt"), refresh(snapshot, status))
+        assertEquals(listOf("d2/new/deep/b.txt"), status.queries.last())
+
+        // 没有变化时不查询
+        val queryCount = status.queries.size
+        assertEquals(4, refresh(snapshot, status).size)
+        assertEquals(queryCount, status.queries.size)
+    }
+
+    @Test
+    fun indexOrHeadChangeShouldRescanTheWorktree() {
+        createFiles(dirs = 2, filesPerDir = 2)
+        File(gitDir, "index").writeText("index v1")
+        val status = FakeStatus(workdir)
+        val snapshot = newSnapshot()
+        refresh(snapshot, status)
+
+        // libgit2写index时是写临时文件再重命名
+        val tmp = File(gitDir, "index.lock").apply { writeText("index v2") }
+        Files.move(tmp.toPath(), File(gitDir, "index").toPath(), StandardCopyOption.REPLACE_EXISTING)
+        refresh(snapshot, status)
+        assertEquals(listOf(null, null), status.queries)
+
+        refresh(snapshot, status, headId = "new head")
+        assertEquals(listOf(null, null, null), status.queries)
+
+        File(workdir, ".gitignore").writeText("*.txt")
+        refresh(snapshot, status, headId = "new head")
+        assertNull(status.queries.last())
+    }
+
+    @Test
+    fun tooManyDirectoriesShouldFallBackToFullScan() {
+        createFiles(dirs = 5, filesPerDir = 1)
+        val status = FakeStatus(workdir)
+        val snapshot = newSnapshot(WatchBudget(3))
+
+        refresh(snapshot, status)
+        File(workdir, "d1/f0.txt").appendText("changed")
+
+        assertEquals(listOf("d1/f0.txt"), refresh(snapshot, status))
+        assertEquals(listOf(null, null), status.queries)
+    }
+
+    @Test
+    fun watchersShouldShareTheBudget() {
+        // worktree根目录和3个子目录，再加上syncDir，每个仓库要5个监听
+        createFiles(dirs = 3, filesPerDir = 1)
+        val budget = WatchBudget(8)
+        val firstStatus = FakeStatus(workdir)
+        val secondStatus = FakeStatus(workdir)
+        val first = newSnapshot(budget)
+        val second = newSnapshot(budget)
+
+        refresh(first, firstStatus)
+        refresh(second, secondStatus)
+        assertEquals(5, budget.inUse)
+
+        File(workdir, "d1/f0.txt").appendText("changed")
+        assertEquals(listOf("d1/f0.txt"), refresh(first, firstStatus))
+        assertEquals(listOf("d1/f0.txt"), refresh(second, secondStatus))
+        assertEquals(listOf("d1/f0.txt"), firstStatus.queries.last())
+        assertEquals(listOf(null, null), secondStatus.queries)
+
+        first.close()
+        assertEquals(0, budget.inUse)
+    }
+
+    @Test
+    fun missingSyncEventShouldStopWaitingForEvents() {
+        createFiles(dirs = 2, filesPerDir = 1)
+        val status = FakeStatus(workdir)
+        val snapshot = newSnapshot()
+        refresh(snapshot, status)
+
+        // 重建后的syncDir没有被监听，等不到sync事件
+        syncDir.deleteRecursively()
+        syncDir.mkdirs()
+        File(workdir, "d1/f0.txt").appendText("changed")
+        assertEquals(listOf("d1/f0.txt"), refresh(snapshot, status))
+        assertEquals(listOf(null, null), status.queries)
+
+        // 之后不再等待事件，直接扫描整个worktree
+        File(workdir, "d0/f0.txt").appendText("changed")
+        val time = measure { assertEquals(listOf("d0/f0.txt", "d1/f0.txt"), refresh(snapshot, status)) }
+        assertEquals(listOf(null, null, null), status.queries)
+        assertTrue("refresh took ${time}ms", time < 500)
+    }
+
+    @Test
+    fun mergeShouldKeepConflictsFirstAndSortByPath() {
+        val items = listOf(entry("c.txt", Cons.gitStatusConflict), entry("A/b.txt"), entry("a/c.txt"), entry("d.txt"))
+        val merged = WorktreeStatusSnapshot.merge(items, setOf("a", "d.txt"), listOf(entry("a/x.txt"), entry("B.txt")))
+
+        assertEquals(listOf("c.txt", "A/b.txt", "a/x.txt", "B.txt"), merged.map { it.relativePathUnderRepo })
+    }
+
+    @Test
+    fun benchmarkRefreshAfterTouchingOneFileIn100kFiles() {
+        val start = System.currentTimeMillis()
+        createFiles(dirs = 1000, filesPerDir = 100)
+        println("created 100k files in ${System.currentTimeMillis() - start}ms")
+        val status = FakeStatus(workdir)
+        val snapshot = newSnapshot()
+
+        val initial = measure { refresh(snapshot, status) }
+        val full = measure { status.query(null) }
+
+        val times = List(10) { i ->
+            File(workdir, "d${i * 97}/f$i.txt").appendText("changed")
+            measure { refresh(snapshot, status) }
+        }
+        assertEquals(10, refresh(snapshot, status).size)
+        assertEquals(status.query(null).map { it.relativePathUnderRepo }.sorted(), refresh(snapshot, status).sorted())
+
+        println(
+            "100k files, refresh after touching one file: full scan ${full}ms, " +
+                "incremental ${times.sorted()[times.size / 2]}ms (median of ${times.size}), first refresh with watcher setup ${initial}ms"
+        )
+    }
+
+    private fun newSnapshot(watchBudget: WatchBudget = WatchBudget(WorktreeWatcher.MAX_WATCHED_DIRS)): WorktreeStatusSnapshot {
+        return WorktreeStatusSnapshot(workdir, gitDir, syncDir, watchBudget).also { snapshots += it }
+    }
+
+    private fun refresh(snapshot: WorktreeStatusSnapshot, status: FakeStatus, headId: String = "head"): List<String> {
+        return snapshot.refresh(headId) { status.query(it) }.map { it.relativePathUnderRepo }
+    }
+
+    private fun createFiles(dirs: Int, filesPerDir: Int) {
+        repeat(dirs) { d ->
+            val dir = File(workdir, "d$d").apply { mkdirs() }
+            repeat(filesPerDir) { f -> File(dir, "f$f.txt").writeText("file $d $f") }
+        }
+    }
+
+    private fun measure(block: () -> Unit): Long {
+        val start = System.nanoTime()
+        block()
+        return (System.nanoTime() - start) / 1_000_000
+    }
+
+    private class FakeStatus(private val workdir: File) {
+        val queries = ArrayList<List<String>?>()
+
+        // 相当于index里记录的文件状态
+        private val index = HashMap<String, Pair<Long, Long>>().apply {
+            walk(workdir) { path, file -> put(path, file.lastModified() to file.length()) }
+        }
+
+        fun query(pathspecs: List<String>?): List<StatusTypeEntrySaver> {
+            queries += pathspecs
+            val found = HashMap<String, File>()
+            if (pathspecs == null) {
+                walk(workdir) { path, file -> found[path] = file }
+            } else {
+                pathspecs.forEach { spec ->
+                    walk(File(workdir, spec)) { path, file -> found[if (path.isEmpty()) spec else "$spec/$path"] = file }
+                }
+            }
+
+            val changed = found.filter { (path, file) -> index[path] != file.lastModified() to file.length() }.keys +
+                index.keys.filter { path -> path !in found && (pathspecs == null || pathspecs.any { path == it || path.startsWith("$it/") }) }
+            return changed.sortedWith(String.CASE_INSENSITIVE_ORDER).map { entry(it) }
+        }
+
+        private fun walk(start: File, visit: (String, File) -> Unit) {
+            if (start.isFile) {
+                visit("", start)
+                return
+            }
+            start.walkTopDown().onEnter { it.name != ".git" }.filter { it.isFile }.forEach {
+                visit(it.relativeTo(start).path.replace(File.separatorChar, '/'), it)
+            }
+        }
+    }
+
+    companion object {
+        private fun entry(path: String, changeType: String = Cons.gitStatusModified) = StatusTypeEntrySaver().apply {
+            relativePathUnderRepo = path
+            this.changeType = changeType
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.catpuppyapp.puppygit.utils.snapshot
+
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.nio.file.Files
+import kotlin.random.Random
+
+class SnapshotStoreTest {
+    private val dir = Files.createTempDirectory("snapshots").toFile()
+    private val store = SnapshotStore(dir)
+
+    @After
+    fun deleteDir() {
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun restoreShouldReturnTheSnapshotContent() {
+        val contents = listOf(ByteArray(0), "abc".toByteArray(), randomText(300_000, seed = 1))
+        contents.forEachIndexed { index, content ->
+            val snapFile = File(dir, "$index.bak")
+            store.write(snapFile) { it.write(content) }
+
+            assertTrue(store.isSnapshot(snapFile))
+            assertArrayEquals(content, restore(snapFile))
+        }
+    }
+
+    @Test
+    fun sameContentShouldOnlyWriteTheManifest() {
+        val content = randomText(1_000_000, seed = 2)
+        val first = store.write(File(dir, "1.bak")) { it.write(content) }
+        val second = store.write(File(dir, "2.bak")) { it.write(content) }
+
+        assertTrue(first > 0)
+        assertEquals(File(dir, "2.bak").length(), second)
+        assertArrayEquals(content, restore(File(dir, "2.bak")))
+    }
+
+    @Test
+    fun failedWriterShouldNotCreateSnapshot() {
+        val snapFile = File(dir, "1.bak")
+        try {
+            store.write(snapFile) {
+                it.write(randomText(100_000, seed = 3))
+                throw IllegalStateException("test")
+            }
+        } catch (e: IllegalStateException) {
+        }
+        assertFalse(snapFile.exists())
+    }
+
+    @Test
+    fun gcShouldDeleteExpiredSnapshotsAndUnreferencedChunks() {
+        val day = 24 * 60 * 60 * 1000L
+        val now = System.currentTimeMillis()
+        val old = File(dir, "old.bak")
+        val new = File(dir, "new.bak")
+        val legacy = File(dir, "legacy.bak")
+        store.write(old) { it.write(randomText(200_000, seed = 4)) }
+        store.write(new) { it.write(randomText(200_000, seed = 5)) }
+        legacy.writeText("copied by an old version")
+        old.setLastModified(now - 10 * day)
+        legacy.setLastModified(now - 10 * day)
+        // 块写入后超过1小时才会被回收
+        chunkFiles().forEach { it.setLastModified(now - 2 * day) }
+
+        assertEquals(2, store.gc(maxAgeMillis = 3 * day, maxBytes = Long.MAX_VALUE, now = now))
+
+        assertFalse(old.exists())
+        assertFalse(legacy.exists())
+        assertArrayEquals(randomText(200_000, seed = 5), restore(new))
+        assertEquals(chunkFiles().sumOf { it.length() } + new.length(), dirSize())
+    }
+
+    @Test
+    fun gcShouldDeleteOldestSnapshotsOverTheSizeBudget() {
+        val now = System.currentTimeMillis()
+        val files = List(3) { File(dir, "$it.bak") }
+        files.forEachIndexed { index, file ->
+            store.write(file) { it.write(randomText(100_000, seed = 10 + index)) }
+            file.setLastModified(now - (3 - index) * 1000L)
+        }
+        chunkFiles().forEach { it.setLastModified(now - 2 * 60 * 60 * 1000L) }
+
+        assertEquals(1, store.gc(maxAgeMillis = Long.MAX_VALUE, maxBytes = dirSize() - 1, now = now))
+
+        assertFalse(files[0].exists())
+        assertArrayEquals(randomText(100_000, seed = 12), restore(files[2]))
+    }
+
+    @Test
+    fun benchmarkSmallEditsOfALargeFile() {
+        val size = 10 * 1024 * 1024
+        val content = randomText(size, seed = 42)
+        val random = Random(7)
+        var bytesWritten = 0L
+        val start = System.nanoTime()
+        repeat(100) { i ->
+            // 每次在随机位置改一小段，模拟编辑器保存前的快照
+            val pos = random.nextInt(size - 100)
+            "edit $i".toByteArray().copyInto(content, pos)
+            bytesWritten += store.write(File(dir, "$i.bak")) { it.write(content) }
+        }
+        val time = (System.nanoTime() - start) / 1_000_000
+
+        assertArrayEquals(content, restore(File(dir, "99.bak")))
+        println(
+            "100 snapshots of a 10 MB file with small edits: ${bytesWritten / 1024} KB written in $time ms, " +
+                "full copies would write ${100L * size / 1024} KB; snapshot dir is ${dirSize() / 1024} KB"
+        )
+    }
+
+    private fun restore(file: File): ByteArray {
+        val out = ByteArrayOutputStream()
+        store.restore(file, out)
+        return out.toByteArray()
+    }
+
+    private fun chunkFiles() = File(dir, SnapshotStore.CHUNKS_DIR_NAME).walk().filter { it.isFile }.toList()
+
+    private fun dirSize() = dir.walk().filter { it.isFile }.sumOf { it.length() }
+
+    // 类似源码的文本，压缩率和真实文件接近
+    private fun randomText(size: Int, seed: Int): ByteArray {
+        val random = Random(seed)
+        val words = listOf("val", "fun", "return", "if", "else", "value", "name", "list", "=", "(", ")", "{", "}", "\n    ")
+        val sb = StringBuilder(size + 16)
+        while (sb.length < size) {
+            sb.append(words[random.nextInt(words.size)]).append(if (random.nextInt(8) == 0) random.nextInt(1000) else ' ')
+        }
+        return sb.substring(0, size).toByteArray()
+    }
+}
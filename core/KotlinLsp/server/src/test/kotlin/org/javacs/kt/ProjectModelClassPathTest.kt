@@ -0,0 +1,97 @@
+package org.javacs.kt
+
+import org.eclipse.lsp4j.DidChangeWorkspaceFoldersParams
+import org.eclipse.lsp4j.WorkspaceFolder
+import org.eclipse.lsp4j.WorkspaceFoldersChangeEvent
+import org.hamcrest.Matchers.*
+import org.javacs.kt.classpath.ClassPathEntry
+import org.javacs.kt.classpath.defaultClassPathResolver
+import org.javacs.kt.classpath.projectModelFile
+import org.javacs.kt.classpath.writeProjectModelClassPath
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThat
+import org.junit.Test
+import java.nio.file.Files
+
+class ProjectModelClassPathTest : LanguageServerTestFixture("mainWorkspace") {
+    private val file = "MainWorkspaceFile.kt"
+    private val projectRoot = absoluteWorkspaceRoot("additionalWorkspace")
+    private val buildFile = projectRoot.resolve("build.gradle")
+    private val buildFileVersion = buildFile.toFile().lastModified()
+    private val versionCatalog = projectRoot.resolve("gradle").resolve("libs.versions.toml")
+
+    @After fun deleteProjectModel() {
+        Files.deleteIfExists(projectModelFile(projectRoot))
+        Files.deleteIfExists(versionCatalog)
+        buildFile.toFile().setLastModified(buildFileVersion)
+    }
+
+    @Test fun `project model classpath equals gradle classpath`() {
+        val gradleClassPath = resolveClassPath()
+        assertThat(gradleClassPath.map { it.toString() }, hasItem(containsString("junit")))
+
+        writeProjectModel(gradleClassPath)
+
+        assertEquals(gradleClassPath, resolveClassPath())
+    }
+
+    @Test fun `stale project model is ignored`() {
+        val gradleClassPath = resolveClassPath()
+        val marker = projectRoot.resolve("synced-by-ide.jar")
+        writeProjectModel(gradleClassPath + ClassPathEntry(marker, null))
+        assertThat(resolveClassPath(), hasItem(ClassPathEntry(marker, null)))
+
+        // the build file is edited, but the project is not synced again
+        buildFile.toFile().setLastModified(buildFileVersion + 1000)
+
+        assertEquals(gradleClassPath, resolveClassPath())
+    }
+
+    @Test fun `build file created after the sync makes the project model stale`() {
+        val gradleClassPath = resolveClassPath()
+        val marker = projectRoot.resolve("synced-by-ide.jar")
+        writeProjectModel(gradleClassPath + ClassPathEntry(marker, null))
+        assertThat(resolveClassPath(), hasItem(ClassPathEntry(marker, null)))
+
+        // a version catalog is added, but the project is not synced again
+        Files.write(versionCatalog, listOf("[versions]"))
+
+        assertThat(resolveClassPath(), not(hasItem(ClassPathEntry(marker, null))))
+    }
+
+    @Test fun `time to first completion`() {
+        val gradleStart = System.currentTimeMillis()
+        writeProjectModel(resolveClassPath())
+        val gradleTime = System.currentTimeMillis() - gradleStart
+
+        val start = System.currentTimeMillis()
+        addWorkspaceRoot()
+        open(file)
+        val completions = languageServer.textDocumentService.completion(completionParams(file, 5, 19)).get().right!!
+        val completionTime = System.currentTimeMillis() - start
+
+        assertThat(completions.items.map { it.label }, hasItem(containsString("assertTrue")))
+        println("First completion with the project model took $completionTime ms, resolving the classpath with Gradle takes $gradleTime ms")
+    }
+
+    private fun resolveClassPath(): Set<ClassPathEntry> =
+        defaultClassPathResolver(listOf(projectRoot)).classpathOrEmpty
+
+    // what the IDE does after syncing the project
+    private fun writeProjectModel(classPath: Set<ClassPathEntry>) {
+        val buildFiles = listOf(buildFile, projectRoot.resolve("gradle.properties"), versionCatalog)
+        writeProjectModelClassPath(projectRoot, buildFiles, classPath.map { it.compiledJar })
+    }
+
+    private fun addWorkspaceRoot() {
+        val folder = WorkspaceFolder()
+        folder.uri = projectRoot.toUri().toString()
+
+        val addWorkspace = DidChangeWorkspaceFoldersParams()
+        addWorkspace.event = WorkspaceFoldersChangeEvent()
+        addWorkspace.event.added = listOf(folder)
+
+        languageServer.workspaceService.didChangeWorkspaceFolders(addWorkspace)
+    }
+}
@@ -9,6 +9,7 @@ import java.nio.file.FileSystems
 fun defaultClassPathResolver(workspaceRoots: Collection<Path>, db: Database? = null): ClassPathResolver {
     val childResolver = WithStdlibResolver(
         ShellClassPathResolver.global(workspaceRoots.firstOrNull())
+            .or(workspaceRoots.asSequence().mapNotNull { ProjectModelClassPathResolver.maybeCreate(it) }.joined)
             .or(workspaceRoots.asSequence().flatMap { workspaceResolvers(it) }.joined)
     ).or(BackupClassPathResolver)
 
@@ -0,0 +1,107 @@
+package org.javacs.kt.classpath
+
+import org.javacs.kt.LOG
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+
+private const val PROJECT_MODEL_VERSION = 1
+
+/**
+ * Reads the classpath from the project model the IDE serialized after syncing the project
+ * (see [writeProjectModelClassPath]), instead of running Gradle to resolve it.
+ *
+ * The model is only used while the build files it was synced from are unchanged. Otherwise the
+ * classpath is empty, so that the build tool resolvers are used instead. Files which did not exist
+ * at sync time are recorded with a last modified time of 0, so creating one also invalidates the
+ * model.
+ */
+internal class ProjectModelClassPathResolver(private val file: Path) : ClassPathResolver {
+    override val resolverType: String = "Project model"
+
+    override val classpath: Set<ClassPathEntry> get() {
+        val model = readProjectModel(file) ?: return emptySet()
+        val changed = model.buildFiles.entries.firstOrNull { (buildFile, version) ->
+            buildFile.toFile().lastModified() != version
+        }
+        if (changed != null) {
+            LOG.info("Ignoring project model, {} has changed since the last project sync", changed.key)
+            return emptySet()
+        }
+
+        LOG.info("Successfully resolved dependencies for '{}' from the project model", file)
+        return model.classpath.map { ClassPathEntry(it, null) }.toSet()
+    }
+
+    override val currentBuildFileVersion: Long get() = file.toFile().lastModified()
+
+    companion object {
+        /** Create a project model resolver if the IDE has written the model of a workspace. */
+        fun maybeCreate(workspaceRoot: Path): ProjectModelClassPathResolver? =
+            projectModelFile(workspaceRoot)
+                .takeIf { Files.isRegularFile(it) }
+                ?.let { ProjectModelClassPathResolver(it) }
+    }
+}
+
+/** The file the project model of a workspace is serialized to. */
+fun projectModelFile(workspaceRoot: Path): Path =
+    workspaceRoot.resolve("build").resolve("kotlin-lsp").resolve("classpath.txt")
+
+/**
+ * Serializes the classpath of a synced project for the language server. The file is a list of
+ * lines, `build-file <last modified> <path>` for the build files the classpath was synced from
+ * and `classpath <path>` for the classpath entries. The IDE writes the same format from
+ * `KotlinLspProjectModel` in the app.
+ *
+ * @param buildFiles The build, settings and properties files of the project, including the ones
+ *   which do not exist yet.
+ * @param classpath The compile classpath of all modules of the project.
+ */
+fun writeProjectModelClassPath(workspaceRoot: Path, buildFiles: Collection<Path>, classpath: Collection<Path>) {
+    val file = projectModelFile(workspaceRoot)
+    Files.createDirectories(file.parent)
+
+    val tmp = Files.createTempFile(file.parent, "classpath", ".tmp")
+    Files.newBufferedWriter(tmp).use { writer ->
+        writer.appendLine("version $PROJECT_MODEL_VERSION")
+        buildFiles.forEach {
+            val path = it.toAbsolutePath()
+            writer.appendLine("build-file ${path.toFile().lastModified()} $path")
+        }
+        classpath.forEach { writer.appendLine("classpath ${it.toAbsolutePath()}") }
+    }
+    // the server may be reading the model while the IDE syncs the project again
+    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+}
+
+private class ProjectModel(val buildFiles: Map<Path, Long>, val classpath: List<Path>)
+
+private fun readProjectModel(file: Path): ProjectModel? {
+    val buildFiles = mutableMapOf<Path, Long>()
+    val classpath = mutableListOf<Path>()
+    var version = 0
+    try {
+        Files.newBufferedReader(file).useLines { lines ->
+            lines.filter { it.isNotBlank() }.forEach { line ->
+                val key = line.substringBefore(' ')
+                val value = line.substringAfter(' ')
+                when (key) {
+                    "version" -> version = value.toInt()
+                    "build-file" -> buildFiles[Paths.get(value.substringAfter(' '))] = value.substringBefore(' ').toLong()
+                    "classpath" -> classpath.add(Paths.get(value))
+                }
+            }
+        }
+    } catch (e: Exception) {
+        LOG.warn("Could not read project model {}: {}", file, e.message)
+        return null
+    }
+
+    if (version != PROJECT_MODEL_VERSION) {
+        LOG.warn("Ignoring project model {} with unsupported version {}", file, version)
+        return null
+    }
+    return ProjectModel(buildFiles, classpath)
+}
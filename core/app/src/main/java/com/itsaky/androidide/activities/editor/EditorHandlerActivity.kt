@@ -114,7 +114,7 @@ open class EditorHandlerActivity : ProjectHandlerActivity(), IEditorHandler {
     // Initialize LSP for the current project
     val projectPath = ProjectManagerImpl.getInstance().projectDirPath
     if (projectPath.isNotEmpty()) {
-        LspManager.initProject(projectPath)
+        LspManager.initProject(projectPath, this)
     }
 
     editorViewModel._displayedFile.observe(
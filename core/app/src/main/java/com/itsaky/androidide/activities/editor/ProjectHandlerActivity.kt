@@ -37,6 +37,7 @@ import com.itsaky.androidide.handlers.LspHandler.connectClient
 import com.itsaky.androidide.handlers.LspHandler.destroyLanguageServers
 import com.itsaky.androidide.lookup.Lookup
 import com.itsaky.androidide.lsp.IDELanguageClientImpl
+import com.itsaky.androidide.lsp.KotlinLspProjectModel
 import com.itsaky.androidide.lsp.java.utils.CancelChecker
 import com.itsaky.androidide.preferences.internal.GeneralPreferences
 import com.itsaky.androidide.projects.GradleProject
@@ -509,6 +510,7 @@ abstract class ProjectHandlerActivity : BaseEditorActivity() {
       }
 
       manager.notifyProjectUpdate()
+      KotlinLspProjectModel.write(workspace)
       
       
       // Safe to call because we checked for null above
@@ -20,6 +20,7 @@ package com.itsaky.androidide.fragments.output
 import android.os.Bundle
 import android.os.Handler
 import android.os.Looper
+import android.view.LayoutInflater
 import android.view.View
 import com.blankj.utilcode.util.ThreadUtils
 import com.itsaky.androidide.R
@@ -29,7 +30,12 @@ import com.itsaky.androidide.editor.language.treesitter.TreeSitterLanguageProvid
 import com.itsaky.androidide.editor.schemes.IDEColorScheme
 import com.itsaky.androidide.editor.schemes.IDEColorSchemeProvider
 import com.itsaky.androidide.fragments.EmptyStateFragment
+import com.itsaky.androidide.models.LogBuffer
+import com.itsaky.androidide.models.LogBuffer.LogFilter
 import com.itsaky.androidide.models.LogLine
+import com.itsaky.androidide.preferences.databinding.LayoutDialogTextInputBinding
+import com.itsaky.androidide.resources.R.string
+import com.itsaky.androidide.utils.DialogUtils
 import com.itsaky.androidide.utils.ILogger.Level
 import com.itsaky.androidide.utils.jetbrainsMono
 import io.github.rosemoe.sora.widget.style.CursorAnimator
@@ -81,8 +87,26 @@ abstract class LogViewFragment :
      * [TRIM_ON_LINE_COUNT] by a difference of [LOG_FREQUENCY] or preferably, more.
      */
     const val MAX_LINE_COUNT = TRIM_ON_LINE_COUNT - 300
+
+    /**
+     * The number of log records kept in memory. Only the last [MAX_LINE_COUNT] records which match
+     * the current filter are shown in the editor.
+     */
+    const val BUFFER_CAPACITY = 50000
   }
 
+  /**
+   * The structured log records. Access must be synchronized on the buffer itself, as logs are
+   * appended from background threads.
+   */
+  protected val logBuffer = LogBuffer(BUFFER_CAPACITY)
+
+  /**
+   * The filter applied to the logs shown in the editor.
+   */
+  var filter: LogFilter = LogFilter.NONE
+    private set
+
   private var lastLog = -1L
 
   private val cacheLock = ReentrantLock()
@@ -123,19 +147,81 @@ abstract class LogViewFragment :
   }
 
   fun appendLog(line: LogLine) {
-
-    val lineString = if (isSimpleFormattingEnabled()) {
-      line.toSimpleString()
-    } else {
-      line.toString()
+    val lineString = synchronized(logBuffer) {
+      val seq = logBuffer.add(line)
+      if (logBuffer.matches(seq, filter)) {
+        StringBuilder().also { logBuffer.render(seq, isSimpleFormattingEnabled(), it) }
+      } else null
     }
 
     line.recycle()
 
-    appendLine(lineString)
+    lineString?.let { appendToEditor(it.append('\n').toString()) }
   }
 
   protected fun appendLine(line: String) {
+    val matches = synchronized(logBuffer) {
+      logBuffer.matches(logBuffer.add(line.removeSuffix("\n")), filter)
+    }
+
+    if (matches) {
+      appendToEditor(line)
+    }
+  }
+
+  /**
+   * Show only the logs which match the given filter. The editor content is rebuilt from the
+   * indexed log records, without parsing the logs again.
+   */
+  fun applyFilter(filter: LogFilter) {
+    val text = synchronized(logBuffer) {
+      this.filter = filter
+      logBuffer.render(logBuffer.query(filter, MAX_LINE_COUNT), isSimpleFormattingEnabled())
+    }
+
+    cacheLock.withLock {
+      logHandler.removeCallbacks(logRunnable)
+      cache.clear()
+      cacheLineTrack.clear()
+    }
+
+    ThreadUtils.runOnUiThread {
+      _binding?.editor?.setText(text)?.also {
+        emptyStateViewModel.isEmpty.value = text.isEmpty()
+      }
+    }
+  }
+
+  /**
+   * Ask the user for the level and the tag of the logs to show, and apply them with [applyFilter].
+   */
+  fun showFilterDialog() {
+    val context = context ?: return
+    val levels = Level.values()
+    val labels = arrayOf(getString(string.log_filter_all_levels)) +
+        levels.map { it.name.lowercase().replaceFirstChar(Char::uppercaseChar) }
+    var level = filter.level
+
+    val binding = LayoutDialogTextInputBinding.inflate(LayoutInflater.from(context))
+    binding.name.editText!!.setHint(string.hint_log_filter_tag)
+    binding.name.editText!!.setText(filter.tag ?: "")
+
+    val builder = DialogUtils.newMaterialDialogBuilder(context)
+    builder.setTitle(string.title_filter_logs)
+    builder.setSingleChoiceItems(labels, if (level == null) 0 else level.ordinal + 1) { _, which ->
+      level = if (which == 0) null else levels[which - 1]
+    }
+    builder.setView(binding.root)
+    builder.setPositiveButton(android.R.string.ok) { dialog, _ ->
+      dialog.dismiss()
+      val tag = binding.name.editText!!.text.toString()
+      applyFilter(LogFilter(level = level, tag = tag.ifEmpty { null }))
+    }
+    builder.setNegativeButton(android.R.string.cancel, null)
+    builder.show()
+  }
+
+  private fun appendToEditor(line: String) {
     var lineStr = line
     if (!lineStr.endsWith("\n")) {
       lineStr += "\n"
@@ -278,6 +364,9 @@ abstract class LogViewFragment :
   }
 
   override fun clearOutput() {
+    synchronized(logBuffer) {
+      logBuffer.clear()
+    }
     _binding?.editor?.setText("")?.also {
       emptyStateViewModel.isEmpty.value = true
     }
@@ -0,0 +1,116 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.lsp
+
+import com.itsaky.androidide.projects.IWorkspace
+import com.itsaky.androidide.projects.ModuleProject
+import com.itsaky.androidide.projects.android.AndroidModule
+import com.itsaky.androidide.utils.withStopWatch
+import org.slf4j.LoggerFactory
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * Serializes the classpaths of the synced workspace for the Kotlin language server, so that it
+ * does not have to run Gradle again to resolve them.
+ *
+ * The format is read by `ProjectModelClassPathResolver` in `:core:KotlinLsp:shared`, which the
+ * app does not depend on, so the two must be kept in sync.
+ *
+ * @author android_zero
+ */
+object KotlinLspProjectModel {
+
+  private val log = LoggerFactory.getLogger(KotlinLspProjectModel::class.java)
+
+  private const val VERSION = 1
+
+  /**
+   * Files of the root project which affect the classpath. They are recorded even if they do not
+   * exist, so that creating one after the sync also marks the model as stale.
+   */
+  private val ROOT_BUILD_FILES = listOf(
+    "settings.gradle",
+    "settings.gradle.kts",
+    "gradle.properties",
+    "gradle/libs.versions.toml"
+  )
+
+  /**
+   * Write the project model of the given workspace. Must be called after the project has been set
+   * up.
+   */
+  fun write(workspace: IWorkspace) {
+    val projectDir = workspace.getProjectDir()
+    val projects = listOf(workspace.getRootProject()) + workspace.getSubProjects()
+
+    val buildFiles = LinkedHashSet<File>()
+    ROOT_BUILD_FILES.mapTo(buildFiles) { File(projectDir, it) }
+    projects.forEach { project ->
+      buildFiles += project.buildScript
+      // switching a module between the Groovy and the Kotlin DSL changes its build file
+      buildFiles += File(project.projectDir, "build.gradle")
+      buildFiles += File(project.projectDir, "build.gradle.kts")
+    }
+
+    val classpath = LinkedHashSet<File>()
+    projects.filterIsInstance<ModuleProject>().forEach { module ->
+      if (module is AndroidModule) {
+        classpath.addAll(module.bootClassPaths)
+      }
+      classpath.addAll(module.getCompileClasspaths())
+    }
+
+    try {
+      withStopWatch("Write Kotlin LSP project model") {
+        write(projectDir, buildFiles, classpath.filter { it.exists() })
+      }
+    } catch (e: Exception) {
+      // the language server resolves the classpath with Gradle instead
+      log.error("Failed to write the project model for the Kotlin language server", e)
+    }
+  }
+
+  /**
+   * Writes `build/kotlin-lsp/classpath.txt` in the project directory. The file is a list of lines,
+   * `build-file <last modified> <path>` for the build files the classpath was synced from, with a
+   * last modified time of 0 for files which do not exist, and `classpath <path>` for the classpath
+   * entries.
+   */
+  private fun write(projectDir: File, buildFiles: Collection<File>, classpath: Collection<File>) {
+    val file = File(projectDir, "build/kotlin-lsp/classpath.txt")
+    file.parentFile.mkdirs()
+
+    val tmp = File.createTempFile("classpath", ".tmp", file.parentFile)
+    try {
+      tmp.bufferedWriter().use { writer ->
+        writer.appendLine("version $VERSION")
+        buildFiles.forEach {
+          writer.appendLine("build-file ${it.lastModified()} ${it.absolutePath}")
+        }
+        classpath.forEach { writer.appendLine("classpath ${it.absolutePath}") }
+      }
+      // the server may be reading the model while the IDE syncs the project again
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE)
+    } finally {
+      tmp.delete()
+    }
+  }
+}
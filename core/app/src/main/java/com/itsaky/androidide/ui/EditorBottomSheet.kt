@@ -50,6 +50,7 @@ import com.itsaky.androidide.adapters.DiagnosticsAdapter
 import com.itsaky.androidide.adapters.EditorBottomSheetTabAdapter
 import com.itsaky.androidide.adapters.SearchListAdapter
 import com.itsaky.androidide.databinding.LayoutEditorBottomSheetBinding
+import com.itsaky.androidide.fragments.output.LogViewFragment
 import com.itsaky.androidide.fragments.output.ShareableOutputFragment
 import com.itsaky.androidide.models.LogLine
 import com.itsaky.androidide.resources.R.string
@@ -137,6 +138,12 @@ constructor(
             binding.clearFab.hide()
             binding.shareOutputFab.hide()
           }
+
+          if (fragment is LogViewFragment) {
+            binding.filterLogsFab.show()
+          } else {
+            binding.filterLogsFab.hide()
+          }
         }
 
         override fun onTabUnselected(tab: Tab) {}
@@ -173,6 +180,16 @@ constructor(
       (fragment as ShareableOutputFragment).clearOutput()
     }
 
+    TooltipCompat.setTooltipText(binding.filterLogsFab, context.getString(string.title_filter_logs))
+    binding.filterLogsFab.setOnClickListener {
+      val fragment: Fragment = pagerAdapter.getFragmentAtIndex(binding.tabs.selectedTabPosition)
+      if (fragment !is LogViewFragment) {
+        log.error("Unknown fragment: {}", fragment)
+        return@setOnClickListener
+      }
+      fragment.showFilterDialog()
+    }
+
     binding.headerContainer.setOnClickListener {
       if (behavior.state != BottomSheetBehavior.STATE_EXPANDED) {
         behavior.state = BottomSheetBehavior.STATE_EXPANDED
@@ -38,6 +38,7 @@ import com.itsaky.androidide.actions.etc.ReloadColorSchemesAction
 import com.itsaky.androidide.actions.file.CloseAllFilesAction
 import com.itsaky.androidide.actions.file.CloseFileAction
 import com.itsaky.androidide.actions.file.CloseOtherFilesAction
+import com.itsaky.androidide.actions.file.FormatChangedLinesAction
 import com.itsaky.androidide.actions.file.FormatCodeAction
 import com.itsaky.androidide.actions.file.SaveFileAction
 import com.itsaky.androidide.actions.filetree.CopyPathAction
@@ -94,6 +95,7 @@ class EditorActivityActions {
       registry.registerAction(CopyAction(context, order++))
       registry.registerAction(PasteAction(context, order++))
       registry.registerAction(FormatCodeAction(context, order++))
+      registry.registerAction(FormatChangedLinesAction(context, order++))
 
       // file tab actions
       registry.registerAction(CloseFileAction(context, order++))
@@ -10,7 +10,6 @@ import kotlinx.serialization.json.JsonObject
 import me.rerere.ai.core.MessageRole
 import me.rerere.ai.core.TokenUsage
 import me.rerere.ai.provider.Model
-import me.rerere.ai.util.json
 import kotlin.time.Clock
 import kotlin.time.Instant
 import kotlin.uuid.Uuid
@@ -31,121 +30,7 @@ data class UIMessage(
     private fun appendChunk(chunk: MessageChunk): UIMessage {
         val choice = chunk.choices.getOrNull(0)
         return choice?.delta?.let { delta ->
-            // Handle Parts
-            var newParts = delta.parts.fold(parts) { acc, deltaPart ->
-                when (deltaPart) {
-                    is UIMessagePart.Text -> {
-                        val existingTextPart =
-                            acc.find { it is UIMessagePart.Text } as? UIMessagePart.Text
-                        if (existingTextPart != null) {
-                            acc.map { part ->
-                                if (part is UIMessagePart.Text) {
-                                    UIMessagePart.Text(existingTextPart.text + deltaPart.text)
-                                } else part
-                            }
-                        } else {
-                            acc + deltaPart
-                        }
-                    }
-
-                    is UIMessagePart.Image -> {
-                        val existingImagePart =
-                            acc.find { it is UIMessagePart.Image } as? UIMessagePart.Image
-                        if (existingImagePart != null) {
-                            acc.map { part ->
-                                if (part is UIMessagePart.Image) {
-                                    UIMessagePart.Image(
-                                        url = existingImagePart.url + deltaPart.url,
-                                    )
-                                } else part
-                            }
-                        } else {
-                            acc + UIMessagePart.Image(
-                                url = "data:image/png;base64,${deltaPart.url}",
-                            )
-                        }
-                    }
-
-                    is UIMessagePart.Reasoning -> {
-                        val existingReasoningPart =
-                            acc.find { it is UIMessagePart.Reasoning } as? UIMessagePart.Reasoning
-                        if (existingReasoningPart != null) {
-                            acc.map { part ->
-                                if (part is UIMessagePart.Reasoning) {
-                                    UIMessagePart.Reasoning(
-                                        reasoning = existingReasoningPart.reasoning + deltaPart.reasoning,
-                                        createdAt = existingReasoningPart.createdAt,
-                                        finishedAt = null,
-                                    ).also {
-                                        if (deltaPart.metadata != null) {
-                                            it.metadata = deltaPart.metadata // 更新metadata
-                                            println("更新metadata: ${json.encodeToString(deltaPart)}")
-                                        }
-                                    }
-                                } else part
-                            }
-                        } else {
-                            acc + deltaPart
-                        }
-                    }
-
-                    is UIMessagePart.ToolCall -> {
-                        if (deltaPart.toolCallId.isBlank()) {
-                            val lastToolCall =
-                                acc.lastOrNull { it is UIMessagePart.ToolCall } as? UIMessagePart.ToolCall
-                            if (lastToolCall == null || lastToolCall.toolCallId.isBlank()) {
-                                acc + deltaPart.copy()
-                            } else {
-                                acc.map { part ->
-                                    if (part == lastToolCall && part is UIMessagePart.ToolCall) {
-                                        part.merge(deltaPart)
-                                    } else part
-                                }
-                            }
-                        } else {
-                            // insert or update
-                            val existsPart = acc.find {
-                                it is UIMessagePart.ToolCall && it.toolCallId == deltaPart.toolCallId
-                            } as? UIMessagePart.ToolCall
-                            if (existsPart == null) {
-                                // insert
-                                acc + deltaPart.copy()
-                            } else {
-                                // update
-                                acc.map { part ->
-                                    if (part is UIMessagePart.ToolCall && part.toolCallId == deltaPart.toolCallId) {
-                                        part.merge(deltaPart)
-                                    } else part
-                                }
-                            }
-                        }
-                    }
-
-                    else -> {
-                        println("delta part append not supported: $deltaPart")
-                        acc
-                    }
-                }
-            }
-            // Handle Reasoning End
-            if (parts.filterIsInstance<UIMessagePart.Reasoning>()
-                    .isNotEmpty() && delta.parts.filterIsInstance<UIMessagePart.Reasoning>()
-                    .isEmpty()
-            ) {
-                newParts = newParts.map { part ->
-                    if (part is UIMessagePart.Reasoning && part.finishedAt == null) {
-                        part.copy(finishedAt = Clock.System.now())
-                    } else part
-                }
-            }
-            // Handle annotations
-            val newAnnotations = delta.annotations.ifEmpty {
-                annotations
-            }
-            copy(
-                parts = newParts,
-                annotations = newAnnotations,
-            )
+            UIMessageBuilder(this).apply { append(delta) }.build()
         } ?: this
     }
 
@@ -204,6 +89,8 @@ data class UIMessage(
 /**
  * 处理MessageChunk合并
  *
+ * 每次调用都会复制最后一条消息和消息列表, 流式生成时应使用 [MessageChunkAccumulator]
+ *
  * @receiver 已有消息列表
  * @param chunk 消息chunk
  * @param model 模型, 可以不传，如果传了，会把模型id写入到消息，标记是哪个模型输出的消息
@@ -0,0 +1,319 @@
+package me.rerere.ai.ui
+
+import kotlinx.serialization.json.JsonObject
+import me.rerere.ai.core.TokenUsage
+import me.rerere.ai.core.merge
+import me.rerere.ai.provider.Model
+import kotlin.time.Clock
+import kotlin.time.Instant
+
+/**
+ * 流式消息累加器
+ *
+ * 结果与对每个chunk调用 [handleMessageChunk] 相同, 但增量直接追加到最后一条消息各部分的缓冲区中,
+ * 每个chunk的开销只与增量长度有关, 不再复制已有的文本和消息列表
+ *
+ * 通过 [snapshot] 获取不可变的消息列表, 生成过程中应按一定间隔获取, 而不是每个chunk都获取
+ *
+ * 非线程安全
+ *
+ * @param messages 已有消息列表
+ * @param model 模型, 新消息会记录模型id
+ */
+class MessageChunkAccumulator(messages: List<UIMessage>, private val model: Model? = null) {
+    // 除最后一条消息以外的消息
+    private var settled: List<UIMessage>
+    private var tail: UIMessageBuilder
+
+    init {
+        require(messages.isNotEmpty()) {
+            "messages must not be empty"
+        }
+        settled = messages.subList(0, messages.lastIndex).toList()
+        tail = UIMessageBuilder(messages.last())
+    }
+
+    fun append(chunk: MessageChunk) {
+        val choice = chunk.choices.getOrNull(0) ?: return
+        val message = choice.delta ?: choice.message ?: throw Exception("delta/message is null")
+        if (tail.role != message.role) {
+            settled = settled + tail.build()
+            tail = UIMessageBuilder(message.copy(modelId = model?.id))
+        } else {
+            choice.delta?.let { tail.append(it) }
+        }
+    }
+
+    /**
+     * 合并最后一条消息的token用量
+     */
+    fun mergeUsage(usage: TokenUsage) {
+        tail.usage = tail.usage.merge(usage)
+    }
+
+    /**
+     * 当前的消息列表, 只有最后一条消息的变化部分会重新构建
+     */
+    fun snapshot(): List<UIMessage> = SnapshotList(settled, tail.build())
+
+    private class SnapshotList(
+        private val settled: List<UIMessage>,
+        private val tail: UIMessage
+    ) : AbstractList<UIMessage>(), RandomAccess {
+        override val size: Int
+            get() = settled.size + 1
+
+        override fun get(index: Int): UIMessage {
+            return if (index == settled.size) tail else settled[index]
+        }
+    }
+}
+
+/**
+ * 可变的消息, 按 [UIMessage.plus] 的规则合并delta
+ */
+internal class UIMessageBuilder(private val message: UIMessage) {
+    private val parts = message.parts.mapTo(ArrayList()) { PartBuilder.of(it) }
+    private var annotations = message.annotations
+    private var built: UIMessage? = message
+
+    val role get() = message.role
+
+    var usage = message.usage
+        set(value) {
+            field = value
+            built = null
+        }
+
+    fun append(delta: UIMessage) {
+        val hadReasoning = parts.any { it is PartBuilder.Reasoning }
+        delta.parts.forEach { deltaPart ->
+            when (deltaPart) {
+                is UIMessagePart.Text -> {
+                    val existing = parts.filterIsInstance<PartBuilder.Text>()
+                    if (existing.isNotEmpty()) {
+                        existing.first().text.append(deltaPart.text)
+                        existing.forEach { it.appendFrom(existing.first()) }
+                    } else {
+                        parts += PartBuilder.of(deltaPart)
+                    }
+                }
+
+                is UIMessagePart.Image -> {
+                    val existing = parts.filterIsInstance<PartBuilder.Image>()
+                    if (existing.isNotEmpty()) {
+                        existing.first().url.append(deltaPart.url)
+                        existing.forEach { it.appendFrom(existing.first()) }
+                    } else {
+                        parts += PartBuilder.of(
+                            UIMessagePart.Image(url = "data:image/png;base64,${deltaPart.url}")
+                        )
+                    }
+                }
+
+                is UIMessagePart.Reasoning -> {
+                    val existing = parts.filterIsInstance<PartBuilder.Reasoning>()
+                    if (existing.isNotEmpty()) {
+                        existing.first().reasoning.append(deltaPart.reasoning)
+                        existing.forEach { it.appendFrom(existing.first(), deltaPart.metadata) }
+                    } else {
+                        parts += PartBuilder.of(deltaPart)
+                    }
+                }
+
+                is UIMessagePart.ToolCall -> {
+                    if (deltaPart.toolCallId.isBlank()) {
+                        val lastToolCall = parts.lastOrNull { it is PartBuilder.ToolCall } as? PartBuilder.ToolCall
+                        if (lastToolCall == null || lastToolCall.toolCallId.isBlank()) {
+                            parts += PartBuilder.of(deltaPart.copy())
+                        } else {
+                            lastToolCall.merge(deltaPart)
+                        }
+                    } else {
+                        // insert or update
+                        val existing = parts.filter {
+                            it is PartBuilder.ToolCall && it.toolCallId == deltaPart.toolCallId
+                        }
+                        if (existing.isEmpty()) {
+                            parts += PartBuilder.of(deltaPart.copy())
+                        } else {
+                            existing.forEach { (it as PartBuilder.ToolCall).merge(deltaPart) }
+                        }
+                    }
+                }
+
+                else -> {
+                    println("delta part append not supported: $deltaPart")
+                }
+            }
+        }
+        // Handle Reasoning End
+        if (hadReasoning && delta.parts.none { it is UIMessagePart.Reasoning }) {
+            parts.forEach {
+                if (it is PartBuilder.Reasoning && it.finishedAt == null) {
+                    it.finish(Clock.System.now())
+                }
+            }
+        }
+        annotations = delta.annotations.ifEmpty { annotations }
+        built = null
+    }
+
+    fun build(): UIMessage {
+        return built ?: message.copy(
+            parts = parts.map { it.build() },
+            annotations = annotations,
+            usage = usage,
+        ).also { built = it }
+    }
+
+    /**
+     * 消息的一个部分, 构建的结果会被缓存直到它再次改变
+     */
+    private sealed class PartBuilder {
+        private var built: UIMessagePart? = null
+
+        fun build(): UIMessagePart = built ?: create().also { built = it }
+
+        protected fun changed() {
+            built = null
+        }
+
+        protected abstract fun create(): UIMessagePart
+
+        class Fixed(private val part: UIMessagePart) : PartBuilder() {
+            override fun create() = part
+        }
+
+        class Text(val text: TextBuffer, private var metadata: JsonObject?) :
+            PartBuilder() {
+            fun appendFrom(first: Text) {
+                if (first !== this) {
+                    text.set(first.text)
+                }
+                metadata = null
+                changed()
+            }
+
+            override fun create() = UIMessagePart.Text(text.toString(), metadata)
+        }
+
+        class Image(val url: TextBuffer, private var metadata: JsonObject?) :
+            PartBuilder() {
+            fun appendFrom(first: Image) {
+                if (first !== this) {
+                    url.set(first.url)
+                }
+                metadata = null
+                changed()
+            }
+
+            override fun create() = UIMessagePart.Image(url.toString(), metadata)
+        }
+
+        class Reasoning(
+            val reasoning: TextBuffer,
+            private var createdAt: Instant,
+            var finishedAt: Instant?,
+            private var metadata: JsonObject?
+        ) : PartBuilder() {
+            fun appendFrom(first: Reasoning, metadata: JsonObject?) {
+                if (first !== this) {
+                    reasoning.set(first.reasoning)
+                    createdAt = first.createdAt
+                }
+                finishedAt = null
+                this.metadata = metadata
+                changed()
+            }
+
+            fun finish(time: Instant) {
+                finishedAt = time
+                changed()
+            }
+
+            override fun create() = UIMessagePart.Reasoning(
+                reasoning = reasoning.toString(),
+                createdAt = createdAt,
+                finishedAt = finishedAt,
+                metadata = metadata,
+            )
+        }
+
+        class ToolCall(
+            val toolCallId: String,
+            private val toolName: TextBuffer,
+            private val arguments: TextBuffer,
+            private var metadata: JsonObject?
+        ) : PartBuilder() {
+            fun merge(other: UIMessagePart.ToolCall) {
+                toolName.append(other.toolName)
+                arguments.append(other.arguments)
+                if (other.metadata != null) {
+                    metadata = other.metadata
+                }
+                changed()
+            }
+
+            override fun create() = UIMessagePart.ToolCall(
+                toolCallId = toolCallId,
+                toolName = toolName.toString(),
+                arguments = arguments.toString(),
+                metadata = metadata,
+            )
+        }
+
+        companion object {
+            fun of(part: UIMessagePart): PartBuilder = when (part) {
+                is UIMessagePart.Text -> Text(TextBuffer(part.text), part.metadata)
+                is UIMessagePart.Image -> Image(TextBuffer(part.url), part.metadata)
+                is UIMessagePart.Reasoning -> Reasoning(
+                    TextBuffer(part.reasoning),
+                    part.createdAt,
+                    part.finishedAt,
+                    part.metadata
+                )
+
+                is UIMessagePart.ToolCall -> ToolCall(
+                    part.toolCallId,
+                    TextBuffer(part.toolName),
+                    TextBuffer(part.arguments),
+                    part.metadata
+                )
+
+                else -> Fixed(part)
+            }
+        }
+    }
+
+    /**
+     * 只追加一次时直接拼接字符串, 多次追加时才使用StringBuilder
+     */
+    private class TextBuffer(private var text: String) {
+        private var builder: StringBuilder? = null
+        private var appended = false
+
+        fun append(value: String) {
+            val builder = builder
+            when {
+                builder != null -> builder.append(value)
+                !appended -> {
+                    text += value
+                    appended = true
+                }
+
+                else -> this.builder = StringBuilder(text.length * 2 + value.length)
+                    .append(text)
+                    .append(value)
+            }
+        }
+
+        fun set(other: TextBuffer) {
+            text = other.toString()
+            builder = null
+            appended = false
+        }
+
+        override fun toString() = builder?.toString() ?: text
+    }
+}
@@ -0,0 +1,140 @@
+package me.rerere.ai.ui
+
+import kotlinx.serialization.json.JsonPrimitive
+import kotlinx.serialization.json.buildJsonObject
+import me.rerere.ai.core.MessageRole
+import me.rerere.ai.core.TokenUsage
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import kotlin.time.Instant
+
+class MessageChunkAccumulatorTest {
+
+    @Test
+    fun `accumulated messages should equal handleMessageChunk`() {
+        val messages = listOf(UIMessage.user("hello"))
+        val chunks = listOf(
+            assistantChunk(UIMessagePart.Reasoning("think", finishedAt = null)),
+            assistantChunk(UIMessagePart.Reasoning("ing", finishedAt = null, metadata = metadata("r"))),
+            assistantChunk(UIMessagePart.Text("Hel")),
+            assistantChunk(UIMessagePart.Text("lo"), annotations = listOf(UIMessageAnnotation.UrlCitation("t", "u"))),
+            assistantChunk(UIMessagePart.ToolCall("call1", "sea", "{\"q\"")),
+            assistantChunk(UIMessagePart.ToolCall("", "rch", ":1}")),
+            assistantChunk(UIMessagePart.ToolCall("call2", "fetch", "{}", metadata("t"))),
+            assistantChunk(UIMessagePart.ToolCall("call1", "", "")),
+            assistantChunk(UIMessagePart.Image("AAA")),
+            assistantChunk(UIMessagePart.Image("BBB")),
+            assistantChunk(UIMessagePart.Text("!")),
+            chunk(MessageRole.USER, UIMessagePart.Text("next")),
+            chunk(MessageRole.USER, UIMessagePart.Text(" question")),
+        )
+
+        val accumulator = MessageChunkAccumulator(messages)
+        var expected = messages
+        chunks.forEach {
+            accumulator.append(it)
+            expected = expected.handleMessageChunk(it)
+            assertEquals(normalize(expected), normalize(accumulator.snapshot()))
+        }
+        assertEquals(3, expected.size)
+    }
+
+    @Test
+    fun `snapshot should reuse unchanged messages and parts`() {
+        val messages = listOf(UIMessage.user("hello"), UIMessage.assistant("Hi"))
+        val accumulator = MessageChunkAccumulator(messages)
+        accumulator.append(assistantChunk(UIMessagePart.Text(" there")))
+
+        val first = accumulator.snapshot()
+        assertSame(messages[0], first[0])
+        assertEquals("Hi there", first[1].toText())
+        assertSame(first[1], accumulator.snapshot()[1])
+
+        accumulator.mergeUsage(TokenUsage(promptTokens = 1, completionTokens = 2))
+        val second = accumulator.snapshot()
+        assertEquals(3, second[1].usage?.totalTokens)
+        assertSame(first[1].parts[0], second[1].parts[0])
+    }
+
+    @Test
+    fun `benchmark streaming 50k chunks`() {
+        val chunks = List(50_000) { assistantChunk(UIMessagePart.Text("ab${it % 10}")) }
+        val messages = listOf(UIMessage.user("hello"), UIMessage.assistant(""))
+
+        // warm up
+        repeat(3) {
+            chunks.take(5_000).fold(messages) { acc, chunk -> acc.handleMessageChunk(chunk) }
+            val accumulator = MessageChunkAccumulator(messages)
+            chunks.take(5_000).forEach(accumulator::append)
+        }
+
+        var perChunk: List<UIMessage> = messages
+        val (perChunkTime, perChunkAllocated) = measure {
+            chunks.forEach { perChunk = perChunk.handleMessageChunk(it) }
+        }
+
+        var accumulated: List<UIMessage> = messages
+        val (accumulatorTime, accumulatorAllocated) = measure {
+            val accumulator = MessageChunkAccumulator(messages)
+            chunks.forEachIndexed { index, chunk ->
+                accumulator.append(chunk)
+                // throttled snapshots, as the generation handler takes them
+                if (index % 500 == 0) {
+                    accumulated = accumulator.snapshot()
+                }
+            }
+            accumulated = accumulator.snapshot()
+        }
+
+        assertEquals(perChunk, accumulated)
+        println(
+            "50000 chunks: handleMessageChunk $perChunkTime ms, ${perChunkAllocated shr 20} MiB allocated; " +
+                "accumulator $accumulatorTime ms, ${accumulatorAllocated shr 20} MiB allocated"
+        )
+    }
+
+    private fun measure(block: () -> Unit): Pair<Long, Long> {
+        val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val threadId = Thread.currentThread().id
+        val allocated = threads.getThreadAllocatedBytes(threadId)
+        val start = System.nanoTime()
+        block()
+        val time = (System.nanoTime() - start) / 1_000_000
+        return time to threads.getThreadAllocatedBytes(threadId) - allocated
+    }
+
+    // 结束思考的时间不同, 只比较是否已结束
+    private fun normalize(messages: List<UIMessage>) = messages.map { message ->
+        message.copy(parts = message.parts.map { part ->
+            if (part is UIMessagePart.Reasoning) {
+                part.copy(finishedAt = part.finishedAt?.let { Instant.DISTANT_PAST })
+            } else part
+        })
+    }
+
+    private fun metadata(value: String) = buildJsonObject { put("key", JsonPrimitive(value)) }
+
+    private fun assistantChunk(
+        part: UIMessagePart,
+        annotations: List<UIMessageAnnotation> = emptyList()
+    ) = chunk(MessageRole.ASSISTANT, part, annotations)
+
+    private fun chunk(
+        role: MessageRole,
+        part: UIMessagePart,
+        annotations: List<UIMessageAnnotation> = emptyList()
+    ) = MessageChunk(
+        id = "chunk",
+        model = "model",
+        choices = listOf(
+            UIMessageChoice(
+                index = 0,
+                delta = UIMessage(role = role, parts = listOf(part), annotations = annotations),
+                message = null,
+                finishReason = null
+            )
+        )
+    )
+}
@@ -2,6 +2,7 @@ package me.rerere.rikkahub.data.ai
 
 import android.content.Context
 import android.util.Log
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.flow
@@ -28,6 +29,7 @@ import me.rerere.ai.provider.ProviderManager
 import me.rerere.ai.provider.ProviderSetting
 import me.rerere.ai.provider.TextGenerationParams
 import me.rerere.ai.registry.ModelRegistry
+import me.rerere.ai.ui.MessageChunkAccumulator
 import me.rerere.ai.ui.UIMessage
 import me.rerere.ai.ui.UIMessagePart
 import me.rerere.ai.ui.handleMessageChunk
@@ -52,6 +54,9 @@ import java.util.Locale
 
 private const val TAG = "GenerationHandler"
 
+// 流式生成时更新消息的最小间隔(毫秒)
+private const val STREAM_UPDATE_INTERVAL = 50L
+
 @Serializable
 sealed interface GenerationChunk {
     data class Messages(
@@ -282,22 +287,36 @@ class GenerationHandler(
                 providerSetting = provider,
                 stream = true
             ))
-            providerImpl.streamText(
-                providerSetting = provider,
-                messages = internalMessages,
-                params = params
-            ).collect {
-                messages = messages.handleMessageChunk(chunk = it, model = model)
-                it.usage?.let { usage ->
-                    messages = messages.mapIndexed { index, message ->
-                        if (index == messages.lastIndex) {
-                            message.copy(usage = message.usage.merge(usage))
-                        } else {
-                            message
-                        }
+            // 增量追加到最后一条消息, 按间隔更新消息列表
+            val accumulator = MessageChunkAccumulator(messages, model)
+            var lastUpdate = 0L
+            var pendingUpdate = false
+            try {
+                providerImpl.streamText(
+                    providerSetting = provider,
+                    messages = internalMessages,
+                    params = params
+                ).collect {
+                    accumulator.append(it)
+                    it.usage?.let(accumulator::mergeUsage)
+                    val now = System.currentTimeMillis()
+                    if (now - lastUpdate >= STREAM_UPDATE_INTERVAL) {
+                        lastUpdate = now
+                        pendingUpdate = false
+                        onUpdateMessages(accumulator.snapshot())
+                    } else {
+                        pendingUpdate = true
                     }
                 }
-                onUpdateMessages(messages)
+            } catch (e: Exception) {
+                // 保留出错前已收到的内容
+                if (pendingUpdate && e !is CancellationException) {
+                    onUpdateMessages(accumulator.snapshot())
+                }
+                throw e
+            }
+            if (pendingUpdate) {
+                onUpdateMessages(accumulator.snapshot())
             }
         } else {
             aiLoggingManager.addLog(AILogging.Generation(
@@ -488,8 +507,18 @@ class GenerationHandler(
                 "target_lang" to targetLanguage.toString(),
             )
 
-            var messages = listOf(UIMessage.user(prompt))
-            var translatedText = ""
+            val messages = listOf(UIMessage.user(prompt))
+            val accumulator = MessageChunkAccumulator(messages)
+            var lastUpdate = 0L
+            var pendingUpdate = false
+
+            suspend fun update() {
+                val translatedText = accumulator.snapshot().last().toText()
+                if (translatedText.isNotBlank()) {
+                    onStreamUpdate?.invoke(translatedText)
+                    emit(translatedText)
+                }
+            }
 
             providerHandler.streamText(
                 providerSetting = provider,
@@ -499,14 +528,19 @@ class GenerationHandler(
                     temperature = 0.3f,
                 ),
             ).collect { chunk ->
-                messages = messages.handleMessageChunk(chunk)
-                translatedText = messages.lastOrNull()?.toText() ?: ""
-
-                if (translatedText.isNotBlank()) {
-                    onStreamUpdate?.invoke(translatedText)
-                    emit(translatedText)
+                accumulator.append(chunk)
+                val now = System.currentTimeMillis()
+                if (now - lastUpdate >= STREAM_UPDATE_INTERVAL) {
+                    lastUpdate = now
+                    pendingUpdate = false
+                    update()
+                } else {
+                    pendingUpdate = true
                 }
             }
+            if (pendingUpdate) {
+                update()
+            }
         } else {
             // Use Qwen MT model with special translation options
             val messages = listOf(UIMessage.user(sourceText))
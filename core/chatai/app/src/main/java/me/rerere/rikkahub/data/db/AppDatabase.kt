@@ -15,17 +15,28 @@ import me.rerere.ai.ui.UIMessage
 import me.rerere.rikkahub.data.db.dao.ConversationDAO
 import me.rerere.rikkahub.data.db.dao.GenMediaDAO
 import me.rerere.rikkahub.data.db.dao.MemoryDAO
+import me.rerere.rikkahub.data.db.dao.MessageDAO
 import me.rerere.rikkahub.data.db.entity.ConversationEntity
 import me.rerere.rikkahub.data.db.entity.GenMediaEntity
 import me.rerere.rikkahub.data.db.entity.MemoryEntity
+import me.rerere.rikkahub.data.db.entity.MessageEntity
+import me.rerere.rikkahub.data.db.entity.MessageFtsEntity
+import me.rerere.rikkahub.data.db.entity.MessageNodeEntity
 import me.rerere.rikkahub.data.model.MessageNode
 import me.rerere.rikkahub.utils.JsonInstant
 
 private const val TAG = "AppDatabase"
 
 @Database(
-    entities = [ConversationEntity::class, MemoryEntity::class, GenMediaEntity::class],
-    version = 11,
+    entities = [
+        ConversationEntity::class,
+        MemoryEntity::class,
+        GenMediaEntity::class,
+        MessageNodeEntity::class,
+        MessageEntity::class,
+        MessageFtsEntity::class,
+    ],
+    version = 12,
     autoMigrations = [
         AutoMigration(from = 1, to = 2),
         AutoMigration(from = 2, to = 3),
@@ -44,6 +55,8 @@ abstract class AppDatabase : RoomDatabase() {
 
     abstract fun memoryDao(): MemoryDAO
 
+    abstract fun messageDao(): MessageDAO
+
     abstract fun genMediaDao(): GenMediaDAO
 }
 
@@ -150,3 +163,97 @@ val Migration_6_7 = object : Migration(6, 7) {
 
 @DeleteColumn(tableName = "ConversationEntity", columnName = "usage")
 class Migration_8_9 : AutoMigrationSpec
+
+val Migration_11_12 = object : Migration(11, 12) {
+    override fun migrate(db: SupportSQLiteDatabase) {
+        Log.i(TAG, "migrate: start migrate from 11 to 12")
+        db.beginTransaction()
+        try {
+            // 创建新表结构（不包含nodes列）
+            db.execSQL(
+                """
+                CREATE TABLE ConversationEntity_new (
+                    `id` TEXT NOT NULL,
+                    `assistant_id` TEXT NOT NULL DEFAULT '0950e2dc-9bd5-4801-afa3-aa887aa36b4e',
+                    `title` TEXT NOT NULL,
+                    `create_at` INTEGER NOT NULL,
+                    `update_at` INTEGER NOT NULL,
+                    `truncate_index` INTEGER NOT NULL DEFAULT -1,
+                    `suggestions` TEXT NOT NULL DEFAULT '[]',
+                    `is_pinned` INTEGER NOT NULL DEFAULT 0,
+                    PRIMARY KEY(`id`)
+                )
+            """.trimIndent()
+            )
+            db.execSQL(
+                """
+                INSERT INTO ConversationEntity_new (id, assistant_id, title, create_at, update_at, truncate_index, suggestions, is_pinned)
+                SELECT id, assistant_id, title, create_at, update_at, truncate_index, suggestions, is_pinned FROM ConversationEntity
+            """.trimIndent()
+            )
+
+            // 先把旧的nodes读出来, 再删除旧表
+            val cursor = db.query("SELECT id, nodes FROM ConversationEntity")
+            val blobs = mutableListOf<Pair<String, String>>()
+            while (cursor.moveToNext()) {
+                blobs.add(cursor.getString(0) to cursor.getString(1))
+            }
+            cursor.close()
+
+            db.execSQL("DROP TABLE ConversationEntity")
+            db.execSQL("ALTER TABLE ConversationEntity_new RENAME TO ConversationEntity")
+
+            createMessageTables(db)
+
+            var messageCount = 0
+            blobs.forEach { (conversationId, nodesJson) ->
+                val nodes = try {
+                    JsonInstant.decodeFromString<List<MessageNode>>(nodesJson)
+                } catch (e: Exception) {
+                    Log.e(TAG, "migrate: failed to decode nodes of conversation $conversationId", e)
+                    return@forEach
+                }
+                val (writeSet, _) = diffMessageRows(conversationId, PersistedMessages.EMPTY, nodes)
+                writeSet.nodeUpserts.forEach { node ->
+                    db.execSQL(
+                        "INSERT OR REPLACE INTO MessageNodeEntity (id, conversation_id, node_index, select_index) VALUES (?, ?, ?, ?)",
+                        arrayOf(node.id, node.conversationId, node.nodeIndex, node.selectIndex)
+                    )
+                }
+                writeSet.messageUpserts.forEach { message ->
+                    db.execSQL(
+                        "INSERT OR REPLACE INTO MessageEntity (id, conversation_id, node_id, message_index, content, text) VALUES (?, ?, ?, ?, ?, ?)",
+                        arrayOf(
+                            message.id,
+                            message.conversationId,
+                            message.nodeId,
+                            message.messageIndex,
+                            message.content,
+                            message.text
+                        )
+                    )
+                }
+                messageCount += writeSet.messageUpserts.size
+            }
+
+            db.setTransactionSuccessful()
+
+            Log.i(TAG, "migrate: migrate from 11 to 12 success (${blobs.size} conversations, $messageCount messages)")
+        } finally {
+            db.endTransaction()
+        }
+    }
+}
+
+private fun createMessageTables(db: SupportSQLiteDatabase) {
+    db.execSQL("CREATE TABLE IF NOT EXISTS `MessageNodeEntity` (`id` TEXT NOT NULL, `conversation_id` TEXT NOT NULL, `node_index` INTEGER NOT NULL, `select_index` INTEGER NOT NULL, PRIMARY KEY(`conversation_id`, `id`), FOREIGN KEY(`conversation_id`) REFERENCES `ConversationEntity`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+    db.execSQL("CREATE INDEX IF NOT EXISTS `index_MessageNodeEntity_conversation_id` ON `MessageNodeEntity` (`conversation_id`)")
+    db.execSQL("CREATE TABLE IF NOT EXISTS `MessageEntity` (`id` TEXT NOT NULL, `conversation_id` TEXT NOT NULL, `node_id` TEXT NOT NULL, `message_index` INTEGER NOT NULL, `content` TEXT NOT NULL, `text` TEXT NOT NULL, PRIMARY KEY(`conversation_id`, `id`), FOREIGN KEY(`conversation_id`) REFERENCES `ConversationEntity`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )")
+    db.execSQL("CREATE INDEX IF NOT EXISTS `index_MessageEntity_conversation_id_node_id` ON `MessageEntity` (`conversation_id`, `node_id`)")
+    db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `MessageFtsEntity` USING FTS4(`text` TEXT NOT NULL, content=`MessageEntity`)")
+    // 与 Room 为外部内容 FTS 表生成的触发器保持一致
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_MessageFtsEntity_BEFORE_UPDATE BEFORE UPDATE ON `MessageEntity` BEGIN DELETE FROM `MessageFtsEntity` WHERE `docid`=OLD.`rowid`; END")
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_MessageFtsEntity_BEFORE_DELETE BEFORE DELETE ON `MessageEntity` BEGIN DELETE FROM `MessageFtsEntity` WHERE `docid`=OLD.`rowid`; END")
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_MessageFtsEntity_AFTER_UPDATE AFTER UPDATE ON `MessageEntity` BEGIN INSERT INTO `MessageFtsEntity`(`docid`, `text`) VALUES (NEW.`rowid`, NEW.`text`); END")
+    db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_MessageFtsEntity_AFTER_INSERT AFTER INSERT ON `MessageEntity` BEGIN INSERT INTO `MessageFtsEntity`(`docid`, `text`) VALUES (NEW.`rowid`, NEW.`text`); END")
+}
@@ -0,0 +1,133 @@
+package me.rerere.rikkahub.data.db
+
+import me.rerere.ai.ui.UIMessage
+import me.rerere.rikkahub.data.db.entity.MessageEntity
+import me.rerere.rikkahub.data.db.entity.MessageNodeEntity
+import me.rerere.rikkahub.data.model.MessageNode
+import me.rerere.rikkahub.utils.JsonInstant
+import kotlin.uuid.Uuid
+
+/**
+ * 已经写入数据库的消息快照, 用于计算下一次保存时真正需要写入的行
+ *
+ * messages 以消息 id 为 key, 保存写入时所在的节点、位置以及消息本身
+ */
+class PersistedMessages(
+    val nodes: Map<String, MessageNodeEntity>,
+    val messages: Map<String, PersistedMessage>,
+) {
+    companion object {
+        val EMPTY = PersistedMessages(emptyMap(), emptyMap())
+    }
+}
+
+data class PersistedMessage(
+    val nodeId: String,
+    val messageIndex: Int,
+    val message: UIMessage,
+)
+
+/**
+ * 一次保存需要执行的写操作, 只包含发生变化的节点和消息
+ */
+data class MessageWriteSet(
+    val nodeUpserts: List<MessageNodeEntity>,
+    val nodeDeletes: List<String>,
+    val messageUpserts: List<MessageEntity>,
+    val messageDeletes: List<String>,
+) {
+    val isEmpty: Boolean
+        get() = nodeUpserts.isEmpty() && nodeDeletes.isEmpty() && messageUpserts.isEmpty() && messageDeletes.isEmpty()
+}
+
+fun UIMessage.toMessageEntity(conversationId: String, nodeId: String, messageIndex: Int) = MessageEntity(
+    id = id.toString(),
+    conversationId = conversationId,
+    nodeId = nodeId,
+    messageIndex = messageIndex,
+    content = JsonInstant.encodeToString(this),
+    text = toText(),
+)
+
+/**
+ * 对比上一次写入的快照, 计算需要 upsert / delete 的行
+ *
+ * 流式生成时通常只有最后一条消息发生变化, 因此只会序列化并写入这一条消息,
+ * 而不是像以前一样重写整个 nodes JSON
+ */
+fun diffMessageRows(
+    conversationId: String,
+    previous: PersistedMessages,
+    nodes: List<MessageNode>,
+): Pair<MessageWriteSet, PersistedMessages> {
+    val nodeUpserts = arrayListOf<MessageNodeEntity>()
+    val messageUpserts = arrayListOf<MessageEntity>()
+    val currentNodes = HashMap<String, MessageNodeEntity>(nodes.size * 2)
+    val currentMessages = HashMap<String, PersistedMessage>(nodes.size * 2)
+
+    nodes.forEachIndexed { nodeIndex, node ->
+        val nodeId = node.id.toString()
+        val nodeEntity = MessageNodeEntity(
+            id = nodeId,
+            conversationId = conversationId,
+            nodeIndex = nodeIndex,
+            selectIndex = node.selectIndex,
+        )
+        currentNodes[nodeId] = nodeEntity
+        if (previous.nodes[nodeId] != nodeEntity) {
+            nodeUpserts.add(nodeEntity)
+        }
+
+        node.messages.forEachIndexed { messageIndex, message ->
+            val messageId = message.id.toString()
+            val persisted = PersistedMessage(nodeId, messageIndex, message)
+            currentMessages[messageId] = persisted
+            val old = previous.messages[messageId]
+            // 同一个对象直接跳过, 避免对未变化的消息做深度比较
+            if (old == null || old.nodeId != nodeId || old.messageIndex != messageIndex ||
+                (old.message !== message && old.message != message)
+            ) {
+                messageUpserts.add(message.toMessageEntity(conversationId, nodeId, messageIndex))
+            }
+        }
+    }
+
+    val nodeDeletes = previous.nodes.keys.filter { it !in currentNodes }
+    val messageDeletes = previous.messages.keys.filter { it !in currentMessages }
+
+    return MessageWriteSet(
+        nodeUpserts = nodeUpserts,
+        nodeDeletes = nodeDeletes,
+        messageUpserts = messageUpserts,
+        messageDeletes = messageDeletes,
+    ) to PersistedMessages(currentNodes, currentMessages)
+}
+
+/**
+ * 从数据库行还原消息节点, 同时返回对应的快照
+ */
+fun restoreMessageNodes(
+    nodeEntities: List<MessageNodeEntity>,
+    messageEntities: List<MessageEntity>,
+): Pair<List<MessageNode>, PersistedMessages> {
+    val messagesByNode = messageEntities.groupBy { it.nodeId }
+    val persistedMessages = HashMap<String, PersistedMessage>(messageEntities.size * 2)
+    val nodes = nodeEntities
+        .sortedBy { it.nodeIndex }
+        .map { nodeEntity ->
+            val messages = messagesByNode[nodeEntity.id]
+                .orEmpty()
+                .sortedBy { it.messageIndex }
+                .map { entity ->
+                    val message = JsonInstant.decodeFromString<UIMessage>(entity.content)
+                    persistedMessages[entity.id] = PersistedMessage(entity.nodeId, entity.messageIndex, message)
+                    message
+                }
+            MessageNode(
+                id = Uuid.parse(nodeEntity.id),
+                messages = messages,
+                selectIndex = nodeEntity.selectIndex,
+            )
+        }
+    return nodes to PersistedMessages(nodeEntities.associateBy { it.id }, persistedMessages)
+}
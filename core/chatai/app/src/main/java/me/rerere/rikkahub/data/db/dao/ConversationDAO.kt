@@ -27,17 +27,17 @@ interface ConversationDAO {
     @Query("SELECT * FROM conversationentity WHERE assistant_id = :assistantId ORDER BY is_pinned DESC, update_at DESC LIMIT :limit")
     suspend fun getRecentConversationsOfAssistant(assistantId: String, limit: Int): List<ConversationEntity>
 
-    @Query("SELECT * FROM conversationentity WHERE title LIKE '%' || :searchText || '%' ORDER BY is_pinned DESC, update_at DESC")
-    fun searchConversations(searchText: String): Flow<List<ConversationEntity>>
+    @Query("SELECT * FROM conversationentity WHERE (title LIKE '%' || :searchText || '%' OR id IN (SELECT conversation_id FROM messageentity WHERE rowid IN (SELECT docid FROM messageftsentity WHERE messageftsentity MATCH :ftsQuery))) ORDER BY is_pinned DESC, update_at DESC")
+    fun searchConversations(searchText: String, ftsQuery: String): Flow<List<ConversationEntity>>
 
-    @Query("SELECT id, assistant_id as assistantId, title, is_pinned as isPinned, create_at as createAt, update_at as updateAt FROM conversationentity WHERE title LIKE '%' || :searchText || '%' ORDER BY is_pinned DESC, update_at DESC")
-    fun searchConversationsPaging(searchText: String): PagingSource<Int, LightConversationEntity>
+    @Query("SELECT id, assistant_id as assistantId, title, is_pinned as isPinned, create_at as createAt, update_at as updateAt FROM conversationentity WHERE (title LIKE '%' || :searchText || '%' OR id IN (SELECT conversation_id FROM messageentity WHERE rowid IN (SELECT docid FROM messageftsentity WHERE messageftsentity MATCH :ftsQuery))) ORDER BY is_pinned DESC, update_at DESC")
+    fun searchConversationsPaging(searchText: String, ftsQuery: String): PagingSource<Int, LightConversationEntity>
 
-    @Query("SELECT * FROM conversationentity WHERE assistant_id = :assistantId AND title LIKE '%' || :searchText || '%' ORDER BY is_pinned DESC, update_at DESC")
-    fun searchConversationsOfAssistant(assistantId: String, searchText: String): Flow<List<ConversationEntity>>
+    @Query("SELECT * FROM conversationentity WHERE assistant_id = :assistantId AND (title LIKE '%' || :searchText || '%' OR id IN (SELECT conversation_id FROM messageentity WHERE rowid IN (SELECT docid FROM messageftsentity WHERE messageftsentity MATCH :ftsQuery))) ORDER BY is_pinned DESC, update_at DESC")
+    fun searchConversationsOfAssistant(assistantId: String, searchText: String, ftsQuery: String): Flow<List<ConversationEntity>>
 
-    @Query("SELECT id, assistant_id as assistantId, title, is_pinned as isPinned, create_at as createAt, update_at as updateAt FROM conversationentity WHERE assistant_id = :assistantId AND title LIKE '%' || :searchText || '%' ORDER BY is_pinned DESC, update_at DESC")
-    fun searchConversationsOfAssistantPaging(assistantId: String, searchText: String): PagingSource<Int, LightConversationEntity>
+    @Query("SELECT id, assistant_id as assistantId, title, is_pinned as isPinned, create_at as createAt, update_at as updateAt FROM conversationentity WHERE assistant_id = :assistantId AND (title LIKE '%' || :searchText || '%' OR id IN (SELECT conversation_id FROM messageentity WHERE rowid IN (SELECT docid FROM messageftsentity WHERE messageftsentity MATCH :ftsQuery))) ORDER BY is_pinned DESC, update_at DESC")
+    fun searchConversationsOfAssistantPaging(assistantId: String, searchText: String, ftsQuery: String): PagingSource<Int, LightConversationEntity>
 
     @Query("SELECT * FROM conversationentity WHERE id = :id")
     fun getConversationFlowById(id: String): Flow<ConversationEntity?>
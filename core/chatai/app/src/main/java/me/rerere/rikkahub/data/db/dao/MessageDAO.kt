@@ -0,0 +1,48 @@
+package me.rerere.rikkahub.data.db.dao
+
+import androidx.room.Dao
+import androidx.room.Query
+import androidx.room.Transaction
+import androidx.room.Upsert
+import me.rerere.rikkahub.data.db.entity.MessageEntity
+import me.rerere.rikkahub.data.db.entity.MessageNodeEntity
+
+/**
+ * 同一个会话在同一次读取中得到的节点和消息
+ */
+data class ConversationMessageRows(
+    val nodes: List<MessageNodeEntity>,
+    val messages: List<MessageEntity>,
+)
+
+@Dao
+interface MessageDAO {
+    @Query("SELECT * FROM messagenodeentity WHERE conversation_id = :conversationId ORDER BY node_index ASC")
+    suspend fun getNodesOfConversation(conversationId: String): List<MessageNodeEntity>
+
+    @Query("SELECT * FROM messageentity WHERE conversation_id = :conversationId ORDER BY node_id, message_index ASC")
+    suspend fun getMessagesOfConversation(conversationId: String): List<MessageEntity>
+
+    /**
+     * 在同一个事务中读取节点和消息, 避免并发写入导致两次查询看到不同的数据
+     */
+    @Transaction
+    suspend fun getRowsOfConversation(conversationId: String): ConversationMessageRows {
+        return ConversationMessageRows(
+            nodes = getNodesOfConversation(conversationId),
+            messages = getMessagesOfConversation(conversationId),
+        )
+    }
+
+    @Upsert
+    suspend fun upsertNodes(nodes: List<MessageNodeEntity>)
+
+    @Upsert
+    suspend fun upsertMessages(messages: List<MessageEntity>)
+
+    @Query("DELETE FROM messagenodeentity WHERE conversation_id = :conversationId AND id IN (:ids)")
+    suspend fun deleteNodes(conversationId: String, ids: List<String>)
+
+    @Query("DELETE FROM messageentity WHERE conversation_id = :conversationId AND id IN (:ids)")
+    suspend fun deleteMessages(conversationId: String, ids: List<String>)
+}
@@ -12,8 +12,6 @@ data class ConversationEntity(
     val assistantId: String,
     @ColumnInfo("title")
     val title: String,
-    @ColumnInfo("nodes")
-    val nodes: String,
     @ColumnInfo("create_at")
     val createAt: Long,
     @ColumnInfo("update_at")
@@ -0,0 +1,36 @@
+package me.rerere.rikkahub.data.db.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.ForeignKey
+import androidx.room.Index
+
+/**
+ * 单条消息, content 为序列化后的 UIMessage, text 为用于全文搜索的纯文本
+ */
+@Entity(
+    primaryKeys = ["conversation_id", "id"],
+    foreignKeys = [
+        ForeignKey(
+            entity = ConversationEntity::class,
+            parentColumns = ["id"],
+            childColumns = ["conversation_id"],
+            onDelete = ForeignKey.CASCADE
+        )
+    ],
+    indices = [Index("conversation_id", "node_id")]
+)
+data class MessageEntity(
+    @ColumnInfo("id")
+    val id: String,
+    @ColumnInfo("conversation_id")
+    val conversationId: String,
+    @ColumnInfo("node_id")
+    val nodeId: String,
+    @ColumnInfo("message_index")
+    val messageIndex: Int,
+    @ColumnInfo("content")
+    val content: String,
+    @ColumnInfo("text")
+    val text: String,
+)
@@ -0,0 +1,15 @@
+package me.rerere.rikkahub.data.db.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Fts4
+
+/**
+ * MessageEntity.text 的外部内容全文索引, 由 Room 生成的触发器保持同步
+ */
+@Fts4(contentEntity = MessageEntity::class)
+@Entity
+data class MessageFtsEntity(
+    @ColumnInfo("text")
+    val text: String,
+)
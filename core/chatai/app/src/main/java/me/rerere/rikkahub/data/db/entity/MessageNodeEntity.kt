@@ -0,0 +1,29 @@
+package me.rerere.rikkahub.data.db.entity
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.ForeignKey
+import androidx.room.Index
+
+@Entity(
+    primaryKeys = ["conversation_id", "id"],
+    foreignKeys = [
+        ForeignKey(
+            entity = ConversationEntity::class,
+            parentColumns = ["id"],
+            childColumns = ["conversation_id"],
+            onDelete = ForeignKey.CASCADE
+        )
+    ],
+    indices = [Index("conversation_id")]
+)
+data class MessageNodeEntity(
+    @ColumnInfo("id")
+    val id: String,
+    @ColumnInfo("conversation_id")
+    val conversationId: String,
+    @ColumnInfo("node_index")
+    val nodeIndex: Int,
+    @ColumnInfo("select_index")
+    val selectIndex: Int,
+)
@@ -5,27 +5,46 @@ import androidx.paging.Pager
 import androidx.paging.PagingConfig
 import androidx.paging.PagingData
 import androidx.paging.map
+import androidx.room.withTransaction
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.flow.map
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import me.rerere.rikkahub.data.db.AppDatabase
+import me.rerere.rikkahub.data.db.PersistedMessages
 import me.rerere.rikkahub.data.db.dao.ConversationDAO
+import me.rerere.rikkahub.data.db.dao.MessageDAO
+import me.rerere.rikkahub.data.db.diffMessageRows
 import me.rerere.rikkahub.data.db.entity.ConversationEntity
+import me.rerere.rikkahub.data.db.restoreMessageNodes
 import me.rerere.rikkahub.data.model.Conversation
 import me.rerere.rikkahub.data.model.MessageNode
 import me.rerere.rikkahub.utils.JsonInstant
 import me.rerere.rikkahub.utils.deleteChatFiles
 import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.uuid.Uuid
 
 class ConversationRepository(
     private val context: Context,
     private val conversationDAO: ConversationDAO,
+    private val messageDAO: MessageDAO,
+    private val database: AppDatabase,
 ) {
     companion object {
         private const val PAGE_SIZE = 20
         private const val INITIAL_LOAD_SIZE = 40
+
+        // SQLite 单条语句的参数数量有上限, 批量删除时分块执行
+        private const val DELETE_CHUNK_SIZE = 500
     }
 
+    // 每个会话最近一次写入数据库的消息快照, 用于只写入发生变化的消息
+    // 只在持有 writeMutex 时读写, 读取会话不会更新快照, 避免旧的读取结果覆盖更新的快照
+    private val persistedMessages = ConcurrentHashMap<String, PersistedMessages>()
+    private val writeMutex = Mutex()
+
     suspend fun getRecentConversations(assistantId: Uuid, limit: Int = 10): List<Conversation> {
         return conversationDAO.getRecentConversationsOfAssistant(
             assistantId = assistantId.toString(),
@@ -58,7 +77,7 @@ class ConversationRepository(
 
     fun searchConversations(titleKeyword: String): Flow<List<Conversation>> {
         return conversationDAO
-            .searchConversations(titleKeyword)
+            .searchConversations(titleKeyword, titleKeyword.toFtsQuery())
             .map { flow ->
                 flow.map { entity ->
                     conversationEntityToConversation(entity)
@@ -72,7 +91,7 @@ class ConversationRepository(
             initialLoadSize = INITIAL_LOAD_SIZE,
             enablePlaceholders = false
         ),
-        pagingSourceFactory = { conversationDAO.searchConversationsPaging(titleKeyword) }
+        pagingSourceFactory = { conversationDAO.searchConversationsPaging(titleKeyword, titleKeyword.toFtsQuery()) }
     ).flow.map { pagingData ->
         pagingData.map { entity ->
             conversationSummaryToConversation(entity)
@@ -81,7 +100,7 @@ class ConversationRepository(
 
     fun searchConversationsOfAssistant(assistantId: Uuid, titleKeyword: String): Flow<List<Conversation>> {
         return conversationDAO
-            .searchConversationsOfAssistant(assistantId.toString(), titleKeyword)
+            .searchConversationsOfAssistant(assistantId.toString(), titleKeyword, titleKeyword.toFtsQuery())
             .map { flow ->
                 flow.map { entity ->
                     conversationEntityToConversation(entity)
@@ -95,7 +114,7 @@ class ConversationRepository(
             initialLoadSize = INITIAL_LOAD_SIZE,
             enablePlaceholders = false
         ),
-        pagingSourceFactory = { conversationDAO.searchConversationsOfAssistantPaging(assistantId.toString(), titleKeyword) }
+        pagingSourceFactory = { conversationDAO.searchConversationsOfAssistantPaging(assistantId.toString(), titleKeyword, titleKeyword.toFtsQuery()) }
     ).flow.map { pagingData ->
         pagingData.map { entity ->
             conversationSummaryToConversation(entity)
@@ -109,22 +128,32 @@ class ConversationRepository(
         } else null
     }
 
-    suspend fun insertConversation(conversation: Conversation) {
-        conversationDAO.insert(
-            conversationToConversationEntity(conversation)
-        )
+    suspend fun insertConversation(conversation: Conversation) = writeMutex.withLock {
+        database.withTransaction {
+            conversationDAO.insert(
+                conversationToConversationEntity(conversation)
+            )
+            writeMessageNodes(conversation.id.toString(), conversation.messageNodes)
+        }
     }
 
-    suspend fun updateConversation(conversation: Conversation) {
-        conversationDAO.update(
-            conversationToConversationEntity(conversation)
-        )
+    suspend fun updateConversation(conversation: Conversation) = writeMutex.withLock {
+        database.withTransaction {
+            conversationDAO.update(
+                conversationToConversationEntity(conversation)
+            )
+            writeMessageNodes(conversation.id.toString(), conversation.messageNodes)
+        }
     }
 
     suspend fun deleteConversation(conversation: Conversation) {
-        conversationDAO.delete(
-            conversationToConversationEntity(conversation)
-        )
+        writeMutex.withLock {
+            // 节点和消息通过外键级联删除
+            conversationDAO.delete(
+                conversationToConversationEntity(conversation)
+            )
+            persistedMessages.remove(conversation.id.toString())
+        }
         context.deleteChatFiles(conversation.files)
     }
 
@@ -138,7 +167,6 @@ class ConversationRepository(
         return ConversationEntity(
             id = conversation.id.toString(),
             title = conversation.title,
-            nodes = JsonInstant.encodeToString(conversation.messageNodes),
             createAt = conversation.createAt.toEpochMilli(),
             updateAt = conversation.updateAt.toEpochMilli(),
             assistantId = conversation.assistantId.toString(),
@@ -148,9 +176,8 @@ class ConversationRepository(
         )
     }
 
-    fun conversationEntityToConversation(conversationEntity: ConversationEntity): Conversation {
-        val messageNodes = JsonInstant
-            .decodeFromString<List<MessageNode>>(conversationEntity.nodes)
+    suspend fun conversationEntityToConversation(conversationEntity: ConversationEntity): Conversation {
+        val messageNodes = loadMessageNodes(conversationEntity.id)
             .filter { it.messages.isNotEmpty() }
         return Conversation(
             id = Uuid.parse(conversationEntity.id),
@@ -182,6 +209,39 @@ class ConversationRepository(
         )
     }
 
+    private suspend fun loadMessageNodes(conversationId: String): List<MessageNode> {
+        val rows = messageDAO.getRowsOfConversation(conversationId)
+        return restoreMessageNodes(
+            nodeEntities = rows.nodes,
+            messageEntities = rows.messages,
+        ).first
+    }
+
+    /**
+     * 只写入和上一次快照相比发生变化的节点和消息, 必须在持有 writeMutex 时在事务中调用
+     */
+    private suspend fun writeMessageNodes(conversationId: String, nodes: List<MessageNode>) {
+        val previous = persistedMessages[conversationId] ?: messageDAO.getRowsOfConversation(conversationId).let {
+            restoreMessageNodes(nodeEntities = it.nodes, messageEntities = it.messages).second
+        }
+        val (writeSet, snapshot) = diffMessageRows(conversationId, previous, nodes)
+        try {
+            writeSet.messageDeletes.chunked(DELETE_CHUNK_SIZE).forEach {
+                messageDAO.deleteMessages(conversationId, it)
+            }
+            writeSet.nodeDeletes.chunked(DELETE_CHUNK_SIZE).forEach {
+                messageDAO.deleteNodes(conversationId, it)
+            }
+            if (writeSet.nodeUpserts.isNotEmpty()) messageDAO.upsertNodes(writeSet.nodeUpserts)
+            if (writeSet.messageUpserts.isNotEmpty()) messageDAO.upsertMessages(writeSet.messageUpserts)
+            persistedMessages[conversationId] = snapshot
+        } catch (e: Exception) {
+            // 快照可能与数据库不一致, 下次写入时重新从数据库读取
+            persistedMessages.remove(conversationId)
+            throw e
+        }
+    }
+
     private fun conversationSummaryToConversation(entity: LightConversationEntity): Conversation {
         return Conversation(
             id = Uuid.parse(entity.id),
@@ -195,6 +255,19 @@ class ConversationRepository(
     }
 }
 
+/**
+ * 把用户输入转换为 FTS MATCH 表达式, 每个词按前缀匹配, 词之间为 AND 关系
+ */
+internal fun String.toFtsQuery(): String {
+    // FTS 短语中无法转义双引号, 直接去掉
+    val terms = trim()
+        .split(Regex("\\s+"))
+        .map { it.replace("\"", "") }
+        .filter { it.isNotEmpty() }
+    if (terms.isEmpty()) return "\"\""
+    return terms.joinToString(" ") { term -> "\"$term\"*" }
+}
+
 /**
  * 轻量级的会话查询结果，不包含 nodes 和 suggestions 字段
  */
@@ -7,7 +7,7 @@ import org.koin.dsl.module
 
 val repositoryModule = module {
     single {
-        ConversationRepository(get(), get())
+        ConversationRepository(get(), get(), get(), get())
     }
 
     single {
@@ -164,7 +164,8 @@ fun HighlightCodeBlock(
                 colors = colorPalette,
                 overflow = TextOverflow.Visible,
                 softWrap = autoWrap,
-                fontFamily = JetbrainsMono
+                fontFamily = JetbrainsMono,
+                streaming = !completeCodeBlock,
             )
         }
 
@@ -0,0 +1,61 @@
+package me.rerere.rikkahub.data.db
+
+import me.rerere.ai.ui.UIMessage
+import me.rerere.ai.ui.UIMessagePart
+import me.rerere.rikkahub.data.model.MessageNode
+import me.rerere.rikkahub.utils.JsonInstant
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.system.measureNanoTime
+
+/**
+ * 对比旧的整块 nodes JSON 与按消息写入在流式生成时写入的数据量
+ */
+class MessageWriteAmplificationBenchmark {
+    private val conversationId = "bench"
+
+    @Test
+    fun `stream into a 500 message conversation`() {
+        var nodes = (0 until 499).map { index ->
+            val text = "message $index " + "lorem ipsum dolor sit amet ".repeat(20)
+            MessageNode.of(if (index % 2 == 0) UIMessage.user(text) else UIMessage.assistant(text))
+        } + MessageNode.of(UIMessage.assistant(""))
+
+        var (_, snapshot) = diffMessageRows(conversationId, PersistedMessages.EMPTY, nodes)
+        var blobBytes = 0L
+        var rowBytes = 0L
+        var rowsWritten = 0
+        val tokens = 1000
+
+        var blobNanos = 0L
+        var rowNanos = 0L
+        val builder = StringBuilder()
+        repeat(tokens) { token ->
+            builder.append("token").append(token).append(' ')
+            val last = nodes.last().currentMessage
+            nodes = nodes.dropLast(1) + MessageNode(
+                id = nodes.last().id,
+                messages = listOf(last.copy(parts = listOf(UIMessagePart.Text(builder.toString())))),
+            )
+
+            blobNanos += measureNanoTime {
+                blobBytes += JsonInstant.encodeToString(nodes).length
+            }
+            rowNanos += measureNanoTime {
+                val (writeSet, next) = diffMessageRows(conversationId, snapshot, nodes)
+                snapshot = next
+                rowsWritten += writeSet.messageUpserts.size + writeSet.nodeUpserts.size
+                rowBytes += writeSet.messageUpserts.sumOf { it.content.length + it.text.length }
+            }
+        }
+
+        println("blob:  ${blobBytes / 1024} KiB written in ${blobNanos / 1_000_000} ms")
+        println("rows:  ${rowBytes / 1024} KiB written in ${rowNanos / 1_000_000} ms ($rowsWritten rows)")
+        println("write amplification reduced ${blobBytes / rowBytes.coerceAtLeast(1)}x")
+
+        // 每个 token 只会写入最后一条消息
+        assertEquals(tokens, rowsWritten)
+        assertTrue(rowBytes * 10 < blobBytes)
+    }
+}
@@ -0,0 +1,148 @@
+package me.rerere.rikkahub.data.db
+
+import android.app.Application
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.sqlite.db.SupportSQLiteOpenHelper
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory
+import androidx.test.core.app.ApplicationProvider
+import me.rerere.ai.ui.UIMessage
+import me.rerere.rikkahub.data.db.entity.MessageEntity
+import me.rerere.rikkahub.data.db.entity.MessageNodeEntity
+import me.rerere.rikkahub.data.model.MessageNode
+import me.rerere.rikkahub.utils.JsonInstant
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(application = Application::class, sdk = [34])
+class Migration11To12Test {
+    private lateinit var helper: SupportSQLiteOpenHelper
+    private lateinit var db: SupportSQLiteDatabase
+
+    @Before
+    fun setUp() {
+        val configuration = SupportSQLiteOpenHelper.Configuration
+            .builder(ApplicationProvider.getApplicationContext())
+            .name(null)
+            .callback(object : SupportSQLiteOpenHelper.Callback(11) {
+                override fun onCreate(db: SupportSQLiteDatabase) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS `ConversationEntity` (`id` TEXT NOT NULL, `assistant_id` TEXT NOT NULL DEFAULT '0950e2dc-9bd5-4801-afa3-aa887aa36b4e', `title` TEXT NOT NULL, `nodes` TEXT NOT NULL, `create_at` INTEGER NOT NULL, `update_at` INTEGER NOT NULL, `truncate_index` INTEGER NOT NULL DEFAULT -1, `suggestions` TEXT NOT NULL DEFAULT '[]', `is_pinned` INTEGER NOT NULL DEFAULT 0, PRIMARY KEY(`id`))")
+                }
+
+                override fun onUpgrade(db: SupportSQLiteDatabase, oldVersion: Int, newVersion: Int) = Unit
+            })
+            .build()
+        helper = FrameworkSQLiteOpenHelperFactory().create(configuration)
+        db = helper.writableDatabase
+    }
+
+    @After
+    fun tearDown() {
+        helper.close()
+    }
+
+    @Test
+    fun `migrate nodes blob to message tables`() {
+        val first = listOf(
+            MessageNode.of(UIMessage.user("How do I read a file in Kotlin?")),
+            MessageNode(
+                messages = listOf(
+                    UIMessage.assistant("Use File.readText()"),
+                    UIMessage.assistant("Use java.nio Files.readAllLines()"),
+                ),
+                selectIndex = 1
+            ),
+        )
+        val second = listOf(
+            MessageNode.of(UIMessage.user("Tell me a joke")),
+        )
+        insertConversation("c1", "Reading files", first, isPinned = true)
+        insertConversation("c2", "Jokes", second, isPinned = false)
+
+        Migration_11_12.migrate(db)
+
+        // nodes 列已经被删除, 其他列保持不变
+        val columns = mutableListOf<String>()
+        db.query("PRAGMA table_info(`ConversationEntity`)").use { cursor ->
+            while (cursor.moveToNext()) columns.add(cursor.getString(cursor.getColumnIndexOrThrow("name")))
+        }
+        assertFalse("nodes" in columns)
+        db.query("SELECT title, is_pinned FROM ConversationEntity WHERE id = 'c1'").use { cursor ->
+            cursor.moveToFirst()
+            assertEquals("Reading files", cursor.getString(0))
+            assertEquals(1, cursor.getInt(1))
+        }
+
+        assertEquals(first, readNodes("c1"))
+        assertEquals(second, readNodes("c2"))
+
+        // 全文索引包含迁移过来的消息
+        val matched = mutableListOf<String>()
+        db.query(
+            "SELECT DISTINCT conversation_id FROM MessageEntity WHERE rowid IN (SELECT docid FROM MessageFtsEntity WHERE MessageFtsEntity MATCH ?)",
+            arrayOf<Any?>("readall*")
+        ).use { cursor ->
+            while (cursor.moveToNext()) matched.add(cursor.getString(0))
+        }
+        assertEquals(listOf("c1"), matched)
+    }
+
+    @Test
+    fun `updates keep fts index in sync`() {
+        insertConversation("c1", "Title", listOf(MessageNode.of(UIMessage.assistant("draft"))), isPinned = false)
+        Migration_11_12.migrate(db)
+
+        db.execSQL("UPDATE MessageEntity SET text = 'final answer' WHERE conversation_id = 'c1'")
+
+        assertEquals(0, countMatches("draft"))
+        assertEquals(1, countMatches("final"))
+
+        db.execSQL("DELETE FROM MessageEntity WHERE conversation_id = 'c1'")
+        assertEquals(0, countMatches("final"))
+    }
+
+    private fun insertConversation(id: String, title: String, nodes: List<MessageNode>, isPinned: Boolean) {
+        db.execSQL(
+            "INSERT INTO ConversationEntity (id, title, nodes, create_at, update_at, is_pinned) VALUES (?, ?, ?, ?, ?, ?)",
+            arrayOf(id, title, JsonInstant.encodeToString(nodes), 0L, 0L, if (isPinned) 1 else 0)
+        )
+    }
+
+    private fun readNodes(conversationId: String): List<MessageNode> {
+        val nodes = mutableListOf<MessageNodeEntity>()
+        db.query("SELECT id, conversation_id, node_index, select_index FROM MessageNodeEntity WHERE conversation_id = ?", arrayOf<Any?>(conversationId)).use { cursor ->
+            while (cursor.moveToNext()) {
+                nodes.add(MessageNodeEntity(cursor.getString(0), cursor.getString(1), cursor.getInt(2), cursor.getInt(3)))
+            }
+        }
+        val messages = mutableListOf<MessageEntity>()
+        db.query("SELECT id, conversation_id, node_id, message_index, content, text FROM MessageEntity WHERE conversation_id = ?", arrayOf<Any?>(conversationId)).use { cursor ->
+            while (cursor.moveToNext()) {
+                messages.add(
+                    MessageEntity(
+                        cursor.getString(0),
+                        cursor.getString(1),
+                        cursor.getString(2),
+                        cursor.getInt(3),
+                        cursor.getString(4),
+                        cursor.getString(5)
+                    )
+                )
+            }
+        }
+        return restoreMessageNodes(nodes, messages).first
+    }
+
+    private fun countMatches(query: String): Int {
+        return db.query("SELECT COUNT(*) FROM MessageFtsEntity WHERE MessageFtsEntity MATCH ?", arrayOf<Any?>(query)).use { cursor ->
+            cursor.moveToFirst()
+            cursor.getInt(0)
+        }
+    }
+}
@@ -46,4 +46,7 @@ dependencies {
     api(libs.quickjs)
     implementation(libs.kotlinx.serialization.json)
     implementation(libs.kotlinx.coroutines.core)
+
+    // tests
+    testImplementation(libs.junit)
 }
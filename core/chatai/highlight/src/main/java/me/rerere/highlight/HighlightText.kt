@@ -43,6 +43,7 @@ fun HighlightText(
     softWrap: Boolean = true,
     maxLines: Int = Int.MAX_VALUE,
     minLines: Int = 1,
+    streaming: Boolean = false,
 ) {
     val highlighter = LocalHighlighter.current
     var tokens: List<HighlightToken> by remember { mutableStateOf(emptyList()) }
@@ -50,10 +51,11 @@ fun HighlightText(
 
     val updatedCode by rememberUpdatedState(code)
     val updatedLanguage by rememberUpdatedState(language)
+    val updatedStreaming by rememberUpdatedState(streaming)
     LaunchedEffect(Unit) {
-        snapshotFlow { updatedCode to updatedLanguage }.collect {
+        snapshotFlow { Triple(updatedCode, updatedLanguage, updatedStreaming) }.collect {
             tokens = if (updatedCode.length <= MAX_CODE_LENGTH) {
-                highlighter.highlight(updatedCode, updatedLanguage)
+                highlighter.highlight(updatedCode, updatedLanguage, updatedStreaming)
             } else {
                 listOf(
                     HighlightToken.Plain(content = updatedCode)
@@ -0,0 +1,156 @@
+package me.rerere.highlight
+
+/**
+ * 高亮引擎
+ */
+fun interface HighlightEngine {
+    /**
+     * 对代码进行分词, 返回扁平编码的结果 (见 prism.js 中的 `highlightFlat`):
+     *
+     * `<类型1> <类型2> ...\n<类型索引>,<长度>,<类型索引>,<长度>,...`
+     *
+     * 每一段是分词树的一个叶子, 长度之和等于代码长度; 类型索引0为普通文本, i为第i个类型
+     */
+    fun tokenize(code: String, language: String): String
+}
+
+/**
+ * 解码 [HighlightEngine] 的结果, 并缓存最近的高亮结果
+ *
+ * - 结果按 (语言, 代码内容) 缓存, 缓存的代码总长度不超过 [maxCachedChars]
+ * - 流式输出中的代码块只是在末尾追加内容, 只需从上一次结果中最后一个稳定的边界
+ *   (不在任何token中的最后一个换行) 开始重新高亮
+ *
+ * 非线程安全
+ */
+class HighlightTokenizer(
+    private val engine: HighlightEngine,
+    private val maxCachedChars: Int = DEFAULT_MAX_CACHED_CHARS,
+) {
+    private val cache = LinkedHashMap<CacheKey, Highlighted>(16, 0.75f, true)
+    private var cachedChars = 0
+
+    // 流式输出中的代码块的上一次结果
+    private val streams = ArrayDeque<Highlighted>()
+
+    /**
+     * @param streaming 代码块是否还在流式输出中, 输出中的代码块会复用上一次结果中稳定的部分,
+     * 结果可能与完整高亮有细微差别, 输出结束后应以 false 再高亮一次
+     */
+    fun tokenize(code: String, language: String, streaming: Boolean = false): List<HighlightToken> {
+        val key = CacheKey(language, code)
+        cache[key]?.let { return it.tokens }
+
+        if (!streaming) {
+            val highlighted = decode(language, code, Highlighted(language, "", emptyList(), 0, 0))
+            put(key, highlighted)
+            return highlighted.tokens
+        }
+
+        val previous = streams.firstOrNull { it.language == language && code.startsWith(it.code) }
+        if (previous != null) {
+            streams.remove(previous)
+            if (previous.code.length == code.length) {
+                streams.addFirst(previous)
+                return previous.tokens
+            }
+        }
+        val highlighted = decode(
+            language = language,
+            code = code,
+            stable = previous ?: Highlighted(language, "", emptyList(), 0, 0)
+        )
+        streams.addFirst(highlighted)
+        if (streams.size > MAX_STREAMS) {
+            streams.removeLast()
+        }
+        return highlighted.tokens
+    }
+
+    private fun put(key: CacheKey, highlighted: Highlighted) {
+        if (key.code.length > maxCachedChars) return
+        cache[key] = highlighted
+        cachedChars += key.code.length
+        val iterator = cache.keys.iterator()
+        while (cachedChars > maxCachedChars && iterator.hasNext()) {
+            cachedChars -= iterator.next().code.length
+            iterator.remove()
+        }
+    }
+
+    /**
+     * 保留 [stable] 中稳定的token, 对其后的代码进行分词, 解码后追加在后面
+     */
+    private fun decode(language: String, code: String, stable: Highlighted): Highlighted {
+        val start = stable.stableEnd
+        val encoded = engine.tokenize(if (start == 0) code else code.substring(start), language)
+
+        val typesEnd = encoded.indexOf('\n')
+        check(typesEnd >= 0) { "Invalid highlight result: $encoded" }
+        val types = if (typesEnd == 0) emptyList() else encoded.substring(0, typesEnd).split(' ')
+
+        val tokens = ArrayList<HighlightToken>(stable.stableCount + encoded.length / 8)
+        tokens.addAll(stable.tokens.subList(0, stable.stableCount))
+        var stableCount = stable.stableCount
+        var stableEnd = start
+        var offset = start
+        var type = -1
+        var value = 0
+        for (i in typesEnd + 1..encoded.length) {
+            val c = if (i < encoded.length) encoded[i] else ','
+            if (c != ',') {
+                value = value * 10 + (c - '0')
+                continue
+            }
+            if (type < 0) {
+                type = value
+            } else {
+                val end = offset + value
+                check(end <= code.length) { "Highlight result is longer than the code" }
+                if (type == 0) {
+                    val newline = code.lastIndexOf('\n', end - 1)
+                    if (newline >= offset) {
+                        // 在最后一个换行后拆开, 前面的token都是稳定的
+                        if (newline + 1 < end) {
+                            tokens += HighlightToken.Plain(code.substring(offset, newline + 1))
+                            offset = newline + 1
+                        }
+                        stableCount = tokens.size + if (offset == newline + 1) 0 else 1
+                        stableEnd = newline + 1
+                    }
+                    tokens += HighlightToken.Plain(code.substring(offset, end))
+                } else {
+                    val content = code.substring(offset, end)
+                    tokens += HighlightToken.Token.StringContent(
+                        content = content,
+                        type = types[type - 1],
+                        length = content.length,
+                    )
+                }
+                offset = end
+                type = -1
+            }
+            value = 0
+        }
+        check(offset == code.length) { "Highlight result is shorter than the code" }
+        return Highlighted(language, code, tokens, stableCount, stableEnd)
+    }
+
+    private data class CacheKey(val language: String, val code: String)
+
+    /**
+     * @param stableCount 前 [stableCount] 个token是稳定的, 正好覆盖代码的前 [stableEnd] 个字符
+     */
+    private class Highlighted(
+        val language: String,
+        val code: String,
+        val tokens: List<HighlightToken>,
+        val stableCount: Int,
+        val stableEnd: Int,
+    )
+
+    companion object {
+        const val DEFAULT_MAX_CACHED_CHARS = 256 * 1024
+        private const val MAX_STREAMS = 4
+    }
+}
@@ -2,25 +2,9 @@ package me.rerere.highlight
 
 import android.content.Context
 import com.whl.quickjs.android.QuickJSLoader
-import com.whl.quickjs.wrapper.QuickJSArray
 import com.whl.quickjs.wrapper.QuickJSContext
-import com.whl.quickjs.wrapper.QuickJSObject
 import kotlinx.coroutines.suspendCancellableCoroutine
-import kotlinx.serialization.KSerializer
 import kotlinx.serialization.Serializable
-import kotlinx.serialization.descriptors.SerialDescriptor
-import kotlinx.serialization.descriptors.buildClassSerialDescriptor
-import kotlinx.serialization.encoding.Decoder
-import kotlinx.serialization.encoding.Encoder
-import kotlinx.serialization.json.Json
-import kotlinx.serialization.json.JsonArray
-import kotlinx.serialization.json.JsonDecoder
-import kotlinx.serialization.json.JsonObject
-import kotlinx.serialization.json.JsonPrimitive
-import kotlinx.serialization.json.int
-import kotlinx.serialization.json.jsonObject
-import kotlinx.serialization.json.jsonPrimitive
-import me.rerere.highlight.HighlightToken.Token.StringContent
 import java.util.concurrent.Executors
 import kotlin.coroutines.resume
 import kotlin.coroutines.resumeWithException
@@ -48,40 +32,27 @@ class Highlighter(ctx: Context) {
         }
     }
 
-    private val highlightFn by lazy {
-        context.globalObject.getJSFunction("highlight")
+    private val tokenizer by lazy {
+        val highlightFn = context.globalObject.getJSFunction("highlightFlat")
+        HighlightTokenizer { code, language ->
+            val result = highlightFn.call(code, language)
+            require(result is String) {
+                "highlight result must be a string"
+            }
+            result
+        }
     }
 
-    suspend fun highlight(code: String, language: String) =
+    /**
+     * 高亮代码, 结果会被缓存
+     *
+     * @param streaming 代码块是否还在流式输出中, 见 [HighlightTokenizer.tokenize]
+     */
+    suspend fun highlight(code: String, language: String, streaming: Boolean = false) =
         suspendCancellableCoroutine { continuation ->
             executor.submit {
                 runCatching {
-                    val result = highlightFn.call(code, language)
-                    require(result is QuickJSArray) {
-                        "highlight result must be an array"
-                    }
-                    val tokens = arrayListOf<HighlightToken>()
-                    for (i in 0 until result.length()) {
-                        when (val element = result[i]) {
-                            is String -> tokens.add(
-                                HighlightToken.Plain(
-                                    content = element,
-                                )
-                            )
-
-                            is QuickJSObject -> {
-                                val json = element.stringify()
-                                val token = format.decodeFromString<HighlightToken.Token>(
-                                    HighlightTokenSerializer, json
-                                )
-                                tokens.add(token)
-                            }
-
-                            else -> error("Unknown type: ${element::class.java.name}")
-                        }
-                    }
-                    result.release()
-                    continuation.resume(tokens)
+                    continuation.resume(tokenizer.tokenize(code, language, streaming))
                 }.onFailure {
                     it.printStackTrace()
                     if (continuation.isActive) {
@@ -96,13 +67,6 @@ class Highlighter(ctx: Context) {
     }
 }
 
-private val format by lazy {
-    Json {
-        ignoreUnknownKeys = true
-        prettyPrint = true
-    }
-}
-
 sealed class HighlightToken {
     data class Plain(
         val content: String,
@@ -132,65 +96,3 @@ sealed class HighlightToken {
         ) : Token()
     }
 }
-
-object HighlightTokenSerializer : KSerializer<HighlightToken.Token> {
-    override val descriptor: SerialDescriptor = buildClassSerialDescriptor("HighlightToken.Token")
-
-    override fun serialize(
-        encoder: Encoder,
-        value: HighlightToken.Token
-    ) {
-        // not used
-    }
-
-    override fun deserialize(decoder: Decoder): HighlightToken.Token {
-        val jsonDecoder = decoder as JsonDecoder
-        val jsonObject = jsonDecoder.decodeJsonElement().jsonObject
-        val type = jsonObject["type"]?.jsonPrimitive?.content
-            ?: error("Missing type field in HighlightToken.Token")
-        val length = jsonObject["length"]?.jsonPrimitive?.int
-            ?: error("Missing length field in HighlightToken.Token")
-        val content = jsonObject["content"]
-            ?: error("Missing content field in HighlightToken.Token")
-
-        return when (content) {
-            is JsonArray -> {
-                val nestedContent = arrayListOf<HighlightToken.Token>()
-
-                content.forEach { part ->
-                    if (part is JsonPrimitive) {
-                        nestedContent += StringContent(
-                            content = part.content,
-                            type = type,
-                            length = length,
-                        )
-                    } else if (part is JsonObject) {
-                        nestedContent += format.decodeFromJsonElement(
-                            HighlightTokenSerializer,
-                            part
-                        )
-                    } else {
-                        error("unknown content part type: $content / $part")
-                    }
-                }
-
-                HighlightToken.Token.Nested(
-                    content = nestedContent,
-                    type = type,
-                    length = length,
-                )
-            }
-
-            is JsonPrimitive -> {
-                val stringContent = content.content
-                HighlightToken.Token.StringContent(
-                    content = stringContent,
-                    type = type,
-                    length = length,
-                )
-            }
-
-            else -> error("Unknown content type: ${content::class.java.name}")
-        }
-    }
-}
@@ -305,4 +305,49 @@ function highlight(code, lang) {
     return Prism.tokenize(code, Prism.languages.plaintext);
   }
   return Prism.tokenize(code, _lang);
-}
\ No newline at end of file
+}
+/**
+ * Tokenize the code into a flat encoding, which is decoded in one pass without
+ * crossing the JS bridge for every token:
+ *
+ *   "<type 1> <type 2> ...\n<type index>,<length>,<type index>,<length>,..."
+ *
+ * The segments are the leaves of the token tree in order, their lengths add up
+ * to the length of the code. Type index 0 is plain text, i refers to the i-th
+ * type, which is the type of the innermost token containing the segment.
+ */
+function highlightFlat(code, lang) {
+  let types = [];
+  let typeIndex = Object.create(null);
+  let segments = [];
+
+  function walk(token, type) {
+    if (typeof token === 'string') {
+      if (token.length === 0) {
+        return;
+      }
+      let last = segments.length - 2;
+      if (last >= 0 && segments[last] === type) {
+        segments[last + 1] += token.length;
+      } else {
+        segments.push(type, token.length);
+      }
+      return;
+    }
+    if (Array.isArray(token)) {
+      for (let i = 0; i < token.length; i++) {
+        walk(token[i], type);
+      }
+      return;
+    }
+    let index = typeIndex[token.type];
+    if (index === undefined) {
+      types.push(token.type);
+      index = typeIndex[token.type] = types.length;
+    }
+    walk(token.content, index);
+  }
+
+  walk(highlight(code, lang), 0);
+  return types.join(' ') + '\n' + segments.join(',');
+}
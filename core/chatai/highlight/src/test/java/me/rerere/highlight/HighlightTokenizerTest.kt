@@ -0,0 +1,168 @@
+package me.rerere.highlight
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class HighlightTokenizerTest {
+
+    @Test
+    fun `tokens should cover the code with the innermost types`() {
+        val tokenizer = HighlightTokenizer(FakeEngine())
+        val tokens = tokenizer.tokenize("val a = \"x\" // 1\nfun b() = 2\n", "kotlin")
+
+        assertEquals(
+            listOf(
+                "keyword" to "val",
+                null to " a = ",
+                "string" to "\"x\"",
+                null to " ",
+                "comment" to "// 1",
+                null to "\n",
+                "keyword" to "fun",
+                null to " b() = ",
+                "number" to "2",
+                null to "\n",
+            ),
+            tokens.map { it.typeAndContent() }
+        )
+    }
+
+    @Test
+    fun `results should be cached by language and content`() {
+        val engine = FakeEngine()
+        val tokenizer = HighlightTokenizer(engine, maxCachedChars = 20)
+
+        val first = tokenizer.tokenize("val a = 1", "kotlin")
+        assertSame(first, tokenizer.tokenize("val a = 1", "kotlin"))
+        assertEquals(1, engine.calls.size)
+
+        tokenizer.tokenize("val a = 1", "java")
+        assertEquals(2, engine.calls.size)
+
+        // 超出缓存大小, 最早的结果被移除
+        tokenizer.tokenize("val b = 2", "kotlin")
+        tokenizer.tokenize("val a = 1", "kotlin")
+        assertEquals(4, engine.calls.size)
+    }
+
+    @Test
+    fun `streaming code should only be highlighted from the last stable boundary`() {
+        val engine = FakeEngine()
+        val tokenizer = HighlightTokenizer(engine)
+        val code = "val a = \"x\"\n// comment\nfun b() = 2\n"
+
+        var tokens = emptyList<HighlightToken>()
+        for (end in 1..code.length) {
+            tokens = tokenizer.tokenize(code.substring(0, end), "kotlin", streaming = true)
+        }
+
+        assertEquals(render(HighlightTokenizer(FakeEngine()).tokenize(code, "kotlin")), render(tokens))
+        // 每次只重新高亮最后一行
+        assertEquals(code.length, engine.calls.size)
+        assertEquals(true, engine.calls.all { !it.dropLast(1).contains('\n') })
+    }
+
+    @Test
+    fun `benchmark 2000 lines`() {
+        val lines = List(2000) { "    val value$it = \"item $it\" + ${it * 7} // line $it" }
+        val code = lines.joinToString("\n", postfix = "\n")
+
+        // warm up
+        repeat(3) {
+            HighlightTokenizer(FakeEngine()).tokenize(code, "kotlin")
+            streamLines(HighlightTokenizer(FakeEngine()), lines.take(500), streaming = true)
+        }
+
+        val tokenizer = HighlightTokenizer(FakeEngine())
+        var tokens = emptyList<HighlightToken>()
+        val full = measure { tokens = tokenizer.tokenize(code, "kotlin") }
+        val cached = measure { tokenizer.tokenize(code, "kotlin") }
+        assertEquals(code, tokens.joinToString("") { it.typeAndContent().second })
+
+        val fromScratch = measure { streamLines(HighlightTokenizer(FakeEngine(), 0), lines, streaming = false) }
+        val incremental = measure { streamLines(HighlightTokenizer(FakeEngine()), lines, streaming = true) }
+
+        println(
+            "2000 lines: full ${full / 1000} us, cached ${cached / 1000} us; " +
+                "streamed line by line: from scratch ${fromScratch / 1_000_000} ms, incremental ${incremental / 1_000_000} ms"
+        )
+    }
+
+    private fun streamLines(tokenizer: HighlightTokenizer, lines: List<String>, streaming: Boolean) {
+        val code = StringBuilder()
+        lines.forEach {
+            code.append(it).append('\n')
+            tokenizer.tokenize(code.toString(), "kotlin", streaming)
+        }
+    }
+
+    private fun measure(block: () -> Unit): Long {
+        val start = System.nanoTime()
+        block()
+        return System.nanoTime() - start
+    }
+
+    private fun HighlightToken.typeAndContent(): Pair<String?, String> = when (this) {
+        is HighlightToken.Plain -> null to content
+        is HighlightToken.Token.StringContent -> type to content
+        else -> error("unexpected token: $this")
+    }
+
+    // 相邻的同类型token合并后比较, 拆分位置不同不影响显示
+    private fun render(tokens: List<HighlightToken>): List<Pair<String?, String>> {
+        val result = ArrayList<Pair<String?, String>>()
+        tokens.map { it.typeAndContent() }.forEach {
+            val last = result.lastOrNull()
+            if (last != null && last.first == it.first) {
+                result[result.lastIndex] = last.first to last.second + it.second
+            } else {
+                result += it
+            }
+        }
+        return result
+    }
+
+    /**
+     * 按行分词的引擎, 输出与 prism.js 中 highlightFlat 相同的编码
+     */
+    private class FakeEngine : HighlightEngine {
+        val calls = ArrayList<String>()
+
+        override fun tokenize(code: String, language: String): String {
+            calls += code
+            val types = ArrayList<String>()
+            val segments = ArrayList<Int>()
+            var plainStart = 0
+            fun segment(type: String?, start: Int, end: Int) {
+                if (start == end) return
+                if (plainStart < start) {
+                    segments += 0
+                    segments += start - plainStart
+                }
+                val index = if (type == null) 0 else {
+                    if (type !in types) types += type
+                    types.indexOf(type) + 1
+                }
+                segments += index
+                segments += end - start
+                plainStart = end
+            }
+            TOKEN.findAll(code).forEach { match ->
+                val type = when {
+                    match.value.startsWith("//") -> "comment"
+                    match.value.startsWith("\"") -> "string"
+                    match.value[0].isDigit() -> "number"
+                    else -> "keyword"
+                }
+                segment(type, match.range.first, match.range.last + 1)
+            }
+            segment(null, plainStart, code.length)
+            return types.joinToString(" ") + "\n" + segments.joinToString(",")
+        }
+
+        companion object {
+            private val TOKEN = Regex("//[^\\n]*|\"[^\"\\n]*\"|\\b\\d+\\b|\\b(?:val|fun)\\b")
+        }
+    }
+}
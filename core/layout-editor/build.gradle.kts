@@ -1,5 +1,7 @@
 import org.jetbrains.kotlin.gradle.tasks.KotlinCompile
 import org.jetbrains.kotlin.gradle.dsl.JvmTarget
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
 
 plugins {
     alias(libs.plugins.android.library)
@@ -7,6 +9,9 @@ plugins {
     alias(libs.plugins.org.jetbrains.kotlin.plugin.compose)
 }
 
+// Attribute catalog read by AttributeCatalog, so the JSON files are not parsed at runtime
+val attributeCatalogGenDir: Provider<Directory> = project.layout.buildDirectory.dir("generated/attributeCatalog")
+
 android {
     compileSdk = 36
     namespace = "com.itsvks.layouteditor"
@@ -28,8 +33,67 @@ android {
         buildConfig = true
         compose = true
     }
+
+    sourceSets {
+        getByName("main") {
+            assets.srcDirs(attributeCatalogGenDir)
+        }
+    }
+}
+
+// Writes the format read by AttributeCatalog.read
+val generateAttributeCatalog = tasks.register("generateAttributeCatalog") {
+    val sources = listOf("attributes.json", "parent_attributes.json")
+        .map { project.file("src/main/assets/attributes/$it") }
+    val catalog = attributeCatalogGenDir.get().file("attributes/catalog.bin").asFile
+    inputs.files(sources)
+    outputs.file(catalog)
+
+    doLast {
+        val strings = LinkedHashMap<String, Int>()
+        fun index(value: Any?) = strings.getOrPut(value.toString()) { strings.size }
+
+        val body = ByteArrayOutputStream()
+        DataOutputStream(body).use { out ->
+            for (source in sources) {
+                @Suppress("UNCHECKED_CAST")
+                val section = groovy.json.JsonSlurper().parse(source) as Map<String, List<Map<String, Any?>>>
+                out.writeShort(section.size)
+                for ((className, attributes) in section) {
+                    out.writeShort(index(className))
+                    out.writeShort(attributes.size)
+                    for (attribute in attributes) {
+                        out.writeByte(attribute.size)
+                        for ((key, value) in attribute) {
+                            out.writeShort(index(key))
+                            if (value is List<*>) {
+                                out.writeByte(1)
+                                out.writeShort(value.size)
+                                value.forEach { out.writeShort(index(it)) }
+                            } else {
+                                out.writeByte(0)
+                                out.writeShort(index(value))
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        check(strings.size <= 0xFFFF) { "Too many strings in the attribute catalog" }
+
+        catalog.parentFile.mkdirs()
+        DataOutputStream(catalog.outputStream().buffered()).use { out ->
+            out.writeInt(0x4C454143)
+            out.writeShort(1)
+            out.writeInt(strings.size)
+            strings.keys.forEach { out.writeUTF(it) }
+            body.writeTo(out)
+        }
+    }
 }
 
+tasks.named("preBuild") { dependsOn(generateAttributeCatalog) }
+
 
 dependencies {
 
@@ -65,6 +129,9 @@ dependencies {
     implementation(libs.androidx.compose.material3)
     coreLibraryDesugaring(libs.androidx.libDesugaring)
 
+    testImplementation(libs.tests.junit)
+    testImplementation(libs.tests.google.truth)
+
     androidTestImplementation(platform(libs.androidx.compose.bom))
     debugImplementation(libs.androidx.compose.ui.tooling)
     debugImplementation(libs.androidx.compose.ui.test.manifest)
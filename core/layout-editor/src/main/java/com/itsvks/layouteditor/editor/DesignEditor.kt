@@ -25,8 +25,6 @@ import com.blankj.utilcode.util.VibrateUtils
 import com.google.android.material.bottomsheet.BottomSheetDialog
 import com.google.android.material.color.MaterialColors
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
-import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
 import com.itsvks.layouteditor.R
 import com.itsvks.layouteditor.adapters.AppliedAttributesAdapter
 import com.itsvks.layouteditor.databinding.ShowAttributesDialogBinding
@@ -41,6 +39,10 @@ import com.itsvks.layouteditor.editor.dialogs.NumberDialog
 import com.itsvks.layouteditor.editor.dialogs.SizeDialog
 import com.itsvks.layouteditor.editor.dialogs.StringDialog
 import com.itsvks.layouteditor.editor.dialogs.ViewDialog
+import com.itsvks.layouteditor.editor.history.LayoutNode
+import com.itsvks.layouteditor.editor.history.LayoutOperation
+import com.itsvks.layouteditor.editor.history.LayoutTarget
+import com.itsvks.layouteditor.editor.initializer.AttributeCatalog
 import com.itsvks.layouteditor.editor.initializer.AttributeInitializer
 import com.itsvks.layouteditor.editor.initializer.AttributeMap
 import com.itsvks.layouteditor.managers.IdManager
@@ -54,7 +56,6 @@ import com.itsvks.layouteditor.tools.XmlLayoutGenerator
 import com.itsvks.layouteditor.tools.XmlLayoutParser
 import com.itsvks.layouteditor.utils.ArgumentUtil.parseType
 import com.itsvks.layouteditor.utils.Constants
-import com.itsvks.layouteditor.utils.FileUtil
 import com.itsvks.layouteditor.utils.InvokeUtil
 import com.itsvks.layouteditor.utils.Utils
 import com.itsvks.layouteditor.views.StructureView
@@ -85,6 +86,9 @@ class DesignEditor : LinearLayout {
     private var structureView: StructureView? = null
     private var undoRedoManager: UndoRedoManager? = null
 
+    /** Whether operations from the undo history are being applied  */
+    private var isApplyingHistory = false
+
     constructor(context: Context) : super(context) {
         init(context)
     }
@@ -358,14 +362,7 @@ class DesignEditor : LinearLayout {
         viewAttributeMap = parser.viewAttributeMap
 
         for (view in (viewAttributeMap as HashMap<View, *>?)!!.keys) {
-            rearrangeListeners(view)
-
-            if (view is ViewGroup) {
-                setDragListener(view)
-                setTransition(view)
-            }
-            view.minimumWidth = Utils.pxToDp(context, 20)
-            view.minimumHeight = Utils.pxToDp(context, 20)
+            setupView(view)
         }
 
         updateStructure()
@@ -375,14 +372,61 @@ class DesignEditor : LinearLayout {
             AttributeInitializer(context, viewAttributeMap, attributes, parentAttributes)
     }
 
+    private fun setupView(view: View) {
+        rearrangeListeners(view)
+
+        if (view is ViewGroup) {
+            setDragListener(view)
+            setTransition(view)
+        }
+        view.minimumWidth = Utils.pxToDp(context, 20)
+        view.minimumHeight = Utils.pxToDp(context, 20)
+    }
+
     fun undo() {
-        if (undoRedoManager == null) return
-        if (undoRedoManager!!.isUndoEnabled) loadLayoutFromParser(undoRedoManager!!.undo())
+        val manager = undoRedoManager ?: return
+        if (manager.isUndoEnabled) applyHistory(manager, manager.undo())
     }
 
     fun redo() {
-        if (undoRedoManager == null) return
-        if (undoRedoManager!!.isRedoEnabled) loadLayoutFromParser(undoRedoManager!!.redo())
+        val manager = undoRedoManager ?: return
+        if (manager.isRedoEnabled) applyHistory(manager, manager.redo())
+    }
+
+    /**
+     * Apply operations from the undo history to the views. If the views do not match the layout of
+     * the history afterwards, the layout is loaded from the closest checkpoint.
+     */
+    private fun applyHistory(manager: UndoRedoManager, operations: List<LayoutOperation>) {
+        val expected = manager.current ?: return
+        isApplyingHistory = true
+        try {
+            if (!applyOperations(operations, expected)) {
+                val checkpoint = manager.checkpoint()
+                if (checkpoint != null) {
+                    loadLayoutFromParser(checkpoint.xml)
+                    applyOperations(checkpoint.operations, expected)
+                }
+            }
+        } finally {
+            isApplyingHistory = false
+        }
+        toggleStrokeWidgets()
+        setBlueprintOnChildren()
+        updateStructure()
+        manager.rebase(snapshot())
+    }
+
+    private fun applyOperations(operations: List<LayoutOperation>, expected: LayoutNode): Boolean {
+        try {
+            for (operation in operations) {
+                operation.applyTo(liveLayout)
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+            return false
+        }
+        return snapshot().sameLayout(expected)
     }
 
     private fun clearAll() {
@@ -405,9 +449,159 @@ class DesignEditor : LinearLayout {
     }
 
     fun updateUndoRedoHistory() {
-        if (undoRedoManager == null) return
-        val result = XmlLayoutGenerator().generate(this, false)
-        undoRedoManager!!.addToHistory(result)
+        if (undoRedoManager == null || isApplyingHistory) return
+        undoRedoManager!!.addToHistory(snapshot()) { XmlLayoutGenerator().generate(this, false) }
+    }
+
+    /**
+     * Get the layout of the editor for the undo history
+     */
+    private fun snapshot(): LayoutNode {
+        val container = LayoutNode.container(this)
+        for (i in 0 until childCount) {
+            snapshot(getChildAt(i))?.let { container.addChild(it) }
+        }
+        return container
+    }
+
+    private fun snapshot(view: View): LayoutNode? {
+        // Shadow and internal children of widgets are not part of the layout
+        val map = viewAttributeMap[view] ?: return null
+        val attributes = LinkedHashMap<String, String>()
+        val values = map.values()
+        map.keySet().forEachIndexed { i, key -> attributes[key] = values[i] }
+
+        val node = LayoutNode(view.javaClass.name, attributes, view)
+        if (view is ViewGroup) {
+            for (i in 0 until view.childCount) {
+                snapshot(view.getChildAt(i))?.let { node.addChild(it) }
+            }
+        }
+        return node
+    }
+
+    /** Applies operations of the undo history to the views of the editor  */
+    private val liveLayout = object : LayoutTarget {
+
+        private fun resolve(path: IntArray): View {
+            var view: View = this@DesignEditor
+            for (index in path) {
+                val group = view as ViewGroup
+                view = group.getChildAt(childIndex(group, index))
+            }
+            return view
+        }
+
+        /**
+         * Get the index of a child in the views, from its index in the layout
+         */
+        private fun childIndex(group: ViewGroup, index: Int): Int {
+            var count = 0
+            for (i in 0 until group.childCount) {
+                if (viewAttributeMap.containsKey(group.getChildAt(i)) && count++ == index) return i
+            }
+            return group.childCount
+        }
+
+        override fun addView(parentPath: IntArray, index: Int, node: LayoutNode) {
+            val parent = resolve(parentPath) as ViewGroup
+            val view = createView(node)
+            parent.addView(view, childIndex(parent, index))
+            addIds(view)
+            applyAttributes(view)
+        }
+
+        override fun removeView(parentPath: IntArray, index: Int) {
+            val parent = resolve(parentPath) as ViewGroup
+            val view = parent.getChildAt(childIndex(parent, index))
+            removeId(view, view is ViewGroup)
+            removeViewAttributes(view)
+            parent.removeView(view)
+        }
+
+        override fun moveView(
+            fromParentPath: IntArray,
+            fromIndex: Int,
+            toParentPath: IntArray,
+            toIndex: Int
+        ) {
+            val from = resolve(fromParentPath) as ViewGroup
+            val view = from.getChildAt(childIndex(from, fromIndex))
+            from.removeView(view)
+            val to = resolve(toParentPath) as ViewGroup
+            to.addView(view, childIndex(to, toIndex))
+        }
+
+        override fun setAttribute(path: IntArray, name: String, value: String?) {
+            val view = resolve(path)
+            val attributeMap = viewAttributeMap[view]!!
+            if (value == null) {
+                if (attributeMap.contains(name)) removeAttribute(view, name)
+                return
+            }
+
+            val attribute =
+                initializer.getAttributeFromKey(name, initializer.getAllAttributesForView(view))
+            if (attribute != null) {
+                initializer.applyAttribute(view, value, attribute)
+            } else {
+                attributeMap.putValue(name, value)
+            }
+        }
+
+        private fun createView(node: LayoutNode): View {
+            val view = InvokeUtil.createView(node.className, context) as View
+            setupView(view)
+            if (view is EditText) view.isFocusable = false
+
+            val map = AttributeMap()
+            for ((key, value) in node.attributes) {
+                map.putValue(key, value)
+            }
+            viewAttributeMap[view] = map
+
+            for (child in node.children) {
+                (view as ViewGroup).addView(createView(child))
+            }
+            return view
+        }
+
+        private fun addIds(view: View) {
+            val map = viewAttributeMap[view] ?: return
+            if (map.contains("android:id")) IdManager.addNewId(view, map.getValue("android:id"))
+            if (view is ViewGroup) {
+                for (i in 0 until view.childCount) {
+                    addIds(view.getChildAt(i))
+                }
+            }
+        }
+
+        /**
+         * Apply the attributes of the added views, the same as [XmlLayoutParser] does
+         */
+        private fun applyAttributes(view: View) {
+            val map = viewAttributeMap[view] ?: return
+            val allAttrs = initializer.getAllAttributesForView(view)
+            val keys = map.keySet()
+            for (i in keys.indices.reversed()) {
+                val key = keys[i]
+                if (key == "android:id") continue
+
+                val attr = initializer.getAttributeFromKey(key, allAttrs) ?: continue
+                InvokeUtil.invokeMethod(
+                    attr[Constants.KEY_METHOD_NAME].toString(),
+                    attr[Constants.KEY_CLASS_NAME].toString(),
+                    view,
+                    map.getValue(key),
+                    context
+                )
+            }
+            if (view is ViewGroup) {
+                for (i in 0 until view.childCount) {
+                    applyAttributes(view.getChildAt(i))
+                }
+            }
+        }
     }
 
     private fun rearrangeListeners(view: View) {
@@ -855,21 +1049,13 @@ class DesignEditor : LinearLayout {
     }
 
     private fun initAttributes() {
-        attributes = convertJsonToJavaObject(Constants.ATTRIBUTES_FILE)
-        parentAttributes = convertJsonToJavaObject(Constants.PARENT_ATTRIBUTES_FILE)
+        attributes = AttributeCatalog.attributes(context)
+        parentAttributes = AttributeCatalog.parentAttributes(context)
         viewAttributeMap = HashMap()
         initializer =
             AttributeInitializer(context, viewAttributeMap, attributes, parentAttributes)
     }
 
-    private fun convertJsonToJavaObject(filePath: String): HashMap<String, List<HashMap<String, Any>>> {
-        return Gson()
-            .fromJson(
-                FileUtil.readFromAsset(filePath, context),
-                object : TypeToken<HashMap<String?, ArrayList<HashMap<String?, Any?>?>?>?>() {}.type
-            )
-    }
-
     enum class ViewType {
         DESIGN,
         BLUEPRINT
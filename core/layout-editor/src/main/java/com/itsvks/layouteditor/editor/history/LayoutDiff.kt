@@ -0,0 +1,175 @@
+package com.itsvks.layouteditor.editor.history
+
+import java.util.IdentityHashMap
+
+/**
+ * Computes the [LayoutOperation]s which change one layout into another.
+ *
+ * Views are matched by their [LayoutNode.key]. A view which is recreated at the same position with
+ * the same class (as done when an attribute is removed) is matched with the view it replaces.
+ */
+object LayoutDiff {
+
+    /**
+     * Compute the operations which change [old] into [new]. Both must be containers.
+     *
+     * @return Operations to apply in order, empty if the layouts are the same
+     */
+    @JvmStatic
+    fun diff(old: LayoutNode, new: LayoutNode): List<LayoutOperation> {
+        return Diff(old, new).run()
+    }
+
+    private class Diff(old: LayoutNode, private val new: LayoutNode) {
+
+        private val operations = ArrayList<LayoutOperation>()
+
+        /** Copy of the old layout, changed along with the recorded operations  */
+        private val working = old.copy { it.key ?: Any() }
+
+        /** Views of [working] by key  */
+        private val workingNodes = HashMap<Any, LayoutNode>()
+
+        /**
+         * Keys of the views of [new] which are matched by position with a recreated view, or which
+         * have no key
+         */
+        private val aliases = IdentityHashMap<LayoutNode, Any>()
+        private val aliasedKeys = HashSet<Any>()
+
+        /** Keys of all views of [new] (after aliasing)  */
+        private val newKeys = HashSet<Any>()
+
+        fun run(): List<LayoutOperation> {
+            working.forEachNode { workingNodes[it.key!!] = it }
+
+            val rawKeys = HashSet<Any>()
+            new.forEachNode { node -> node.key?.let { rawKeys.add(it) } }
+            matchRecreated(new, working, rawKeys)
+            new.forEachNode { node ->
+                if (node !== new) {
+                    if (keyOf(node) == null) aliases[node] = Any()
+                    newKeys.add(keyOf(node)!!)
+                }
+            }
+
+            align(working, new)
+            removeGone(working)
+            return operations
+        }
+
+        private fun keyOf(node: LayoutNode): Any? = aliases[node] ?: node.key
+
+        private fun matchRecreated(node: LayoutNode, oldNode: LayoutNode?, rawKeys: Set<Any>) {
+            for ((i, child) in node.children.withIndex()) {
+                val key = child.key
+                var oldChild = key?.let { workingNodes[it] }
+                if (oldChild == null && oldNode != null && i < oldNode.children.size) {
+                    val candidate = oldNode.children[i]
+                    if (candidate.className == child.className
+                        && candidate.key !in rawKeys
+                        && candidate.key !in aliasedKeys
+                    ) {
+                        aliases[child] = candidate.key
+                        aliasedKeys.add(candidate.key!!)
+                        oldChild = candidate
+                    }
+                }
+                matchRecreated(child, oldChild, rawKeys)
+            }
+        }
+
+        /**
+         * Make [node] of the working layout the same as [target], parents first
+         */
+        private fun align(node: LayoutNode, target: LayoutNode) {
+            alignAttributes(node, target)
+
+            for ((i, targetChild) in target.children.withIndex()) {
+                val key = keyOf(targetChild)!!
+                if (node.children.getOrNull(i)?.key == key) {
+                    continue
+                }
+
+                val existing = workingNodes[key]
+                if (existing != null) {
+                    // Views aligned so far are at their final positions, so this is not a parent
+                    // of node
+                    val from = existing.parent!!
+                    val fromPath = from.path()
+                    val fromIndex = from.children.indexOfFirst { it === existing }
+                    from.removeChild(fromIndex)
+                    operations.add(LayoutOperation.MoveView(fromPath, fromIndex, node.path(), i))
+                    node.addChild(existing, i)
+                } else if (isNew(targetChild)) {
+                    operations.add(LayoutOperation.AddView(node.path(), i, targetChild.copy()))
+                    val added = targetChild.copy { keyOf(it) }
+                    added.forEachNode { workingNodes[it.key!!] = it }
+                    node.addChild(added, i)
+                } else {
+                    // Some children are moved into the new view, add it alone
+                    val attributes = targetChild.attributes
+                    operations.add(
+                        LayoutOperation.AddView(
+                            node.path(), i, LayoutNode(targetChild.className, LinkedHashMap(attributes))
+                        )
+                    )
+                    val added = LayoutNode(targetChild.className, LinkedHashMap(attributes), key)
+                    workingNodes[key] = added
+                    node.addChild(added, i)
+                }
+            }
+
+            for ((i, targetChild) in target.children.withIndex()) {
+                align(node.children[i], targetChild)
+            }
+        }
+
+        private fun alignAttributes(node: LayoutNode, target: LayoutNode) {
+            if (node.attributes == target.attributes) return
+
+            var path: IntArray? = null
+            for ((name, value) in target.attributes) {
+                val oldValue = node.attributes[name]
+                if (oldValue != value) {
+                    path = path ?: node.path()
+                    operations.add(LayoutOperation.SetAttribute(path, name, oldValue, value))
+                    node.attributes[name] = value
+                }
+            }
+            val iterator = node.attributes.entries.iterator()
+            while (iterator.hasNext()) {
+                val (name, value) = iterator.next()
+                if (name !in target.attributes) {
+                    path = path ?: node.path()
+                    operations.add(LayoutOperation.SetAttribute(path, name, value, null))
+                    iterator.remove()
+                }
+            }
+        }
+
+        /**
+         * Check whether no view of the given subtree of the new layout is in the working layout
+         */
+        private fun isNew(node: LayoutNode): Boolean {
+            if (workingNodes.containsKey(keyOf(node)!!)) return false
+            return node.children.all { isNew(it) }
+        }
+
+        /**
+         * Remove the views which are not in the new layout. They are after the aligned children of
+         * their parents, and their children which are still used have been moved out already.
+         */
+        private fun removeGone(node: LayoutNode) {
+            for (i in node.children.indices.reversed()) {
+                val child = node.children[i]
+                if (child.key !in newKeys) {
+                    operations.add(LayoutOperation.RemoveView(node.path(), i, child.copy()))
+                    node.removeChild(i)
+                } else {
+                    removeGone(child)
+                }
+            }
+        }
+    }
+}
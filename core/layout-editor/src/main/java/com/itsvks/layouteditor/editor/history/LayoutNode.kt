@@ -0,0 +1,161 @@
+package com.itsvks.layouteditor.editor.history
+
+/**
+ * A view of the layout in the undo history: its class name, its attributes and its child views.
+ *
+ * The top node of a layout is a container (see [container]) whose children are the views of the
+ * editor. Views are addressed by their path of child indices from the container.
+ */
+class LayoutNode(
+    /** Class name of the view, as written in the layout XML  */
+    val className: String,
+    /** Attributes of the view, in the order they are written  */
+    val attributes: LinkedHashMap<String, String> = LinkedHashMap(),
+    /**
+     * Identity of the view while comparing two layouts (the view object in the editor), so that
+     * moved views can be found. It is not kept in the history.
+     */
+    val key: Any? = null
+) : LayoutTarget {
+
+    private val _children: MutableList<LayoutNode> = ArrayList()
+
+    /** Child views  */
+    val children: List<LayoutNode>
+        get() = _children
+
+    /** Parent of this view, null for the container  */
+    var parent: LayoutNode? = null
+        private set
+
+    fun addChild(child: LayoutNode, index: Int = _children.size) {
+        child.parent = this
+        _children.add(index, child)
+    }
+
+    fun removeChild(index: Int): LayoutNode {
+        val child = _children.removeAt(index)
+        child.parent = null
+        return child
+    }
+
+    /**
+     * Get the path of this view from the container
+     *
+     * @return Child indices from the container to this view
+     */
+    fun path(): IntArray {
+        var depth = 0
+        var node = this
+        while (node.parent != null) {
+            depth++
+            node = node.parent!!
+        }
+
+        val path = IntArray(depth)
+        node = this
+        while (depth > 0) {
+            val parent = node.parent!!
+            path[--depth] = parent._children.indexOfFirst { it === node }
+            node = parent
+        }
+        return path
+    }
+
+    /**
+     * Get the view at the given path from this view
+     */
+    fun resolve(path: IntArray): LayoutNode {
+        var node = this
+        for (index in path) {
+            node = node._children[index]
+        }
+        return node
+    }
+
+    /**
+     * Copy this view and all of its children
+     *
+     * @param key Key of the copied views
+     */
+    fun copy(key: (LayoutNode) -> Any? = { null }): LayoutNode {
+        val copy = LayoutNode(className, LinkedHashMap(attributes), key(this))
+        for (child in _children) {
+            copy.addChild(child.copy(key))
+        }
+        return copy
+    }
+
+    /**
+     * Visit this view and all of its children, parents first
+     */
+    fun forEachNode(action: (LayoutNode) -> Unit) {
+        action(this)
+        for (child in _children) {
+            child.forEachNode(action)
+        }
+    }
+
+    /**
+     * Check whether the given layout has the same views and attributes as this one. Keys and the
+     * order of attributes are not compared.
+     */
+    fun sameLayout(other: LayoutNode): Boolean {
+        if (className != other.className
+            || attributes != other.attributes
+            || _children.size != other._children.size
+        ) return false
+        for (i in _children.indices) {
+            if (!_children[i].sameLayout(other._children[i])) return false
+        }
+        return true
+    }
+
+    /** Number of views in this layout, including this one  */
+    fun size(): Int {
+        var size = 1
+        for (child in _children) {
+            size += child.size()
+        }
+        return size
+    }
+
+    override fun addView(parentPath: IntArray, index: Int, node: LayoutNode) {
+        resolve(parentPath).addChild(node.copy(), index)
+    }
+
+    override fun removeView(parentPath: IntArray, index: Int) {
+        resolve(parentPath).removeChild(index)
+    }
+
+    override fun moveView(
+        fromParentPath: IntArray,
+        fromIndex: Int,
+        toParentPath: IntArray,
+        toIndex: Int
+    ) {
+        val node = resolve(fromParentPath).removeChild(fromIndex)
+        resolve(toParentPath).addChild(node, toIndex)
+    }
+
+    override fun setAttribute(path: IntArray, name: String, value: String?) {
+        val attributes = resolve(path).attributes
+        if (value == null) {
+            attributes.remove(name)
+        } else {
+            attributes[name] = value
+        }
+    }
+
+    override fun toString(): String {
+        return "LayoutNode(className=$className, attributes=$attributes, children=$_children)"
+    }
+
+    companion object {
+        /**
+         * Create a container for the views of a layout
+         */
+        @JvmStatic
+        fun container(key: Any? = null) = LayoutNode("", key = key)
+    }
+}
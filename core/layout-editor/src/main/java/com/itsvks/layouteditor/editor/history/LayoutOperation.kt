@@ -0,0 +1,82 @@
+package com.itsvks.layouteditor.editor.history
+
+/** A layout which [LayoutOperation]s can be applied to  */
+interface LayoutTarget {
+
+    /**
+     * Add a copy of the given view (and its children) to the view at [parentPath]
+     */
+    fun addView(parentPath: IntArray, index: Int, node: LayoutNode)
+
+    /**
+     * Remove the child at [index] of the view at [parentPath]
+     */
+    fun removeView(parentPath: IntArray, index: Int)
+
+    /**
+     * Move a view to another position. [toParentPath] is resolved after the view is removed from
+     * its old parent.
+     */
+    fun moveView(fromParentPath: IntArray, fromIndex: Int, toParentPath: IntArray, toIndex: Int)
+
+    /**
+     * Set the value of an attribute, or remove it if [value] is null
+     */
+    fun setAttribute(path: IntArray, name: String, value: String?)
+}
+
+/** A change to the layout, stored in the undo history  */
+sealed class LayoutOperation {
+
+    /**
+     * Apply this operation to the given layout
+     */
+    abstract fun applyTo(target: LayoutTarget)
+
+    /**
+     * Get the operation which reverts this one
+     */
+    abstract fun inverse(): LayoutOperation
+
+    class AddView(val parentPath: IntArray, val index: Int, val node: LayoutNode) :
+        LayoutOperation() {
+
+        override fun applyTo(target: LayoutTarget) = target.addView(parentPath, index, node)
+
+        override fun inverse() = RemoveView(parentPath, index, node)
+    }
+
+    class RemoveView(val parentPath: IntArray, val index: Int, val node: LayoutNode) :
+        LayoutOperation() {
+
+        override fun applyTo(target: LayoutTarget) = target.removeView(parentPath, index)
+
+        override fun inverse() = AddView(parentPath, index, node)
+    }
+
+    class MoveView(
+        val fromParentPath: IntArray,
+        val fromIndex: Int,
+        val toParentPath: IntArray,
+        val toIndex: Int
+    ) : LayoutOperation() {
+
+        override fun applyTo(target: LayoutTarget) =
+            target.moveView(fromParentPath, fromIndex, toParentPath, toIndex)
+
+        // Removing a view does not change the path of its parent, so the paths are valid both ways
+        override fun inverse() = MoveView(toParentPath, toIndex, fromParentPath, fromIndex)
+    }
+
+    class SetAttribute(
+        val path: IntArray,
+        val name: String,
+        val oldValue: String?,
+        val newValue: String?
+    ) : LayoutOperation() {
+
+        override fun applyTo(target: LayoutTarget) = target.setAttribute(path, name, newValue)
+
+        override fun inverse() = SetAttribute(path, name, newValue, oldValue)
+    }
+}
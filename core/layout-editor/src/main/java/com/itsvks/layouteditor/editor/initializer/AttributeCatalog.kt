@@ -0,0 +1,125 @@
+package com.itsvks.layouteditor.editor.initializer
+
+import android.content.Context
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import com.itsvks.layouteditor.utils.Constants
+import com.itsvks.layouteditor.utils.FileUtil
+import java.io.BufferedInputStream
+import java.io.DataInputStream
+import java.io.IOException
+import java.io.InputStream
+
+/**
+ * The attributes of the views, shared by all editors and parsers of the process.
+ *
+ * The attributes are read from [Constants.ATTRIBUTE_CATALOG_FILE], which is generated at build time
+ * from [Constants.ATTRIBUTES_FILE] and [Constants.PARENT_ATTRIBUTES_FILE] by the
+ * `generateAttributeCatalog` task. The JSON files are only parsed if the catalog is missing.
+ *
+ * The returned maps are shared, they must not be modified.
+ */
+object AttributeCatalog {
+
+    const val MAGIC = 0x4C454143 // "LEAC"
+    const val VERSION = 1
+
+    const val TYPE_STRING = 0
+    const val TYPE_LIST = 1
+
+    @Volatile
+    private var catalog: Catalog? = null
+
+    /** Attributes by view class, see [Constants.ATTRIBUTES_FILE] */
+    @JvmStatic
+    fun attributes(context: Context) = load(context).attributes
+
+    /** Attributes of the children by parent class, see [Constants.PARENT_ATTRIBUTES_FILE] */
+    @JvmStatic
+    fun parentAttributes(context: Context) = load(context).parentAttributes
+
+    private fun load(context: Context): Catalog {
+        catalog?.let { return it }
+        synchronized(this) {
+            catalog?.let { return it }
+            val loaded = try {
+                context.assets.open(Constants.ATTRIBUTE_CATALOG_FILE).use { read(it) }
+            } catch (e: IOException) {
+                e.printStackTrace()
+                Catalog(
+                    parseJson(FileUtil.readFromAsset(Constants.ATTRIBUTES_FILE, context)),
+                    parseJson(FileUtil.readFromAsset(Constants.PARENT_ATTRIBUTES_FILE, context))
+                )
+            }
+            catalog = loaded
+            return loaded
+        }
+    }
+
+    /**
+     * Read a catalog written by the `generateAttributeCatalog` task.
+     *
+     * The catalog starts with [MAGIC], [VERSION] and a table of all strings, followed by the
+     * attributes and the parent attributes. Both are a list of classes, each with a list of
+     * attributes, each with a list of (key, value) entries. Strings are written as indices in the
+     * table, so the same string is only read once.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun read(input: InputStream): Catalog {
+        val data = DataInputStream(BufferedInputStream(input))
+        if (data.readInt() != MAGIC) throw IOException("Not an attribute catalog")
+        val version = data.readShort().toInt()
+        if (version != VERSION) throw IOException("Unsupported attribute catalog version $version")
+
+        val strings = Array(data.readInt()) { data.readUTF() }
+        return Catalog(readSection(data, strings), readSection(data, strings))
+    }
+
+    private fun readSection(
+        data: DataInputStream,
+        strings: Array<String>
+    ): HashMap<String, List<HashMap<String, Any>>> {
+        val classCount = data.readUnsignedShort()
+        val section = HashMap<String, List<HashMap<String, Any>>>(classCount * 2)
+        repeat(classCount) {
+            val className = strings[data.readUnsignedShort()]
+            val attributeCount = data.readUnsignedShort()
+            val attributes = ArrayList<HashMap<String, Any>>(attributeCount)
+            repeat(attributeCount) {
+                val entryCount = data.readUnsignedByte()
+                val attribute = HashMap<String, Any>(entryCount * 2)
+                repeat(entryCount) {
+                    val key = strings[data.readUnsignedShort()]
+                    attribute[key] = when (val type = data.readUnsignedByte()) {
+                        TYPE_STRING -> strings[data.readUnsignedShort()]
+                        TYPE_LIST -> ArrayList<String>().apply {
+                            repeat(data.readUnsignedShort()) { add(strings[data.readUnsignedShort()]) }
+                        }
+
+                        else -> throw IOException("Unknown value type $type of $key")
+                    }
+                }
+                attributes.add(attribute)
+            }
+            section[className] = attributes
+        }
+        return section
+    }
+
+    /**
+     * Parse attributes from JSON, as done before the catalog was generated
+     */
+    @JvmStatic
+    fun parseJson(json: String): HashMap<String, List<HashMap<String, Any>>> {
+        return Gson().fromJson(
+            json,
+            object : TypeToken<HashMap<String, ArrayList<HashMap<String, Any>>>>() {}.type
+        )
+    }
+
+    class Catalog(
+        val attributes: HashMap<String, List<HashMap<String, Any>>>,
+        val parentAttributes: HashMap<String, List<HashMap<String, Any>>>
+    )
+}
@@ -1,8 +1,17 @@
 package com.itsvks.layouteditor.managers
 
 import android.view.MenuItem
+import com.itsvks.layouteditor.editor.history.LayoutDiff
+import com.itsvks.layouteditor.editor.history.LayoutNode
+import com.itsvks.layouteditor.editor.history.LayoutOperation
 
-/** UndoRedoManager class is used to add XML to history and Undo/Redo the previous changes.  */
+/**
+ * UndoRedoManager class is used to add layout changes to history and Undo/Redo the previous changes.
+ *
+ * Each change is stored as the [LayoutOperation]s between two layouts, which can be applied to the
+ * views of the editor. The full XML of the layout is only kept every [checkpointInterval] changes,
+ * to recover from a change which could not be applied to the views.
+ */
 class UndoRedoManager(
     /** MenuItem for Undo Button  */
     private val btnUndo: MenuItem?,
@@ -12,53 +21,128 @@ class UndoRedoManager(
     /** Max size of the history  */
     private val maxSize = 20
 
-    /** History list to store the XMLs  */
-    private val history = arrayListOf("")
+    /** Number of changes between two checkpoints  */
+    private val checkpointInterval = 10
+
+    /** Operations of the changes, changes[i] leads from state i to state i + 1  */
+    private val changes = ArrayList<List<LayoutOperation>>()
+
+    /** XML of some states, by their number (which is [firstState] for the oldest state)  */
+    private val checkpoints = HashMap<Int, String>()
+
+    /** Number of the oldest state in history  */
+    private var firstState = 0
 
     /** Index to track the current history  */
     private var index = 0
 
+    /** Layout of the current state, null if nothing is added to history yet  */
+    var current: LayoutNode? = null
+        private set
+
+    /** Number of operations stored in history  */
+    val operationCount: Int
+        get() = changes.sumOf { it.size }
+
     /**
-     * Add XML to the history
+     * Add the layout to the history
      *
-     * @param xml XML string to add to history
+     * @param layout Current layout of the editor, see [LayoutNode.container]
+     * @param xml Generates the XML of the layout, called if it is kept as a checkpoint
      */
-    fun addToHistory(xml: String) {
-        if (matchLastHistory(xml)) return
-        history.add(xml)
-        if (history.size == maxSize) {
-            history.removeAt(0)
+    fun addToHistory(layout: LayoutNode, xml: () -> String) {
+        val current = this.current
+        if (current == null) {
+            this.current = layout
+            checkpoints[firstState] = xml()
+            updateButtons()
+            return
+        }
+
+        val operations = LayoutDiff.diff(current, layout)
+        if (operations.isEmpty()) return
+
+        // Discard the changes which can be redone
+        while (changes.size > index) {
+            changes.removeAt(changes.lastIndex)
+        }
+        checkpoints.keys.removeAll { it > firstState + index }
+
+        changes.add(operations)
+        index++
+        this.current = layout
+        if ((firstState + index) % checkpointInterval == 0) {
+            checkpoints[firstState + index] = xml()
+        }
+
+        if (changes.size + 1 == maxSize) {
+            changes.removeAt(0)
+            firstState++
+            index--
+            checkpoints.keys.removeAll { it < firstState }
         }
-        index = history.size - 1
         updateButtons()
     }
 
     /**
-     * To get the previous XML from the history
+     * To get the operations which revert the last change
      *
-     * @return Previous XML from the history
+     * @return Operations to apply to the editor, empty if there is nothing to undo
      */
-    fun undo(): String {
+    fun undo(): List<LayoutOperation> {
         if (index > 0) {
             index--
+            val operations = changes[index].asReversed().map { it.inverse() }
+            current?.let { layout -> operations.forEach { it.applyTo(layout) } }
             updateButtons()
-            return history[index]
+            return operations
         }
-        return ""
+        return emptyList()
     }
 
     /**
-     * To get the next XML from the history
+     * To get the operations which apply the next change again
      *
-     * @return Next XML from the history
+     * @return Operations to apply to the editor, empty if there is nothing to redo
      */
-    fun redo(): String {
-        if (index < history.size - 1) {
+    fun redo(): List<LayoutOperation> {
+        if (index < changes.size) {
+            val operations = changes[index]
             index++
+            current?.let { layout -> operations.forEach { it.applyTo(layout) } }
             updateButtons()
-            return history[index]
+            return operations
         }
-        return ""
+        return emptyList()
+    }
+
+    /**
+     * Replace the layout of the current state, after the editor has been updated by [undo] or
+     * [redo]. The layouts must be the same, except for the keys of the views.
+     */
+    fun rebase(layout: LayoutNode) {
+        current = layout
+    }
+
+    /**
+     * Get the closest checkpoint of the current state, to be used if the operations of [undo] or
+     * [redo] could not be applied to the editor.
+     *
+     * @return The checkpoint, or null if there is none
+     */
+    fun checkpoint(): Checkpoint? {
+        val state = firstState + index
+        val before = checkpoints.keys.filter { it <= state }.maxOrNull()
+        if (before != null) {
+            val operations = (before - firstState until index).flatMap { changes[it] }
+            return Checkpoint(checkpoints[before]!!, operations)
+        }
+
+        val after = checkpoints.keys.filter { it > state }.minOrNull() ?: return null
+        val operations = (index until after - firstState).reversed().flatMap { change ->
+            changes[change].asReversed().map { it.inverse() }
+        }
+        return Checkpoint(checkpoints[after]!!, operations)
     }
 
     /** To update the button's enabled state  */
@@ -83,17 +167,13 @@ class UndoRedoManager(
          *
          * @return true if redo is enabled
          */
-        get() = index < history.size - 1
+        get() = index < changes.size
 
     /**
-     * To check if the last history is same as the current one
+     * Full layout of a state in history
      *
-     * @param xml Current XML
-     * @return true if last history is same as the current one
+     * @param xml XML of the layout
+     * @param operations Operations to apply after loading [xml] to get the current state
      */
-    private fun matchLastHistory(xml: String): Boolean {
-        val lastIndex = history.size - 1
-        if (lastIndex < 0) return false
-        return xml === history[lastIndex]
-    }
+    class Checkpoint(val xml: String, val operations: List<LayoutOperation>)
 }
@@ -4,14 +4,12 @@ import android.content.Context
 import android.view.View
 import android.view.ViewGroup
 import androidx.appcompat.widget.LinearLayoutCompat
-import com.google.gson.Gson
-import com.google.gson.reflect.TypeToken
+import com.itsvks.layouteditor.editor.initializer.AttributeCatalog
 import com.itsvks.layouteditor.editor.initializer.AttributeInitializer
 import com.itsvks.layouteditor.editor.initializer.AttributeMap
 import com.itsvks.layouteditor.managers.IdManager.addNewId
 import com.itsvks.layouteditor.managers.IdManager.clear
 import com.itsvks.layouteditor.utils.Constants
-import com.itsvks.layouteditor.utils.FileUtil
 import com.itsvks.layouteditor.utils.InvokeUtil.createView
 import com.itsvks.layouteditor.utils.InvokeUtil.invokeMethod
 import org.xmlpull.v1.XmlPullParser
@@ -28,20 +26,11 @@ class XmlLayoutParser(context: Context) {
     private val container: LinearLayoutCompat
 
     init {
-        val attributes = Gson()
-            .fromJson<HashMap<String, List<HashMap<String, Any>>>>(
-                FileUtil.readFromAsset(Constants.ATTRIBUTES_FILE, context),
-                object : TypeToken<HashMap<String, List<HashMap<String, Any>>>>() {
-                }.type
-            )
-        val parentAttributes = Gson()
-            .fromJson<HashMap<String, List<HashMap<String, Any>>>>(
-                FileUtil.readFromAsset(Constants.PARENT_ATTRIBUTES_FILE, context),
-                object : TypeToken<HashMap<String, List<HashMap<String, Any>>>>() {
-                }.type
-            )
-
-        initializer = AttributeInitializer(context, attributes, parentAttributes)
+        initializer = AttributeInitializer(
+            context,
+            AttributeCatalog.attributes(context),
+            AttributeCatalog.parentAttributes(context)
+        )
 
         container = LinearLayoutCompat(context)
         container.layoutParams = ViewGroup.LayoutParams(
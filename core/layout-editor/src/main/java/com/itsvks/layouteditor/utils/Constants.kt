@@ -26,6 +26,7 @@ object Constants {
     val textStyleMap = HashMap<String, Int>()
     const val ATTRIBUTES_FILE = "attributes/attributes.json"
     const val PARENT_ATTRIBUTES_FILE = "attributes/parent_attributes.json"
+    const val ATTRIBUTE_CATALOG_FILE = "attributes/catalog.bin"
     const val PALETTE_COMMON = "palette/common.json"
     const val PALETTE_TEXT = "palette/text.json"
     const val PALETTE_BUTTONS = "palette/buttons.json"
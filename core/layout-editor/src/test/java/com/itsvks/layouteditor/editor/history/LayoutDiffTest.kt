@@ -0,0 +1,125 @@
+package com.itsvks.layouteditor.editor.history
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+class LayoutDiffTest {
+
+    @Test
+    fun `test operations apply and revert`() {
+        repeat(50) { seed ->
+            val random = Random(seed)
+            val layouts = RandomLayouts(random)
+            val layout = layouts.layout(1 + random.nextInt(60))
+            repeat(100) {
+                val old = RandomLayouts.snapshot(layout)
+                // Several changes can be recorded as one
+                repeat(1 + if (random.nextInt(5) == 0) random.nextInt(5) else 0) {
+                    layouts.edit(layout)
+                }
+
+                val operations = LayoutDiff.diff(old, layout)
+                val target = old.copy()
+                operations.forEach { it.applyTo(target) }
+                assertThat(target.sameLayout(layout)).isTrue()
+
+                operations.asReversed().forEach { it.inverse().applyTo(target) }
+                assertThat(target.sameLayout(old)).isTrue()
+            }
+        }
+    }
+
+    @Test
+    fun `test same layout has no operations`() {
+        val layout = RandomLayouts(Random(1)).layout(30)
+        assertThat(LayoutDiff.diff(RandomLayouts.snapshot(layout), layout)).isEmpty()
+    }
+
+    @Test
+    fun `test recorded operations`() {
+        val container = LayoutNode.container()
+        val root = LayoutNode("android.widget.LinearLayout", key = "root")
+        val text = LayoutNode("android.widget.TextView", linkedMapOf("android:text" to "a"), "text")
+        val button = LayoutNode("android.widget.Button", key = "button")
+        container.addChild(root)
+        root.addChild(text)
+        root.addChild(button)
+
+        // Drag the button before the text
+        var old = RandomLayouts.snapshot(container)
+        root.addChild(root.removeChild(1), 0)
+        var operations = LayoutDiff.diff(old, container)
+        assertThat(operations).hasSize(1)
+        val move = operations[0] as LayoutOperation.MoveView
+        assertThat(move.fromParentPath).isEqualTo(intArrayOf(0))
+        assertThat(move.fromIndex).isEqualTo(1)
+        assertThat(move.toIndex).isEqualTo(0)
+
+        // Edit an attribute
+        old = RandomLayouts.snapshot(container)
+        text.attributes["android:text"] = "b"
+        operations = LayoutDiff.diff(old, container)
+        assertThat(operations).hasSize(1)
+        val set = operations[0] as LayoutOperation.SetAttribute
+        assertThat(set.path).isEqualTo(intArrayOf(0, 1))
+        assertThat(set.oldValue).isEqualTo("a")
+        assertThat(set.newValue).isEqualTo("b")
+
+        // Remove an attribute, which recreates the view
+        old = RandomLayouts.snapshot(container)
+        root.removeChild(1)
+        root.addChild(LayoutNode("android.widget.TextView", key = "recreated"), 1)
+        operations = LayoutDiff.diff(old, container)
+        assertThat(operations).hasSize(1)
+        assertThat((operations[0] as LayoutOperation.SetAttribute).newValue).isNull()
+
+        // Delete the layout
+        old = RandomLayouts.snapshot(container)
+        container.removeChild(0)
+        operations = LayoutDiff.diff(old, container)
+        assertThat(operations).hasSize(1)
+        assertThat((operations[0] as LayoutOperation.RemoveView).node.size()).isEqualTo(3)
+    }
+
+    @Test
+    fun `benchmark memory per 100 edits`() {
+        val edits = 100
+        val random = Random(42)
+        val layouts = RandomLayouts(random)
+        val layout = layouts.layout(500)
+        val snapshots = ArrayList<LayoutNode>()
+        repeat(edits + 1) {
+            snapshots.add(RandomLayouts.snapshot(layout))
+            layouts.edit(layout)
+        }
+
+        System.gc()
+        var memoryBefore = usedMemory()
+        var start = System.nanoTime()
+        val xmlHistory = snapshots.drop(1).map { RandomLayouts.toXml(it) }
+        val xmlNanos = (System.nanoTime() - start) / edits
+        System.gc()
+        val xmlMemory = usedMemory() - memoryBefore
+
+        System.gc()
+        memoryBefore = usedMemory()
+        start = System.nanoTime()
+        val operationHistory = (1..edits).map { LayoutDiff.diff(snapshots[it - 1], snapshots[it]) }
+        val diffNanos = (System.nanoTime() - start) / edits
+        System.gc()
+        val operationMemory = usedMemory() - memoryBefore
+
+        println("$edits edits of a layout of ${layout.size() - 1} views: " +
+            "XML history ${xmlMemory / 1024} KiB, ${xmlNanos / 1000} us/edit; " +
+            "operation history ${operationMemory / 1024} KiB (${operationHistory.sumOf { it.size }} operations), " +
+            "${diffNanos / 1000} us/edit")
+        assertThat(xmlHistory).hasSize(edits)
+        assertThat(operationHistory).hasSize(edits)
+    }
+
+    private fun usedMemory(): Long {
+        val runtime = Runtime.getRuntime()
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+}
@@ -0,0 +1,134 @@
+package com.itsvks.layouteditor.editor.history
+
+import kotlin.random.Random
+
+/**
+ * Random layouts and edits for the undo history tests. The views of a layout are keyed by numbers,
+ * as the views of the editor are keyed by the view objects.
+ */
+class RandomLayouts(private val random: Random) {
+
+    private val groups = listOf("android.widget.LinearLayout", "android.widget.FrameLayout")
+    private val widgets = listOf("android.widget.TextView", "android.widget.Button", "android.widget.ImageView")
+    private val attributeNames = listOf(
+        "android:text", "android:textSize", "android:gravity", "android:padding",
+        "android:layout_margin", "android:background"
+    )
+
+    private var nextKey = 0
+
+    fun layout(size: Int): LayoutNode {
+        val container = LayoutNode.container()
+        val root = newView(group = true)
+        container.addChild(root)
+        repeat(size - 1) {
+            val parents = groupsOf(container)
+            parents[random.nextInt(parents.size)].let { it.addChild(newView(), random.nextInt(it.children.size + 1)) }
+        }
+        return container
+    }
+
+    /**
+     * Make a random change to the layout, like the editor does
+     */
+    fun edit(container: LayoutNode) {
+        val views = viewsOf(container)
+        val view = views[random.nextInt(views.size)]
+        when (random.nextInt(7)) {
+            0 -> {
+                val parents = groupsOf(container)
+                val parent = parents[random.nextInt(parents.size)]
+                parent.addChild(newView(), random.nextInt(parent.children.size + 1))
+            }
+
+            1 -> if (view.parent !== container) {
+                view.parent!!.let { it.removeChild(it.children.indexOf(view)) }
+            }
+
+            2 -> if (view.parent !== container) {
+                // Drag and drop, not into itself
+                view.parent!!.let { it.removeChild(it.children.indexOf(view)) }
+                val parents = groupsOf(container)
+                val parent = parents[random.nextInt(parents.size)]
+                parent.addChild(view, random.nextInt(parent.children.size + 1))
+            }
+
+            3 -> if (view.attributes.isNotEmpty()) {
+                view.attributes.remove(view.attributes.keys.elementAt(random.nextInt(view.attributes.size)))
+            }
+
+            4 -> {
+                // Removing an attribute recreates the view
+                val parent = view.parent!!
+                val index = parent.children.indexOf(view)
+                parent.removeChild(index)
+                val recreated = LayoutNode(view.className, LinkedHashMap(view.attributes), nextKey++)
+                while (view.children.isNotEmpty()) {
+                    recreated.addChild(view.removeChild(0))
+                }
+                recreated.attributes.remove("android:padding")
+                parent.addChild(recreated, index)
+            }
+
+            else -> view.attributes[attributeNames[random.nextInt(attributeNames.size)]] = "v${random.nextInt(100)}"
+        }
+    }
+
+    private fun newView(group: Boolean = random.nextInt(4) == 0): LayoutNode {
+        val className = if (group) groups[random.nextInt(groups.size)] else widgets[random.nextInt(widgets.size)]
+        val key = nextKey++
+        val attributes = linkedMapOf(
+            "android:id" to "@+id/view$key",
+            "android:layout_width" to "wrap_content",
+            "android:layout_height" to "wrap_content"
+        )
+        if (random.nextBoolean()) {
+            attributes[attributeNames[random.nextInt(attributeNames.size)]] = "v${random.nextInt(100)}"
+        }
+        return LayoutNode(className, attributes, key)
+    }
+
+    private fun viewsOf(container: LayoutNode): List<LayoutNode> {
+        val views = ArrayList<LayoutNode>()
+        container.forEachNode { if (it !== container) views.add(it) }
+        return views
+    }
+
+    private fun groupsOf(container: LayoutNode) = viewsOf(container).filter { it.className in groups }
+
+    companion object {
+
+        /**
+         * Copy a layout with its keys, as the editor takes a new snapshot for every change
+         */
+        fun snapshot(container: LayoutNode) = container.copy { it.key }
+
+        /**
+         * Generate XML of the layout like [com.itsvks.layouteditor.tools.XmlLayoutGenerator]
+         */
+        fun toXml(container: LayoutNode): String {
+            val builder = StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n")
+            for (child in container.children) {
+                appendXml(builder, child, 0)
+            }
+            return builder.toString()
+        }
+
+        private fun appendXml(builder: StringBuilder, node: LayoutNode, depth: Int) {
+            val indent = "\t".repeat(depth)
+            builder.append(indent).append('<').append(node.className).append('\n')
+            for ((key, value) in node.attributes) {
+                builder.append(indent).append('\t').append(key).append("=\"").append(value).append("\"\n")
+            }
+            if (node.children.isEmpty()) {
+                builder.append(indent).append("/>\n\n")
+                return
+            }
+            builder.append(indent).append(">\n\n")
+            for (child in node.children) {
+                appendXml(builder, child, depth + 1)
+            }
+            builder.append(indent).append("</").append(node.className).append(">\n\n")
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.itsvks.layouteditor.editor.initializer
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.io.File
+
+class AttributeCatalogTest {
+
+    // Generated by the generateAttributeCatalog task
+    private val catalogFile = File("build/generated/attributeCatalog/attributes/catalog.bin")
+    private val attributesFile = File("src/main/assets/attributes/attributes.json")
+    private val parentAttributesFile = File("src/main/assets/attributes/parent_attributes.json")
+
+    @Test
+    fun `test catalog has the attributes of the json files`() {
+        val catalog = catalogFile.inputStream().use { AttributeCatalog.read(it) }
+        assertThat(catalog.attributes).isEqualTo(AttributeCatalog.parseJson(attributesFile.readText()))
+        assertThat(catalog.parentAttributes)
+            .isEqualTo(AttributeCatalog.parseJson(parentAttributesFile.readText()))
+        assertThat(catalog.attributes).containsKey("android.view.View")
+    }
+
+    @Test
+    fun `benchmark editor startup`() {
+        // Every editor and parser used to parse both files
+        val editors = 20
+        val catalogBytes = catalogFile.readBytes()
+        val attributesJson = attributesFile.readText()
+        val parentAttributesJson = parentAttributesFile.readText()
+
+        System.gc()
+        var memoryBefore = usedMemory()
+        var start = System.nanoTime()
+        val parsed = (1..editors).map {
+            AttributeCatalog.parseJson(attributesJson) to AttributeCatalog.parseJson(parentAttributesJson)
+        }
+        val jsonNanos = (System.nanoTime() - start) / editors
+        System.gc()
+        val jsonMemory = usedMemory() - memoryBefore
+
+        System.gc()
+        memoryBefore = usedMemory()
+        start = System.nanoTime()
+        val catalog = AttributeCatalog.read(catalogBytes.inputStream())
+        val shared = (1..editors).map { catalog.attributes to catalog.parentAttributes }
+        val catalogNanos = System.nanoTime() - start
+        System.gc()
+        val catalogMemory = usedMemory() - memoryBefore
+
+        println("$editors editors: JSON ${jsonNanos / 1000} us/editor, ${jsonMemory / 1024} KiB retained; " +
+            "catalog ${catalogNanos / 1000} us once (${catalogBytes.size} bytes), ${catalogMemory / 1024} KiB retained")
+        assertThat(parsed).hasSize(editors)
+        assertThat(shared).hasSize(editors)
+    }
+
+    private fun usedMemory(): Long {
+        val runtime = Runtime.getRuntime()
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+}
@@ -0,0 +1,105 @@
+package com.itsvks.layouteditor.managers
+
+import com.google.common.truth.Truth.assertThat
+import com.itsvks.layouteditor.editor.history.LayoutNode
+import com.itsvks.layouteditor.editor.history.RandomLayouts
+import org.junit.Test
+import kotlin.random.Random
+
+class UndoRedoManagerTest {
+
+    @Test
+    fun `test undo and redo on the views`() {
+        val random = Random(7)
+        val layouts = RandomLayouts(random)
+        val layout = layouts.layout(40)
+        val manager = UndoRedoManager(null, null)
+        val states = ArrayList<LayoutNode>()
+
+        // More changes than kept in history
+        while (states.size < 30) {
+            // Unchanged layouts are not added
+            if (states.isEmpty() || !layout.sameLayout(states.last())) {
+                states.add(RandomLayouts.snapshot(layout))
+            }
+            manager.addToHistory(RandomLayouts.snapshot(layout)) { "" }
+            layouts.edit(layout)
+        }
+
+        // The views of the editor, changed by the returned operations only
+        val views = states.last().copy()
+        var state = states.lastIndex
+        while (manager.isUndoEnabled) {
+            manager.undo().forEach { it.applyTo(views) }
+            state--
+            assertThat(views.sameLayout(states[state])).isTrue()
+            assertThat(manager.current!!.sameLayout(states[state])).isTrue()
+        }
+        assertThat(state).isEqualTo(states.size - 19)
+
+        while (manager.isRedoEnabled) {
+            manager.redo().forEach { it.applyTo(views) }
+            state++
+            assertThat(views.sameLayout(states[state])).isTrue()
+        }
+        assertThat(state).isEqualTo(states.lastIndex)
+    }
+
+    @Test
+    fun `test new change discards redo`() {
+        val layouts = RandomLayouts(Random(3))
+        val layout = layouts.layout(10)
+        val manager = UndoRedoManager(null, null)
+        manager.addToHistory(RandomLayouts.snapshot(layout)) { "" }
+        layouts.edit(layout)
+        layout.children[0].attributes["android:text"] = "first"
+        manager.addToHistory(RandomLayouts.snapshot(layout)) { "" }
+
+        manager.undo()
+        assertThat(manager.isRedoEnabled).isTrue()
+        val changed = RandomLayouts.snapshot(manager.current!!)
+        changed.children[0].attributes["android:text"] = "second"
+        manager.addToHistory(changed) { "" }
+        assertThat(manager.isRedoEnabled).isFalse()
+        assertThat(manager.isUndoEnabled).isTrue()
+
+        // Unchanged layout is not added
+        manager.addToHistory(RandomLayouts.snapshot(manager.current!!)) { "" }
+        manager.undo()
+        assertThat(manager.isUndoEnabled).isFalse()
+    }
+
+    @Test
+    fun `test checkpoints restore every state`() {
+        val layouts = RandomLayouts(Random(11))
+        val layout = layouts.layout(40)
+        val manager = UndoRedoManager(null, null)
+        val states = ArrayList<LayoutNode>()
+        val checkpoints = HashMap<String, LayoutNode>()
+
+        while (states.size < 35) {
+            if (states.isEmpty() || !layout.sameLayout(states.last())) {
+                states.add(RandomLayouts.snapshot(layout))
+            }
+            val snapshot = RandomLayouts.snapshot(layout)
+            manager.addToHistory(snapshot) {
+                "state${states.lastIndex}".also { name -> checkpoints[name] = snapshot.copy() }
+            }
+            layouts.edit(layout)
+        }
+        // Only every few changes are kept in full
+        assertThat(checkpoints.size).isLessThan(6)
+
+        var state = states.lastIndex
+        while (true) {
+            val checkpoint = manager.checkpoint()!!
+            val restored = checkpoints[checkpoint.xml]!!.copy()
+            checkpoint.operations.forEach { it.applyTo(restored) }
+            assertThat(restored.sameLayout(states[state])).isTrue()
+
+            if (!manager.isUndoEnabled) break
+            manager.undo()
+            state--
+        }
+    }
+}
@@ -22,11 +22,19 @@ import com.itsaky.androidide.models.Range
 /**
  * Parameters containing data required to format source code.
  *
+ * If [changedRanges] is not empty, only the lines of these ranges (from the start line to the end
+ * line, inclusive) are formatted and [range] is ignored. The language server may expand them to the
+ * enclosing statements.
+ *
  * @author Akash Yadav
  */
 data class FormatCodeParams
 @JvmOverloads
-constructor(val content: CharSequence, val range: Range = Range.NONE)
+constructor(
+  val content: CharSequence,
+  val range: Range = Range.NONE,
+  val changedRanges: List<Range> = emptyList()
+)
 
 /** The code formatting result. */
 data class CodeFormatResult
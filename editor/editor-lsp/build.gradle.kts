@@ -62,4 +62,7 @@ dependencies {
     implementation(libs.common.org.eclipse.lsp4j)
     implementation(libs.common.lsp4j.jsonrpc)
     implementation(libs.kotlinx.coroutines)
+
+    testImplementation(libs.tests.junit)
+    testImplementation(libs.tests.google.truth)
 }
@@ -107,10 +107,15 @@ import java.util.concurrent.CompletableFuture
 
 /**
  * Default implementation for LSP requests/notifications handling.
+ *
+ * Document changes and the requests made on documents go through a [DocumentSynchronizer], which
+ * coalesces the changes made within [changeDelay] milliseconds and cancels the requests made on
+ * outdated versions of the documents.
  */
 class DefaultRequestManager(
     val wrapper: LanguageServerWrapper, val server: LanguageServer, val client: LanguageClient,
-    val serverCapabilities: ServerCapabilities
+    val serverCapabilities: ServerCapabilities,
+    changeDelay: Long = DEFAULT_CHANGE_DELAY
 ) : RequestManager() {
 
     private val textDocumentOptions: TextDocumentSyncOptions? =
@@ -122,6 +127,13 @@ class DefaultRequestManager(
     private val workspaceService: WorkspaceService =
         server.workspaceService
     private val textDocumentService: TextDocumentService = server.textDocumentService
+    private val synchronizer = DocumentSynchronizer(changeDelay) { params ->
+        try {
+            textDocumentService.didChange(params)
+        } catch (e: Exception) {
+            crashed(e)
+        }
+    }
 
     // Client
     override fun showMessage(messageParams: MessageParams) {
@@ -300,7 +312,7 @@ class DefaultRequestManager(
         if (checkStatus()) {
             try {
                 if (textDocumentOptions?.change != null) {
-                    textDocumentService.didChange(params)
+                    synchronizer.didChange(params)
                 }
             } catch (e: Exception) {
                 crashed(e)
@@ -312,6 +324,7 @@ class DefaultRequestManager(
         if (checkStatus()) {
             try {
                 if (textDocumentOptions?.willSave == true) {
+                    synchronizer.flush(params.textDocument.uri)
                     textDocumentService.willSave(params)
                 }
             } catch (e: Exception) {
@@ -323,9 +336,9 @@ class DefaultRequestManager(
     override fun willSaveWaitUntil(params: WillSaveTextDocumentParams): CompletableFuture<List<TextEdit>>? {
         return if (checkStatus()) {
             try {
-                if (textDocumentOptions?.willSaveWaitUntil == true) textDocumentService.willSaveWaitUntil(
-                    params
-                ) else null
+                if (textDocumentOptions?.willSaveWaitUntil == true) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.willSaveWaitUntil(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -337,6 +350,7 @@ class DefaultRequestManager(
         if (checkStatus()) {
             try {
                 if (textDocumentOptions?.save != null) {
+                    synchronizer.flush(params.textDocument.uri)
                     textDocumentService.didSave(params)
                 }
             } catch (e: Exception) {
@@ -349,6 +363,7 @@ class DefaultRequestManager(
         if (checkStatus()) {
             try {
                 if (textDocumentOptions?.openClose == true) {
+                    synchronizer.close(params.textDocument.uri)
                     textDocumentService.didClose(params)
                 }
             } catch (e: Exception) {
@@ -360,9 +375,9 @@ class DefaultRequestManager(
     override fun completion(params: CompletionParams): CompletableFuture<Either<List<CompletionItem>, CompletionList>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.completionProvider != null) textDocumentService.completion(
-                    params
-                ) else null
+                if (serverCapabilities.completionProvider != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.completion(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -391,9 +406,9 @@ class DefaultRequestManager(
     override fun hover(params: HoverParams): CompletableFuture<Hover>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.hoverProvider?.left == true || serverCapabilities.hoverProvider?.right != null) textDocumentService.hover(
-                    params
-                ) else null
+                if (serverCapabilities.hoverProvider?.left == true || serverCapabilities.hoverProvider?.right != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.hover(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -409,9 +424,9 @@ class DefaultRequestManager(
     override fun signatureHelp(params: SignatureHelpParams): CompletableFuture<SignatureHelp>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.signatureHelpProvider != null) textDocumentService.signatureHelp(
-                    params
-                ) else null
+                if (serverCapabilities.signatureHelpProvider != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.signatureHelp(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -423,9 +438,9 @@ class DefaultRequestManager(
     override fun inlayHint(params: InlayHintParams?): CompletableFuture<List<InlayHint?>?>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.inlayHintProvider?.left == true || serverCapabilities.inlayHintProvider?.right != null) textDocumentService.inlayHint(
-                    params
-                ) else null
+                if (serverCapabilities.inlayHintProvider?.left == true || serverCapabilities.inlayHintProvider?.right != null) synchronizer.request(params?.textDocument?.uri) {
+                    textDocumentService.inlayHint(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -437,9 +452,9 @@ class DefaultRequestManager(
     override fun references(params: ReferenceParams): CompletableFuture<List<Location?>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.referencesProvider?.left == true || serverCapabilities.referencesProvider?.right != null) textDocumentService.references(
-                    params
-                ) else null
+                if (serverCapabilities.referencesProvider?.left == true || serverCapabilities.referencesProvider?.right != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.references(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -455,9 +470,9 @@ class DefaultRequestManager(
     override fun documentHighlight(params: DocumentHighlightParams): CompletableFuture<List<DocumentHighlight>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.documentHighlightProvider?.left == true || serverCapabilities.documentHighlightProvider?.right != null) textDocumentService.documentHighlight(
-                    params
-                ) else null
+                if (serverCapabilities.documentHighlightProvider?.left == true || serverCapabilities.documentHighlightProvider?.right != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.documentHighlight(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -468,9 +483,9 @@ class DefaultRequestManager(
     override fun documentSymbol(params: DocumentSymbolParams): CompletableFuture<List<Either<SymbolInformation, DocumentSymbol>>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.documentSymbolProvider?.left == true || serverCapabilities.documentSymbolProvider?.right != null) textDocumentService.documentSymbol(
-                    params
-                ) else null
+                if (serverCapabilities.documentSymbolProvider?.left == true || serverCapabilities.documentSymbolProvider?.right != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.documentSymbol(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -481,9 +496,9 @@ class DefaultRequestManager(
     override fun formatting(params: DocumentFormattingParams): CompletableFuture<List<TextEdit>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.documentFormattingProvider?.left == true || serverCapabilities.documentFormattingProvider?.right != null) textDocumentService.formatting(
-                    params
-                ) else null
+                if (serverCapabilities.documentFormattingProvider?.left == true || serverCapabilities.documentFormattingProvider?.right != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.formatting(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -496,9 +511,9 @@ class DefaultRequestManager(
     override fun rangeFormatting(params: DocumentRangeFormattingParams): CompletableFuture<List<TextEdit>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.documentRangeFormattingProvider?.left == true || serverCapabilities.documentRangeFormattingProvider?.right != null) textDocumentService.rangeFormatting(
-                    params
-                ) else null
+                if (serverCapabilities.documentRangeFormattingProvider?.left == true || serverCapabilities.documentRangeFormattingProvider?.right != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.rangeFormatting(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -509,9 +524,9 @@ class DefaultRequestManager(
     override fun onTypeFormatting(params: DocumentOnTypeFormattingParams): CompletableFuture<List<TextEdit>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.documentOnTypeFormattingProvider != null) textDocumentService.onTypeFormatting(
-                    params
-                ) else null
+                if (serverCapabilities.documentOnTypeFormattingProvider != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.onTypeFormatting(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -523,9 +538,9 @@ class DefaultRequestManager(
         return if (checkStatus()) {
             try {
                 if (serverCapabilities.diagnosticProvider?.isInterFileDependencies == true || serverCapabilities.diagnosticProvider?.isWorkspaceDiagnostics == true) {
-                    textDocumentService.diagnostic(
-                        params
-                    )
+                    synchronizer.request(params?.textDocument?.uri) {
+                        textDocumentService.diagnostic(params)
+                    }
                 } else null
             } catch (e: Exception) {
                 crashed(e)
@@ -542,9 +557,9 @@ class DefaultRequestManager(
     override fun definition(params: DefinitionParams): CompletableFuture<Either<List<Location>, List<LocationLink>>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.definitionProvider?.left == true || serverCapabilities.definitionProvider?.right != null) textDocumentService.definition(
-                    params
-                ) else null
+                if (serverCapabilities.definitionProvider?.left == true || serverCapabilities.definitionProvider?.right != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.definition(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -556,9 +571,9 @@ class DefaultRequestManager(
         return if (checkStatus()) {
             try {
                 if (serverCapabilities.codeActionProvider?.left == true || serverCapabilities.codeActionProvider?.right != null)
-                    textDocumentService.codeAction(
-                        params
-                    ) else null
+                    synchronizer.request(params.textDocument.uri) {
+                        textDocumentService.codeAction(params)
+                    } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -569,7 +584,9 @@ class DefaultRequestManager(
     override fun codeLens(params: CodeLensParams): CompletableFuture<List<CodeLens>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.codeLensProvider != null) textDocumentService.codeLens(params) else null
+                if (serverCapabilities.codeLensProvider != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.codeLens(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -594,9 +611,9 @@ class DefaultRequestManager(
     override fun documentLink(params: DocumentLinkParams): CompletableFuture<List<DocumentLink>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.documentLinkProvider != null) textDocumentService.documentLink(
-                    params
-                ) else null
+                if (serverCapabilities.documentLinkProvider != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.documentLink(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -621,9 +638,9 @@ class DefaultRequestManager(
         return if (checkStatus()) {
             try {
                 if (serverCapabilities.renameProvider?.right?.prepareProvider == true)
-                    textDocumentService.prepareRename(
-                        params
-                    ) else null
+                    synchronizer.request(params?.textDocument?.uri) {
+                        textDocumentService.prepareRename(params)
+                    } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -635,9 +652,9 @@ class DefaultRequestManager(
         return if (checkStatus()) {
             try {
                 if (serverCapabilities.renameProvider?.left == true || serverCapabilities.renameProvider?.right != null)
-                    textDocumentService.rename(
-                        params
-                    ) else null
+                    synchronizer.request(params.textDocument.uri) {
+                        textDocumentService.rename(params)
+                    } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -648,9 +665,9 @@ class DefaultRequestManager(
     override fun implementation(params: ImplementationParams): CompletableFuture<Either<List<Location>, List<LocationLink>>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.implementationProvider?.left == true || serverCapabilities.implementationProvider?.right != null) textDocumentService.implementation(
-                    params
-                ) else null
+                if (serverCapabilities.implementationProvider?.left == true || serverCapabilities.implementationProvider?.right != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.implementation(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -661,9 +678,9 @@ class DefaultRequestManager(
     override fun typeDefinition(params: TypeDefinitionParams): CompletableFuture<Either<List<Location>, List<LocationLink>>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.typeDefinitionProvider?.left == true || serverCapabilities.typeDefinitionProvider?.right != null) textDocumentService.typeDefinition(
-                    params
-                ) else null
+                if (serverCapabilities.typeDefinitionProvider?.left == true || serverCapabilities.typeDefinitionProvider?.right != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.typeDefinition(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -674,9 +691,9 @@ class DefaultRequestManager(
     override fun documentColor(params: DocumentColorParams): CompletableFuture<List<ColorInformation>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.colorProvider?.left == true || serverCapabilities.colorProvider?.right != null) textDocumentService.documentColor(
-                    params
-                ) else null
+                if (serverCapabilities.colorProvider?.left == true || serverCapabilities.colorProvider?.right != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.documentColor(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -691,9 +708,9 @@ class DefaultRequestManager(
     override fun foldingRange(params: FoldingRangeRequestParams): CompletableFuture<List<FoldingRange>>? {
         return if (checkStatus()) {
             try {
-                if (serverCapabilities.foldingRangeProvider?.left == true || serverCapabilities.foldingRangeProvider?.right != null) textDocumentService.foldingRange(
-                    params
-                ) else null
+                if (serverCapabilities.foldingRangeProvider?.left == true || serverCapabilities.foldingRangeProvider?.right != null) synchronizer.request(params.textDocument.uri) {
+                    textDocumentService.foldingRange(params)
+                } else null
             } catch (e: Exception) {
                 crashed(e)
                 null
@@ -709,4 +726,13 @@ class DefaultRequestManager(
         e.printStackTrace(System.err)
         wrapper.crashed(e)
     }
+
+    companion object {
+
+        /**
+         * The default delay in milliseconds within which the changes of a document are sent as one
+         * `textDocument/didChange` notification.
+         */
+        const val DEFAULT_CHANGE_DELAY = 50L
+    }
 }
\ No newline at end of file
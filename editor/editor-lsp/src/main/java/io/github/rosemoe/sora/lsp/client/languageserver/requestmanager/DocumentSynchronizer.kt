@@ -0,0 +1,249 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lsp.client.languageserver.requestmanager
+
+import org.eclipse.lsp4j.DidChangeTextDocumentParams
+import org.eclipse.lsp4j.Position
+import org.eclipse.lsp4j.Range
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Coalesces the content changes of the documents, and keeps the requests made on a document in
+ * order with its changes.
+ *
+ * The changes made to a document within [changeDelay] milliseconds of its first pending change
+ * are sent as one `textDocument/didChange` notification, and consecutive insertions made by typing
+ * are merged into one change. Requests made on a document with pending changes are sent after the
+ * changes.
+ *
+ * Each request is tracked with the version of the document it was made on. When the document
+ * changes, the requests made on older versions are cancelled: the requests which have not been
+ * sent yet are dropped, and the requests which have been sent are cancelled, which makes lsp4j
+ * send `$/cancelRequest` to the server. A response received after the document has changed is
+ * not returned, the request is cancelled instead.
+ *
+ * @param sendChange Sends the `textDocument/didChange` notification to the server.
+ */
+class DocumentSynchronizer(
+    private val changeDelay: Long,
+    private val sendChange: (DidChangeTextDocumentParams) -> Unit
+) {
+
+    private val documents = ConcurrentHashMap<String, Document>()
+
+    /**
+     * Report a change of a document. The change is sent with the other changes made to the
+     * document within the change delay.
+     */
+    fun didChange(params: DidChangeTextDocumentParams) {
+        val uri = params.textDocument.uri
+        val document = documents.computeIfAbsent(uri) { Document() }
+        synchronized(document) {
+            document.version = params.textDocument.version ?: (document.version + 1)
+            cancelRequests(document)
+
+            val pending = document.pending
+            if (pending == null) {
+                document.pending =
+                    DidChangeTextDocumentParams(params.textDocument, ArrayList(params.contentChanges))
+                scheduler.schedule({ flush(uri) }, changeDelay, TimeUnit.MILLISECONDS)
+            } else {
+                pending.textDocument = params.textDocument
+                params.contentChanges.forEach { merge(pending.contentChanges, it) }
+            }
+        }
+    }
+
+    /**
+     * Send the pending changes of a document now, followed by the requests which were waiting for
+     * them.
+     */
+    fun flush(uri: String) {
+        val document = documents[uri] ?: return
+        synchronized(document) {
+            val pending = document.pending ?: return
+            document.pending = null
+            sendChange(pending)
+
+            val queued = ArrayList(document.queued)
+            document.queued.clear()
+            queued.forEach { it.run() }
+        }
+    }
+
+    /**
+     * Send the pending changes of a closed document and stop tracking it. The requests which have
+     * not completed yet are cancelled.
+     */
+    fun close(uri: String) {
+        flush(uri)
+        val document = documents.remove(uri) ?: return
+        synchronized(document) {
+            cancelRequests(document)
+        }
+    }
+
+    /**
+     * Make a request on a document. The request is sent after the pending changes of the document.
+     *
+     * @param uri The URI of the document, or `null` if the request does not depend on a document.
+     * @param send Sends the request to the server.
+     * @return The result of the request, which is cancelled if the document changes before the
+     * response is received.
+     */
+    fun <T> request(uri: String?, send: () -> CompletableFuture<T>): CompletableFuture<T> {
+        if (uri == null) {
+            return send()
+        }
+
+        val document = documents.computeIfAbsent(uri) { Document() }
+        synchronized(document) {
+            val version = document.version
+            val result = CompletableFuture<T>()
+            val request = QueuedRequest(result) {
+                track(document, version, send(), result)
+            }
+            if (document.pending == null) {
+                request.run()
+            } else {
+                document.queued.add(request)
+            }
+            return result
+        }
+    }
+
+    private fun <T> track(
+        document: Document,
+        version: Int,
+        future: CompletableFuture<T>,
+        result: CompletableFuture<T>
+    ) {
+        document.inFlight.add(future)
+        future.whenComplete { value, error ->
+            synchronized(document) {
+                document.inFlight.remove(future)
+            }
+            when {
+                error is CancellationException || document.version != version -> result.cancel(false)
+                error != null -> result.completeExceptionally(error)
+                else -> result.complete(value)
+            }
+        }
+        result.whenComplete { _, _ ->
+            if (result.isCancelled) {
+                future.cancel(true)
+            }
+        }
+    }
+
+    private fun cancelRequests(document: Document) {
+        val queued = ArrayList(document.queued)
+        document.queued.clear()
+        queued.forEach { it.result.cancel(false) }
+
+        val inFlight = ArrayList(document.inFlight)
+        document.inFlight.clear()
+        inFlight.forEach { it.cancel(true) }
+    }
+
+    /**
+     * Add a change to the pending changes of a document. An insertion right after an insertion on
+     * the same line extends it, and a deletion of the end of an insertion shortens it.
+     */
+    private fun merge(
+        changes: MutableList<TextDocumentContentChangeEvent>,
+        change: TextDocumentContentChangeEvent
+    ) {
+        val range = change.range
+        if (range == null) {
+            // the whole text has been replaced
+            changes.clear()
+            changes.add(change)
+            return
+        }
+
+        val last = changes.lastOrNull()
+        val lastRange = last?.range
+        if (lastRange == null || lastRange.start != lastRange.end || last.text.contains('\n')) {
+            changes.add(change)
+            return
+        }
+
+        val start = lastRange.start
+        val end = Position(start.line, start.character + last.text.length)
+        if (range.start == end && range.end == end) {
+            changes[changes.size - 1] =
+                TextDocumentContentChangeEvent(Range(start, start), last.text + change.text)
+            return
+        }
+
+        val deleted = range.end.character - range.start.character
+        if (change.text.isEmpty() && range.end == end && range.start.line == end.line && deleted in 0..last.text.length) {
+            changes[changes.size - 1] =
+                TextDocumentContentChangeEvent(Range(start, start), last.text.dropLast(deleted))
+            return
+        }
+
+        changes.add(change)
+    }
+
+    private class Document {
+
+        @Volatile
+        var version = 0
+
+        var pending: DidChangeTextDocumentParams? = null
+
+        val queued = ArrayList<QueuedRequest>()
+
+        val inFlight = ArrayList<CompletableFuture<*>>()
+    }
+
+    private class QueuedRequest(val result: CompletableFuture<*>, private val send: () -> Unit) {
+
+        fun run() {
+            if (result.isDone) {
+                return
+            }
+            try {
+                send()
+            } catch (e: Exception) {
+                result.completeExceptionally(e)
+            }
+        }
+    }
+
+    companion object {
+
+        private val scheduler = Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "LspDocumentSynchronizer").apply { isDaemon = true }
+        }
+    }
+}
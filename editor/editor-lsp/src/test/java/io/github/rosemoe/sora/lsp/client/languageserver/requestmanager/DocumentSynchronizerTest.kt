@@ -0,0 +1,300 @@
+/*******************************************************************************
+ *    sora-editor - the awesome code editor for Android
+ *    https://github.com/Rosemoe/sora-editor
+ *    Copyright (C) 2020-2024  Rosemoe
+ *
+ *     This library is free software; you can redistribute it and/or
+ *     modify it under the terms of the GNU Lesser General Public
+ *     License as published by the Free Software Foundation; either
+ *     version 2.1 of the License, or (at your option) any later version.
+ *
+ *     This library is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *     Lesser General Public License for more details.
+ *
+ *     You should have received a copy of the GNU Lesser General Public
+ *     License along with this library; if not, write to the Free Software
+ *     Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301
+ *     USA
+ *
+ *     Please contact Rosemoe by email 2073412493@qq.com if you need
+ *     additional information or have any questions
+ ******************************************************************************/
+
+package io.github.rosemoe.sora.lsp.client.languageserver.requestmanager
+
+import com.google.common.truth.Truth.assertThat
+import org.eclipse.lsp4j.DidChangeConfigurationParams
+import org.eclipse.lsp4j.DidChangeTextDocumentParams
+import org.eclipse.lsp4j.DidChangeWatchedFilesParams
+import org.eclipse.lsp4j.DidCloseTextDocumentParams
+import org.eclipse.lsp4j.DidOpenTextDocumentParams
+import org.eclipse.lsp4j.DidSaveTextDocumentParams
+import org.eclipse.lsp4j.Hover
+import org.eclipse.lsp4j.HoverParams
+import org.eclipse.lsp4j.InitializeParams
+import org.eclipse.lsp4j.InitializeResult
+import org.eclipse.lsp4j.MarkupContent
+import org.eclipse.lsp4j.MessageActionItem
+import org.eclipse.lsp4j.MessageParams
+import org.eclipse.lsp4j.Position
+import org.eclipse.lsp4j.PublishDiagnosticsParams
+import org.eclipse.lsp4j.Range
+import org.eclipse.lsp4j.ShowMessageRequestParams
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent
+import org.eclipse.lsp4j.TextDocumentIdentifier
+import org.eclipse.lsp4j.VersionedTextDocumentIdentifier
+import org.eclipse.lsp4j.jsonrpc.Launcher
+import org.eclipse.lsp4j.jsonrpc.MessageConsumer
+import org.eclipse.lsp4j.jsonrpc.messages.NotificationMessage
+import org.eclipse.lsp4j.jsonrpc.messages.RequestMessage
+import org.eclipse.lsp4j.launch.LSPLauncher
+import org.eclipse.lsp4j.services.LanguageClient
+import org.eclipse.lsp4j.services.LanguageServer
+import org.eclipse.lsp4j.services.TextDocumentService
+import org.eclipse.lsp4j.services.WorkspaceService
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.PipedInputStream
+import java.io.PipedOutputStream
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+
+class DocumentSynchronizerTest {
+
+    private val documentService = StubTextDocumentService()
+    private val sentMethods = CopyOnWriteArrayList<String>()
+    private val listening = ArrayList<Future<Void>>()
+    private lateinit var server: LanguageServer
+
+    @Before
+    fun connect() {
+        val clientInput = PipedInputStream()
+        val serverOutput = PipedOutputStream(clientInput)
+        val serverInput = PipedInputStream()
+        val clientOutput = PipedOutputStream(serverInput)
+
+        val serverLauncher =
+            LSPLauncher.createServerLauncher(StubLanguageServer(documentService), serverInput, serverOutput)
+        val clientLauncher = Launcher.Builder<LanguageServer>()
+            .setLocalService(StubLanguageClient())
+            .setRemoteInterface(LanguageServer::class.java)
+            .setInput(clientInput)
+            .setOutput(clientOutput)
+            .wrapMessages { consumer ->
+                MessageConsumer { message ->
+                    when (message) {
+                        is RequestMessage -> sentMethods.add(message.method)
+                        is NotificationMessage -> sentMethods.add(message.method)
+                    }
+                    consumer.consume(message)
+                }
+            }
+            .create()
+
+        listening.add(serverLauncher.startListening())
+        listening.add(clientLauncher.startListening())
+        server = clientLauncher.remoteProxy
+    }
+
+    @After
+    fun disconnect() {
+        listening.forEach { it.cancel(true) }
+    }
+
+    @Test
+    fun testTypingIsCoalesced() {
+        val synchronizer = DocumentSynchronizer(500) { server.textDocumentService.didChange(it) }
+
+        // every typed character is followed by a request, as the editor does for hovers
+        val results = (1..200).map { version ->
+            synchronizer.didChange(change(version, version - 1, "a"))
+            synchronizer.request(URI) {
+                server.textDocumentService.hover(HoverParams(TextDocumentIdentifier(URI), Position(0, version)))
+            }
+        }
+
+        val hover = results.last().get(5, TimeUnit.SECONDS)
+        assertThat(hover.contents.right.value).isEqualTo("200")
+        assertThat(results.dropLast(1).all { it.isCancelled }).isTrue()
+
+        assertThat(sentMethods.count { it == "textDocument/didChange" }).isEqualTo(1)
+        assertThat(sentMethods.count { it == "textDocument/hover" }).isEqualTo(1)
+        assertThat(sentMethods.count { it == "$/cancelRequest" }).isEqualTo(0)
+
+        val changes = documentService.changes.single()
+        assertThat(changes.textDocument.version).isEqualTo(200)
+        assertThat(changes.contentChanges.single().text).isEqualTo("a".repeat(200))
+    }
+
+    @Test
+    fun testSupersededRequestIsCancelled() {
+        val synchronizer = DocumentSynchronizer(0) { server.textDocumentService.didChange(it) }
+        documentService.respond = false
+
+        synchronizer.didChange(change(1, 0, "a"))
+        synchronizer.flush(URI)
+        val result = synchronizer.request(URI) {
+            server.textDocumentService.hover(HoverParams(TextDocumentIdentifier(URI), Position(0, 1)))
+        }
+        waitUntil { documentService.hovers.size == 1 }
+
+        synchronizer.didChange(change(2, 1, "b"))
+        assertThat(result.isCancelled).isTrue()
+
+        // the server is told to cancel the request
+        waitUntil { documentService.hovers.single().isCancelled }
+        assertThat(sentMethods.count { it == "$/cancelRequest" }).isEqualTo(1)
+    }
+
+    @Test
+    fun testStaleResponseIsNotApplied() {
+        val synchronizer = DocumentSynchronizer(0) {}
+
+        // a response which is already on its way, and cannot be cancelled anymore
+        val response = object : CompletableFuture<Hover>() {
+            override fun cancel(mayInterruptIfRunning: Boolean) = false
+        }
+        val result = synchronizer.request(URI) { response }
+
+        synchronizer.didChange(change(1, 0, "a"))
+        response.complete(Hover(MarkupContent("plaintext", "0")))
+
+        assertThat(result.isCancelled).isTrue()
+    }
+
+    @Test
+    fun testEditsAreMerged() {
+        val sent = ArrayList<DidChangeTextDocumentParams>()
+        val synchronizer = DocumentSynchronizer(60_000) { sent.add(it) }
+
+        synchronizer.didChange(change(1, 4, "fo"))
+        synchronizer.didChange(change(2, 6, "x"))
+        // backspace
+        synchronizer.didChange(delete(3, 6, 7))
+        synchronizer.didChange(change(4, 6, "o"))
+        // typing somewhere else
+        synchronizer.didChange(change(5, 0, "b"))
+        synchronizer.flush(URI)
+
+        val changes = sent.single().contentChanges
+        assertThat(changes.map { it.text }).isEqualTo(listOf("foo", "b"))
+        assertThat(changes[0].range).isEqualTo(Range(Position(0, 4), Position(0, 4)))
+        assertThat(sent.single().textDocument.version).isEqualTo(5)
+    }
+
+    @Test
+    fun testRequestWaitsForPendingChanges() {
+        val sent = ArrayList<String>()
+        val synchronizer = DocumentSynchronizer(60_000) { sent.add("change") }
+
+        synchronizer.didChange(change(1, 0, "a"))
+        val result = synchronizer.request(URI) {
+            sent.add("request")
+            CompletableFuture.completedFuture("result")
+        }
+        assertThat(sent).isEmpty()
+
+        synchronizer.flush(URI)
+        assertThat(sent).isEqualTo(listOf("change", "request"))
+        assertThat(result.getNow(null)).isEqualTo("result")
+    }
+
+    private fun change(version: Int, column: Int, text: String): DidChangeTextDocumentParams {
+        val position = Position(0, column)
+        return DidChangeTextDocumentParams(
+            VersionedTextDocumentIdentifier(URI, version),
+            listOf(TextDocumentContentChangeEvent(Range(position, position), text))
+        )
+    }
+
+    private fun delete(version: Int, start: Int, end: Int): DidChangeTextDocumentParams {
+        return DidChangeTextDocumentParams(
+            VersionedTextDocumentIdentifier(URI, version),
+            listOf(TextDocumentContentChangeEvent(Range(Position(0, start), Position(0, end)), ""))
+        )
+    }
+
+    private fun waitUntil(condition: () -> Boolean) {
+        val deadline = System.currentTimeMillis() + 5000
+        while (!condition()) {
+            check(System.currentTimeMillis() < deadline) { "Timed out" }
+            Thread.sleep(10)
+        }
+    }
+
+    private class StubTextDocumentService : TextDocumentService {
+
+        val changes = CopyOnWriteArrayList<DidChangeTextDocumentParams>()
+        val hovers = CopyOnWriteArrayList<CompletableFuture<Hover>>()
+
+        @Volatile
+        var respond = true
+
+        @Volatile
+        private var version = 0
+
+        override fun hover(params: HoverParams): CompletableFuture<Hover> {
+            val future = CompletableFuture<Hover>()
+            hovers.add(future)
+            if (respond) {
+                // answer with the version of the document the server has
+                future.complete(Hover(MarkupContent("plaintext", version.toString())))
+            }
+            return future
+        }
+
+        override fun didChange(params: DidChangeTextDocumentParams) {
+            changes.add(params)
+            version = params.textDocument.version
+        }
+
+        override fun didOpen(params: DidOpenTextDocumentParams) {}
+
+        override fun didClose(params: DidCloseTextDocumentParams) {}
+
+        override fun didSave(params: DidSaveTextDocumentParams) {}
+    }
+
+    private class StubLanguageServer(private val documentService: TextDocumentService) :
+        LanguageServer {
+
+        override fun initialize(params: InitializeParams): CompletableFuture<InitializeResult> =
+            CompletableFuture.completedFuture(InitializeResult())
+
+        override fun shutdown(): CompletableFuture<Any> = CompletableFuture.completedFuture(null)
+
+        override fun exit() {}
+
+        override fun getTextDocumentService() = documentService
+
+        override fun getWorkspaceService() = object : WorkspaceService {
+            override fun didChangeConfiguration(params: DidChangeConfigurationParams) {}
+
+            override fun didChangeWatchedFiles(params: DidChangeWatchedFilesParams) {}
+        }
+    }
+
+    private class StubLanguageClient : LanguageClient {
+
+        override fun telemetryEvent(`object`: Any) {}
+
+        override fun publishDiagnostics(diagnostics: PublishDiagnosticsParams) {}
+
+        override fun showMessage(messageParams: MessageParams) {}
+
+        override fun showMessageRequest(requestParams: ShowMessageRequestParams): CompletableFuture<MessageActionItem> =
+            CompletableFuture.completedFuture(null)
+
+        override fun logMessage(message: MessageParams) {}
+    }
+
+    companion object {
+
+        private const val URI = "file:///project/Main.java"
+    }
+}
@@ -0,0 +1,283 @@
+package android.zero.studio.lsp.connection
+
+import android.system.Os
+import android.system.OsConstants
+import android.util.Log
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Starts language server processes ahead of time, so that opening a file does not have to wait for
+ * the server process to boot (a JVM based server takes seconds before it reads its first message).
+ *
+ * Spare processes are keyed by their [LspConnectionConfig.Process]. The project root is only sent in
+ * the `initialize` request, so a spare started for one project serves any project using the same server.
+ * A spare has not received any message yet. An LSP session can not be initialized again after `shutdown`,
+ * so processes are never handed out twice: a released process is destroyed.
+ *
+ * Closing a server through [ProcessStreamConnectionProvider] does not leave a warm replacement behind. The
+ * only spares are those prestarted when a project is opened (see `LspManager.prestartServersForProject`),
+ * so a server is warm for the first file of its language and cold when started again after being closed.
+ *
+ * Spares are destroyed after [idleTimeoutMillis]. No spare is started if the resident memory of all
+ * processes started by the pool would exceed [memoryBudgetBytes], the oldest spares are destroyed first
+ * to make room.
+ */
+class LspProcessPool(
+    @Volatile var idleTimeoutMillis: Long = DEFAULT_IDLE_TIMEOUT_MILLIS,
+    @Volatile var memoryBudgetBytes: Long = DEFAULT_MEMORY_BUDGET_BYTES,
+    @Volatile var maxSpareProcesses: Int = DEFAULT_MAX_SPARE_PROCESSES,
+) {
+
+    /**
+     * How the last process for a configuration was started.
+     *
+     * @param warm Whether a spare process was used.
+     * @param startMillis The time it took to get the process, which is the time to spawn it for a cold start.
+     * @param startedAtNanos The [System.nanoTime] at which the process was requested.
+     */
+    data class ProcessStartInfo(val warm: Boolean, val startMillis: Long, val startedAtNanos: Long)
+
+    private class Spare(val process: Process, val startedAtNanos: Long)
+
+    private val lock = Any()
+
+    // Ordered from oldest to newest
+    private val spares = LinkedHashMap<LspConnectionConfig.Process, Spare>()
+    private val leased = HashSet<Process>()
+    private val lastStarts = HashMap<LspConnectionConfig.Process, ProcessStartInfo>()
+
+    // The resident memory of the last process of each configuration, used to estimate that of a new spare
+    private val lastResidentBytes = HashMap<LspConnectionConfig.Process, Long>()
+
+    private val reaper: ScheduledExecutorService by lazy {
+        Executors.newSingleThreadScheduledExecutor { runnable ->
+            Thread(runnable, "LspProcessPool").apply { isDaemon = true }
+        }
+    }
+
+    /**
+     * Gets a process for [config], a spare one if there is a live one, or else a newly spawned one.
+     * The process must be given back with [release].
+     */
+    @Throws(IOException::class)
+    fun acquire(config: LspConnectionConfig.Process): Process {
+        val startNanos = System.nanoTime()
+        val spare = synchronized(lock) { spares.remove(config) }
+
+        val process = if (spare != null && spare.process.isAlive) {
+            spare.process
+        } else {
+            if (spare != null) {
+                Log.w(TAG, "Spare process for ${config.command} has exited with code ${spare.process.exitValue()}")
+            }
+            spawn(config)
+        }
+
+        val info = ProcessStartInfo(process === spare?.process, (System.nanoTime() - startNanos) / 1_000_000, startNanos)
+        synchronized(lock) {
+            leased += process
+            lastStarts[config] = info
+        }
+        Log.d(TAG, "Acquired ${if (info.warm) "warm" else "cold"} process for ${config.command} in ${info.startMillis}ms")
+        return process
+    }
+
+    /**
+     * Destroys a process got from [acquire] and, if [keepWarm], starts a spare in its place.
+     * [ProcessStreamConnectionProvider] releases its process with [keepWarm] off.
+     */
+    fun release(config: LspConnectionConfig.Process, process: Process, keepWarm: Boolean = true) {
+        val residentBytes = residentBytesOf(process)
+        synchronized(lock) {
+            leased -= process
+            if (residentBytes > 0) {
+                lastResidentBytes[config] = residentBytes
+            }
+        }
+        destroy(process)
+
+        if (keepWarm) {
+            prestart(config)
+        }
+    }
+
+    /**
+     * Starts a spare process for [config] if there is none yet and the memory budget allows it.
+     *
+     * @return Whether there is a spare process for [config].
+     */
+    fun prestart(config: LspConnectionConfig.Process): Boolean {
+        if (!makeRoomFor(config)) {
+            return synchronized(lock) { spares.containsKey(config) }
+        }
+
+        val process = try {
+            spawn(config)
+        } catch (e: IOException) {
+            Log.w(TAG, "Failed to prestart ${config.command}", e)
+            return false
+        }
+
+        val added = synchronized(lock) {
+            if (spares.containsKey(config)) {
+                false
+            } else {
+                spares[config] = Spare(process, System.nanoTime())
+                true
+            }
+        }
+        if (!added) {
+            // Started concurrently by another caller
+            destroy(process)
+            return true
+        }
+
+        Log.d(TAG, "Prestarted ${config.command}")
+        val timeout = idleTimeoutMillis
+        reaper.schedule({ trimIdle() }, timeout + REAPER_SLACK_MILLIS, TimeUnit.MILLISECONDS)
+        return true
+    }
+
+    /** Gets how the last process for [config] was started, or `null` if none was. */
+    fun lastStart(config: LspConnectionConfig.Process): ProcessStartInfo? {
+        return synchronized(lock) { lastStarts[config] }
+    }
+
+    fun hasSpare(config: LspConnectionConfig.Process): Boolean {
+        return synchronized(lock) { spares[config]?.process?.isAlive == true }
+    }
+
+    /** Destroys the spare processes that have been idle for longer than [idleTimeoutMillis]. */
+    fun trimIdle() {
+        val now = System.nanoTime()
+        val timeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis)
+        val expired = synchronized(lock) {
+            val expired = spares.entries.filter { now - it.value.startedAtNanos >= timeoutNanos || !it.value.process.isAlive }
+            expired.forEach { spares.remove(it.key) }
+            expired
+        }
+        expired.forEach {
+            Log.d(TAG, "Destroying idle spare process for ${it.key.command}")
+            destroy(it.value.process)
+        }
+    }
+
+    /** Destroys all spare processes. Processes in use are left to their connections. */
+    fun clear() {
+        val all = synchronized(lock) {
+            val all = spares.values.toList()
+            spares.clear()
+            all
+        }
+        all.forEach { destroy(it.process) }
+    }
+
+    /**
+     * Destroys spare processes, oldest first, until one for [config] fits in the memory budget and the
+     * maximum number of spares.
+     *
+     * @return Whether a spare for [config] should be started.
+     */
+    private fun makeRoomFor(config: LspConnectionConfig.Process): Boolean {
+        trimIdle()
+        val evicted = ArrayList<Spare>()
+        val fits = synchronized(lock) {
+            if (spares.containsKey(config) || maxSpareProcesses <= 0) {
+                return@synchronized false
+            }
+
+            val residentBytes = HashMap<Process, Long>()
+            fun usedBytes() = (leased + spares.values.map { it.process })
+                .sumOf { residentBytes.getOrPut(it) { residentBytesOf(it) } }
+            val neededBytes = lastResidentBytes[config] ?: 0L
+
+            while (spares.isNotEmpty() && (spares.size >= maxSpareProcesses || usedBytes() + neededBytes > memoryBudgetBytes)) {
+                val oldest = spares.keys.first()
+                evicted += spares.remove(oldest)!!
+            }
+            spares.size < maxSpareProcesses && usedBytes() + neededBytes <= memoryBudgetBytes
+        }
+
+        evicted.forEach { destroy(it.process) }
+        if (!fits) {
+            Log.d(TAG, "Not prestarting ${config.command}, it does not fit in the memory budget")
+        }
+        return fits
+    }
+
+    companion object {
+        private const val TAG = "LspProcessPool"
+
+        const val DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000L
+        const val DEFAULT_MEMORY_BUDGET_BYTES = 768L * 1024 * 1024
+        const val DEFAULT_MAX_SPARE_PROCESSES = 2
+
+        private const val REAPER_SLACK_MILLIS = 100L
+        private const val DESTROY_TIMEOUT_MILLIS = 500L
+
+        /** The pool used by [ProcessStreamConnectionProvider] by default. */
+        @JvmStatic
+        val shared = LspProcessPool()
+
+        private val pageSize: Long by lazy {
+            try {
+                Os.sysconf(OsConstants._SC_PAGESIZE).takeIf { it > 0 } ?: 4096L
+            } catch (e: Throwable) {
+                4096L
+            }
+        }
+
+        @Throws(IOException::class)
+        private fun spawn(config: LspConnectionConfig.Process): Process {
+            Log.d(TAG, "Starting process: ${config.command}")
+            val builder = ProcessBuilder(config.command)
+
+            if (config.environment.isNotEmpty()) {
+                builder.environment().putAll(config.environment)
+            }
+
+            if (config.workingDir != null) {
+                val dir = File(config.workingDir)
+                if (dir.exists() && dir.isDirectory) {
+                    builder.directory(dir)
+                } else {
+                    Log.w(TAG, "Working directory invalid: ${config.workingDir}, using default")
+                }
+            }
+
+            val proc = builder.start()
+
+            if (!proc.isAlive) {
+                val errorMsg = proc.errorStream.bufferedReader().readText()
+                throw IOException("Process exited immediately with code ${proc.exitValue()}: $errorMsg")
+            }
+            return proc
+        }
+
+        private fun destroy(process: Process) {
+            try {
+                process.destroy()
+                if (!process.waitFor(DESTROY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly()
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "Error killing process", e)
+            }
+        }
+
+        /** Reads the resident memory of [process] from `/proc/<pid>/statm`, or returns 0 if it can not be read. */
+        private fun residentBytesOf(process: Process): Long {
+            val pid = ProcessStreamConnectionProvider.getPidSafely(process).toLongOrNull() ?: return 0L
+            return try {
+                val pages = File("/proc/$pid/statm").readText().trim().split(' ')[1].toLong()
+                pages * pageSize
+            } catch (e: Exception) {
+                0L
+            }
+        }
+    }
+}
@@ -4,29 +4,64 @@ import android.annotation.SuppressLint
 import android.os.Build
 import android.util.Log
 import io.github.rosemoe.sora.lsp.client.connection.StreamConnectionProvider
-import java.io.File
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
-import java.util.concurrent.TimeUnit
 
 /**
  * A StreamConnectionProvider that spawns a sub-process and communicates via stdin/stdout.
+ * The process is taken from [pool], which may have started it ahead of time. Closing the provider
+ * destroys the process without starting a spare in its place.
  *
  * @author android_zero
  */
 class ProcessStreamConnectionProvider(
     private val command: List<String>,
     private val environment: Map<String, String> = emptyMap(),
-    private val workingDir: String? = null
+    private val workingDir: String? = null,
+    private val pool: LspProcessPool = LspProcessPool.shared
 ) : StreamConnectionProvider {
 
+    private val config = LspConnectionConfig.Process(command, environment, workingDir)
+
     private var process: Process? = null
     private var _inputStream: InputStream? = null
     private var _outputStream: OutputStream? = null
     
     companion object {
         private const val TAG = "ProcessConn"
+
+        /**
+         * Safely gets the process ID across different Android API levels.
+         * - On API 26+, it tries to invoke the `pid()` method via reflection.
+         * - On older APIs or if the method fails, it falls back to accessing the private 'pid' field.
+         * This ensures compilability with older SDKs and runtime compatibility.
+         */
+        @SuppressLint("DiscouragedPrivateApi")
+        internal fun getPidSafely(process: Process): String {
+            // Strategy 1: Use the official pid() method on API 26+ via reflection
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                try {
+                    val pidMethod = Process::class.java.getMethod("pid")
+                    val pid = pidMethod.invoke(process) as Long
+                    return pid.toString()
+                } catch (e: Exception) {
+                    Log.w(TAG, "Failed to call pid() method via reflection, falling back to field access.", e)
+                }
+            }
+
+            // Strategy 2: Fallback to accessing the 'pid' field for pre-API 26 or if method call failed
+            return try {
+                val processClass = process.javaClass
+                // The field is typically 'pid' in java.lang.UNIXProcess on Android
+                val pidField = processClass.getDeclaredField("pid")
+                pidField.isAccessible = true
+                pidField.getInt(process).toString()
+            } catch (e: Exception) {
+                Log.w(TAG, "Could not reflectively access 'pid' field. This might happen on some devices.", e)
+                "unknown"
+            }
+        }
     }
 
     @Throws(IOException::class)
@@ -34,28 +69,7 @@ class ProcessStreamConnectionProvider(
         if (process != null) throw IOException("Process already started")
 
         try {
-            Log.d(TAG, "Starting process: $command")
-            val builder = ProcessBuilder(command)
-            
-            if (environment.isNotEmpty()) {
-                builder.environment().putAll(environment)
-            }
-            
-            if (workingDir != null) {
-                val dir = File(workingDir)
-                if (dir.exists() && dir.isDirectory) {
-                    builder.directory(dir)
-                } else {
-                    Log.w(TAG, "Working directory invalid: $workingDir, using default")
-                }
-            }
-
-            val proc = builder.start()
-            
-            if (!proc.isAlive) {
-                 val errorMsg = proc.errorStream.bufferedReader().readText()
-                 throw IOException("Process exited immediately with code ${proc.exitValue()}: $errorMsg")
-            }
+            val proc = pool.acquire(config)
 
             process = proc
             _inputStream = proc.inputStream
@@ -71,38 +85,6 @@ class ProcessStreamConnectionProvider(
         }
     }
     
-    /**
-     * Safely gets the process ID across different Android API levels.
-     * - On API 26+, it tries to invoke the `pid()` method via reflection.
-     * - On older APIs or if the method fails, it falls back to accessing the private 'pid' field.
-     * This ensures compilability with older SDKs and runtime compatibility.
-     */
-    @SuppressLint("DiscouragedPrivateApi")
-    private fun getPidSafely(process: Process): String {
-        // Strategy 1: Use the official pid() method on API 26+ via reflection
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            try {
-                val pidMethod = Process::class.java.getMethod("pid")
-                val pid = pidMethod.invoke(process) as Long
-                return pid.toString()
-            } catch (e: Exception) {
-                Log.w(TAG, "Failed to call pid() method via reflection, falling back to field access.", e)
-            }
-        }
-
-        // Strategy 2: Fallback to accessing the 'pid' field for pre-API 26 or if method call failed
-        return try {
-            val processClass = process.javaClass
-            // The field is typically 'pid' in java.lang.UNIXProcess on Android
-            val pidField = processClass.getDeclaredField("pid")
-            pidField.isAccessible = true
-            pidField.getInt(process).toString()
-        } catch (e: Exception) {
-            Log.w(TAG, "Could not reflectively access 'pid' field. This might happen on some devices.", e)
-            "unknown"
-        }
-    }
-
     override val inputStream: InputStream
         get() = _inputStream ?: throw IOException("Connection not started")
 
@@ -120,14 +102,9 @@ class ProcessStreamConnectionProvider(
 
         val proc = process
         if (proc != null) {
-            try {
-                proc.destroy()
-                if (!proc.waitFor(500, TimeUnit.MILLISECONDS)) {
-                    proc.destroyForcibly()
-                }
-            } catch (e: Exception) {
-                Log.w(TAG, "Error killing process", e)
-            }
+            // Connections are closed when their project is disposed or the app shuts down, so no
+            // spare is started in its place. Spares are prestarted when a project is opened.
+            pool.release(config, proc, keepWarm = false)
         }
         
         _inputStream = null
@@ -2,7 +2,10 @@ package android.zero.studio.lsp.manager
 
 import android.content.Context
 import android.util.Log
+import android.zero.studio.lsp.BaseLspServer
 import android.zero.studio.lsp.LspServerRegistry
+import android.zero.studio.lsp.connection.LspConnectionConfig
+import android.zero.studio.lsp.connection.LspProcessPool
 import com.itsaky.androidide.editor.ui.IDEEditor
 import io.github.rosemoe.sora.lsp.client.languageserver.serverdefinition.CustomLanguageServerDefinition
 import io.github.rosemoe.sora.lsp.client.languageserver.wrapper.EventHandler
@@ -19,6 +22,7 @@ import org.eclipse.lsp4j.MessageParams
 import org.eclipse.lsp4j.services.LanguageServer
 import java.io.File
 import java.util.concurrent.ConcurrentHashMap
+import kotlin.concurrent.thread
 
 /**
  * Core manager for LSP integration in AndroidIDE.
@@ -37,18 +41,83 @@ object LspManager {
     // We keep track of active editors to dispose them correctly.
     private val activeEditors = ConcurrentHashMap<CodeEditor, LspEditor>()
 
+    // Map<ServerId, Timings of its last start>
+    private val serverTimings = ConcurrentHashMap<String, LspServerTimings>()
+
+    // Directories not scanned for the languages of a project
+    private val PRESTART_SKIPPED_DIRS = setOf("build", "node_modules", "target", "out")
+    private const val PRESTART_MAX_SCAN_DEPTH = 4
+    private const val PRESTART_MAX_SCANNED_FILES = 5000
+
+    /**
+     * The pool of external language server processes.
+     * Its idle timeout and memory budget can be configured here.
+     */
+    val processPool: LspProcessPool
+        get() = LspProcessPool.shared
+
+    /**
+     * Whether [initProject] prestarts the external servers for the languages found in the project.
+     */
+    @Volatile
+    var prestartServers = true
+
     /**
      * Initializes the LSP system for a specific project root.
      * Should be called when opening a project.
+     *
+     * @param context If not null and [prestartServers] is enabled, the external servers for the
+     * languages found in the project are started in the background.
      */
-    fun initProject(projectPath: String) {
+    fun initProject(projectPath: String, context: Context? = null) {
         if (projects.containsKey(projectPath)) return
 
         Log.i(TAG, "Initializing LSP Project for: $projectPath")
         val lspProject = LspProject(projectPath)
         projects[projectPath] = lspProject
+
+        if (context != null && prestartServers) {
+            val appContext = context.applicationContext
+            thread(name = "LspPrestart", isDaemon = true) {
+                try {
+                    prestartServersForProject(appContext, projectPath)
+                } catch (e: Exception) {
+                    Log.w(TAG, "Failed to prestart servers for $projectPath", e)
+                }
+            }
+        }
     }
 
+    /**
+     * Prestarts the external servers for the file extensions found near the top of the project,
+     * so the first file of each language opens with a warm server.
+     */
+    fun prestartServersForProject(context: Context, projectPath: String) {
+        val root = File(projectPath)
+        val extensions = root.walkTopDown()
+            .maxDepth(PRESTART_MAX_SCAN_DEPTH)
+            .onEnter { it == root || (it.name !in PRESTART_SKIPPED_DIRS && !it.name.startsWith(".")) }
+            .filter { it.isFile }
+            .take(PRESTART_MAX_SCANNED_FILES)
+            .mapTo(HashSet()) { it.extension.lowercase() }
+
+        extensions.asSequence()
+            .mapNotNull { LspServerRegistry.findServerForExtension(it) }
+            .distinct()
+            .filter { it.isInstalled(context) }
+            .forEach { server ->
+                val config = server.getConnectionConfig(context) as? LspConnectionConfig.Process ?: return@forEach
+                if (processPool.prestart(config)) {
+                    Log.i(TAG, "Prestarted $server for $projectPath")
+                }
+            }
+    }
+
+    /**
+     * Gets the startup timings of the last start of each external server, keyed by server id.
+     */
+    fun getServerTimings(): Map<String, LspServerTimings> = HashMap(serverTimings)
+
     /**
      * Attaches an IDEEditor to an LSP session.
      * Automatically finds the correct server based on file extension.
@@ -135,10 +204,12 @@ object LspManager {
             
             withContext(Dispatchers.IO) {
                 try {
+                    val connectStartNanos = System.nanoTime()
                     // This blocks until initialized or timeout
                     val connected = lspEditor.connect()
                     if (connected) {
                         Log.i(TAG, "LSP Editor connected successfully.")
+                        recordTimings(context, server, connectStartNanos)
                     } else {
                         Log.e(TAG, "LSP Editor connection failed.")
                     }
@@ -149,6 +220,25 @@ object LspManager {
         }
     }
 
+    /**
+     * Records the timings if the connection started a new process for the server.
+     */
+    private fun recordTimings(context: Context, server: BaseLspServer, connectStartNanos: Long) {
+        val config = server.getConnectionConfig(context) as? LspConnectionConfig.Process ?: return
+        val start = processPool.lastStart(config) ?: return
+        if (start.startedAtNanos < connectStartNanos) return
+
+        val timings = LspServerTimings(
+            languageName = server.languageName,
+            serverName = server.serverName,
+            warmStart = start.warm,
+            processStartMillis = start.startMillis,
+            handshakeMillis = (System.nanoTime() - start.startedAtNanos) / 1_000_000
+        )
+        serverTimings[server.id] = timings
+        Log.i(TAG, "Started $server: $timings")
+    }
+
     /**
      * Detaches LSP from an editor (e.g. when file is closed).
      */
@@ -170,7 +260,7 @@ object LspManager {
     }
 
     /**
-     * Shuts down everything. Call on app exit.
+     * Shuts down everything, including the prestarted server processes. Call on app exit.
      */
     fun shutdown() {
         Log.i(TAG, "Shutting down LspManager")
@@ -179,5 +269,7 @@ object LspManager {
         
         projects.values.forEach { it.dispose() }
         projects.clear()
+
+        processPool.clear()
     }
 }
\ No newline at end of file
@@ -0,0 +1,18 @@
+package android.zero.studio.lsp.manager
+
+/**
+ * Startup timings of the last start of a language server, see [LspManager.getServerTimings].
+ *
+ * @param languageName The language of the server.
+ * @param serverName The name of the server executable.
+ * @param warmStart Whether a process prestarted by the process pool was used.
+ * @param processStartMillis The time it took to get the process, which includes spawning it for a cold start.
+ * @param handshakeMillis The time from requesting the process until the `initialize` handshake completed.
+ */
+data class LspServerTimings(
+    val languageName: String,
+    val serverName: String,
+    val warmStart: Boolean,
+    val processStartMillis: Long,
+    val handshakeMillis: Long
+)
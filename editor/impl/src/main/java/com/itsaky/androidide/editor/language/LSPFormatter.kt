@@ -33,9 +33,30 @@ import io.github.rosemoe.sora.text.TextRange
  * @author Akash Yadav
  */
 class LSPFormatter(val server: ILanguageServer? = null) : AsyncFormatter() {
-  
+
+  /**
+   * The content of the pending [formatChangedLines] request and the lines to format in it. Only
+   * used by [formatAsync] for that same content, so the ranges never leak into another request.
+   */
+  @Volatile
+  private var changedLinesRequest: Pair<Content, List<Range>>? = null
+
+  /**
+   * Like [format], but formats only the given lines of the text, see
+   * [FormatCodeParams.changedRanges].
+   */
+  fun formatChangedLines(text: Content, cursorRange: TextRange, changedRanges: List<Range>) {
+    changedLinesRequest = text to changedRanges
+    format(text, cursorRange)
+  }
+
   override fun formatAsync(text: Content, cursorRange: TextRange): TextRange {
-    return doFormat(text, cursorRange)
+    val request = changedLinesRequest
+    val changedRanges = if (request != null && request.first === text) {
+      changedLinesRequest = null
+      request.second
+    } else emptyList()
+    return doFormat(text, cursorRange, changedRanges = changedRanges)
   }
 
   override fun formatRegionAsync(
@@ -49,7 +70,8 @@ class LSPFormatter(val server: ILanguageServer? = null) : AsyncFormatter() {
   private fun doFormat(
     text: Content,
     cursorRange: TextRange,
-    rangeToFormat: TextRange? = null
+    rangeToFormat: TextRange? = null,
+    changedRanges: List<Range> = emptyList()
   ): TextRange {
     if (server == null) {
       return cursorRange
@@ -62,7 +84,7 @@ class LSPFormatter(val server: ILanguageServer? = null) : AsyncFormatter() {
         }
         end.apply { index = (if (line == 0 && column == 0) 0 else text.getCharIndex(line, column)) }
       }
-    val result = server.formatCode(FormatCodeParams(text, range))
+    val result = server.formatCode(FormatCodeParams(text, range, changedRanges))
 
     if (!result.hasEdits() ) {
       // Deselect the selected content
@@ -70,7 +92,9 @@ class LSPFormatter(val server: ILanguageServer? = null) : AsyncFormatter() {
     }
 
     if (result.isIndexed) {
-      result.indexedTextEdits.forEach { text.replace(it.start, it.end, it.newText) }
+      // Apply the last edit first, so the indices of the other edits stay valid
+      result.indexedTextEdits.sortedByDescending { it.start }
+        .forEach { text.replace(it.start, it.end, it.newText) }
     } else {
       result.edits.forEach {
         text.replace(
@@ -21,7 +21,6 @@ import com.itsaky.androidide.editor.schemes.LanguageScheme
 import io.github.rosemoe.sora.editor.ts.TsAnalyzeManager
 import io.github.rosemoe.sora.editor.ts.TsLanguageSpec
 import io.github.rosemoe.sora.editor.ts.TsTheme
-import io.github.rosemoe.sora.lang.styling.Styles
 
 /**
  * [TsAnalyzeManager] implementation for tree sitter languages.
@@ -33,23 +32,23 @@ class TreeSitterAnalyzeManager(
   theme: TsTheme
 ) : TsAnalyzeManager(languageSpec, theme) {
 
-  override var styles: Styles = Styles()
-    set(value) {
-      field = value
-      resetSpanFactory(value, langScheme)
-    }
-
   internal var langScheme: LanguageScheme? = null
     set(value) {
       field = value
-      resetSpanFactory(styles, value)
+      resetSpanFactory(value)
     }
 
   init {
-    resetSpanFactory(styles, langScheme)
+    resetSpanFactory(langScheme)
+  }
+
+  override fun rerun() {
+    // The span factory reads the content, so the new worker needs one for the current reference
+    resetSpanFactory(langScheme)
+    super.rerun()
   }
 
-  private fun resetSpanFactory(styles: Styles, langScheme: LanguageScheme?) {
-    spanFactory = TreeSitterSpanFactory(reference, languageSpec.tsQuery, styles, langScheme)
+  private fun resetSpanFactory(langScheme: LanguageScheme?) {
+    spanFactory = TreeSitterSpanFactory(reference, languageSpec.tsQuery, langScheme)
   }
 }
\ No newline at end of file
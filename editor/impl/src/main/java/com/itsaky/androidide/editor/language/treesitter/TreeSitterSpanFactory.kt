@@ -27,7 +27,6 @@ import io.github.rosemoe.sora.editor.ts.spans.DefaultSpanFactory
 import io.github.rosemoe.sora.editor.ts.spans.TsSpanFactory
 import io.github.rosemoe.sora.lang.styling.Span
 import io.github.rosemoe.sora.lang.styling.SpanFactory
-import io.github.rosemoe.sora.lang.styling.Styles
 import io.github.rosemoe.sora.lang.styling.span.SpanConstColorResolver
 import io.github.rosemoe.sora.lang.styling.span.SpanExtAttrs
 import io.github.rosemoe.sora.text.ContentReference
@@ -41,7 +40,6 @@ import org.slf4j.LoggerFactory
 class TreeSitterSpanFactory(
   private var content: ContentReference?,
   private var query: TSQuery?,
-  private var styles: Styles?,
   private var langScheme: LanguageScheme?
 ) : DefaultSpanFactory() {
 
@@ -56,7 +54,6 @@ class TreeSitterSpanFactory(
   override fun close() {
     content = null
     query = null
-    styles = null
     langScheme = null
   }
 
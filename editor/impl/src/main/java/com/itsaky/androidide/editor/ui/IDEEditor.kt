@@ -32,6 +32,7 @@ import com.itsaky.androidide.editor.adapters.CompletionListAdapter
 import com.itsaky.androidide.editor.api.IEditor
 import com.itsaky.androidide.editor.api.ILspEditor
 import com.itsaky.androidide.editor.language.IDELanguage
+import com.itsaky.androidide.editor.language.LSPFormatter
 import com.itsaky.androidide.editor.language.cpp.CppLanguage
 import com.itsaky.androidide.editor.language.groovy.GroovyLanguage
 import com.itsaky.androidide.editor.language.treesitter.TreeSitterLanguage
@@ -41,6 +42,7 @@ import com.itsaky.androidide.editor.schemes.IDEColorSchemeProvider
 import com.itsaky.androidide.editor.snippets.AbstractSnippetVariableResolver
 import com.itsaky.androidide.editor.snippets.FileVariableResolver
 import com.itsaky.androidide.editor.snippets.WorkspaceVariableResolver
+import com.itsaky.androidide.editor.utils.ChangedLines
 import com.itsaky.androidide.eventbus.events.editor.ChangeType
 import com.itsaky.androidide.eventbus.events.editor.ColorSchemeInvalidatedEvent
 import com.itsaky.androidide.eventbus.events.editor.DocumentChangeEvent
@@ -56,6 +58,7 @@ import com.itsaky.androidide.lsp.models.Command
 import com.itsaky.androidide.lsp.models.DefinitionParams
 import com.itsaky.androidide.lsp.models.DefinitionResult
 import com.itsaky.androidide.lsp.models.ExpandSelectionParams
+import com.itsaky.androidide.lsp.models.FormatCodeParams
 import com.itsaky.androidide.lsp.models.ReferenceParams
 import com.itsaky.androidide.lsp.models.ReferenceResult
 import com.itsaky.androidide.lsp.models.ShowDocumentParams
@@ -130,6 +133,7 @@ open class IDEEditor @JvmOverloads constructor(
   private var fileVersion = 0
 
   private var mLastSaveHistoryIndex: Int = 0
+  private val changedLines = ChangedLines()
   private var mUndoManagerField: Field? = null
     
   private val selectionChangeHandler = Handler(Looper.getMainLooper())
@@ -489,6 +493,7 @@ open class IDEEditor @JvmOverloads constructor(
       return
     }
     mLastSaveHistoryIndex = getHistoryIndex(text.undoManager)
+    changedLines.clear()
     (context as? ModificationCallback)?.onFileSaved(this.file)
   }
 
@@ -540,6 +545,36 @@ open class IDEEditor @JvmOverloads constructor(
     dispatchDocumentSelectedEvent()
   }
 
+  /**
+   * Format only the lines changed since the file was last saved, see [FormatCodeParams.changedRanges].
+   * The whole file is formatted if no line has changed or the language does not support it.
+   *
+   * @return `false` if the editor is already formatting, like [formatCodeAsync].
+   */
+  fun formatChangedLines(): Boolean {
+    if (isReleased) {
+      return false
+    }
+
+    val formatter = editorLanguage.formatter as? LSPFormatter
+    if (formatter == null || changedLines.isEmpty) {
+      return formatCodeAsync()
+    }
+
+    // Same as formatCodeAsync(), but the ranges are handed to the formatter with the text
+    synchronized(this) {
+      if (isFormatting) {
+        return false
+      }
+      formatter.setReceiver(this)
+      val formatContent = text.copyText(false)
+      formatContent.isUndoEnabled = false
+      formatter.formatChangedLines(formatContent, cursorRange, changedLines.toRanges())
+      postInvalidate()
+      return true
+    }
+  }
+
   /**
    * Dispatches the [DocumentSaveEvent] for this editor.
    */
@@ -698,6 +733,12 @@ open class IDEEditor @JvmOverloads constructor(
       // 历史索引会自动改变，isModified() 方法现在可以动态地、准确地反映状态。
       // 我们只需要通知UI（如Activity）内容已变更，以便它可以更新文件标签（例如添加星号 '*'）
       (context as? ModificationCallback)?.onFileModified(this.file)
+
+      when (event.action) {
+        ContentChangeEvent.ACTION_INSERT -> changedLines.insert(event.changeStart.line, event.changeEnd.line)
+        ContentChangeEvent.ACTION_DELETE -> changedLines.delete(event.changeStart.line, event.changeEnd.line)
+        else -> changedLines.clear()
+      }
       
       file ?: return@subscribeEvent
 
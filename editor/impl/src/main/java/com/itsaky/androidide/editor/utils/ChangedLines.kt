@@ -0,0 +1,103 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.editor.utils
+
+import com.itsaky.androidide.models.Position
+import com.itsaky.androidide.models.Range
+
+/**
+ * Tracks the lines which have been changed since the file was last saved, from the edits made to
+ * the content. The tracked lines may include lines which have been changed back to their saved
+ * text.
+ *
+ * Not thread safe, edits must be reported in the order they are made.
+ */
+class ChangedLines {
+
+  /** Sorted, disjoint and non-adjacent ranges of changed lines, as (start, end) inclusive pairs. */
+  private val lines = ArrayList<Int>()
+
+  val isEmpty: Boolean
+    get() = lines.isEmpty()
+
+  /** Text from [startLine] to [endLine] has been inserted. */
+  fun insert(startLine: Int, endLine: Int) {
+    shift(startLine, endLine - startLine)
+    mark(startLine, endLine)
+  }
+
+  /** Text from [startLine] to [endLine] has been deleted, joining the lines. */
+  fun delete(startLine: Int, endLine: Int) {
+    val delta = endLine - startLine
+    if (delta > 0) {
+      var i = 0
+      while (i < lines.size) {
+        // Lines of the deleted text are now startLine
+        if (lines[i] > startLine) {
+          lines[i] = if (lines[i] > endLine) lines[i] - delta else startLine
+        }
+        i++
+      }
+      normalize()
+    }
+    mark(startLine, startLine)
+  }
+
+  /** The file has been saved, or its whole text has been replaced. */
+  fun clear() {
+    lines.clear()
+  }
+
+  /** Get the changed lines as ranges from the first column of the start line to the end line. */
+  fun toRanges(): List<Range> {
+    return (0 until lines.size step 2).map {
+      Range(Position(lines[it], 0), Position(lines[it + 1], 0))
+    }
+  }
+
+  private fun shift(line: Int, delta: Int) {
+    if (delta == 0) return
+    var i = 0
+    while (i < lines.size) {
+      // Ranges which contain the line grow
+      if (lines[i] > line) {
+        lines[i] += delta
+      }
+      i++
+    }
+  }
+
+  private fun mark(startLine: Int, endLine: Int) {
+    lines.add(startLine)
+    lines.add(endLine)
+    normalize()
+  }
+
+  private fun normalize() {
+    val ranges = (0 until lines.size step 2).map { lines[it] to lines[it + 1] }.sortedBy { it.first }
+    lines.clear()
+    for ((start, end) in ranges) {
+      if (lines.isNotEmpty() && start <= lines[lines.size - 1] + 1) {
+        lines[lines.size - 1] = maxOf(lines[lines.size - 1], end)
+      } else {
+        lines.add(start)
+        lines.add(end)
+      }
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package android.zero.studio.lsp.connection
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.InputStream
+import java.io.OutputStream
+
+@RunWith(RobolectricTestRunner::class)
+class LspProcessPoolTest {
+
+  private val pools = ArrayList<LspProcessPool>()
+  private val providers = ArrayList<ProcessStreamConnectionProvider>()
+
+  @After
+  fun tearDown() {
+    providers.forEach { it.close() }
+    pools.forEach { it.clear() }
+  }
+
+  @Test
+  fun `prestarted server starts warm`() {
+    val pool = newPool()
+    val config = LspConnectionConfig.Process(StubLanguageServer.command(bootDelayMillis = BOOT_DELAY_MILLIS))
+
+    val cold = newProvider(config, pool)
+    val coldStart = System.nanoTime()
+    cold.start()
+    val coldPid = initialize(cold)
+    val coldMillis = (System.nanoTime() - coldStart) / 1_000_000
+    assertThat(pool.lastStart(config)!!.warm).isFalse()
+
+    // Stopping the server does not start a spare in its place
+    cold.close()
+    assertThat(pool.hasSpare(config)).isFalse()
+
+    // A spare is prestarted as when a project is opened
+    assertThat(pool.prestart(config)).isTrue()
+    Thread.sleep(BOOT_DELAY_MILLIS * 2)
+
+    val warm = newProvider(config, pool)
+    val warmStart = System.nanoTime()
+    warm.start()
+    val warmPid = initialize(warm)
+    val warmMillis = (System.nanoTime() - warmStart) / 1_000_000
+    assertThat(pool.lastStart(config)!!.warm).isTrue()
+    assertThat(warmPid).isNotEqualTo(coldPid)
+    assertThat(pool.hasSpare(config)).isFalse()
+
+    assertThat(coldMillis).isAtLeast(BOOT_DELAY_MILLIS)
+    assertThat(warmMillis).isLessThan(BOOT_DELAY_MILLIS)
+    println("Stub server with ${BOOT_DELAY_MILLIS}ms boot: cold start and handshake ${coldMillis}ms, warm ${warmMillis}ms")
+  }
+
+  @Test
+  fun `released process kept warm is replaced by a spare`() {
+    val pool = newPool()
+    val config = LspConnectionConfig.Process(StubLanguageServer.command(bootDelayMillis = 0))
+
+    pool.release(config, pool.acquire(config), keepWarm = true)
+    assertThat(pool.hasSpare(config)).isTrue()
+
+    pool.acquire(config).also { pool.release(config, it, keepWarm = false) }
+    assertThat(pool.lastStart(config)!!.warm).isTrue()
+    assertThat(pool.hasSpare(config)).isFalse()
+  }
+
+  @Test
+  fun `idle spares are destroyed`() {
+    val pool = newPool(idleTimeoutMillis = 200)
+    val config = LspConnectionConfig.Process(StubLanguageServer.command(bootDelayMillis = 0))
+
+    assertThat(pool.prestart(config)).isTrue()
+    assertThat(pool.hasSpare(config)).isTrue()
+
+    val deadline = System.currentTimeMillis() + 5000
+    while (pool.hasSpare(config) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50)
+    }
+    assertThat(pool.hasSpare(config)).isFalse()
+  }
+
+  @Test
+  fun `oldest spare is destroyed to make room`() {
+    val pool = newPool(maxSpareProcesses = 1)
+    val first = LspConnectionConfig.Process(StubLanguageServer.command(bootDelayMillis = 0))
+    val second = LspConnectionConfig.Process(StubLanguageServer.command(bootDelayMillis = 1))
+
+    assertThat(pool.prestart(first)).isTrue()
+    assertThat(pool.prestart(second)).isTrue()
+    assertThat(pool.hasSpare(first)).isFalse()
+    assertThat(pool.hasSpare(second)).isTrue()
+  }
+
+  @Test
+  fun `spares do not exceed the memory budget`() {
+    val pool = newPool()
+    val leased = LspConnectionConfig.Process(StubLanguageServer.command(bootDelayMillis = 0))
+    val spare = LspConnectionConfig.Process(StubLanguageServer.command(bootDelayMillis = 1))
+    newProvider(leased, pool).start()
+    assertThat(pool.prestart(spare)).isTrue()
+
+    // The running server alone uses more than the budget, the spare must go and no new one is started
+    pool.memoryBudgetBytes = 1
+    assertThat(pool.prestart(LspConnectionConfig.Process(StubLanguageServer.command(bootDelayMillis = 2)))).isFalse()
+    assertThat(pool.hasSpare(spare)).isFalse()
+  }
+
+  @Test
+  fun `exited spare falls back to a cold start`() {
+    val pool = newPool()
+    val config = LspConnectionConfig.Process(listOf("sh", "-c", "sleep 0.2"))
+
+    assertThat(pool.prestart(config)).isTrue()
+    Thread.sleep(1000)
+
+    val process = pool.acquire(config)
+    assertThat(pool.lastStart(config)!!.warm).isFalse()
+    pool.release(config, process, keepWarm = false)
+    assertThat(pool.hasSpare(config)).isFalse()
+  }
+
+  private fun newPool(
+    idleTimeoutMillis: Long = LspProcessPool.DEFAULT_IDLE_TIMEOUT_MILLIS,
+    maxSpareProcesses: Int = LspProcessPool.DEFAULT_MAX_SPARE_PROCESSES
+  ): LspProcessPool {
+    return LspProcessPool(idleTimeoutMillis = idleTimeoutMillis, maxSpareProcesses = maxSpareProcesses).also { pools += it }
+  }
+
+  private fun newProvider(config: LspConnectionConfig.Process, pool: LspProcessPool): ProcessStreamConnectionProvider {
+    return ProcessStreamConnectionProvider(config.command, config.environment, config.workingDir, pool).also { providers += it }
+  }
+
+  /** Sends the `initialize` request and returns the pid of the server, which the stub reports as its version. */
+  private fun initialize(provider: ProcessStreamConnectionProvider): String {
+    write(provider.outputStream, "{\"jsonrpc\":\"2.0\",\"id\":1,\"method\":\"initialize\",\"params\":{}}")
+    val response = read(provider.inputStream)
+    assertThat(response).contains("\"capabilities\"")
+    return Regex("\"version\":\"(\\d+)\"").find(response)!!.groupValues[1]
+  }
+
+  private fun write(output: OutputStream, message: String) {
+    val body = message.toByteArray()
+    output.write("Content-Length: ${body.size}\r\n\r\n".toByteArray())
+    output.write(body)
+    output.flush()
+  }
+
+  private fun read(input: InputStream): String {
+    val header = StringBuilder()
+    while (!header.endsWith("\r\n\r\n")) {
+      header.append(input.read().toChar())
+    }
+    val length = Regex("Content-Length: (\\d+)").find(header)!!.groupValues[1].toInt()
+    val body = ByteArray(length)
+    var read = 0
+    while (read < length) {
+      read += input.read(body, read, length - read)
+    }
+    return String(body)
+  }
+
+  companion object {
+    private const val BOOT_DELAY_MILLIS = 1500L
+  }
+}
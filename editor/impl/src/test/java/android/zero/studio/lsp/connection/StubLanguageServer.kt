@@ -0,0 +1,78 @@
+package android.zero.studio.lsp.connection
+
+import java.io.BufferedInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.InputStream
+import kotlin.system.exitProcess
+
+/**
+ * A minimal language server talking JSON-RPC over stdin/stdout, started as a separate JVM by the tests.
+ *
+ * Like a real JVM based server it takes a while before it reads its first message, the boot delay
+ * in milliseconds is the first argument. It answers `initialize` and `shutdown` and exits on `exit`.
+ */
+object StubLanguageServer {
+
+    private val ID = Regex("\"id\"\\s*:\\s*(\\d+)")
+    private val METHOD = Regex("\"method\"\\s*:\\s*\"([^\"]+)\"")
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        Thread.sleep(args.firstOrNull()?.toLong() ?: 0L)
+
+        val input = BufferedInputStream(System.`in`)
+        while (true) {
+            val message = readMessage(input) ?: exitProcess(0)
+            val id = ID.find(message)?.groupValues?.get(1)
+            when (METHOD.find(message)?.groupValues?.get(1)) {
+                "initialize" -> respond(id, "{\"capabilities\":{\"textDocumentSync\":1},\"serverInfo\":{\"name\":\"stub\",\"version\":\"${ProcessHandle.current().pid()}\"}}")
+                "shutdown" -> respond(id, "null")
+                "exit" -> exitProcess(0)
+                else -> if (id != null) respond(id, "null")
+            }
+        }
+    }
+
+    /** The command to start the server with the test classpath. */
+    fun command(bootDelayMillis: Long): List<String> {
+        val java = File(System.getProperty("java.home"), "bin/java").absolutePath
+        return listOf(java, "-cp", System.getProperty("java.class.path"), StubLanguageServer::class.java.name, bootDelayMillis.toString())
+    }
+
+    private fun respond(id: String?, result: String) {
+        val body = "{\"jsonrpc\":\"2.0\",\"id\":$id,\"result\":$result}".toByteArray()
+        System.out.write("Content-Length: ${body.size}\r\n\r\n".toByteArray())
+        System.out.write(body)
+        System.out.flush()
+    }
+
+    private fun readMessage(input: InputStream): String? {
+        var length = -1
+        while (true) {
+            val line = readLine(input) ?: return null
+            if (line.isEmpty()) break
+            if (line.startsWith("Content-Length:", ignoreCase = true)) {
+                length = line.substringAfter(':').trim().toInt()
+            }
+        }
+        val body = ByteArray(length)
+        var read = 0
+        while (read < length) {
+            val n = input.read(body, read, length - read)
+            if (n < 0) return null
+            read += n
+        }
+        return String(body)
+    }
+
+    private fun readLine(input: InputStream): String? {
+        val line = ByteArrayOutputStream()
+        while (true) {
+            val c = input.read()
+            if (c < 0) return null
+            if (c == '\n'.code) return line.toString().trimEnd('\r')
+            line.write(c)
+        }
+    }
+}
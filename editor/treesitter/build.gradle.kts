@@ -45,4 +45,12 @@ dependencies {
     api(projects.core.common)
     api(projects.editor.api)
     api(projects.logging.logger)
+
+    testImplementation(libs.tests.junit)
+    testImplementation(libs.tests.google.truth)
+
+    androidTestImplementation(libs.androidide.ts.java)
+    androidTestImplementation(libs.tests.androidx.junit)
+    androidTestImplementation(libs.tests.androidx.test.runner)
+    androidTestImplementation(libs.tests.google.truth)
 }
@@ -0,0 +1,190 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.rosemoe.sora.editor.ts
+
+import android.os.Bundle
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import com.itsaky.androidide.treesitter.TreeSitter
+import com.itsaky.androidide.treesitter.java.TSLanguageJava
+import io.github.rosemoe.sora.lang.analysis.AnalyzeManager
+import io.github.rosemoe.sora.lang.analysis.StyleReceiver
+import io.github.rosemoe.sora.lang.brackets.BracketsProvider
+import io.github.rosemoe.sora.lang.diagnostic.DiagnosticsContainer
+import io.github.rosemoe.sora.lang.styling.Styles
+import io.github.rosemoe.sora.text.Content
+import io.github.rosemoe.sora.text.ContentReference
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.ConcurrentLinkedQueue
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+class TsAnalyzeWorkerTest {
+
+  private val highlights = """
+    (identifier) @variable
+    (type_identifier) @type
+    (method_declaration name: (identifier) @function)
+    (string_literal) @string
+    (decimal_integer_literal) @number
+    (line_comment) @comment
+    (block_comment) @comment
+    ["class" "public" "private" "static" "void" "int" "return" "if" "else" "new"] @keyword
+  """.trimIndent()
+
+  private val source = """
+    public class Main {
+      private static int count = 0;
+
+      /* Entry point */
+      public static void main(String[] args) {
+        // Print the arguments
+        for (String arg : args) {
+          System.out.println(arg);
+        }
+        if (args.length > 1) {
+          count = args.length;
+        } else {
+          count = 42;
+        }
+      }
+    }
+  """.trimIndent()
+
+  private val insertions = listOf("a", "1", " ", "\n", "\"", "/*", "*/", "{", "}", ";", "int x = 2;\n",
+    "// note\n", "return count;", "class", "(", ")")
+
+  @Before
+  fun loadLibrary() {
+    TreeSitter.loadLibrary()
+  }
+
+  @Test
+  fun testBurstOfEditsIsCoalescedAndMatchesFullParse() {
+    TsLanguageSpec(TSLanguageJava.getInstance(), highlights).use { spec ->
+      val theme = tsTheme(spec.tsQuery) {
+        1L applyTo "variable"
+        2L applyTo "type"
+        3L applyTo "function"
+        4L applyTo "string"
+        5L applyTo "number"
+        6L applyTo "comment"
+        7L applyTo "keyword"
+      }
+
+      val content = Content(source)
+      val receiver = PendingActionsReceiver()
+      val manager = TsAnalyzeManager(spec, theme)
+      manager.setReceiver(receiver)
+      manager.reset(ContentReference(content), Bundle())
+      val worker = manager.analyzeWorker!!
+      awaitPublished(worker, content.documentVersion)
+      receiver.runActions()
+
+      // A recorded burst of typing, pasting and deleting, sent without waiting for the worker
+      val edits = 500
+      val random = Random(42)
+      repeat(edits) {
+        val length = content.length
+        if (length < 100 || random.nextInt(3) != 0) {
+          val text = insertions[random.nextInt(insertions.size)]
+          val start = content.indexer.getCharPosition(random.nextInt(length + 1)).fromThis()
+          content.insert(start.line, start.column, text)
+          val end = content.indexer.getCharPosition(start.index + text.length).fromThis()
+          manager.insert(start, end, text)
+        } else {
+          val startIndex = random.nextInt(length)
+          val endIndex = minOf(length, startIndex + 1 + random.nextInt(8))
+          val start = content.indexer.getCharPosition(startIndex).fromThis()
+          val end = content.indexer.getCharPosition(endIndex).fromThis()
+          val deleted = content.subSequence(startIndex, endIndex).toString()
+          content.delete(startIndex, endIndex)
+          manager.delete(start, end, deleted)
+        }
+      }
+      awaitPublished(worker, content.documentVersion)
+      receiver.runActions()
+
+      val fresh = TsAnalyzeManager(spec, theme)
+      fresh.setReceiver(receiver)
+      val freshContent = Content(content.toString())
+      fresh.reset(ContentReference(freshContent), Bundle())
+      awaitPublished(fresh.analyzeWorker!!, freshContent.documentVersion)
+      receiver.runActions()
+
+      val actual = spansOf(worker.publishedStyles!!, content.lineCount)
+      val expected = spansOf(fresh.analyzeWorker!!.publishedStyles!!, content.lineCount)
+      assertThat(actual).isEqualTo(expected)
+
+      println("$edits edits: ${worker.parseCount} parses, ${worker.copyCount} tree copies")
+      assertThat(worker.parseCount).isLessThan(edits)
+      assertThat(worker.copyCount).isAtMost(worker.parseCount)
+
+      manager.destroy()
+      fresh.destroy()
+    }
+  }
+
+  private fun awaitPublished(worker: TsAnalyzeWorker, version: Long) {
+    val deadline = System.currentTimeMillis() + 10_000
+    while (worker.publishedVersion != version) {
+      check(System.currentTimeMillis() < deadline) {
+        "Styles of version $version are not published, last published: ${worker.publishedVersion}"
+      }
+      Thread.sleep(10)
+    }
+  }
+
+  private fun spansOf(styles: Styles, lineCount: Int): List<List<Pair<Int, Long>>> {
+    val reader = styles.spans!!.read()
+    return List(lineCount) { line ->
+      reader.getSpansOnLine(line).map { it.column to it.style }
+    }
+  }
+
+  /**
+   * Receiver that keeps the actions of style updates until [runActions] is called on the test
+   * thread, which acts as the UI thread here.
+   */
+  private class PendingActionsReceiver : StyleReceiver {
+
+    private val actions = ConcurrentLinkedQueue<Runnable>()
+
+    fun runActions() {
+      while (true) {
+        (actions.poll() ?: return).run()
+      }
+    }
+
+    override fun setStyles(sourceManager: AnalyzeManager, styles: Styles?) {}
+
+    override fun setStyles(sourceManager: AnalyzeManager, styles: Styles?, action: Runnable?) {
+      action?.also { actions.add(it) }
+    }
+
+    override fun setDiagnostics(sourceManager: AnalyzeManager,
+      diagnostics: DiagnosticsContainer?) {
+    }
+
+    override fun updateBracketProvider(sourceManager: AnalyzeManager,
+      provider: BracketsProvider?) {
+    }
+  }
+}
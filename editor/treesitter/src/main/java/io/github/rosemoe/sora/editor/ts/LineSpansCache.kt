@@ -0,0 +1,179 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.rosemoe.sora.editor.ts
+
+import io.github.rosemoe.sora.lang.styling.Span
+
+/**
+ * Cache of the spans of lines for [LineSpansGenerator], shared by the generators of successive
+ * trees of a document.
+ *
+ * Spans are cached for the current tree generation only. When the worker publishes a new tree, it
+ * [advances][advance] the cache to the next generation, dropping only the lines whose highlighting
+ * may have changed. Meanwhile, edits made in the editor [shift][applyEdit] cached lines, so that
+ * the cache stays in the line coordinates of the text. Generators of older trees can still read
+ * their spans, but neither get nor store cached spans.
+ *
+ * This class is thread-safe.
+ *
+ * @param capacity Maximum count of cached lines. Least recently used lines are dropped first.
+ */
+internal class LineSpansCache(private val capacity: Int) {
+
+  private var lines = newMap()
+
+  /**
+   * Generation of the tree whose spans are cached.
+   */
+  var generation = 0
+    @Synchronized get
+    private set
+
+  /**
+   * Count of [applyEdit] calls since the last [advance].
+   */
+  private var editCount = 0
+
+  private fun newMap() = object : LinkedHashMap<Int, MutableList<Span>>(16, 0.75f, true) {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Int, MutableList<Span>>?): Boolean {
+      return size > capacity
+    }
+  }
+
+  @Synchronized
+  fun get(line: Int, generation: Int): MutableList<Span>? {
+    return if (generation == this.generation) lines[line] else null
+  }
+
+  @Synchronized
+  fun put(line: Int, spans: MutableList<Span>, generation: Int) {
+    if (generation == this.generation) {
+      lines[line] = spans
+    }
+  }
+
+  val size: Int
+    @Synchronized get() = lines.size
+
+  /**
+   * Drop the cached lines from [startLine] to [oldEndLine] (both inclusive), which are replaced by
+   * new lines from [startLine] to [newEndLine], and shift the lines after them.
+   */
+  @Synchronized
+  fun applyEdit(startLine: Int, oldEndLine: Int, newEndLine: Int) {
+    editCount++
+    val delta = newEndLine - oldEndLine
+    val old = lines
+    lines = newMap()
+    for ((line, spans) in old) {
+      if (line < startLine) {
+        lines[line] = spans
+      } else if (line > oldEndLine) {
+        lines[line + delta] = spans
+      }
+    }
+  }
+
+  /**
+   * Move to the next generation, keeping the cached lines that are not in [invalidated].
+   *
+   * @return The new generation.
+   */
+  @Synchronized
+  fun advance(invalidated: InvalidatedLines): Int {
+    if (invalidated.all || invalidated.editCount != editCount) {
+      // Edits in the editor and in the worker do not match, the lines can not be mapped
+      lines.clear()
+    } else {
+      lines.keys.removeAll { invalidated.contains(it) }
+    }
+    editCount = 0
+    return ++generation
+  }
+
+  @Synchronized
+  fun clear() {
+    lines.clear()
+  }
+}
+
+/**
+ * Lines whose spans must be computed again, collected by the worker between two published trees.
+ * Line ranges are kept in the line coordinates of the latest edit.
+ */
+internal class InvalidatedLines {
+
+  private val ranges = mutableListOf<IntRange>()
+
+  /**
+   * Count of edits added since [clear].
+   */
+  var editCount = 0
+    private set
+
+  /**
+   * Whether all lines are invalidated.
+   */
+  var all = false
+    private set
+
+  /**
+   * Add an edit that replaced lines from [startLine] to [oldEndLine] with lines from [startLine]
+   * to [newEndLine]. The edited lines are invalidated.
+   */
+  fun addEdit(startLine: Int, oldEndLine: Int, newEndLine: Int) {
+    editCount++
+    val delta = newEndLine - oldEndLine
+    for (i in ranges.indices) {
+      val range = ranges[i]
+      val first = when {
+        range.first < startLine -> range.first
+        range.first <= oldEndLine -> startLine
+        else -> range.first + delta
+      }
+      val last = when {
+        range.last < startLine -> range.last
+        range.last <= oldEndLine -> newEndLine
+        else -> range.last + delta
+      }
+      ranges[i] = first..last
+    }
+    add(startLine, newEndLine)
+  }
+
+  /**
+   * Invalidate lines from [startLine] to [endLine] (both inclusive).
+   */
+  fun add(startLine: Int, endLine: Int) {
+    ranges.add(startLine..endLine)
+  }
+
+  fun invalidateAll() {
+    all = true
+  }
+
+  fun contains(line: Int): Boolean {
+    return all || ranges.any { line in it }
+  }
+
+  fun clear() {
+    ranges.clear()
+    editCount = 0
+    all = false
+  }
+}
@@ -62,40 +62,51 @@ import io.github.rosemoe.sora.widget.schemes.EditorColorScheme
  * Note that this implementation does not support external modifications.
  *
  * @author Rosemoe
+ * @param cache Cache shared with the generators of previous trees of the document.
  */
-class LineSpansGenerator(internal var tree: TSTree, internal var lineCount: Int,
-  private val content: Content, internal var theme: TsTheme,
+class LineSpansGenerator internal constructor(internal var tree: TSTree,
+  internal var lineCount: Int, private val content: Content, theme: TsTheme,
   private val languageSpec: TsLanguageSpec, var scopedVariables: TsScopedVariables,
-  private val spanFactory: TsSpanFactory) : Spans {
+  private val spanFactory: TsSpanFactory, private val cache: LineSpansCache) : Spans {
+
+  constructor(tree: TSTree, lineCount: Int, content: Content, theme: TsTheme,
+    languageSpec: TsLanguageSpec, scopedVariables: TsScopedVariables,
+    spanFactory: TsSpanFactory) : this(tree, lineCount, content, theme, languageSpec,
+    scopedVariables, spanFactory, LineSpansCache(CACHE_THRESHOLD))
 
   companion object {
 
-    const val CACHE_THRESHOLD = 60
+    const val CACHE_THRESHOLD = 512
   }
 
-  private val caches = mutableListOf<SpanCache>()
+  /**
+   * Generation of [tree] in [cache]. Spans are only cached while it is the latest generation.
+   */
+  private val generation = cache.generation
+
+  internal var theme: TsTheme = theme
+    set(value) {
+      field = value
+      cache.clear()
+    }
+
+  /**
+   * Count of highlight query executions, for benchmarks.
+   */
+  internal var queryCount = 0
+    private set
 
   fun edit(edit: TSInputEdit) {
     tree.edit(edit)
+    cache.applyEdit(edit.startPoint.row, edit.oldEndPoint.row, edit.newEndPoint.row)
   }
 
   fun queryCache(line: Int): MutableList<Span>? {
-    for (i in 0 until caches.size) {
-      val cache = caches[i]
-      if (cache.line == line) {
-        caches.removeAt(i)
-        caches.add(0, cache)
-        return cache.spans
-      }
-    }
-    return null
+    return cache.get(line, generation)
   }
 
   fun pushCache(line: Int, spans: MutableList<Span>) {
-    while (caches.size >= CACHE_THRESHOLD) {
-      caches.removeAt(caches.size - 1)
-    }
-    caches.add(0, SpanCache(spans, line))
+    cache.put(line, spans, generation)
   }
 
   fun captureRegion(startIndex: Int, endIndex: Int): MutableList<Span> {
@@ -106,6 +117,8 @@ class LineSpansGenerator(internal var tree: TSTree, internal var lineCount: Int,
       return list
     }
 
+    queryCount++
+
     val captures = mutableListOf<TSQueryCapture>()
 
     TSQueryCursor.create().use { cursor ->
@@ -259,5 +272,3 @@ class LineSpansGenerator(internal var tree: TSTree, internal var lineCount: Int,
 
   override fun getLineCount() = lineCount
 }
-
-data class SpanCache(val spans: MutableList<Span>, val line: Int)
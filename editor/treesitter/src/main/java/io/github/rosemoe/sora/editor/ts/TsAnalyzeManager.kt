@@ -23,7 +23,6 @@ import io.github.rosemoe.sora.editor.ts.spans.DefaultSpanFactory
 import io.github.rosemoe.sora.editor.ts.spans.TsSpanFactory
 import io.github.rosemoe.sora.lang.analysis.AnalyzeManager
 import io.github.rosemoe.sora.lang.analysis.StyleReceiver
-import io.github.rosemoe.sora.lang.styling.Styles
 import io.github.rosemoe.sora.text.CharPosition
 import io.github.rosemoe.sora.text.ContentReference
 
@@ -36,15 +35,19 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
   var reference: ContentReference? = null
   var spanFactory: TsSpanFactory = DefaultSpanFactory()
 
-  open var styles = Styles()
-
   private var _analyzeWorker: TsAnalyzeWorker? = null
   val analyzeWorker: TsAnalyzeWorker?
     get() = _analyzeWorker
 
+  /**
+   * Spans of the styles last published by the worker, which are used by the editor.
+   */
+  private val publishedSpans: LineSpansGenerator?
+    get() = _analyzeWorker?.publishedStyles?.spans as LineSpansGenerator?
+
   open fun updateTheme(theme: TsTheme) {
     this.theme = theme
-    (styles.spans as LineSpansGenerator?)?.also {
+    publishedSpans?.also {
       it.theme = theme
     }
   }
@@ -68,7 +71,7 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
       start.toTSPoint(),
       end.toTSPoint()
     )!!
-    (styles.spans as LineSpansGenerator?)?.apply {
+    publishedSpans?.apply {
       lineCount = reference!!.lineCount
       edit(edit)
     }
@@ -90,7 +93,7 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
       end.toTSPoint(),
       start.toTSPoint()
     )!!
-    (styles.spans as LineSpansGenerator?)?.apply {
+    publishedSpans?.apply {
       lineCount = reference!!.lineCount
       edit(edit)
     }
@@ -104,16 +107,15 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
   }
 
   override fun rerun() {
+    val oldSpans = publishedSpans
     _analyzeWorker?.stop()
     _analyzeWorker = null
 
-    (styles.spans as LineSpansGenerator?)?.tree?.close()
-    styles.spans = null
-    styles = Styles()
+    oldSpans?.tree?.close()
 
     val initText = reference?.reference?.toString() ?: ""
 
-    _analyzeWorker = TsAnalyzeWorker(this, languageSpec, theme, styles, reference!!, spanFactory)
+    _analyzeWorker = TsAnalyzeWorker(this, languageSpec, theme, reference!!, spanFactory)
     _analyzeWorker!!.apply {
       this.stylesReceiver = this@TsAnalyzeManager.stylesReceiver
       init(Init(TextInit(initText, reference?.documentVersion ?: 0)))
@@ -122,11 +124,11 @@ open class TsAnalyzeManager(val languageSpec: TsLanguageSpec, var theme: TsTheme
   }
 
   override fun destroy() {
+    val oldSpans = publishedSpans
     _analyzeWorker?.stop()
     _analyzeWorker = null
 
-    (styles.spans as LineSpansGenerator?)?.tree?.close()
-    styles.spans = null
+    oldSpans?.tree?.close()
 
     spanFactory.close()
   }
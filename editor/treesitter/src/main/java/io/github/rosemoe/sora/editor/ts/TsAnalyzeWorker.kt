@@ -22,6 +22,9 @@ import com.itsaky.androidide.treesitter.TSQueryCursor
 import com.itsaky.androidide.treesitter.TSTree
 import com.itsaky.androidide.treesitter.api.TreeSitterInputEdit
 import com.itsaky.androidide.treesitter.api.TreeSitterQueryCapture
+import com.itsaky.androidide.treesitter.api.TreeSitterRange
+import com.itsaky.androidide.treesitter.endLine
+import com.itsaky.androidide.treesitter.startLine
 import com.itsaky.androidide.treesitter.api.safeExecQueryCursor
 import com.itsaky.androidide.treesitter.string.UTF16String
 import io.github.rosemoe.sora.data.ObjectAllocator
@@ -49,7 +52,6 @@ class TsAnalyzeWorker(
   private val analyzer: TsAnalyzeManager,
   private val languageSpec: TsLanguageSpec,
   private val theme: TsTheme,
-  private val styles: Styles,
   private val reference: ContentReference,
   private val spanFactory: TsSpanFactory
 ) {
@@ -71,6 +73,39 @@ class TsAnalyzeWorker(
   private var isInitialized = false
   private var isDestroyed = false
 
+  private val spansCache = LineSpansCache(LineSpansGenerator.CACHE_THRESHOLD)
+  private val invalidatedLines = InvalidatedLines()
+
+  /**
+   * The styles last sent to the receiver. A new [Styles] object is created for every update and is
+   * never modified by the worker after being published, so the editor can keep using it while the
+   * next one is being built.
+   */
+  @Volatile
+  var publishedStyles: Styles? = null
+    private set
+
+  /**
+   * Version of the document from which [publishedStyles] was created.
+   */
+  @Volatile
+  internal var publishedVersion = -1L
+    private set
+
+  /**
+   * Number of parses done by this worker.
+   */
+  @Volatile
+  internal var parseCount = 0
+    private set
+
+  /**
+   * Number of tree copies done by this worker.
+   */
+  @Volatile
+  internal var copyCount = 0
+    private set
+
   val document = TsTextDocument(languageSpec.language)
 
   internal val tree: TSTree?
@@ -134,16 +169,20 @@ class TsAnalyzeWorker(
       return
     }
 
+    // Consecutive modifications are applied together and parsed once
+    val mods = if (message is Mod) drainMods(message) else emptyList()
+
     try {
       when (message) {
         is Init -> doInit(message)
-        is Mod -> doMod(message)
+        is Mod -> doMods(mods)
       }
     } catch (err: Throwable) {
       val langName = languageSpec.language.name
       val msgType = message.javaClass.simpleName
       val msgTypeSuffix = if (message is Mod) {
-        "[start=${message.data.start}, end=${message.data.end}, type=${if (message.data.changedText == null) "delete" else "insert"}]"
+        val last = mods.last()
+        "[start=${last.data.start}, end=${last.data.end}, type=${if (last.data.changedText == null) "delete" else "insert"}, batched=${mods.size}]"
       } else ""
       val pendingMsgs = messageChannel.size
       log.error(
@@ -165,26 +204,38 @@ class TsAnalyzeWorker(
 
     document.doInit(init.data)
     document.reparse()
+    parseCount++
     updateStyles()
 
     isInitialized = true
   }
 
-  private fun doMod(mod: Mod) {
+  private fun drainMods(first: Mod): List<Mod> {
+    val mods = mutableListOf(first)
+    while (messageChannel.peek() is Mod) {
+      mods.add(messageChannel.poll() as? Mod ?: break)
+    }
+    return mods
+  }
+
+  private fun doMods(mods: List<Mod>) {
 
     check(isInitialized) {
       "'Init' must be the first message to TsAnalyzeWorker"
     }
 
-    val textMod = mod.data
-    val edit = textMod.edit
-
     val oldTree = tree!!
-    oldTree.edit(edit)
+    for (mod in mods) {
+      val textMod = mod.data
+      val edit = textMod.edit
 
-    document.doMod(textMod)
+      oldTree.edit(edit)
+      invalidatedLines.addEdit(edit.startPoint.row, edit.oldEndPoint.row, edit.newEndPoint.row)
 
-    (edit as? TreeSitterInputEdit?)?.recycle()
+      document.doMod(textMod)
+
+      (edit as? TreeSitterInputEdit?)?.recycle()
+    }
 
     document.requestCancellationAndWaitIfParsing()
 
@@ -193,6 +244,18 @@ class TsAnalyzeWorker(
     }
 
     document.reparse(oldTree)
+    parseCount++
+
+    val newTree = tree
+    if (newTree != null && newTree !== oldTree && newTree.canAccess()) {
+      // Lines whose syntactic structure changed, highlighting of other lines is the same
+      for (range in oldTree.getChangedRanges(newTree)) {
+        invalidatedLines.add(range.startLine, range.endLine)
+        (range as? TreeSitterRange?)?.recycle()
+      }
+    } else {
+      invalidatedLines.invalidateAll()
+    }
 
     oldTree.close()
     updateStyles()
@@ -207,36 +270,64 @@ class TsAnalyzeWorker(
 
     val tree = tree!!
     val scopedVariables = TsScopedVariables(tree, text, languageSpec)
-    val oldTree = (styles.spans as? LineSpansGenerator?)?.tree
-    val copied = tree.copy()
+    val oldStyles = publishedStyles
+    val oldSpans = oldStyles?.spans as? LineSpansGenerator?
+    val oldTree = oldSpans?.tree
+    val oldBlocks = oldStyles?.blocks
 
-    styles.spans = LineSpansGenerator(
-      copied,
-      reference.lineCount,
-      reference.reference,
-      theme,
-      languageSpec,
-      scopedVariables,
-      spanFactory
+    // The editor edits the tree of its spans on the UI thread, so it gets its own tree. Copying is
+    // cheap (the nodes are shared and reference counted), and done once for each published update.
+    val copied = tree.copy()
+    copyCount++
+
+    if (languageSpec.localsReferenceIndices.isNotEmpty()) {
+      // A reference can be resolved to another definition anywhere in the scope. This can only
+      // happen if definitions are changed, or moved relative to references by several edits.
+      val oldVariables = oldSpans?.scopedVariables
+      if (oldVariables == null || invalidatedLines.editCount > 1
+        || !scopedVariables.hasSameDefinitions(oldVariables)
+      ) {
+        invalidatedLines.invalidateAll()
+      }
+    }
+    spansCache.advance(invalidatedLines)
+    invalidatedLines.clear()
+
+    val styles = Styles(
+      LineSpansGenerator(
+        copied,
+        reference.lineCount,
+        reference.reference,
+        theme,
+        languageSpec,
+        scopedVariables,
+        spanFactory,
+        spansCache
+      )
     )
+    computeCodeBlocks()?.also { blocks ->
+      styles.blocks = blocks
+      styles.finishBuilding()
+    }
 
-    val oldBlocks = styles.blocks
-    updateCodeBlocks()
-    oldBlocks?.also { ObjectAllocator.recycleBlockLines(it) }
+    publishedStyles = styles
+    publishedVersion = document.version
 
     stylesReceiver?.setStyles(analyzer, styles) {
+      // Runs on the UI thread right before the editor switches to the new styles
       oldTree?.close()
+      oldBlocks?.also { ObjectAllocator.recycleBlockLines(it) }
     }
 
     stylesReceiver?.updateBracketProvider(analyzer, TsBracketPairs(copied, languageSpec))
   }
 
-  private fun updateCodeBlocks() {
+  private fun computeCodeBlocks(): MutableList<CodeBlock>? {
     if (languageSpec.blocksQuery.patternCount == 0
       || !languageSpec.blocksQuery.canAccess()
       || tree?.canAccess() != true
     ) {
-      return
+      return null
     }
 
     val blocks = mutableListOf<CodeBlock>()
@@ -289,9 +380,7 @@ class TsAnalyzeWorker(
       }
     }
 
-    val distinct = blocks.asSequence().distinct().toMutableList()
-    styles.blocks = distinct
-    styles.finishBuilding()
+    return blocks.asSequence().distinct().toMutableList()
   }
 }
 
@@ -150,6 +150,37 @@ class TsScopedVariables(tree: TSTree, text: UTF16String, val spec: TsLanguageSpe
     var matchedHighlightPattern: Int = -1
   )
 
+  /**
+   * Check whether [other] has the same definitions in the same nesting of scopes, regardless of
+   * their positions.
+   */
+  fun hasSameDefinitions(other: TsScopedVariables): Boolean {
+    return hasSameDefinitions(rootScope, other.rootScope)
+  }
+
+  private fun hasSameDefinitions(scope: Scope, other: Scope): Boolean {
+    if (scope.forMembers != other.forMembers || scope.variables.size != other.variables.size
+      || scope.childScopes.size != other.childScopes.size
+    ) {
+      return false
+    }
+    for (i in scope.variables.indices) {
+      val variable = scope.variables[i]
+      val otherVariable = other.variables[i]
+      if (variable.name != otherVariable.name
+        || variable.matchedHighlightPattern != otherVariable.matchedHighlightPattern
+      ) {
+        return false
+      }
+    }
+    for (i in scope.childScopes.indices) {
+      if (!hasSameDefinitions(scope.childScopes[i], other.childScopes[i])) {
+        return false
+      }
+    }
+    return true
+  }
+
   fun findDefinition(startIndex: Int, endIndex: Int, name: String): ScopedVariable? {
     var definition: ScopedVariable? = null
     var currentScope: Scope? = rootScope
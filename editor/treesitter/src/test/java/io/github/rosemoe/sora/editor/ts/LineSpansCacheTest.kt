@@ -0,0 +1,170 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.rosemoe.sora.editor.ts
+
+import com.google.common.truth.Truth.assertThat
+import io.github.rosemoe.sora.lang.styling.Span
+import org.junit.Test
+
+class LineSpansCacheTest {
+
+  private fun LineSpansCache.fill(lines: IntRange): Map<Int, MutableList<Span>> {
+    return lines.associateWith { mutableListOf<Span>() }.onEach { (line, spans) -> put(line, spans, generation) }
+  }
+
+  @Test
+  fun `test edits shift cached lines`() {
+    val cache = LineSpansCache(1000)
+    val spans = cache.fill(0 until 100)
+
+    cache.applyEdit(10, 12, 15)
+    val generation = cache.generation
+    assertThat(cache.get(5, generation)).isSameInstanceAs(spans[5])
+    for (line in 10..15) {
+      assertThat(cache.get(line, generation)).isNull()
+    }
+    assertThat(cache.get(16, generation)).isSameInstanceAs(spans[13])
+    assertThat(cache.get(102, generation)).isSameInstanceAs(spans[99])
+  }
+
+  @Test
+  fun `test advance drops invalidated lines`() {
+    val cache = LineSpansCache(1000)
+    val spans = cache.fill(0 until 100)
+    val invalidated = InvalidatedLines()
+
+    cache.applyEdit(10, 10, 11)
+    invalidated.addEdit(10, 10, 11)
+    invalidated.add(30, 31)
+    val generation = cache.advance(invalidated)
+
+    assertThat(cache.get(5, generation - 1)).isNull()
+    assertThat(cache.get(5, generation)).isSameInstanceAs(spans[5])
+    assertThat(cache.get(29, generation)).isSameInstanceAs(spans[28])
+    assertThat(cache.get(30, generation)).isNull()
+    assertThat(cache.get(31, generation)).isNull()
+    assertThat(cache.get(32, generation)).isSameInstanceAs(spans[31])
+
+    // Spans of older trees are not cached
+    cache.put(40, mutableListOf(), generation - 1)
+    assertThat(cache.get(40, generation)).isSameInstanceAs(spans[39])
+  }
+
+  @Test
+  fun `test advance clears when edits do not match`() {
+    val cache = LineSpansCache(1000)
+    cache.fill(0 until 100)
+    val invalidated = InvalidatedLines()
+    invalidated.addEdit(10, 10, 10)
+
+    val generation = cache.advance(invalidated)
+    assertThat(cache.size).isEqualTo(0)
+    assertThat(cache.get(5, generation)).isNull()
+  }
+
+  @Test
+  fun `test invalidated lines follow edits`() {
+    val invalidated = InvalidatedLines()
+    invalidated.add(50, 60)
+    invalidated.addEdit(10, 10, 12)
+    assertThat(invalidated.contains(51)).isFalse()
+    assertThat(invalidated.contains(52)).isTrue()
+    assertThat(invalidated.contains(62)).isTrue()
+    assertThat(invalidated.contains(63)).isFalse()
+
+    // Deleting lines 55 to 70 joins them into line 55
+    invalidated.addEdit(55, 70, 55)
+    assertThat(invalidated.contains(55)).isTrue()
+    assertThat(invalidated.contains(56)).isFalse()
+    assertThat(invalidated.editCount).isEqualTo(2)
+  }
+
+  /**
+   * Line cache as previously kept by [LineSpansGenerator]: 60 most recently used lines, dropped
+   * whenever a new tree is published.
+   */
+  private class ListCache {
+
+    val lines = ArrayList<Int>()
+
+    fun query(line: Int): Boolean {
+      val index = lines.indexOf(line)
+      if (index == -1) {
+        return false
+      }
+      lines.add(0, lines.removeAt(index))
+      return true
+    }
+
+    fun push(line: Int) {
+      while (lines.size >= 60) {
+        lines.removeAt(lines.size - 1)
+      }
+      lines.add(0, line)
+    }
+  }
+
+  @Test
+  fun `benchmark scrolling a large file`() {
+    val lineCount = 10_000
+    val visibleLines = 45
+
+    // Fling down and back up over the middle of the file, typing a character now and then
+    val frames = ArrayList<Int>()
+    var top = lineCount / 2
+    repeat(20) { round ->
+      val speed = 1 + round % 8
+      repeat(300 / speed) { frames.add(top); top += speed }
+      repeat(300 / speed) { frames.add(top); top -= speed }
+    }
+
+    val listCache = ListCache()
+    var listQueries = 0
+    val cache = LineSpansCache(LineSpansGenerator.CACHE_THRESHOLD)
+    val invalidated = InvalidatedLines()
+    var cacheQueries = 0
+
+    for ((frame, firstLine) in frames.withIndex()) {
+      if (frame % 50 == 49) {
+        // Single character typed on a visible line, and a new tree is published
+        val line = firstLine + visibleLines / 2
+        listCache.lines.clear()
+        cache.applyEdit(line, line, line)
+        invalidated.addEdit(line, line, line)
+        cache.advance(invalidated)
+        invalidated.clear()
+      }
+      for (line in firstLine until firstLine + visibleLines) {
+        if (!listCache.query(line)) {
+          listQueries++
+          listCache.push(line)
+        }
+        val generation = cache.generation
+        if (cache.get(line, generation) == null) {
+          cacheQueries++
+          cache.put(line, mutableListOf(), generation)
+        }
+      }
+    }
+
+    println("Scrolling ${frames.size} frames of $visibleLines lines: " +
+        "list cache ${"%.2f".format(listQueries.toDouble() / frames.size)} queries/frame, " +
+        "line cache ${"%.2f".format(cacheQueries.toDouble() / frames.size)} queries/frame")
+    assertThat(cacheQueries).isLessThan(listQueries)
+  }
+}
@@ -296,7 +296,7 @@ class JavaLanguageServer : ILanguageServer {
   @Subscribe(threadMode = ThreadMode.ASYNC)
   @Suppress("unused")
   fun onFileClosed(event: DocumentCloseEvent) {
-    diagnosticProvider?.clearTimestamp(event.closedFile)
+    diagnosticProvider?.clearCache(event.closedFile)
 
     if (getActiveDocumentCount() == 0) {
       selectedFile = null
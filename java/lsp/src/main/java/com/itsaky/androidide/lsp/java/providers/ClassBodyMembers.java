@@ -0,0 +1,132 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.lsp.java.providers;
+
+import androidx.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the members (fields, methods, nested classes, initializers) declared in the body of the
+ * top level classes of a Java source, without parsing it.
+ *
+ * <p>The source is only scanned for braces and semicolons, skipping comments, strings and character
+ * literals. A member ends with a semicolon or a closing brace in the class body, and starts where
+ * the previous member ended, so it includes the comments and annotations before it. Enum constants
+ * are not separated, they are reported as a single member which is not a valid declaration.
+ */
+class ClassBodyMembers {
+
+  private ClassBodyMembers() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Find the members of the class bodies.
+   *
+   * @return The (start, end) offsets of the members, sorted.
+   */
+  @NonNull
+  static List<int[]> find(@NonNull final String source) {
+    final List<int[]> members = new ArrayList<>();
+    final int n = source.length();
+    int depth = 0;
+    int memberStart = -1;
+    int i = 0;
+    while (i < n) {
+      final char c = source.charAt(i);
+      if (c == '/' && i + 1 < n && source.charAt(i + 1) == '/') {
+        i = source.indexOf('\n', i);
+        if (i == -1) {
+          break;
+        }
+        continue;
+      }
+      if (c == '/' && i + 1 < n && source.charAt(i + 1) == '*') {
+        i = source.indexOf("*/", i + 2);
+        if (i == -1) {
+          break;
+        }
+        i += 2;
+        continue;
+      }
+      if (c == '"' || c == '\'') {
+        i = skipLiteral(source, i);
+        continue;
+      }
+
+      if (c == '{') {
+        depth++;
+        if (depth == 1) {
+          memberStart = i + 1;
+        }
+      } else if (c == '}') {
+        depth--;
+        if (depth == 1 && !continuesMember(source, i + 1)) {
+          members.add(new int[] {memberStart, i + 1});
+          memberStart = i + 1;
+        } else if (depth <= 0) {
+          depth = 0;
+          memberStart = -1;
+        }
+      } else if (c == ';' && depth == 1) {
+        members.add(new int[] {memberStart, i + 1});
+        memberStart = i + 1;
+      }
+      i++;
+    }
+    return members;
+  }
+
+  /** Whether a closing brace at depth 1 ends an initializer, an annotation or an expression. */
+  private static boolean continuesMember(final String source, int i) {
+    while (i < source.length() && Character.isWhitespace(source.charAt(i))) {
+      i++;
+    }
+    if (i == source.length()) {
+      return false;
+    }
+    final char c = source.charAt(i);
+    return c == ';' || c == ',' || c == ')' || c == '.';
+  }
+
+  /** Skip a string, text block or character literal, return the index after it. */
+  private static int skipLiteral(final String source, int i) {
+    final char quote = source.charAt(i);
+    if (quote == '"' && source.startsWith("\"\"\"", i)) {
+      i += 3;
+      while (i < source.length() && !source.startsWith("\"\"\"", i)) {
+        i += source.charAt(i) == '\\' ? 2 : 1;
+      }
+      return Math.min(i + 3, source.length());
+    }
+    i++;
+    while (i < source.length()) {
+      final char c = source.charAt(i);
+      if (c == '\\') {
+        i += 2;
+        continue;
+      }
+      if (c == quote || c == '\n') {
+        return i + 1;
+      }
+      i++;
+    }
+    return i;
+  }
+}
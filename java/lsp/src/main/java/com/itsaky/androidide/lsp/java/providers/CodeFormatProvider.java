@@ -23,6 +23,7 @@ import androidx.annotation.NonNull;
 import com.google.common.collect.ImmutableList;
 import com.google.googlejavaformat.java.Formatter;
 import com.google.googlejavaformat.java.FormatterException;
+import com.google.googlejavaformat.java.JavaFormatterOptions;
 import com.google.googlejavaformat.java.Replacement;
 import com.itsaky.androidide.lsp.api.IServerSettings;
 import com.itsaky.androidide.lsp.java.models.JavaServerSettings;
@@ -31,7 +32,11 @@ import com.itsaky.androidide.lsp.models.FormatCodeParams;
 import com.itsaky.androidide.lsp.models.IndexedTextEdit;
 import com.itsaky.androidide.models.Range;
 import com.itsaky.androidide.utils.StopWatch;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,6 +49,9 @@ public class CodeFormatProvider {
 
   private static final Logger LOG = LoggerFactory.getLogger(CodeFormatProvider.class);
 
+  /** Formatters are immutable and thread safe, so one is kept for each options. */
+  private static final Map<JavaFormatterOptions, Formatter> formatters = new ConcurrentHashMap<>();
+
   private final JavaServerSettings settings;
 
   public CodeFormatProvider(IServerSettings settings) {
@@ -55,7 +63,20 @@ public class CodeFormatProvider {
     try {
       final StopWatch watch = new StopWatch("Code formatting");
       final String content = params.getContent().toString();
-      final Formatter formatter = new Formatter(settings.getFormatterOptions());
+      final Formatter formatter = getFormatter(settings.getFormatterOptions());
+
+      if (!params.getChangedRanges().isEmpty()) {
+        final Collection<com.google.common.collect.Range<Integer>> ranges =
+            getLineRanges(content, params.getChangedRanges());
+        ImmutableList<Replacement> replacements = formatMembers(formatter, content, ranges);
+        if (replacements == null) {
+          // Google Java Format expands the lines to the enclosing statements, but formats the
+          // whole file to do so
+          replacements = formatter.getFormatReplacements(content, ranges);
+        }
+        watch.log();
+        return createResult(replacements);
+      }
 
       if (params.getRange() == Range.NONE) {
         String formatted;
@@ -82,6 +103,100 @@ public class CodeFormatProvider {
     }
   }
 
+  /**
+   * Format the class members which contain the given ranges, each on its own. This is much faster
+   * than formatting the ranges in the whole file, and gives the same result as the members are
+   * formatted at the same indentation level.
+   *
+   * @return The replacements, or {@code null} if a range is not in a member of a top level class.
+   */
+  static ImmutableList<Replacement> formatMembers(
+      final Formatter formatter,
+      final String content,
+      final Collection<com.google.common.collect.Range<Integer>> ranges) {
+    final List<int[]> members = ClassBodyMembers.find(content);
+    final List<int[]> changed = new ArrayList<>();
+    for (final com.google.common.collect.Range<Integer> range : ranges) {
+      int position = range.lowerEndpoint();
+      for (final int[] member : members) {
+        if (member[1] <= position || member[0] >= range.upperEndpoint()) {
+          continue;
+        }
+        if (!isBlank(content, position, member[0])) {
+          return null;
+        }
+        if (changed.isEmpty() || changed.get(changed.size() - 1)[0] < member[0]) {
+          changed.add(member);
+        }
+        position = member[1];
+      }
+      if (!isBlank(content, position, range.upperEndpoint())) {
+        return null;
+      }
+    }
+    changed.sort((a, b) -> Integer.compare(a[0], b[0]));
+
+    final ImmutableList.Builder<Replacement> replacements = ImmutableList.builder();
+    int last = -1;
+    for (final int[] member : changed) {
+      if (member[0] <= last) {
+        continue;
+      }
+      last = member[0];
+
+      // Format from the start of the line, so the first line is indented too
+      int start = member[0];
+      while (start < member[1] && Character.isWhitespace(content.charAt(start))) {
+        start++;
+      }
+      final int lineStart = content.lastIndexOf('\n', start - 1) + 1;
+      if (lineStart <= member[0]) {
+        // Another member or a comment on the same line
+        return null;
+      }
+
+      final String source = "class Dummy {\n" + content.substring(lineStart, member[1]) + "\n}\n";
+      final String formatted;
+      try {
+        formatted = formatter.formatSource(source);
+      } catch (FormatterException e) {
+        return null;
+      }
+      final int bodyStart = formatted.indexOf('\n') + 1;
+      final int bodyEnd = formatted.lastIndexOf('}');
+      if (bodyStart <= 0 || bodyEnd < bodyStart) {
+        return null;
+      }
+      String body = formatted.substring(bodyStart, bodyEnd).stripTrailing();
+      // Drop the blank lines before the member, but not the indentation of its first line
+      int firstLine = 0;
+      int lineEnd;
+      while ((lineEnd = body.indexOf('\n', firstLine)) != -1 && isBlank(body, firstLine, lineEnd)) {
+        firstLine = lineEnd + 1;
+      }
+      // Keep one blank line before the member, if there is any
+      final int newlines = (int) content.substring(member[0], lineStart).chars().filter(ch -> ch == '\n').count();
+      body = (newlines > 1 ? "\n\n" : "\n") + body.substring(firstLine);
+      if (!body.contentEquals(content.subSequence(member[0], member[1]))) {
+        replacements.add(Replacement.create(member[0], member[1], body));
+      }
+    }
+    return replacements.build();
+  }
+
+  private static boolean isBlank(final String content, final int start, final int end) {
+    for (int i = start; i < end; i++) {
+      if (!Character.isWhitespace(content.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static Formatter getFormatter(JavaFormatterOptions options) {
+    return formatters.computeIfAbsent(options, Formatter::new);
+  }
+
   private CodeFormatResult createResult(final ImmutableList<Replacement> replacements) {
     final CodeFormatResult result = new CodeFormatResult(true);
     for (final Replacement replacement : replacements) {
@@ -110,4 +225,37 @@ public class CodeFormatProvider {
 
     return ImmutableList.of(closedOpen(start, end));
   }
+
+  /** Get the character ranges of the lines of the given ranges. */
+  @NonNull
+  static Collection<com.google.common.collect.Range<Integer>> getLineRanges(
+      final String content, @NonNull final List<Range> lineRanges) {
+
+    int lastLine = 0;
+    for (final Range range : lineRanges) {
+      lastLine = Math.max(lastLine, range.getEnd().getLine());
+    }
+
+    // Start indices of the lines, up to the line after the last changed line
+    final int[] lineStarts = new int[lastLine + 2];
+    int lineCount = 1;
+    for (int i = 0; i < content.length() && lineCount < lineStarts.length; i++) {
+      if (content.charAt(i) == '\n') {
+        lineStarts[lineCount++] = i + 1;
+      }
+    }
+
+    final List<com.google.common.collect.Range<Integer>> ranges = new ArrayList<>();
+    for (final Range range : lineRanges) {
+      final int startLine = range.getStart().getLine();
+      final int endLine = range.getEnd().getLine();
+      if (startLine < 0 || startLine >= lineCount || endLine < startLine) {
+        continue;
+      }
+      final int start = lineStarts[startLine];
+      final int end = endLine + 1 < lineCount ? lineStarts[endLine + 1] : content.length();
+      ranges.add(closedOpen(start, end));
+    }
+    return ranges;
+  }
 }
@@ -16,6 +16,7 @@
  */
 package com.itsaky.androidide.lsp.java.providers
 
+import com.itsaky.androidide.lsp.java.JavaCompilerProvider
 import com.itsaky.androidide.lsp.java.compiler.CompileTask
 import com.itsaky.androidide.lsp.java.compiler.JavaCompilerService
 import com.itsaky.androidide.lsp.java.providers.DiagnosticsProvider.findDiagnostics
@@ -28,17 +29,21 @@ import com.itsaky.androidide.projects.IProjectManager
 import org.slf4j.LoggerFactory
 import java.nio.file.Path
 import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicBoolean
 
 /**
  * Code analyzer for java source code.
  *
+ * Diagnostics are computed with the module's shared [JavaCompilerService] (see
+ * [JavaCompilerProvider]), so the warmed-up compiler context and the class path indexes are
+ * reused across passes. Results are cached per file, keyed by the document version.
+ *
  * @author Akash Yadav
  */
 class JavaDiagnosticProvider {
 
-  private val analyzeTimestamps = mutableMapOf<Path, Instant>()
-  private var cachedDiagnostics = DiagnosticResult.NO_UPDATE
+  private val cachedDiagnostics = ConcurrentHashMap<Path, CachedDiagnostics>()
   private var analyzing = AtomicBoolean(false)
   private var analyzingThread: AnalyzingThread? = null
 
@@ -47,22 +52,33 @@ class JavaDiagnosticProvider {
     private val log = LoggerFactory.getLogger(JavaDiagnosticProvider::class.java)
   }
 
+  /**
+   * Diagnostics of a file, computed for the given version of its contents.
+   */
+  private class CachedDiagnostics(
+    val version: Int,
+    val modified: Instant,
+    val result: DiagnosticResult
+  )
+
   fun analyze(file: Path): DiagnosticResult {
 
     val module = IProjectManager.getInstance().getWorkspace()?.findModuleForFile(file, false)
       ?: return DiagnosticResult.NO_UPDATE
-    val compiler = JavaCompilerService(module)
+    val compiler = JavaCompilerProvider.get(module)
 
     abortIfCancelled()
 
     log.debug("Analyzing: {}", file)
 
-    val modifiedAt = FileManager.getLastModified(file)
-    val analyzedAt = analyzeTimestamps[file]
+    val key = file.normalize()
+    val version = FileManager.getActiveDocument(key)?.version ?: -1
+    val modifiedAt = FileManager.getLastModified(key)
+    val cached = cachedDiagnostics[key]
 
-    if (analyzedAt?.isAfter(modifiedAt) == true) {
+    if (cached != null && cached.version == version && cached.modified == modifiedAt) {
       log.debug("Using cached analyze results...")
-      return cachedDiagnostics
+      return cached.result
     }
 
     analyzingThread?.let { analyzingThread ->
@@ -81,9 +97,12 @@ class JavaDiagnosticProvider {
       it.join()
     }
 
-    return analyzingThread.result.also {
-      this.analyzingThread = null
+    val result = analyzingThread.result
+    this.analyzingThread = null
+    if (result !== DiagnosticResult.NO_UPDATE) {
+      cachedDiagnostics[key] = CachedDiagnostics(version, modifiedAt, result)
     }
+    return result
   }
 
   fun isAnalyzing(): Boolean {
@@ -94,8 +113,8 @@ class JavaDiagnosticProvider {
     this.analyzingThread?.cancel()
   }
 
-  fun clearTimestamp(file: Path) {
-    analyzeTimestamps.remove(file)
+  fun clearCache(file: Path) {
+    cachedDiagnostics.remove(file.normalize())
   }
 
   private fun doAnalyze(file: Path, task: CompileTask): DiagnosticResult {
@@ -105,7 +124,7 @@ class JavaDiagnosticProvider {
         // The returned list is accessed and the list returned by Collections.emptyList()
         // throws exception when trying to access.
         log.info("Using cached diagnostics")
-        cachedDiagnostics
+        cachedDiagnostics[file.normalize()]?.result ?: DiagnosticResult.NO_UPDATE
       } else
         DiagnosticResult(
           file,
@@ -135,6 +154,7 @@ class JavaDiagnosticProvider {
     override fun run() {
       result =
         try {
+          // The compiler is shared with other providers, do not destroy it
           compiler.compile(file).get { task -> doAnalyze(file, task) }
         } catch (err: Throwable) {
           if (CancelChecker.isCancelled(err)) {
@@ -144,13 +164,8 @@ class JavaDiagnosticProvider {
           }
           DiagnosticResult.NO_UPDATE
         } finally {
-          compiler.destroy()
           analyzing.set(false)
         }
-          .also {
-            cachedDiagnostics = it
-            analyzeTimestamps[file] = Instant.now()
-          }
     }
   }
 }
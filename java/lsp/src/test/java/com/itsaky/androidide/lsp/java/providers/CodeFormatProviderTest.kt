@@ -0,0 +1,175 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.lsp.java.providers
+
+import com.google.common.truth.Truth.assertThat
+import com.itsaky.androidide.lsp.java.models.JavaServerSettings
+import com.itsaky.androidide.lsp.models.CodeFormatResult
+import com.itsaky.androidide.lsp.models.FormatCodeParams
+import com.itsaky.androidide.models.Position
+import com.itsaky.androidide.models.Range
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class CodeFormatProviderTest {
+
+  private val settings = JavaServerSettings.getInstance()
+  private val provider = CodeFormatProvider(settings)
+
+  @Test
+  fun testFormatterIsReused() {
+    assertThat(CodeFormatProvider.getFormatter(settings.formatterOptions))
+      .isSameInstanceAs(CodeFormatProvider.getFormatter(settings.formatterOptions))
+  }
+
+  @Test
+  fun testChangedLinesFormattingIsIdempotent() {
+    val formatted = format(generateClass(100))
+    val changedLines = listOf(5, 6, 40, 41, 42, 97)
+    val messy = mess(formatted, changedLines)
+    assertThat(messy).isNotEqualTo(formatted)
+
+    val ranges = changedLines.map { Range(Position(it, 0), Position(it, 0)) }
+    val once = apply(messy, provider.format(FormatCodeParams(messy, changedRanges = ranges)))
+    assertThat(once).isEqualTo(formatted)
+
+    val twice = apply(once, provider.format(FormatCodeParams(once, changedRanges = ranges)))
+    assertThat(twice).isEqualTo(once)
+  }
+
+  @Test
+  fun testOnlyChangedLinesAreFormatted() {
+    val formatted = format(generateClass(20))
+    val messy = mess(mess(formatted, listOf(10)), listOf(30))
+    val result = apply(messy, provider.format(
+      FormatCodeParams(messy, changedRanges = listOf(Range(Position(10, 0), Position(10, 0))))))
+    assertThat(result).isEqualTo(mess(formatted, listOf(30)))
+  }
+
+  @Test
+  fun testChangedLinesInAnyDeclaration() {
+    val formatted = format("""
+      |package com.example;
+      |
+      |import java.util.List;
+      |
+      |public class Declarations {
+      |  /** A field with a {@code brace}. */
+      |  @SuppressWarnings({"unchecked", "rawtypes"})
+      |  private final String text = "{ ; }";
+      |
+      |  private final Runnable runnable = new Runnable() {
+      |    @Override
+      |    public void run() {
+      |      char c = '}';
+      |    }
+      |  };
+      |
+      |  private final int[] values = {1, 2, 3};
+      |
+      |  static {
+      |    System.out.println("}"); // }
+      |  }
+      |
+      |  enum Kind {
+      |    FIRST,
+      |    SECOND;
+      |
+      |    int value() {
+      |      return ordinal();
+      |    }
+      |  }
+      |}
+      |""".trimMargin())
+
+    val classLine = formatted.lines().indexOfFirst { it.startsWith("public class") }
+    for (line in classLine until formatted.lines().lastIndex) {
+      val messy = mess(formatted, listOf(line))
+      val range = listOf(Range(Position(line, 0), Position(line, 0)))
+      val result = apply(messy, provider.format(FormatCodeParams(messy, changedRanges = range)))
+      assertThat(result).isEqualTo(formatted)
+    }
+  }
+
+  @Test
+  fun benchmarkChangedLinesFormatting() {
+    // About 5000 lines
+    val formatted = format(generateClass(700))
+    val lineCount = formatted.lines().size
+    val changedLines = (0 until 10).map { 100 + it * (lineCount - 200) / 10 }
+    val messy = mess(formatted, changedLines)
+    val ranges = changedLines.map { Range(Position(it, 0), Position(it, 0)) }
+
+    // Warm up
+    repeat(3) {
+      provider.format(FormatCodeParams(messy))
+      provider.format(FormatCodeParams(messy, changedRanges = ranges))
+    }
+
+    val runs = 5
+    var start = System.nanoTime()
+    repeat(runs) { apply(messy, provider.format(FormatCodeParams(messy))) }
+    val fullNanos = (System.nanoTime() - start) / runs
+
+    start = System.nanoTime()
+    var result = ""
+    repeat(runs) { result = apply(messy, provider.format(FormatCodeParams(messy, changedRanges = ranges))) }
+    val changedNanos = (System.nanoTime() - start) / runs
+
+    println("$lineCount lines: full formatting ${fullNanos / 1_000_000} ms, " +
+        "${changedLines.size} changed lines ${changedNanos / 1_000_000} ms")
+    assertThat(result).isEqualTo(formatted)
+  }
+
+  private fun format(source: String) = apply(source, provider.format(FormatCodeParams(source)))
+
+  private fun apply(source: String, result: CodeFormatResult): String {
+    val builder = StringBuilder(source)
+    result.indexedTextEdits.sortedByDescending { it.start }.forEach {
+      builder.replace(it.start, it.end, it.newText.toString())
+    }
+    return builder.toString()
+  }
+
+  /** Change the whitespace of the given lines, keeping the line numbers. */
+  private fun mess(source: String, lines: List<Int>): String {
+    return source.lines().mapIndexed { i, line ->
+      if (i in lines) "   " + line.replace(" = ", "=").replace(", ", " ,  ") else line
+    }.joinToString("\n")
+  }
+
+  private fun generateClass(methods: Int): String {
+    val builder = StringBuilder("package com.example;\n\nimport java.util.List;\n\npublic class Generated {\n")
+    for (i in 0 until methods) {
+      builder.append("""
+        |  private int field$i = $i;
+        |
+        |  public int method$i(int a, int b, List<String> names) {
+        |    int sum = a + b + field$i;
+        |    for (int j = 0; j < names.size(); j++) {
+        |      sum += names.get(j).length();
+        |    }
+        |    return sum;
+        |  }
+        |""".trimMargin())
+    }
+    return builder.append("}\n").toString()
+  }
+}
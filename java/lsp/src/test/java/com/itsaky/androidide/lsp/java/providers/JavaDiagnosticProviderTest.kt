@@ -0,0 +1,98 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.lsp.java.providers
+
+import com.google.common.truth.Truth.assertThat
+import com.itsaky.androidide.eventbus.events.editor.ChangeType
+import com.itsaky.androidide.eventbus.events.editor.DocumentChangeEvent
+import com.itsaky.androidide.lsp.java.JavaLSPTest
+import com.itsaky.androidide.lsp.java.compiler.JavaCompilerService
+import com.itsaky.androidide.models.Range
+import com.itsaky.androidide.projects.util.findAppModule
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.DEFAULT_VALUE_STRING)
+class JavaDiagnosticProviderTest {
+
+  @Before
+  fun setup() {
+    JavaLSPTest.setup()
+  }
+
+  @Test
+  fun `test diagnostics are cached per document version`() {
+    JavaLSPTest.apply {
+      openFile("completion/MembersCompletionTest")
+      val provider = JavaDiagnosticProvider()
+
+      val first = provider.analyze(file!!)
+      assertThat(first.diagnostics).isNotEmpty()
+      assertThat(provider.analyze(file!!)).isSameInstanceAs(first)
+
+      edit(1)
+      val second = provider.analyze(file!!)
+      assertThat(second).isNotSameInstanceAs(first)
+      assertThat(second.diagnostics).hasSize(first.diagnostics.size)
+    }
+  }
+
+  @Test
+  fun `benchmark analyze after consecutive edits`() {
+    JavaLSPTest.apply {
+      openFile("completion/MembersCompletionTest")
+      val edits = 50
+      val module = findAppModule()!!
+
+      // A new compiler for every pass, as the provider did before reusing the module's compiler
+      var start = System.nanoTime()
+      for (version in 1..edits) {
+        edit(version)
+        val compiler = JavaCompilerService(module)
+        try {
+          compiler.compile(file!!).run { task -> DiagnosticsProvider.findDiagnostics(task, file!!) }
+        } finally {
+          compiler.destroy()
+        }
+      }
+      val freshCompilerMillis = (System.nanoTime() - start) / 1_000_000
+
+      val provider = JavaDiagnosticProvider()
+      start = System.nanoTime()
+      for (version in edits + 1..edits * 2) {
+        edit(version)
+        provider.analyze(file!!)
+      }
+      val sharedCompilerMillis = (System.nanoTime() - start) / 1_000_000
+
+      println("Analyze $edits edits: fresh compiler ${freshCompilerMillis / edits}ms/edit, " +
+          "shared compiler ${sharedCompilerMillis / edits}ms/edit")
+    }
+  }
+
+  private fun JavaLSPTest.edit(version: Int) {
+    contents!!.append("\n// edit ").append(version)
+    dispatchEvent(
+      DocumentChangeEvent(file!!, contents.toString(), contents.toString(), version,
+        ChangeType.NEW_TEXT, 0, Range.NONE))
+  }
+}
@@ -3,9 +3,8 @@
 extern jbyte blob[];
 extern int blob_size;
 
-JNIEXPORT jbyteArray JNICALL Java_com_termux_app_TermuxInstaller_getZip(JNIEnv *env, __attribute__((__unused__)) jobject This)
+JNIEXPORT jobject JNICALL Java_com_termux_app_TermuxInstaller_getZipBuffer(JNIEnv *env, __attribute__((__unused__)) jclass clazz)
 {
-    jbyteArray ret = (*env)->NewByteArray(env, blob_size);
-    (*env)->SetByteArrayRegion(env, ret, 0, blob_size, blob);
-    return ret;
+    // Wrap the embedded zip instead of copying it into a Java byte array.
+    return (*env)->NewDirectByteBuffer(env, blob, blob_size);
 }
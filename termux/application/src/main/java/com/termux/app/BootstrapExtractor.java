@@ -0,0 +1,298 @@
+package com.termux.app;
+
+import androidx.annotation.NonNull;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts the bootstrap zip into a target directory.
+ * <p/>
+ * The zip is read as a stream, so it never has to be fully loaded into memory. Inflating is
+ * inherently sequential and is done on the calling thread, but small entries are copied into one
+ * of a fixed number of reusable buffers and written to disk by a bounded worker pool, so the
+ * inflater does not wait for file system writes. Entries larger than a buffer are written directly
+ * by the calling thread. The symlinks listed in SYMLINKS.txt are collected while streaming and
+ * created once all files have been written.
+ */
+public final class BootstrapExtractor {
+
+    public static final String SYMLINKS_FILE = "SYMLINKS.txt";
+
+    /** Size of each reusable entry buffer. Entries larger than this are streamed by the reader. */
+    public static final int ENTRY_BUFFER_SIZE = 256 * 1024;
+
+    private static final Set<PosixFilePermission> EXECUTABLE_PERMISSIONS = EnumSet.of(
+        PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE);
+
+    private final File mTargetDir;
+    private final int mThreads;
+
+    /**
+     * @param targetDir The directory to extract into, usually the prefix staging directory.
+     * @param threads   The number of writer threads. With {@code 1}, writes still happen off the
+     *                  reader thread.
+     */
+    public BootstrapExtractor(@NonNull File targetDir, int threads) {
+        mTargetDir = targetDir;
+        mThreads = Math.max(1, threads);
+    }
+
+    /** Get the default number of writer threads for the current device. */
+    public static int getDefaultThreadCount() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    /** Whether the zip entry must be made executable after extraction. */
+    public static boolean isExecutableEntry(@NonNull String zipEntryName) {
+        return zipEntryName.startsWith("bin/") || zipEntryName.startsWith("libexec") ||
+            zipEntryName.startsWith("lib/apt/apt-helper") || zipEntryName.startsWith("lib/apt/methods");
+    }
+
+    /**
+     * Extract the zip read from {@code zipStream}. The stream is not closed.
+     *
+     * @return The extraction statistics.
+     * @throws IOException If reading the zip or writing any file or symlink failed.
+     */
+    @NonNull
+    public Stats extract(@NonNull InputStream zipStream) throws IOException {
+        final Stats stats = new Stats();
+        final long start = System.nanoTime();
+
+        // The pool size bounds the number of entries in flight and so the memory used.
+        final int bufferCount = mThreads * 2;
+        final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++)
+            buffers.add(new byte[ENTRY_BUFFER_SIZE]);
+
+        final byte[] streamBuffer = new byte[ENTRY_BUFFER_SIZE];
+        final AtomicReference<IOException> writeError = new AtomicReference<>();
+        final AtomicLong writeNanos = new AtomicLong();
+        final List<String[]> symlinks = new ArrayList<>(1024);
+        final Set<String> createdDirectories = new HashSet<>();
+
+        final ExecutorService writers = Executors.newFixedThreadPool(mThreads);
+        try {
+            ZipInputStream zipInput = new ZipInputStream(zipStream);
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInput.getNextEntry()) != null) {
+                throwIfFailed(writeError);
+
+                final String zipEntryName = zipEntry.getName();
+                if (zipEntryName.equals(SYMLINKS_FILE)) {
+                    readSymlinks(zipInput, symlinks, createdDirectories);
+                    continue;
+                }
+
+                final File targetFile = new File(mTargetDir, zipEntryName);
+                if (zipEntry.isDirectory()) {
+                    ensureDirectoryExists(targetFile, createdDirectories);
+                    continue;
+                }
+
+                ensureDirectoryExists(targetFile.getParentFile(), createdDirectories);
+                stats.files++;
+
+                final long waitStart = System.nanoTime();
+                final byte[] buffer;
+                try {
+                    buffer = buffers.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a free entry buffer");
+                }
+                stats.waitNanos += System.nanoTime() - waitStart;
+
+                final int length = readFully(zipInput, buffer);
+                final int next = length < buffer.length ? -1 : zipInput.read();
+                stats.bytes += length;
+                if (next == -1) {
+                    // The entry fits in the buffer, hand it off to a writer.
+                    writers.execute(() -> {
+                        final long writeStart = System.nanoTime();
+                        try {
+                            writeFile(targetFile, zipEntryName, buffer, length);
+                        } catch (IOException e) {
+                            writeError.compareAndSet(null, e);
+                        } finally {
+                            writeNanos.addAndGet(System.nanoTime() - writeStart);
+                            buffers.add(buffer);
+                        }
+                    });
+                } else {
+                    // The entry is larger than a buffer, so stream the rest of it on the reader thread.
+                    stats.bytes += streamLargeEntry(zipInput, targetFile, zipEntryName, buffer, length, next, streamBuffer);
+                    buffers.add(buffer);
+                }
+            }
+            stats.readNanos = System.nanoTime() - start - stats.waitNanos;
+        } finally {
+            writers.shutdown();
+            try {
+                if (!writers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS))
+                    throw new InterruptedIOException("Timed out waiting for bootstrap writers");
+            } catch (InterruptedException e) {
+                writers.shutdownNow();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bootstrap writers");
+            }
+        }
+        throwIfFailed(writeError);
+        stats.writeNanos = writeNanos.get();
+
+        if (symlinks.isEmpty())
+            throw new IOException("No " + SYMLINKS_FILE + " encountered");
+
+        final long symlinkStart = System.nanoTime();
+        for (String[] symlink : symlinks) {
+            Files.createSymbolicLink(new File(symlink[1]).toPath(), new File(symlink[0]).toPath());
+        }
+        stats.symlinks = symlinks.size();
+        stats.symlinkNanos = System.nanoTime() - symlinkStart;
+        stats.totalNanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    private void readSymlinks(ZipInputStream zipInput, List<String[]> symlinks, Set<String> createdDirectories) throws IOException {
+        // Do not close the reader, it would close the zip stream.
+        BufferedReader symlinksReader = new BufferedReader(new InputStreamReader(zipInput, StandardCharsets.UTF_8));
+        String line;
+        while ((line = symlinksReader.readLine()) != null) {
+            String[] parts = line.split("←");
+            if (parts.length != 2)
+                throw new IOException("Malformed symlink line: " + line);
+            String newPath = mTargetDir.getAbsolutePath() + "/" + parts[1];
+            symlinks.add(new String[]{parts[0], newPath});
+            ensureDirectoryExists(new File(newPath).getParentFile(), createdDirectories);
+        }
+    }
+
+    private static long streamLargeEntry(ZipInputStream zipInput, File targetFile, String zipEntryName,
+                                         byte[] head, int headLength, int next, byte[] streamBuffer) throws IOException {
+        long written = 1;
+        try (FileOutputStream outStream = new FileOutputStream(targetFile)) {
+            outStream.write(head, 0, headLength);
+            // The byte read while checking for the end of the entry.
+            outStream.write(next);
+            int readBytes;
+            while ((readBytes = zipInput.read(streamBuffer)) != -1) {
+                outStream.write(streamBuffer, 0, readBytes);
+                written += readBytes;
+            }
+        }
+        if (isExecutableEntry(zipEntryName))
+            Files.setPosixFilePermissions(targetFile.toPath(), EXECUTABLE_PERMISSIONS);
+        return written;
+    }
+
+    private static void writeFile(File targetFile, String zipEntryName, byte[] buffer, int length) throws IOException {
+        try (FileOutputStream outStream = new FileOutputStream(targetFile)) {
+            outStream.write(buffer, 0, length);
+        }
+        if (isExecutableEntry(zipEntryName))
+            Files.setPosixFilePermissions(targetFile.toPath(), EXECUTABLE_PERMISSIONS);
+    }
+
+    private static int readFully(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        int readBytes;
+        while (length < buffer.length && (readBytes = in.read(buffer, length, buffer.length - length)) != -1)
+            length += readBytes;
+        return length;
+    }
+
+    private static void ensureDirectoryExists(File directory, Set<String> createdDirectories) throws IOException {
+        if (directory == null || !createdDirectories.add(directory.getAbsolutePath())) return;
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory())
+            throw new IOException("Failed to create directory \"" + directory.getAbsolutePath() + "\"");
+    }
+
+    private static void throwIfFailed(AtomicReference<IOException> error) throws IOException {
+        IOException e = error.get();
+        if (e != null) throw e;
+    }
+
+    /** An {@link InputStream} over a {@link ByteBuffer}, used to read the bootstrap zip without copying it. */
+    public static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer mBuffer;
+
+        public ByteBufferInputStream(@NonNull ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!mBuffer.hasRemaining()) return -1;
+            len = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, mBuffer.remaining()));
+            mBuffer.position(mBuffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+
+    /** Per-phase timings and counts of an extraction. */
+    public static final class Stats {
+        public int files;
+        public int symlinks;
+        public long bytes;
+        /** Time spent inflating entries on the reader thread, excluding waits for a free buffer. */
+        public long readNanos;
+        /** Time the reader spent waiting for writers to free a buffer. */
+        public long waitNanos;
+        /** Total time spent by all writers, summed across threads. */
+        public long writeNanos;
+        public long symlinkNanos;
+        public long totalNanos;
+
+        @NonNull
+        @Override
+        public String toString() {
+            return files + " files (" + bytes / 1024 + " KiB) and " + symlinks + " symlinks in " +
+                TimeUnit.NANOSECONDS.toMillis(totalNanos) + "ms: read " + TimeUnit.NANOSECONDS.toMillis(readNanos) +
+                "ms, wait " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "ms, write " +
+                TimeUnit.NANOSECONDS.toMillis(writeNanos) + "ms (all threads), symlinks " +
+                TimeUnit.NANOSECONDS.toMillis(symlinkNanos) + "ms";
+        }
+    }
+}
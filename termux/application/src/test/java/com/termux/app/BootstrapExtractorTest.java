@@ -0,0 +1,163 @@
+package com.termux.app;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BootstrapExtractorTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testExtractMatchesSerialExtraction() throws IOException {
+        byte[] zip = createBootstrapZip(5000, 1500);
+
+        File serialDir = mTemporaryFolder.newFolder("serial");
+        long serialStart = System.nanoTime();
+        extractSerially(zip, serialDir);
+        long serialNanos = System.nanoTime() - serialStart;
+
+        File parallelDir = mTemporaryFolder.newFolder("parallel");
+        BootstrapExtractor.Stats stats = new BootstrapExtractor(parallelDir, 4)
+            .extract(new BootstrapExtractor.ByteBufferInputStream(ByteBuffer.wrap(zip)));
+
+        System.out.println("serial: " + serialNanos / 1_000_000 + "ms, parallel: " + stats);
+
+        Assert.assertEquals(5000, stats.files);
+        Assert.assertEquals(1500, stats.symlinks);
+        Assert.assertEquals(describeTree(serialDir.toPath()), describeTree(parallelDir.toPath()));
+    }
+
+    @Test
+    public void testMissingSymlinksFileFails() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOutput = new ZipOutputStream(bytes)) {
+            zipOutput.putNextEntry(new ZipEntry("bin/sh"));
+            zipOutput.write(1);
+            zipOutput.closeEntry();
+        }
+
+        try {
+            new BootstrapExtractor(mTemporaryFolder.newFolder(), 2).extract(new ByteArrayInputStream(bytes.toByteArray()));
+            Assert.fail("Expected a missing SYMLINKS.txt to fail");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains(BootstrapExtractor.SYMLINKS_FILE));
+        }
+    }
+
+    private static byte[] createBootstrapZip(int fileCount, int symlinkCount) throws IOException {
+        Random random = new Random(42);
+        String[] roots = {"bin/", "lib/", "libexec/", "share/doc/", "etc/", "lib/apt/methods/"};
+        List<String> files = new ArrayList<>(fileCount);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOutput = new ZipOutputStream(bytes)) {
+            zipOutput.putNextEntry(new ZipEntry("share/"));
+            zipOutput.closeEntry();
+
+            for (int i = 0; i < fileCount; i++) {
+                String name = roots[i % roots.length] + "d" + (i % 37) + "/file" + i;
+                files.add(name);
+                // Mostly small files, with a few larger than an entry buffer.
+                int size = i % 997 == 0 ? BootstrapExtractor.ENTRY_BUFFER_SIZE * 2 + 17 : random.nextInt(4096);
+                byte[] content = new byte[size];
+                random.nextBytes(content);
+                zipOutput.putNextEntry(new ZipEntry(name));
+                zipOutput.write(content);
+                zipOutput.closeEntry();
+
+                if (i == fileCount / 2) {
+                    // SYMLINKS.txt is not necessarily the last entry.
+                    zipOutput.putNextEntry(new ZipEntry(BootstrapExtractor.SYMLINKS_FILE));
+                    StringBuilder symlinks = new StringBuilder();
+                    for (int j = 0; j < symlinkCount; j++) {
+                        symlinks.append("../").append(files.get(j % files.size()))
+                            .append('←').append("links/l").append(j % 11).append("/link").append(j).append('\n');
+                    }
+                    zipOutput.write(symlinks.toString().getBytes(StandardCharsets.UTF_8));
+                    zipOutput.closeEntry();
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /** The extraction loop used before {@link BootstrapExtractor}, kept as a reference. */
+    private static void extractSerially(byte[] zip, File targetDir) throws IOException {
+        final byte[] buffer = new byte[8096];
+        final List<String[]> symlinks = new ArrayList<>(50);
+        try (ZipInputStream zipInput = new ZipInputStream(new ByteArrayInputStream(zip))) {
+            ZipEntry zipEntry;
+            while ((zipEntry = zipInput.getNextEntry()) != null) {
+                if (zipEntry.getName().equals(BootstrapExtractor.SYMLINKS_FILE)) {
+                    BufferedReader symlinksReader = new BufferedReader(new InputStreamReader(zipInput, StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = symlinksReader.readLine()) != null) {
+                        String[] parts = line.split("←");
+                        String newPath = targetDir.getAbsolutePath() + "/" + parts[1];
+                        symlinks.add(new String[]{parts[0], newPath});
+                        new File(newPath).getParentFile().mkdirs();
+                    }
+                } else {
+                    String zipEntryName = zipEntry.getName();
+                    File targetFile = new File(targetDir, zipEntryName);
+                    boolean isDirectory = zipEntry.isDirectory();
+                    (isDirectory ? targetFile : targetFile.getParentFile()).mkdirs();
+                    if (!isDirectory) {
+                        try (FileOutputStream outStream = new FileOutputStream(targetFile)) {
+                            int readBytes;
+                            while ((readBytes = zipInput.read(buffer)) != -1)
+                                outStream.write(buffer, 0, readBytes);
+                        }
+                        if (BootstrapExtractor.isExecutableEntry(zipEntryName))
+                            targetFile.setExecutable(true, true);
+                    }
+                }
+            }
+        }
+        for (String[] symlink : symlinks) {
+            Files.createSymbolicLink(new File(symlink[1]).toPath(), new File(symlink[0]).toPath());
+        }
+    }
+
+    private static Map<String, String> describeTree(Path root) throws IOException {
+        Map<String, String> tree = new TreeMap<>();
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                String relative = root.relativize(path).toString();
+                if (Files.isSymbolicLink(path)) {
+                    tree.put(relative, "link:" + Files.readSymbolicLink(path));
+                } else if (Files.isDirectory(path)) {
+                    tree.put(relative, "dir");
+                } else {
+                    tree.put(relative, "file:" + Files.isExecutable(path) + ":" +
+                        Arrays.hashCode(Files.readAllBytes(path)) + ":" + Files.size(path));
+                }
+            }
+        }
+        return tree;
+    }
+}
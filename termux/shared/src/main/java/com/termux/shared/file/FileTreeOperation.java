@@ -0,0 +1,358 @@
+package com.termux.shared.file;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copy or delete a file tree, with the work for each file done on a bounded thread pool.
+ *
+ * The tree is walked with {@link Files#walkFileTree(Path, java.nio.file.FileVisitor)} without
+ * following symlinks, so symlinks, including ones that form loops, are copied or deleted as links
+ * and their targets are never touched. Directories are created while walking and the files in them
+ * are copied by the pool. Permissions and modification times of files and directories are copied,
+ * directory attributes only after their contents have been copied, since adding files changes the
+ * modification time and read only directories could not be written to.
+ *
+ * Special files like fifos, sockets and character or block devices can not be created by the app,
+ * so they are not copied and are reported by {@link #getSkippedFiles()}. They are never opened, since
+ * reading a fifo would block forever.
+ *
+ * The progress is reported to the {@link ProgressListener} and the operation can be cancelled with
+ * {@link #cancel()} from any thread, after which the running and any later copy or delete throw a
+ * {@link CancellationException}. The counters are cumulative if an instance is used for multiple
+ * operations, like the copy and delete of a move.
+ */
+public class FileTreeOperation {
+
+    /** Listener for the progress of a {@link FileTreeOperation}. */
+    public interface ProgressListener {
+        /**
+         * Called after each file has been copied or deleted. This is called from the worker
+         * threads, so it must be thread safe and return quickly.
+         *
+         * @param filesDone The number of files copied or deleted so far.
+         * @param bytesDone The number of bytes of regular files copied or deleted so far.
+         */
+        void onProgress(long filesDone, long bytesDone);
+    }
+
+    /** Regular files at least this large are copied with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}. */
+    public static final long TRANSFER_TO_MIN_FILE_SIZE = 1024 * 1024;
+
+    /** The maximum number of threads used by default. Flash storage does not get faster with more. */
+    public static final int DEFAULT_MAX_PARALLELISM = 4;
+
+    /** The maximum number of exceptions added as suppressed to the thrown exception. */
+    private static final int MAX_SUPPRESSED_EXCEPTIONS = 10;
+
+    private final int mParallelism;
+    @Nullable private final ProgressListener mProgressListener;
+
+    private final AtomicBoolean mCancelled = new AtomicBoolean();
+    private final AtomicLong mFilesDone = new AtomicLong();
+    private final AtomicLong mBytesDone = new AtomicLong();
+    private final List<Path> mSkippedFiles = Collections.synchronizedList(new ArrayList<>());
+
+    public FileTreeOperation(@Nullable ProgressListener progressListener) {
+        this(Math.min(DEFAULT_MAX_PARALLELISM, Runtime.getRuntime().availableProcessors()), progressListener);
+    }
+
+    /**
+     * @param parallelism The number of threads to use. If this is {@code 1}, then all work is done
+     *                    on the calling thread.
+     * @param progressListener The optional listener for progress.
+     */
+    public FileTreeOperation(int parallelism, @Nullable ProgressListener progressListener) {
+        mParallelism = Math.max(1, parallelism);
+        mProgressListener = progressListener;
+    }
+
+    /** Cancel the operation. */
+    public void cancel() {
+        mCancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return mCancelled.get();
+    }
+
+    public long getFilesDone() {
+        return mFilesDone.get();
+    }
+
+    public long getBytesDone() {
+        return mBytesDone.get();
+    }
+
+    /** Get the special files that were not copied. */
+    @NonNull
+    public List<Path> getSkippedFiles() {
+        synchronized (mSkippedFiles) {
+            return new ArrayList<>(mSkippedFiles);
+        }
+    }
+
+    /**
+     * Copy the file tree at {@code src} to {@code dest}, which must not exist.
+     *
+     * If {@code dest} is under {@code src}, then it is excluded from the copy.
+     *
+     * @param src The path of the directory, symlink or file to copy.
+     * @param dest The path to copy to.
+     * @throws IOException If copying any file failed. Other failures are added as suppressed exceptions.
+     * @throws CancellationException If the operation was cancelled.
+     */
+    public void copy(@NonNull final Path src, @NonNull final Path dest) throws IOException {
+        final Path destUnderSrc = getPathUnderSrc(src, dest);
+        final List<Path> srcDirs = new ArrayList<>();
+        final List<Path> destDirs = new ArrayList<>();
+
+        runOnPool(src, (executor, errors) -> new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (shouldStop(errors)) return FileVisitResult.TERMINATE;
+                if (dir.equals(destUnderSrc)) return FileVisitResult.SKIP_SUBTREE;
+
+                Path destDir = dest.resolve(src.relativize(dir).toString());
+                Files.createDirectory(destDir);
+                srcDirs.add(dir);
+                destDirs.add(destDir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (shouldStop(errors)) return FileVisitResult.TERMINATE;
+
+                final Path destFile = dest.resolve(src.relativize(file).toString());
+                if (attrs.isOther()) {
+                    mSkippedFiles.add(file);
+                } else {
+                    executor.execute(() -> runTask(errors, () -> {
+                        copyFile(file, destFile, attrs);
+                        onFileDone(attrs.isRegularFile() ? attrs.size() : 0);
+                    }));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                errors.add(exc);
+                return FileVisitResult.TERMINATE;
+            }
+        });
+
+        // Children are always after their parent, so this sets the attributes of subdirectories first
+        for (int i = srcDirs.size() - 1; i >= 0; i--) {
+            throwIfCancelled();
+            copyAttributes(srcDirs.get(i), destDirs.get(i));
+            onFileDone(0);
+        }
+    }
+
+    /**
+     * Delete the file tree at {@code path}. Symlinks are deleted, but not their targets.
+     *
+     * @param path The path of the directory, symlink or file to delete.
+     * @throws IOException If deleting any file failed. Other failures are added as suppressed exceptions.
+     * @throws CancellationException If the operation was cancelled.
+     */
+    public void delete(@NonNull final Path path) throws IOException {
+        final List<Path> dirs = new ArrayList<>();
+
+        runOnPool(path, (executor, errors) -> new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (shouldStop(errors)) return FileVisitResult.TERMINATE;
+                dirs.add(dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (shouldStop(errors)) return FileVisitResult.TERMINATE;
+                executor.execute(() -> runTask(errors, () -> {
+                    Files.deleteIfExists(file);
+                    onFileDone(attrs.isRegularFile() ? attrs.size() : 0);
+                }));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                // Already deleted by someone else
+                if (!(exc instanceof NoSuchFileException))
+                    errors.add(exc);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // Subdirectories are deleted before their parents
+        for (int i = dirs.size() - 1; i >= 0; i--) {
+            throwIfCancelled();
+            Files.deleteIfExists(dirs.get(i));
+            onFileDone(0);
+        }
+    }
+
+
+    private interface VisitorFactory {
+        SimpleFileVisitor<Path> create(Executor executor, ConcurrentLinkedQueue<IOException> errors);
+    }
+
+    private interface IOTask {
+        void run() throws IOException;
+    }
+
+    /**
+     * Walk the tree at {@code start} with the visitor, which submits the work for files to the pool,
+     * and wait for the pool to finish.
+     */
+    private void runOnPool(Path start, VisitorFactory visitorFactory) throws IOException {
+        throwIfCancelled();
+
+        final ConcurrentLinkedQueue<IOException> errors = new ConcurrentLinkedQueue<>();
+        // With a parallelism of 1 everything runs on the walking thread
+        if (mParallelism == 1) {
+            try {
+                Files.walkFileTree(start, visitorFactory.create(Runnable::run, errors));
+            } catch (IOException e) {
+                errors.add(e);
+            }
+            throwIfCancelled();
+            throwIfFailed(errors);
+            return;
+        }
+
+        // The queue is bounded and tasks run on the walking thread when it is full, so that a tree
+        // of many small files does not queue a task for every file before the workers catch up
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(mParallelism, mParallelism,
+            0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(mParallelism * 64), new ThreadPoolExecutor.CallerRunsPolicy());
+
+        try {
+            Files.walkFileTree(start, visitorFactory.create(executor, errors));
+        } catch (IOException e) {
+            errors.add(e);
+        } finally {
+            executor.shutdown();
+            boolean terminated = false;
+            while (!terminated) {
+                try {
+                    terminated = executor.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    cancel();
+                }
+            }
+        }
+
+        throwIfCancelled();
+        throwIfFailed(errors);
+    }
+
+    private void runTask(ConcurrentLinkedQueue<IOException> errors, IOTask task) {
+        if (shouldStop(errors)) return;
+        try {
+            task.run();
+        } catch (IOException e) {
+            errors.add(e);
+        }
+    }
+
+    private boolean shouldStop(ConcurrentLinkedQueue<IOException> errors) {
+        return mCancelled.get() || !errors.isEmpty();
+    }
+
+    private void onFileDone(long bytes) {
+        long files = mFilesDone.incrementAndGet();
+        long totalBytes = mBytesDone.addAndGet(bytes);
+        if (mProgressListener != null)
+            mProgressListener.onProgress(files, totalBytes);
+    }
+
+    private void throwIfCancelled() {
+        if (mCancelled.get())
+            throw new CancellationException("The file tree operation was cancelled");
+    }
+
+    private static void throwIfFailed(ConcurrentLinkedQueue<IOException> errors) throws IOException {
+        IOException error = errors.poll();
+        if (error == null) return;
+
+        int suppressed = 0;
+        for (IOException e : errors) {
+            if (suppressed++ >= MAX_SUPPRESSED_EXCEPTIONS) break;
+            error.addSuppressed(e);
+        }
+        throw error;
+    }
+
+    /** Get the path of {@code dest} in the tree of {@code src}, or {@code null} if it is not under it. */
+    @Nullable
+    private static Path getPathUnderSrc(Path src, Path dest) throws IOException {
+        Path srcRealPath = src.toRealPath(LinkOption.NOFOLLOW_LINKS);
+        Path destParent = dest.toAbsolutePath().getParent();
+        if (destParent == null || !Files.isDirectory(destParent)) return null;
+
+        Path destRealPath = destParent.toRealPath().resolve(dest.getFileName().toString());
+        if (!destRealPath.startsWith(srcRealPath) || destRealPath.equals(srcRealPath)) return null;
+        return src.resolve(srcRealPath.relativize(destRealPath).toString());
+    }
+
+    private static void copyFile(Path src, Path dest, BasicFileAttributes attrs) throws IOException {
+        if (attrs.isSymbolicLink()) {
+            Files.createSymbolicLink(dest, Files.readSymbolicLink(src));
+            try {
+                Files.getFileAttributeView(dest, BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS)
+                    .setTimes(attrs.lastModifiedTime(), null, null);
+            } catch (IOException | UnsupportedOperationException e) {
+                // Not supported by all filesystems, the link target is what matters
+            }
+        } else if (attrs.size() >= TRANSFER_TO_MIN_FILE_SIZE) {
+            try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(dest, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                long size = in.size();
+                long position = 0;
+                while (position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            }
+            copyAttributes(src, dest);
+        } else {
+            Files.copy(src, dest, LinkOption.NOFOLLOW_LINKS, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    private static void copyAttributes(Path src, Path dest) throws IOException {
+        PosixFileAttributes attrs = Files.readAttributes(src, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        Files.setPosixFilePermissions(dest, attrs.permissions());
+        Files.getFileAttributeView(dest, BasicFileAttributeView.class, LinkOption.NOFOLLOW_LINKS)
+            .setTimes(attrs.lastModifiedTime(), attrs.lastAccessTime(), null);
+    }
+
+}
@@ -31,7 +31,6 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Pattern;
-import kotlin.io.path.PathsKt;
 import org.apache.commons.io.filefilter.AgeFileFilter;
 import org.apache.commons.io.filefilter.IOFileFilter;
 
@@ -1046,6 +1045,27 @@ public class FileUtils {
     public static Error copyOrMoveFile(String label, final String srcFilePath, final String destFilePath,
                                        final boolean moveFile, final boolean ignoreNonExistentSrcFile, int allowedFileTypeFlags,
                                        final boolean overwrite, final boolean overwriteOnlyIfDestSameFileTypeAsSrc) {
+        return copyOrMoveFile(label, srcFilePath, destFilePath, moveFile, ignoreNonExistentSrcFile, allowedFileTypeFlags,
+            overwrite, overwriteOnlyIfDestSameFileTypeAsSrc, null);
+    }
+
+    /**
+     * Copy or move file.
+     *
+     * This function is the same as
+     * {@link #copyOrMoveFile(String, String, String, boolean, boolean, int, boolean, boolean)},
+     * except that the {@link FileTreeOperation} used to copy and delete directories can be passed to
+     * get the progress or to cancel the copy or move from another thread. Directories are copied
+     * and deleted on a bounded thread pool, see {@link FileTreeOperation}.
+     *
+     * @param operation The optional {@link FileTreeOperation} to use for directories. If this is
+     *                  {@code null}, then a new one without a progress listener is used.
+     * @return Returns the {@code error} if copy or move was not successful, otherwise {@code null}.
+     */
+    public static Error copyOrMoveFile(String label, final String srcFilePath, final String destFilePath,
+                                       final boolean moveFile, final boolean ignoreNonExistentSrcFile, int allowedFileTypeFlags,
+                                       final boolean overwrite, final boolean overwriteOnlyIfDestSameFileTypeAsSrc,
+                                       @Nullable FileTreeOperation operation) {
         label = (label == null || label.isEmpty() ? "" : label + " ");
         if (srcFilePath == null || srcFilePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "source file path", "copyOrMoveFile");
         if (destFilePath == null || destFilePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "destination file path", "copyOrMoveFile");
@@ -1053,6 +1073,8 @@ public class FileUtils {
         String mode = (moveFile ? "Moving" : "Copying");
         String modePast = (moveFile ? "moved" : "copied");
 
+        if (operation == null) operation = new FileTreeOperation(null);
+
         Error error;
 
         try {
@@ -1099,7 +1121,7 @@ public class FileUtils {
                     return FileUtilsErrno.ERRNO_CANNOT_OVERWRITE_A_DIFFERENT_FILE_TYPE.getError(label + "source file", mode.toLowerCase(), srcFilePath, destFilePath, destFileType.getName(), srcFileType.getName());
 
                 // Delete the destination file
-                error = deleteFile(label + "destination", destFilePath, true);
+                error = deleteFile(label + "destination", destFilePath, true, false, FileTypes.FILE_TYPE_NORMAL_FLAGS, operation);
                 if (error != null)
                     return error;
             }
@@ -1138,8 +1160,10 @@ public class FileUtils {
                     return error;
 
                 if (srcFileType == FileType.DIRECTORY) {
-                    // Will give runtime exceptions on android < 8 due to missing classes like java.nio.file.Path if org.apache.commons.io version > 2.5
-                    org.apache.commons.io.FileUtils.copyDirectory(srcFile, destFile, true);
+                    // Symlinks under the directory are copied as symlinks and not followed
+                    operation.copy(srcFile.toPath(), destFile.toPath());
+                    if (!operation.getSkippedFiles().isEmpty())
+                        Logger.logWarn(LOG_TAG, "Skipped " + operation.getSkippedFiles().size() + " special files while copying " + label + "source directory: " + operation.getSkippedFiles());
                 } else if (srcFileType == FileType.SYMLINK) {
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                         java.nio.file.Files.copy(srcFile.toPath(), destFile.toPath(), LinkOption.NOFOLLOW_LINKS, StandardCopyOption.REPLACE_EXISTING);
@@ -1163,7 +1187,7 @@ public class FileUtils {
             // If source file had to be moved
             if (moveFile) {
                 // Delete the source file since copying would have succeeded
-                error = deleteFile(label + "source", srcFilePath, true);
+                error = deleteFile(label + "source", srcFilePath, true, false, FileTypes.FILE_TYPE_NORMAL_FLAGS, operation);
                 if (error != null)
                     return error;
             }
@@ -1276,6 +1300,22 @@ public class FileUtils {
      * @return Returns the {@code error} if deletion was not successful, otherwise {@code null}.
      */
     public static Error deleteFile(String label, final String filePath, final boolean ignoreNonExistentFile, final boolean ignoreWrongFileType, int allowedFileTypeFlags) {
+        return deleteFile(label, filePath, ignoreNonExistentFile, ignoreWrongFileType, allowedFileTypeFlags, null);
+    }
+
+    /**
+     * Delete file at path.
+     *
+     * This function is the same as {@link #deleteFile(String, String, boolean, boolean, int)},
+     * except that the {@link FileTreeOperation} used to delete directories can be passed to get the
+     * progress or to cancel the deletion from another thread.
+     *
+     * @param operation The optional {@link FileTreeOperation} to use for directories. If this is
+     *                  {@code null}, then a new one without a progress listener is used.
+     * @return Returns the {@code error} if deletion was not successful, otherwise {@code null}.
+     */
+    public static Error deleteFile(String label, final String filePath, final boolean ignoreNonExistentFile, final boolean ignoreWrongFileType, int allowedFileTypeFlags,
+                                   @Nullable FileTreeOperation operation) {
         label = (label == null || label.isEmpty() ? "" : label + " ");
         if (filePath == null || filePath.isEmpty()) return FunctionErrno.ERRNO_NULL_OR_EMPTY_PARAMETER.getError(label + "file path", "deleteFile");
 
@@ -1310,7 +1350,7 @@ public class FileUtils {
             }
 
             Logger.logVerbose(LOG_TAG, "Deleting " + label + "file at path \"" + filePath + "\"");
-            PathsKt.deleteRecursively(file.toPath());
+            (operation != null ? operation : new FileTreeOperation(null)).delete(file.toPath());
 
             // If file still exists after deleting it
             fileType = getFileType(filePath, false);
@@ -1372,7 +1412,7 @@ public class FileUtils {
             if (fileType == FileType.DIRECTORY) {
                 /* If an exception is thrown, the exception message might not contain the full errors.
                  * Individual failures get added to suppressed throwables. */
-                PathsKt.deleteRecursively(file.toPath());
+                new FileTreeOperation(null).delete(file.toPath());
             }
             // Else create it
             else {
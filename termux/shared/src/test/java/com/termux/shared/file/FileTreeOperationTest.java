@@ -0,0 +1,345 @@
+package com.termux.shared.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FileTreeOperationTest {
+
+    private final Path mRoot;
+
+    public FileTreeOperationTest() throws IOException {
+        mRoot = Files.createTempDirectory("file-tree-operation");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        // Read only directories created by the tests can not be deleted otherwise
+        Files.walkFileTree(mRoot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwx------"));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        new FileTreeOperation(1, null).delete(mRoot);
+    }
+
+    @Test
+    public void testCopyMatchesSerialCopy() throws IOException {
+        Path src = mRoot.resolve("src");
+        createTree(src);
+
+        Path serialDest = mRoot.resolve("serial");
+        serialCopy(src, serialDest);
+
+        FileTreeOperation operation = new FileTreeOperation(4, null);
+        Path dest = mRoot.resolve("dest");
+        operation.copy(src, dest);
+
+        assertEquals(describeTree(serialDest), describeTree(dest));
+        assertEquals(Arrays.asList(src.resolve("a/fifo")), operation.getSkippedFiles());
+
+        // The links must still point to where they did and not be copies of their targets
+        assertEquals(Paths.get(".."), Files.readSymbolicLink(dest.resolve("a/b/loop")));
+        assertEquals(src.resolve("a"), Files.readSymbolicLink(dest.resolve("absolute")));
+        assertFalse(Files.exists(dest.resolve("dangling")));
+    }
+
+    @Test
+    public void testCopyWithParallelismOfOne() throws IOException {
+        Path src = mRoot.resolve("src");
+        createTree(src);
+
+        Path serialDest = mRoot.resolve("serial");
+        serialCopy(src, serialDest);
+
+        Path dest = mRoot.resolve("dest");
+        new FileTreeOperation(1, null).copy(src, dest);
+        assertEquals(describeTree(serialDest), describeTree(dest));
+    }
+
+    @Test
+    public void testCopyExcludesDestUnderSrc() throws IOException {
+        Path src = mRoot.resolve("src");
+        Files.createDirectories(src.resolve("a"));
+        Files.write(src.resolve("a/file"), "a".getBytes());
+
+        Path dest = src.resolve("a/copy");
+        new FileTreeOperation(4, null).copy(src, dest);
+
+        assertEquals("a", new String(Files.readAllBytes(dest.resolve("a/file"))));
+        assertFalse(Files.exists(dest.resolve("a/copy")));
+    }
+
+    @Test
+    public void testCopyFailsIfDestExists() throws IOException {
+        Path src = mRoot.resolve("src");
+        Files.createDirectories(src);
+        Path dest = mRoot.resolve("dest");
+        Files.createDirectories(dest);
+
+        try {
+            new FileTreeOperation(4, null).copy(src, dest);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testDeleteDoesNotFollowLinks() throws IOException {
+        Path outside = mRoot.resolve("outside");
+        Files.createDirectories(outside);
+        Files.write(outside.resolve("file"), "keep".getBytes());
+
+        Path tree = mRoot.resolve("tree");
+        createTree(tree);
+        Files.createSymbolicLink(tree.resolve("a/b/outside"), outside);
+
+        new FileTreeOperation(4, null).delete(tree);
+
+        assertFalse(Files.exists(tree, LinkOption.NOFOLLOW_LINKS));
+        assertEquals("keep", new String(Files.readAllBytes(outside.resolve("file"))));
+    }
+
+    @Test
+    public void testProgress() throws IOException {
+        Path src = mRoot.resolve("src");
+        Files.createDirectories(src.resolve("a"));
+        Files.write(src.resolve("a/1"), new byte[10]);
+        Files.write(src.resolve("a/2"), new byte[20]);
+        Files.createSymbolicLink(src.resolve("a/link"), Paths.get("1"));
+
+        AtomicLong lastFilesDone = new AtomicLong();
+        FileTreeOperation operation = new FileTreeOperation(4, (filesDone, bytesDone) ->
+            lastFilesDone.accumulateAndGet(filesDone, Math::max));
+        operation.copy(src, mRoot.resolve("dest"));
+
+        // 3 files and 2 directories
+        assertEquals(5, operation.getFilesDone());
+        assertEquals(30, operation.getBytesDone());
+        assertEquals(5, lastFilesDone.get());
+
+        // The counters are cumulative
+        operation.delete(mRoot.resolve("dest"));
+        assertEquals(10, operation.getFilesDone());
+        assertEquals(60, operation.getBytesDone());
+    }
+
+    @Test
+    public void testCancel() throws IOException {
+        Path src = mRoot.resolve("src");
+        createSmallFiles(src, 10, 100);
+
+        // The listener cancels the operation it is reporting the progress of
+        FileTreeOperation[] operation = new FileTreeOperation[1];
+        operation[0] = new FileTreeOperation(4, (filesDone, bytesDone) -> {
+            if (filesDone == 50) operation[0].cancel();
+        });
+
+        try {
+            operation[0].copy(src, mRoot.resolve("dest"));
+            fail();
+        } catch (CancellationException e) {
+            // Expected
+        }
+        assertTrue(operation[0].isCancelled());
+        assertTrue(operation[0].getFilesDone() < 1000);
+
+        // Any later operation is cancelled too
+        try {
+            operation[0].delete(mRoot.resolve("dest"));
+            fail();
+        } catch (CancellationException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testCopyAndDelete50kSmallFiles() throws IOException {
+        Path src = mRoot.resolve("src");
+        createSmallFiles(src, 500, 100);
+
+        long start = System.nanoTime();
+        Path serialDest = mRoot.resolve("serial");
+        serialCopy(src, serialDest);
+        long serialCopyTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Path dest = mRoot.resolve("dest");
+        FileTreeOperation operation = new FileTreeOperation(FileTreeOperation.DEFAULT_MAX_PARALLELISM, null);
+        operation.copy(src, dest);
+        long copyTime = System.nanoTime() - start;
+
+        assertEquals(describeTree(serialDest), describeTree(dest));
+        assertEquals(50_000 + 501, operation.getFilesDone());
+
+        start = System.nanoTime();
+        serialDelete(serialDest);
+        long serialDeleteTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        operation.delete(dest);
+        long deleteTime = System.nanoTime() - start;
+        assertFalse(Files.exists(dest));
+
+        System.out.println("50k small files with " + FileTreeOperation.DEFAULT_MAX_PARALLELISM + " threads: copy " +
+            copyTime / 1_000_000 + "ms (serial " + serialCopyTime / 1_000_000 + "ms), delete " +
+            deleteTime / 1_000_000 + "ms (serial " + serialDeleteTime / 1_000_000 + "ms)");
+    }
+
+
+    /**
+     * Create a tree with nested and read only directories, files with different permissions and
+     * sizes, symlinks that form a loop or are dangling, and a fifo if it can be created.
+     */
+    private static void createTree(Path root) throws IOException {
+        Path b = Files.createDirectories(root.resolve("a/b"));
+        Files.write(root.resolve("a/small"), "small".getBytes());
+        Files.write(b.resolve("empty"), new byte[0]);
+
+        byte[] large = new byte[(int) FileTreeOperation.TRANSFER_TO_MIN_FILE_SIZE * 3 + 17];
+        for (int i = 0; i < large.length; i++) large[i] = (byte) (i * 31);
+        Files.write(b.resolve("large"), large);
+
+        Path script = Files.write(root.resolve("a/script"), "#!/bin/sh".getBytes());
+        Files.setPosixFilePermissions(script, PosixFilePermissions.fromString("rwx--x---"));
+
+        Files.createSymbolicLink(b.resolve("loop"), Paths.get(".."));
+        Files.createSymbolicLink(root.resolve("loop1"), Paths.get("loop2"));
+        Files.createSymbolicLink(root.resolve("loop2"), Paths.get("loop1"));
+        Files.createSymbolicLink(root.resolve("absolute"), root.resolve("a"));
+        Files.createSymbolicLink(root.resolve("dangling"), Paths.get("does-not-exist"));
+
+        Path readOnly = Files.createDirectories(root.resolve("read-only"));
+        Files.write(readOnly.resolve("file"), "read only".getBytes());
+
+        mkfifo(root.resolve("a/fifo"));
+
+        Files.setLastModifiedTime(root.resolve("a/small"), FileTime.fromMillis(1_000_000_000_000L));
+        Files.setLastModifiedTime(b, FileTime.fromMillis(1_100_000_000_000L));
+        Files.setPosixFilePermissions(readOnly, PosixFilePermissions.fromString("r-xr-xr-x"));
+    }
+
+    private static void mkfifo(Path path) throws IOException {
+        try {
+            Process process = new ProcessBuilder("mkfifo", path.toString()).start();
+            Assume.assumeTrue(process.waitFor() == 0);
+        } catch (IOException | InterruptedException e) {
+            Assume.assumeNoException(e);
+        }
+    }
+
+    private static void createSmallFiles(Path root, int dirs, int filesPerDir) throws IOException {
+        for (int d = 0; d < dirs; d++) {
+            Path dir = Files.createDirectories(root.resolve("d" + d));
+            for (int f = 0; f < filesPerDir; f++) {
+                Files.write(dir.resolve("f" + f), ("file " + d + " " + f).getBytes());
+            }
+        }
+    }
+
+    /** A straightforward serial copy that the result of {@link FileTreeOperation#copy(Path, Path)} is checked against. */
+    private static void serialCopy(Path src, Path dest) throws IOException {
+        List<Path[]> dirs = new ArrayList<>();
+        Files.walkFileTree(src, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Path destDir = dest.resolve(src.relativize(dir).toString());
+                Files.createDirectory(destDir);
+                dirs.add(new Path[]{dir, destDir});
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (!attrs.isOther()) {
+                    Files.copy(file, dest.resolve(src.relativize(file).toString()),
+                        LinkOption.NOFOLLOW_LINKS, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        for (int i = dirs.size() - 1; i >= 0; i--) {
+            PosixFileAttributes attrs = Files.readAttributes(dirs.get(i)[0], PosixFileAttributes.class);
+            Files.setPosixFilePermissions(dirs.get(i)[1], attrs.permissions());
+            Files.setLastModifiedTime(dirs.get(i)[1], attrs.lastModifiedTime());
+        }
+    }
+
+    private static void serialDelete(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Describe the type, permissions, modification time and content or link target of each file under {@code root}. */
+    private static Map<String, String> describeTree(Path root) throws IOException {
+        Map<String, String> tree = new TreeMap<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                tree.put(root.relativize(dir).toString(), "dir " + describeAttributes(dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String description;
+                if (attrs.isSymbolicLink()) {
+                    description = "link " + Files.readSymbolicLink(file);
+                } else if (attrs.isRegularFile()) {
+                    description = "file " + describeAttributes(file) + " " + Arrays.hashCode(Files.readAllBytes(file));
+                } else {
+                    description = "other";
+                }
+                tree.put(root.relativize(file).toString(), description);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return tree;
+    }
+
+    private static String describeAttributes(Path path) throws IOException {
+        PosixFileAttributes attrs = Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        return PosixFilePermissions.toString(attrs.permissions()) + " " + attrs.lastModifiedTime().toMillis();
+    }
+
+}
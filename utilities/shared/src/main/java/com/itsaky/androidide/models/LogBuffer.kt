@@ -0,0 +1,547 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.models
+
+import androidx.collection.MutableIntObjectMap
+import com.itsaky.androidide.models.LogLineScanner.BOUNDS_SIZE
+import com.itsaky.androidide.models.LogLineScanner.FIELD_DATE
+import com.itsaky.androidide.models.LogLineScanner.FIELD_LEVEL
+import com.itsaky.androidide.models.LogLineScanner.FIELD_MESSAGE
+import com.itsaky.androidide.models.LogLineScanner.FIELD_PID
+import com.itsaky.androidide.models.LogLineScanner.FIELD_TAG
+import com.itsaky.androidide.models.LogLineScanner.FIELD_TID
+import com.itsaky.androidide.models.LogLineScanner.FIELD_TIME
+import com.itsaky.androidide.utils.ILogger
+import com.itsaky.androidide.utils.LogTagUtils
+
+/**
+ * A fixed-capacity ring of structured log records.
+ *
+ * Each record keeps the raw log line and the bounds of its fields, as found by [LogLineScanner].
+ * Records added from a [LogLine] keep its fields as they are, without formatting and scanning the
+ * line again.
+ * The level, tag and pid of each record are indexed when the record is added, so filtering never
+ * parses the log text again. When the buffer is full, the oldest record is evicted along with its
+ * index entries, so the memory used by the buffer is bounded by its [capacity].
+ *
+ * Records are identified by a sequence number which increases monotonically as records are added.
+ * This class is not thread safe.
+ */
+class LogBuffer(val capacity: Int) {
+
+  init {
+    require(capacity > 0) { "capacity must be positive" }
+  }
+
+  private val lines = arrayOfNulls<String>(capacity)
+  private val bounds = IntArray(capacity * BOUNDS_SIZE)
+  private val levels = ByteArray(capacity)
+  private val tagIds = IntArray(capacity)
+  private val pids = IntArray(capacity)
+
+  private val levelIndex = Array(ILogger.Level.values().size) { SeqQueue() }
+  private val pidIndex = MutableIntObjectMap<SeqQueue>()
+  private val tags = TagTable()
+
+  private val scanBounds = IntArray(BOUNDS_SIZE)
+  private val lineBuilder = StringBuilder()
+
+  /** The sequence number of the oldest record in the buffer. */
+  var firstSeq = 0L
+    private set
+
+  /** The sequence number that will be assigned to the next record. */
+  var nextSeq = 0L
+    private set
+
+  /** The number of records in the buffer. */
+  val size: Int
+    get() = (nextSeq - firstSeq).toInt()
+
+  /** The number of distinct tags currently indexed. */
+  val tagCount: Int
+    get() = tags.size
+
+  /** The number of distinct pids currently indexed. */
+  val pidCount: Int
+    get() = pidIndex.size
+
+  /**
+   * Add a raw log line.
+   *
+   * @return The sequence number of the new record.
+   */
+  fun add(line: String): Long {
+    val level = LogLineScanner.scan(line, scanBounds)
+    if (level == null) {
+      return addRecord(line, null, null, NO_PID)
+    }
+
+    val tagStart = scanBounds[FIELD_TAG * 2]
+    val tagEnd = scanBounds[FIELD_TAG * 2 + 1]
+    val pid = LogLineScanner.parsePid(line, scanBounds[FIELD_PID * 2], scanBounds[FIELD_PID * 2 + 1])
+    return addRecord(line, level, null, pid, tagStart, tagEnd)
+  }
+
+  /**
+   * Add the given log line. The fields of formatted lines are stored as they are, so the tag may
+   * contain whitespace or be empty. Missing date, time, pid and tid fields are rendered as `-`.
+   */
+  fun add(line: LogLine): Long {
+    if (!line.formatted) {
+      return add(line.unformatted ?: "")
+    }
+
+    // the fields other than the level and the tag are kept in one string, with their bounds
+    val builder = lineBuilder
+    builder.setLength(0)
+    appendField(builder, FIELD_DATE, line.date ?: "-")
+    appendField(builder, FIELD_TIME, line.time ?: "-")
+    appendField(builder, FIELD_PID, line.pid ?: "-")
+    appendField(builder, FIELD_TID, line.tid ?: "-")
+    appendField(builder, FIELD_LEVEL, "")
+    appendField(builder, FIELD_TAG, "")
+    appendField(builder, FIELD_MESSAGE, line.message ?: "")
+
+    val pid = line.pid?.let { LogLineScanner.parsePid(it, 0, it.length) } ?: NO_PID
+    return addRecord(builder.toString(), line.level ?: ILogger.Level.DEBUG, line.tag ?: "-", pid)
+  }
+
+  private fun appendField(builder: StringBuilder, field: Int, value: String) {
+    if (field != FIELD_DATE) {
+      builder.append(' ')
+    }
+    scanBounds[field * 2] = builder.length
+    builder.append(value)
+    scanBounds[field * 2 + 1] = builder.length
+  }
+
+  /**
+   * Add a record whose field bounds are in [scanBounds]. The tag is looked up in [text] when its
+   * bounds are given, so that known tags do not allocate.
+   */
+  private fun addRecord(
+    text: String,
+    level: ILogger.Level?,
+    tag: String?,
+    pid: Int,
+    tagStart: Int = -1,
+    tagEnd: Int = -1
+  ): Long {
+    if (size == capacity) {
+      evictFirst()
+    }
+
+    val seq = nextSeq++
+    val slot = slot(seq)
+    lines[slot] = text
+
+    if (level == null) {
+      levels[slot] = UNFORMATTED
+      tagIds[slot] = NO_TAG
+      pids[slot] = NO_PID
+      return seq
+    }
+
+    System.arraycopy(scanBounds, 0, bounds, slot * BOUNDS_SIZE, BOUNDS_SIZE)
+    levels[slot] = level.ordinal.toByte()
+    levelIndex[level.ordinal].addLast(seq)
+
+    val tagId = if (tagStart >= 0) tags.acquire(text, tagStart, tagEnd) else tags.acquire(tag!!)
+    tagIds[slot] = tagId
+    tags.queue(tagId).addLast(seq)
+
+    pids[slot] = pid
+    if (pid != NO_PID) {
+      var queue = pidIndex[pid]
+      if (queue == null) {
+        queue = SeqQueue()
+        pidIndex[pid] = queue
+      }
+      queue.addLast(seq)
+    }
+
+    return seq
+  }
+
+  /** Remove all the records. Sequence numbers are not reused. */
+  fun clear() {
+    while (size > 0) {
+      evictFirst()
+    }
+  }
+
+  /** Whether the given sequence number refers to a record which is still in the buffer. */
+  operator fun contains(seq: Long): Boolean = seq in firstSeq until nextSeq
+
+  /**
+   * Get the raw log line of the given record. For records added from a [LogLine], this only
+   * contains the fields other than the level and the tag.
+   */
+  fun line(seq: Long): String = lines[checkedSlot(seq)]!!
+
+  /** Get the level of the given record, or `null` if the record is not a formatted log line. */
+  fun level(seq: Long): ILogger.Level? {
+    val level = levels[checkedSlot(seq)]
+    return if (level == UNFORMATTED) null else LEVELS[level.toInt()]
+  }
+
+  /** Get the tag of the given record, or `null` if the record is not a formatted log line. */
+  fun tag(seq: Long): String? {
+    val tagId = tagIds[checkedSlot(seq)]
+    return if (tagId == NO_TAG) null else tags.name(tagId)
+  }
+
+  /** Get the pid of the given record, or `-1` if it is not known. */
+  fun pid(seq: Long): Int = pids[checkedSlot(seq)]
+
+  /** Whether the given record matches the filter. */
+  fun matches(seq: Long, filter: LogFilter): Boolean {
+    val slot = checkedSlot(seq)
+    return matchesSlot(slot, filter, if (filter.tag == null) NO_TAG else tags.find(filter.tag))
+  }
+
+  /**
+   * Find the most recent records that match the given filter.
+   *
+   * The smallest index which applies to the filter is walked backwards from the newest record, and
+   * the remaining criteria are checked against the stored columns.
+   *
+   * @param limit The maximum number of records to return.
+   * @return The sequence numbers of the matching records, oldest first.
+   */
+  fun query(filter: LogFilter, limit: Int = capacity): LongArray {
+    if (limit <= 0 || size == 0) {
+      return EMPTY
+    }
+
+    val tagId = if (filter.tag == null) NO_TAG else tags.find(filter.tag)
+    if (filter.tag != null && tagId == NO_TAG) {
+      return EMPTY
+    }
+
+    var candidates: SeqQueue? = null
+    if (filter.level != null) {
+      candidates = levelIndex[filter.level.ordinal]
+    }
+    if (tagId != NO_TAG) {
+      candidates = smaller(candidates, tags.queue(tagId))
+    }
+    if (filter.pid != NO_PID) {
+      candidates = smaller(candidates, pidIndex[filter.pid] ?: return EMPTY)
+    }
+
+    val result = LongArray(minOf(limit, candidates?.size ?: size))
+    var count = 0
+    if (candidates == null) {
+      var seq = nextSeq - 1
+      while (seq >= firstSeq && count < result.size) {
+        result[count++] = seq--
+      }
+    } else {
+      var i = candidates.size - 1
+      while (i >= 0 && count < result.size) {
+        val seq = candidates[i--]
+        if (matchesSlot(slot(seq), filter, tagId)) {
+          result[count++] = seq
+        }
+      }
+    }
+
+    result.reverse(0, count)
+    return if (count == result.size) result else result.copyOf(count)
+  }
+
+  /**
+   * Append the given record to [out], formatted the same way as [LogLine.toString], or
+   * [LogLine.toSimpleString] if [simple] is `true`. A line separator is not appended.
+   */
+  fun render(seq: Long, simple: Boolean, out: StringBuilder) {
+    val slot = checkedSlot(seq)
+    val line = lines[slot]!!
+    if (levels[slot] == UNFORMATTED) {
+      out.append(line)
+      return
+    }
+
+    val offset = slot * BOUNDS_SIZE
+    val levelChar = LEVELS[levels[slot].toInt()].levelChar
+    val tag = LogTagUtils.trimTagIfNeeded(tags.name(tagIds[slot]), 25)
+    if (!simple) {
+      appendField(line, offset, FIELD_DATE, out).append(' ')
+      appendField(line, offset, FIELD_TIME, out).append(' ')
+      appendField(line, offset, FIELD_PID, out).append(' ')
+      appendField(line, offset, FIELD_TID, out).append(' ')
+      pad(out.append(levelChar), 1, 2).append(' ')
+      pad(out.append(tag), tag.length, 25).append(' ')
+    } else {
+      pad(out.append(tag), tag.length, 25).append(' ')
+      pad(out.append(levelChar), 1, 2).append(' ')
+    }
+    appendField(line, offset, FIELD_MESSAGE, out)
+  }
+
+  /** Render the given records, each followed by a new line. */
+  fun render(seqs: LongArray, simple: Boolean, out: StringBuilder = StringBuilder()): StringBuilder {
+    for (seq in seqs) {
+      render(seq, simple, out)
+      out.append('\n')
+    }
+    return out
+  }
+
+  private fun appendField(line: String, offset: Int, field: Int, out: StringBuilder): StringBuilder {
+    return out.append(line, bounds[offset + field * 2], bounds[offset + field * 2 + 1])
+  }
+
+  private fun pad(out: StringBuilder, length: Int, width: Int): StringBuilder {
+    for (i in length until width) {
+      out.append(' ')
+    }
+    return out
+  }
+
+  private fun matchesSlot(slot: Int, filter: LogFilter, tagId: Int): Boolean {
+    if (filter.isEmpty) {
+      return true
+    }
+
+    val level = levels[slot]
+    if (level == UNFORMATTED) {
+      // unformatted lines do not have a level, tag or pid
+      return false
+    }
+
+    return (filter.level == null || filter.level.ordinal == level.toInt())
+        && (filter.tag == null || tagId == tagIds[slot])
+        && (filter.pid == NO_PID || filter.pid == pids[slot])
+  }
+
+  private fun evictFirst() {
+    val seq = firstSeq++
+    val slot = slot(seq)
+    lines[slot] = null
+
+    val level = levels[slot]
+    if (level == UNFORMATTED) {
+      return
+    }
+
+    // records are added in order, so the evicted record is always at the head of its indexes
+    levelIndex[level.toInt()].removeFirst(seq)
+
+    val tagId = tagIds[slot]
+    tags.queue(tagId).removeFirst(seq)
+    tags.release(tagId)
+
+    val pid = pids[slot]
+    if (pid != NO_PID) {
+      val queue = pidIndex[pid]!!
+      queue.removeFirst(seq)
+      if (queue.size == 0) {
+        pidIndex.remove(pid)
+      }
+    }
+  }
+
+  private fun slot(seq: Long): Int = (seq % capacity).toInt()
+
+  private fun checkedSlot(seq: Long): Int {
+    require(seq in this) { "Record $seq is not in the buffer [$firstSeq, $nextSeq)" }
+    return slot(seq)
+  }
+
+  private fun smaller(a: SeqQueue?, b: SeqQueue): SeqQueue {
+    return if (a == null || b.size < a.size) b else a
+  }
+
+  /**
+   * Criteria to filter the records of a [LogBuffer]. Unformatted log lines only match an empty
+   * filter.
+   *
+   * @property level Match records with this level, or any level if `null`.
+   * @property tag Match records with this exact tag, or any tag if `null`.
+   * @property pid Match records with this pid, or any pid if `-1`.
+   */
+  data class LogFilter(
+    val level: ILogger.Level? = null,
+    val tag: String? = null,
+    val pid: Int = NO_PID
+  ) {
+
+    val isEmpty: Boolean
+      get() = level == null && tag == null && pid == NO_PID
+
+    companion object {
+
+      @JvmField
+      val NONE = LogFilter()
+    }
+  }
+
+  /** A growable ring of increasing sequence numbers. */
+  private class SeqQueue {
+
+    private var seqs = LongArray(8)
+    private var head = 0
+    var size = 0
+      private set
+
+    operator fun get(index: Int): Long = seqs[(head + index) and (seqs.size - 1)]
+
+    fun addLast(seq: Long) {
+      if (size == seqs.size) {
+        val grown = LongArray(seqs.size * 2)
+        for (i in 0 until size) {
+          grown[i] = get(i)
+        }
+        seqs = grown
+        head = 0
+      }
+      seqs[(head + size) and (seqs.size - 1)] = seq
+      ++size
+    }
+
+    fun removeFirst(expected: Long) {
+      check(size > 0 && seqs[head] == expected) { "Index is out of sync with the buffer" }
+      head = (head + 1) and (seqs.size - 1)
+      --size
+      if (size == 0) {
+        // release the memory of queues which were only needed for a burst
+        if (seqs.size > 64) {
+          seqs = LongArray(8)
+        }
+        head = 0
+      }
+    }
+  }
+
+  /**
+   * Interns tags by id. Tags are looked up by a range of a log line, so looking up a tag which is
+   * already known does not allocate. Tags are removed once no record refers to them.
+   */
+  private class TagTable {
+
+    // keyed by String, but looked up with RangeKey as well
+    private val ids = HashMap<Any, Int>()
+    private var names = arrayOfNulls<String>(16)
+    private var refs = IntArray(16)
+    private var queues = arrayOfNulls<SeqQueue>(16)
+    private var freeIds = IntArray(16)
+    private var freeCount = 0
+    private var nextId = 0
+    private val probe = RangeKey()
+
+    val size: Int
+      get() = ids.size
+
+    fun find(tag: String): Int = ids[tag] ?: NO_TAG
+
+    fun acquire(tag: String): Int = acquire(tag, 0, tag.length)
+
+    fun acquire(line: String, start: Int, end: Int): Int {
+      val existing = ids[probe.set(line, start, end)]
+      probe.clear()
+
+      val id = existing ?: newId(line.substring(start, end))
+      ++refs[id]
+      return id
+    }
+
+    fun release(id: Int) {
+      if (--refs[id] == 0) {
+        ids.remove(names[id]!!)
+        names[id] = null
+        queues[id] = null
+        if (freeCount == freeIds.size) {
+          freeIds = freeIds.copyOf(freeCount * 2)
+        }
+        freeIds[freeCount++] = id
+      }
+    }
+
+    fun name(id: Int): String = names[id]!!
+
+    fun queue(id: Int): SeqQueue = queues[id]!!
+
+    private fun newId(name: String): Int {
+      val id = if (freeCount > 0) {
+        freeIds[--freeCount]
+      } else {
+        if (nextId == names.size) {
+          names = names.copyOf(nextId * 2)
+          refs = refs.copyOf(nextId * 2)
+          queues = queues.copyOf(nextId * 2)
+        }
+        nextId++
+      }
+
+      names[id] = name
+      queues[id] = SeqQueue()
+      ids[name] = id
+      return id
+    }
+  }
+
+  /**
+   * A view of a range of a string which is equal to, and has the same hash code as, the string
+   * with the same characters. Used to look up map entries keyed by strings without allocating.
+   */
+  private class RangeKey {
+
+    private var source: String = ""
+    private var start = 0
+    private var end = 0
+    private var hash = 0
+
+    fun set(source: String, start: Int, end: Int): RangeKey {
+      this.source = source
+      this.start = start
+      this.end = end
+
+      var h = 0
+      for (i in start until end) {
+        h = 31 * h + source[i].code
+      }
+      this.hash = h
+      return this
+    }
+
+    fun clear() {
+      this.source = ""
+    }
+
+    override fun hashCode(): Int = hash
+
+    override fun equals(other: Any?): Boolean {
+      if (other !is String) return false
+      val length = end - start
+      return other.length == length && source.regionMatches(start, other, 0, length)
+    }
+  }
+
+  companion object {
+
+    private const val UNFORMATTED: Byte = -1
+    private const val NO_TAG = -1
+    private const val NO_PID = -1
+
+    private val LEVELS = ILogger.Level.values()
+    private val EMPTY = LongArray(0)
+  }
+}
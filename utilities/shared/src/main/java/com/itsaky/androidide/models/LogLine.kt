@@ -105,6 +105,12 @@ class LogLine private constructor() : DefaultRecyclable() {
 
   companion object {
 
+    private val scanBounds = ThreadLocal.withInitial { IntArray(LogLineScanner.BOUNDS_SIZE) }
+
+    private fun String.field(bounds: IntArray, field: Int): String {
+      return substring(bounds[field * 2], bounds[field * 2 + 1])
+    }
+
     // do not cache too many LogLine items
     // LogLines should be recycled as soon as they are appended to the log view
     private val logLinePool = newRecyclableObjectPool(
@@ -130,20 +136,22 @@ class LogLine private constructor() : DefaultRecyclable() {
         return null
       }
       val logLine = logLinePool.obtain()
-      try {
-        val split = log.split("\\s".toRegex(), limit = 7).toTypedArray()
-        logLine.level = ILogger.Level.forChar(split[4][0])
-        logLine.date = split[0]
-        logLine.time = split[1] // time
-        logLine.pid = split[2] // process id
-        logLine.tid = split[3] // thread id
-        logLine.tag = split[5] // tag
-        logLine.message = split[6] // message
-        logLine.formatted = true
-      } catch (th: Throwable) { // do not log the exception with ILogger
+      val bounds = scanBounds.get()!!
+      val level = LogLineScanner.scan(log, bounds)
+      if (level == null) {
         logLine.unformatted = log
         logLine.formatted = false
+        return logLine
       }
+
+      logLine.level = level
+      logLine.date = log.field(bounds, LogLineScanner.FIELD_DATE)
+      logLine.time = log.field(bounds, LogLineScanner.FIELD_TIME)
+      logLine.pid = log.field(bounds, LogLineScanner.FIELD_PID)
+      logLine.tid = log.field(bounds, LogLineScanner.FIELD_TID)
+      logLine.tag = log.field(bounds, LogLineScanner.FIELD_TAG)
+      logLine.message = log.field(bounds, LogLineScanner.FIELD_MESSAGE)
+      logLine.formatted = true
       return logLine
     }
   }
@@ -0,0 +1,113 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.models
+
+import com.itsaky.androidide.utils.ILogger
+
+/**
+ * Hand-written scanner for log lines in the `date time pid tid level tag message` format.
+ *
+ * Fields are separated by exactly one whitespace character, and everything after the sixth
+ * separator is the message. This matches splitting the line with `\s` and a limit of `7`, without
+ * compiling a regex or allocating the intermediate array and strings.
+ */
+object LogLineScanner {
+
+  const val FIELD_DATE = 0
+  const val FIELD_TIME = 1
+  const val FIELD_PID = 2
+  const val FIELD_TID = 3
+  const val FIELD_LEVEL = 4
+  const val FIELD_TAG = 5
+  const val FIELD_MESSAGE = 6
+
+  /** The number of fields in a formatted log line. */
+  const val FIELD_COUNT = 7
+
+  /** The size of the array required by [scan]. */
+  const val BOUNDS_SIZE = FIELD_COUNT * 2
+
+  /**
+   * Scan the given line and store the start (inclusive) and end (exclusive) index of each field
+   * in [bounds], at `field * 2` and `field * 2 + 1` respectively.
+   *
+   * @return The level of the log line, or `null` if the line is not a formatted log line. The
+   * contents of [bounds] are unspecified in that case.
+   */
+  @JvmStatic
+  fun scan(line: CharSequence, bounds: IntArray): ILogger.Level? {
+    require(bounds.size >= BOUNDS_SIZE) { "bounds must have at least $BOUNDS_SIZE elements" }
+
+    val length = line.length
+    var start = 0
+    var field = 0
+    var index = 0
+    while (field < FIELD_COUNT - 1) {
+      while (index < length && !isWhitespace(line[index])) {
+        ++index
+      }
+
+      if (index == length) {
+        // less than 7 fields
+        return null
+      }
+
+      bounds[field * 2] = start
+      bounds[field * 2 + 1] = index
+      ++field
+      start = ++index
+    }
+
+    bounds[FIELD_MESSAGE * 2] = start
+    bounds[FIELD_MESSAGE * 2 + 1] = length
+
+    if (bounds[FIELD_LEVEL * 2] == bounds[FIELD_LEVEL * 2 + 1]) {
+      return null
+    }
+
+    return try {
+      ILogger.Level.forChar(line[bounds[FIELD_LEVEL * 2]])
+    } catch (e: IllegalArgumentException) {
+      null
+    }
+  }
+
+  /** Whitespace as defined by the `\s` regex character class. */
+  @JvmStatic
+  fun isWhitespace(c: Char): Boolean {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\u000C' || c == '\r'
+  }
+
+  /** Parse the decimal integer in the given range, or return `-1` if it is not a valid pid. */
+  @JvmStatic
+  fun parsePid(line: CharSequence, start: Int, end: Int): Int {
+    if (start >= end || end - start > 9) {
+      return -1
+    }
+
+    var value = 0
+    for (i in start until end) {
+      val c = line[i]
+      if (c < '0' || c > '9') {
+        return -1
+      }
+      value = value * 10 + (c - '0')
+    }
+    return value
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.models
+
+import com.google.common.truth.Truth.assertThat
+import com.itsaky.androidide.models.LogBuffer.LogFilter
+import com.itsaky.androidide.utils.ILogger
+import org.junit.Test
+
+class LogBufferTest {
+
+  @Test
+  fun testRender() {
+    val buffer = LogBuffer(4)
+    val seq = buffer.add("2024-01-01 12:00:00.123 1234 5678 W SomeTag message")
+    val raw = buffer.add("not a log line")
+
+    val line = LogLine.forLogString(buffer.line(seq))!!
+    assertThat(buffer.render(longArrayOf(seq), false).toString()).isEqualTo("$line\n")
+    assertThat(buffer.render(longArrayOf(seq), true).toString()).isEqualTo("${line.toSimpleString()}\n")
+    assertThat(buffer.render(longArrayOf(raw), false).toString()).isEqualTo("not a log line\n")
+    line.recycle()
+
+    val structured = LogLine.obtain(ILogger.Level.ERROR, "Tag", "from LogLine")
+    val structuredSeq = buffer.add(structured)
+    assertThat(buffer.level(structuredSeq)).isEqualTo(ILogger.Level.ERROR)
+    assertThat(buffer.tag(structuredSeq)).isEqualTo("Tag")
+    structured.recycle()
+  }
+
+  @Test
+  fun testLogLineFieldsAreKeptAsTheyAre() {
+    val buffer = LogBuffer(8)
+    val spaced = LogLine.obtain(ILogger.Level.INFO, "My Tag", "with spaces")
+    val empty = LogLine.obtain(ILogger.Level.WARNING, "", "empty tag")
+    val spacedSeq = buffer.add(spaced)
+    val emptySeq = buffer.add(empty)
+
+    assertThat(buffer.tag(spacedSeq)).isEqualTo("My Tag")
+    assertThat(buffer.level(spacedSeq)).isEqualTo(ILogger.Level.INFO)
+    assertThat(buffer.tag(emptySeq)).isEqualTo("")
+    assertThat(buffer.level(emptySeq)).isEqualTo(ILogger.Level.WARNING)
+
+    assertThat(buffer.query(LogFilter(tag = "My Tag")).toList()).containsExactly(spacedSeq)
+    assertThat(buffer.query(LogFilter(tag = "")).toList()).containsExactly(emptySeq)
+    assertThat(buffer.query(LogFilter(tag = "My")).toList()).isEmpty()
+
+    assertThat(buffer.render(longArrayOf(spacedSeq), true).toString())
+      .isEqualTo("${spaced.toSimpleString()}\n")
+    assertThat(buffer.render(longArrayOf(emptySeq), false).toString())
+      .isEqualTo("- - - - W  ${" ".repeat(25)} empty tag\n")
+
+    spaced.recycle()
+    empty.recycle()
+  }
+
+  @Test
+  fun testFilterMatchesFullScan() {
+    val buffer = LogBuffer(1000)
+    repeat(5000) { i -> buffer.add(logLine(i)) }
+
+    val filters = listOf(
+      LogFilter.NONE,
+      LogFilter(level = ILogger.Level.ERROR),
+      LogFilter(tag = "Tag3"),
+      LogFilter(pid = 1002),
+      LogFilter(level = ILogger.Level.DEBUG, tag = "Tag7", pid = 1001),
+      LogFilter(tag = "Unknown"),
+      LogFilter(pid = 1)
+    )
+
+    for (filter in filters) {
+      val expected = (buffer.firstSeq until buffer.nextSeq).filter { seq ->
+        val line = LogLine.forLogString(buffer.line(seq))!!
+        val matches = filter.isEmpty || (line.formatted
+            && (filter.level == null || filter.level == line.level)
+            && (filter.tag == null || filter.tag == line.tag)
+            && (filter.pid == -1 || filter.pid.toString() == line.pid))
+        line.recycle()
+        matches
+      }
+
+      assertThat(buffer.query(filter).toList()).isEqualTo(expected)
+      assertThat(buffer.query(filter, limit = 10).toList()).isEqualTo(expected.takeLast(10))
+    }
+  }
+
+  @Test
+  fun testMemoryStaysBounded() {
+    val capacity = 10_000
+    val buffer = LogBuffer(capacity)
+    val runtime = Runtime.getRuntime()
+
+    fun usedMemory(): Long {
+      repeat(3) { System.gc() }
+      return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    // fill the buffer once, then measure the memory after feeding 1M lines
+    repeat(capacity) { i -> buffer.add(logLine(i)) }
+    val filled = usedMemory()
+
+    val start = System.nanoTime()
+    for (i in capacity until 1_000_000) {
+      // every line has a new tag, so tags must be released when their records are evicted
+      buffer.add(if (i % 100 == 0) "unformatted line $i" else logLine(i, tag = "Tag$i"))
+    }
+    val elapsed = System.nanoTime() - start
+    val used = usedMemory()
+
+    println("1M lines in ${elapsed / 1_000_000}ms, retained ${(used - filled) / 1024} KiB more than a full buffer")
+
+    assertThat(buffer.size).isEqualTo(capacity)
+    assertThat(buffer.firstSeq).isEqualTo(1_000_000L - capacity)
+    assertThat(buffer.tagCount).isAtMost(capacity)
+    assertThat(buffer.pidCount).isAtMost(10)
+    assertThat(buffer.query(LogFilter(tag = "Tag999999")).toList()).containsExactly(999_999L)
+    // the retained memory does not depend on the number of lines that were added
+    assertThat(used - filled).isLessThan(16L * 1024 * 1024)
+  }
+
+  private fun logLine(i: Int, tag: String = "Tag${i % 10}"): String {
+    return "2024-01-01 12:00:00.000 ${1000 + i % 3} ${2000 + i % 5} ${"DWEIV"[i % 5]} $tag message $i"
+  }
+}
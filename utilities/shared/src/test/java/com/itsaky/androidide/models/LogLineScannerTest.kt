@@ -0,0 +1,114 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.models
+
+import com.google.common.truth.Truth.assertThat
+import com.itsaky.androidide.utils.ILogger
+import org.junit.Test
+import kotlin.random.Random
+
+class LogLineScannerTest {
+
+  @Test
+  fun testFormattedLine() {
+    val line = LogLine.forLogString("2024-01-01 12:00:00.123 1234 5678 W SomeTag some  message with\tspaces")!!
+    assertThat(line.formatted).isTrue()
+    assertThat(line.date).isEqualTo("2024-01-01")
+    assertThat(line.time).isEqualTo("12:00:00.123")
+    assertThat(line.pid).isEqualTo("1234")
+    assertThat(line.tid).isEqualTo("5678")
+    assertThat(line.level).isEqualTo(ILogger.Level.WARNING)
+    assertThat(line.tag).isEqualTo("SomeTag")
+    assertThat(line.message).isEqualTo("some  message with\tspaces")
+    line.recycle()
+  }
+
+  @Test
+  fun testUnformattedLines() {
+    for (log in listOf("", "not a log line", "a b c d e f", "a b c d  f g", "a b c d X f g")) {
+      val line = LogLine.forLogString(log)!!
+      assertThat(line.formatted).isFalse()
+      assertThat(line.unformatted).isEqualTo(log)
+      line.recycle()
+    }
+  }
+
+  @Test
+  fun testMatchesRegexSplit() {
+    val random = Random(42)
+    val alphabet = "ab DWEIVTx\t1:-"
+    val bounds = IntArray(LogLineScanner.BOUNDS_SIZE)
+    repeat(100_000) {
+      val log = buildString {
+        repeat(random.nextInt(30)) { append(alphabet[random.nextInt(alphabet.length)]) }
+      }
+
+      val expected = parseWithRegex(log)
+      val level = LogLineScanner.scan(log, bounds)
+      if (expected == null) {
+        assertThat(level).isNull()
+        return@repeat
+      }
+
+      assertThat(level).isEqualTo(ILogger.Level.forChar(expected[4][0]))
+      for (field in 0 until LogLineScanner.FIELD_COUNT) {
+        assertThat(log.substring(bounds[field * 2], bounds[field * 2 + 1])).isEqualTo(expected[field])
+      }
+    }
+  }
+
+  @Test
+  fun benchmarkParsing() {
+    val lines = Array(200_000) { i ->
+      "2024-01-01 12:00:${i % 60}.123 ${1000 + i % 7} ${2000 + i % 13} ${"DWEIV"[i % 5]} Tag${i % 50} message number $i with some text"
+    }
+    val bounds = IntArray(LogLineScanner.BOUNDS_SIZE)
+
+    // warm up both implementations
+    repeat(3) {
+      lines.forEach { parseWithRegex(it) }
+      lines.forEach { LogLineScanner.scan(it, bounds) }
+    }
+
+    var start = System.nanoTime()
+    var regexFields = 0
+    lines.forEach { regexFields += parseWithRegex(it)!!.size }
+    val regexNanos = System.nanoTime() - start
+
+    start = System.nanoTime()
+    var scannedLines = 0
+    lines.forEach { if (LogLineScanner.scan(it, bounds) != null) ++scannedLines }
+    val scanNanos = System.nanoTime() - start
+
+    println("regex split: ${regexNanos / lines.size} ns/line, scanner: ${scanNanos / lines.size} ns/line")
+    assertThat(regexFields).isEqualTo(lines.size * LogLineScanner.FIELD_COUNT)
+    assertThat(scannedLines).isEqualTo(lines.size)
+  }
+
+  /** The parsing that was used by [LogLine.forLogString] before [LogLineScanner]. */
+  private fun parseWithRegex(log: String): Array<String>? {
+    return try {
+      val split = log.split("\\s".toRegex(), limit = 7).toTypedArray()
+      ILogger.Level.forChar(split[4][0])
+      split[6]
+      split
+    } catch (th: Throwable) {
+      null
+    }
+  }
+}
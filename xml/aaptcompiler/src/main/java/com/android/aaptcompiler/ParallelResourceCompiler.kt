@@ -0,0 +1,318 @@
+@file:JvmName("ParallelResourceCompiler")
+
+package com.android.aaptcompiler
+
+import com.itsaky.androidide.layoutlib.resources.ResourceVisibility
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Name of the file in the output directory of [compileResources] which records the content hash
+ * of every compiled file.
+ */
+const val COMPILE_CACHE_FILE_NAME = "compile-cache.txt"
+
+private const val HASH_ALGORITHM = "SHA-256"
+
+/**
+ * The result of [compileResources].
+ *
+ * @param compiled The files which were compiled.
+ * @param upToDate The files which were skipped because their compiled output was up to date.
+ */
+data class ResourceCompileResult(val compiled: List<File>, val upToDate: List<File>)
+
+/** The default number of worker threads used by [compileResources] and [compileValuesTable]. */
+fun defaultCompileParallelism(): Int = Runtime.getRuntime().availableProcessors().coerceIn(1, 8)
+
+/**
+ * Compiles the given resource files to the output directory, each to the same container that
+ * [compileResource] would write. Hidden files are skipped.
+ *
+ * The files of a `res/` tree do not depend on each other, so they are compiled on a pool of
+ * [parallelism] worker threads. The content hash of each compiled file is recorded in
+ * [COMPILE_CACHE_FILE_NAME] in the output directory, and a file is not compiled again as long as
+ * its hash, the compiler options and the tool fingerprint are unchanged and its output still
+ * exists.
+ *
+ * As the options are shared by all files, [ResourceCompilerOptions.partialRFile] and
+ * [ResourceCompilerOptions.sourcePath] must not be set. The given logger is used from all worker
+ * threads.
+ *
+ * @throws ResourceCompilationException if a file fails to compile. The files which were compiled
+ *   before the failure are still recorded in the cache.
+ */
+fun compileResources(
+  files: Collection<File>,
+  outputDirectory: File,
+  options: ResourceCompilerOptions,
+  logger: BlameLogger,
+  parallelism: Int = defaultCompileParallelism()
+): ResourceCompileResult {
+  require(options.partialRFile == null && options.sourcePath == null) {
+    "partialRFile and sourcePath only apply to a single file."
+  }
+
+  val sources = files.filter { file ->
+    if (file.isHidden) {
+      logger.warning("Omitting file ${file.absolutePath} because it is hidden.")
+    }
+    !file.isHidden
+  }
+
+  val outputNames = HashMap<String, File>()
+  for (file in sources) {
+    val previous = outputNames.put(extractPathData(file).getIntermediateContainerFilename(), file)
+    require(previous == null) {
+      "${previous!!.absolutePath} and ${file.absolutePath} compile to the same output file."
+    }
+  }
+
+  outputDirectory.mkdirs()
+  val cache = CompileCache(File(outputDirectory, COMPILE_CACHE_FILE_NAME))
+  val optionsKey = options.toString()
+
+  val compiled = mutableListOf<File>()
+  val upToDate = mutableListOf<File>()
+  try {
+    val results = runInParallel(sources, parallelism) { file ->
+      val outputName = extractPathData(file).getIntermediateContainerFilename()
+      val hash = contentHash(file, optionsKey)
+      if (cache.isUpToDate(outputName, hash, outputDirectory)) {
+        return@runInParallel false
+      }
+
+      // Forget the old hash first, the output is stale from now on even if compiling fails.
+      cache.remove(outputName)
+      compileResource(file, outputDirectory, options, logger)
+      cache.put(outputName, hash)
+      true
+    }
+    sources.forEachIndexed { index, file ->
+      if (results[index]) compiled += file else upToDate += file
+    }
+  } finally {
+    cache.save()
+  }
+
+  return ResourceCompileResult(compiled, upToDate)
+}
+
+/**
+ * Extracts the resources of the given xml values files into a single [ResourceTable].
+ *
+ * Every file is extracted into a table of its own on a pool of [parallelism] worker threads, as
+ * [compileResource] does. The per-file tables are then merged in the order of [files], so the
+ * merged table does not depend on how the work was scheduled, and values that collide across
+ * files are resolved, and visibilities checked, in the same order as when extracting the files
+ * one after the other into one table. The merged values keep their references into the string
+ * pools of the per-file tables, which is all the proto serialization needs.
+ *
+ * As with [compileResource] the compilation package is created and the table is sorted.
+ *
+ * @throws ResourceCompilationException if a file fails to compile or its resources conflict with
+ *   the resources of a previous file.
+ */
+fun compileValuesTable(
+  files: Collection<File>,
+  options: ResourceCompilerOptions,
+  logger: BlameLogger,
+  parallelism: Int = defaultCompileParallelism()
+): ResourceTable {
+  require(options.partialRFile == null && options.sourcePath == null) {
+    "partialRFile and sourcePath only apply to a single file."
+  }
+
+  val tables = runInParallel(files.toList(), parallelism) { file ->
+    val pathData = extractPathData(file)
+    require(pathData.resourceDirectory == VALUES_DIRECTORY_PREFIX &&
+      pathData.extension == XML_EXTENSION) {
+      "${file.absolutePath} is not a values file."
+    }
+    extractTable(pathData, options, logger)
+  }
+
+  val table = ResourceTable(logger = logger)
+  files.forEachIndexed { index, file ->
+    if (!mergeTable(table, tables[index])) {
+      throw ResourceCompilationException(
+        "Failed to merge values resource file $file", null
+      )
+    }
+  }
+
+  // Ensure we have the compilation package at least.
+  table.createPackage("")
+  table.sort()
+  return table
+}
+
+/**
+ * Adds everything declared in [other] to [table], through the same calls the [TableExtractor]
+ * makes, so that collisions and visibility clashes are handled as if [other] had been extracted
+ * into [table] directly.
+ *
+ * @return false if any resource could not be added, the errors are logged by [table].
+ */
+private fun mergeTable(table: ResourceTable, other: ResourceTable): Boolean {
+  var success = true
+  for (tablePackage in other.packages) {
+    for (group in tablePackage.groups) {
+      for (entriesById in group.entries.values) {
+        for (entry in entriesById.values) {
+          val name = ResourceName(tablePackage.name, group.type, entry.name)
+          val packageId = tablePackage.id
+          val groupId = group.id
+          val entryId = entry.id
+          val id =
+            if (packageId != null && groupId != null && entryId != null) {
+              resourceIdFromParts(packageId, groupId, entryId)
+            } else {
+              0
+            }
+
+          if (entry.visibility.level != ResourceVisibility.UNDEFINED) {
+            success = table.setVisibilityWithId(name, entry.visibility, id) && success
+          }
+
+          val allowNew = entry.allowNew
+          if (allowNew != null) {
+            success = table.setAllowNew(name, allowNew) && success
+          }
+
+          val overlayable = entry.overlayable
+          if (overlayable != null) {
+            success = table.setOverlayable(name, overlayable) && success
+          }
+
+          for (configValue in entry.values) {
+            val value = configValue.value ?: continue
+            success =
+              table.addResourceWithId(name, id, configValue.config, configValue.product, value) &&
+                success
+          }
+        }
+      }
+    }
+  }
+  return success
+}
+
+/**
+ * Runs [task] for every input on a fixed pool of worker threads and returns the results in the
+ * order of the inputs. If a task fails, the remaining tasks are cancelled and the failure of the
+ * first input that failed is rethrown.
+ */
+private fun <T, R> runInParallel(inputs: List<T>, parallelism: Int, task: (T) -> R): List<R> {
+  require(parallelism > 0) { "parallelism must be positive: $parallelism" }
+  if (parallelism == 1 || inputs.size <= 1) {
+    return inputs.map(task)
+  }
+
+  val executor = Executors.newFixedThreadPool(
+    minOf(parallelism, inputs.size), CompilerThreadFactory())
+  try {
+    val futures: List<Future<R>> = inputs.map { input -> executor.submit<R> { task(input) } }
+    return futures.map { future ->
+      try {
+        future.get()
+      } catch (e: ExecutionException) {
+        futures.forEach { it.cancel(true) }
+        when (val cause = e.cause) {
+          is RuntimeException -> throw cause
+          is Error -> throw cause
+          else -> throw ResourceCompilationException("Resource compilation failed", cause)
+        }
+      }
+    }
+  } finally {
+    executor.shutdownNow()
+  }
+}
+
+/** Hashes the contents of the file together with everything else that affects its output. */
+private fun contentHash(file: File, optionsKey: String): String {
+  val digest = MessageDigest.getInstance(HASH_ALGORITHM)
+  digest.update("${ToolFingerprint.FINGERPRINT}\n$optionsKey\n${file.absolutePath}\n".toByteArray())
+  file.inputStream().use { input ->
+    val buffer = ByteArray(8192)
+    while (true) {
+      val read = input.read(buffer)
+      if (read < 0) break
+      digest.update(buffer, 0, read)
+    }
+  }
+  return digest.digest().joinToString("") { "%02x".format(it) }
+}
+
+/**
+ * The content hashes of the compiled files in an output directory, keyed by the name of their
+ * compiled output. Stored as one `<output name> <hash>` line per file.
+ */
+private class CompileCache(private val file: File) {
+
+  private val hashes = HashMap<String, String>()
+
+  init {
+    try {
+      if (file.isFile) {
+        file.forEachLine { line ->
+          val separator = line.lastIndexOf(' ')
+          if (separator > 0) {
+            hashes[line.substring(0, separator)] = line.substring(separator + 1)
+          }
+        }
+      }
+    } catch (e: IOException) {
+      // An unreadable cache only means that everything is compiled again.
+      hashes.clear()
+    }
+  }
+
+  @Synchronized
+  fun isUpToDate(outputName: String, hash: String, outputDirectory: File): Boolean =
+    hashes[outputName] == hash && File(outputDirectory, outputName).isFile
+
+  @Synchronized
+  fun put(outputName: String, hash: String) {
+    hashes[outputName] = hash
+  }
+
+  @Synchronized
+  fun remove(outputName: String) {
+    hashes.remove(outputName)
+  }
+
+  @Synchronized
+  fun save() {
+    val temp = File(file.parentFile, "${file.name}.tmp")
+    temp.bufferedWriter().use { writer ->
+      for (outputName in hashes.keys.sorted()) {
+        writer.append(outputName).append(' ').append(hashes[outputName]).append('\n')
+      }
+    }
+    if (!temp.renameTo(file)) {
+      file.delete()
+      if (!temp.renameTo(file)) {
+        temp.delete()
+        throw IOException("Failed to write $file")
+      }
+    }
+  }
+}
+
+private class CompilerThreadFactory : ThreadFactory {
+  private val count = AtomicInteger()
+
+  override fun newThread(runnable: Runnable): Thread {
+    val thread = Thread(runnable, "aapt-compile-${count.incrementAndGet()}")
+    thread.isDaemon = true
+    return thread
+  }
+}
@@ -25,8 +25,8 @@ import com.itsaky.androidide.layoutlib.resources.ResourceVisibility
 import com.android.utils.FileUtils
 import java.io.File
 
-private const val VALUES_DIRECTORY_PREFIX = "values"
-private const val XML_EXTENSION = "xml"
+internal const val VALUES_DIRECTORY_PREFIX = "values"
+internal const val XML_EXTENSION = "xml"
 private const val RESOURCE_TABLE_EXTENSION = "arsc"
 private const val PATCH_9_EXTENSION = "9.png"
 private const val PNG_EXTENSION = "png"
@@ -178,32 +178,7 @@ private fun compileTable(
   val outputFile = File(outputDirectory, pathData.getIntermediateContainerFilename())
   logger.info("Compiling XML table ${pathData.file.absolutePath} to $outputFile")
 
-  val table = ResourceTable(logger = logger)
-
-  val extractorOptions = TableExtractorOptions(
-    translatable = !pathData.name.contains("donottranslate"),
-    errorOnPositionalArgs = !options.legacyMode,
-    visibility = options.visibility)
-  val tableExtractor =
-    TableExtractor(table, pathData.source, pathData.config, extractorOptions, logger)
-
-  pathData.file.inputStream().use {
-      try {
-          tableExtractor.extract(it)
-      } catch (e: Exception) {
-          // For merged values there's no need to re-write as we don't know which line failed. The
-          // actual error will be raised by the table extractor.
-          throw ResourceCompilationException(
-              "Failed to compile values resource file ${pathData.file}", e
-          )
-      }
-
-    // Adds the fake locales: en-XA and ar-XB for each default-defined string resource. This is used
-    // for debugging apps with long text (en-XA) or rtl (ar-XB) language support.
-    if (options.pseudolocalize && extractorOptions.translatable) {
-      PseudolocaleGenerator().consume(table)
-    }
-  }
+  val table = extractTable(pathData, options, logger)
 
   // Ensure we have the compilation package at least.
   table.createPackage("")
@@ -244,6 +219,48 @@ private fun compileTable(
   }
 }
 
+/**
+ * Extracts all resources of a xml values file into a new [ResourceTable], generating the
+ * pseudolocale strings if requested.
+ *
+ * @param pathData the values file to be processed.
+ * @throws ResourceCompilationException A failure occurred in processing this resource.
+ */
+internal fun extractTable(
+  pathData: ResourcePathData,
+  options: ResourceCompilerOptions,
+  logger: BlameLogger
+): ResourceTable {
+  val table = ResourceTable(logger = logger)
+
+  val extractorOptions = TableExtractorOptions(
+    translatable = !pathData.name.contains("donottranslate"),
+    errorOnPositionalArgs = !options.legacyMode,
+    visibility = options.visibility)
+  val tableExtractor =
+    TableExtractor(table, pathData.source, pathData.config, extractorOptions, logger)
+
+  pathData.file.inputStream().use {
+      try {
+          tableExtractor.extract(it)
+      } catch (e: Exception) {
+          // For merged values there's no need to re-write as we don't know which line failed. The
+          // actual error will be raised by the table extractor.
+          throw ResourceCompilationException(
+              "Failed to compile values resource file ${pathData.file}", e
+          )
+      }
+
+    // Adds the fake locales: en-XA and ar-XB for each default-defined string resource. This is used
+    // for debugging apps with long text (en-XA) or rtl (ar-XB) language support.
+    if (options.pseudolocalize && extractorOptions.translatable) {
+      PseudolocaleGenerator().consume(table)
+    }
+  }
+
+  return table
+}
+
 private fun getVisibility(values: Collection<ResourceEntry>, type: AaptResourceType): ResourceVisibility {
     // all declare styleables need to be marked as public so they're visible in the R classes
     if (type == AaptResourceType.STYLEABLE) return ResourceVisibility.PUBLIC
@@ -0,0 +1,270 @@
+package com.android.aaptcompiler
+
+import com.android.aaptcompiler.proto.serializeTableToPb
+import com.android.utils.StdLogger
+import com.google.common.truth.Truth
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class ParallelResourceCompilerTest {
+
+  @Rule
+  @JvmField
+  var tempFolder = TemporaryFolder()
+
+  private val logger = BlameLogger(StdLogger(StdLogger.Level.WARNING))
+
+  private lateinit var resDir: File
+
+  @Before
+  fun setup() {
+    resDir = tempFolder.newFolder("res")
+  }
+
+  @Test
+  fun mergedTableSerializesLikeSerialCompile() {
+    val files = writeValuesFiles(filesPerConfig = 30)
+
+    val expected = serializeTableToPb(serialTable(files)).toByteArray()
+
+    val merged = compileValuesTable(files, ResourceCompilerOptions(), logger, parallelism = 4)
+    Truth.assertThat(serializeTableToPb(merged).toByteArray()).isEqualTo(expected)
+
+    val inline = compileValuesTable(files, ResourceCompilerOptions(), logger, parallelism = 1)
+    Truth.assertThat(serializeTableToPb(inline).toByteArray()).isEqualTo(expected)
+  }
+
+  @Test
+  fun mergedTableKeepsTheOrderOfTheFiles() {
+    val files = writeValuesFiles(filesPerConfig = 5).reversed()
+
+    val expected = serializeTableToPb(serialTable(files)).toByteArray()
+    val merged = compileValuesTable(files, ResourceCompilerOptions(), logger, parallelism = 3)
+
+    Truth.assertThat(serializeTableToPb(merged).toByteArray()).isEqualTo(expected)
+  }
+
+  @Test
+  fun failToMergeConflictingValues() {
+    val first = writeFile("values/first.xml", "<resources><string name=\"app\">A</string></resources>")
+    val second = writeFile("values/second.xml", "<resources><string name=\"app\">B</string></resources>")
+
+    try {
+      compileValuesTable(listOf(first, second), ResourceCompilerOptions(), logger, parallelism = 2)
+      fail()
+    } catch (e: ResourceCompilationException) {
+      // expected.
+    }
+  }
+
+  @Test
+  fun compiledFilesMatchSerialCompile() {
+    val files = writeResourceTree(filesPerConfig = 5)
+    val serialDir = tempFolder.newFolder("serial")
+    val parallelDir = tempFolder.newFolder("parallel")
+
+    files.forEach { compileResource(it, serialDir, ResourceCompilerOptions(), logger) }
+    val result = compileResources(files, parallelDir, ResourceCompilerOptions(), logger, parallelism = 4)
+
+    Truth.assertThat(result.compiled).containsExactlyElementsIn(files)
+    Truth.assertThat(result.upToDate).isEmpty()
+    val outputs = serialDir.listFiles()!!
+    Truth.assertThat(outputs).hasLength(files.size)
+    for (output in outputs) {
+      Truth.assertThat(File(parallelDir, output.name).readBytes()).isEqualTo(output.readBytes())
+    }
+  }
+
+  @Test
+  fun unchangedFilesAreNotCompiledAgain() {
+    val files = writeResourceTree(filesPerConfig = 2)
+    val outputDir = tempFolder.newFolder("out")
+    val options = ResourceCompilerOptions()
+
+    compileResources(files, outputDir, options, logger)
+    val unchanged = compileResources(files, outputDir, options, logger)
+    Truth.assertThat(unchanged.compiled).isEmpty()
+    Truth.assertThat(unchanged.upToDate).containsExactlyElementsIn(files)
+
+    // A changed file is compiled again, even if its timestamp did not change.
+    val changed = files.first { it.parentFile.name == "values" }
+    val lastModified = changed.lastModified()
+    changed.writeText(changed.readText().replace("Text", "Changed"))
+    changed.setLastModified(lastModified)
+    Truth.assertThat(compileResources(files, outputDir, options, logger).compiled)
+      .containsExactly(changed)
+
+    // So is a file whose output is gone.
+    val deleted = files.first { it.parentFile.name == "layout" }
+    File(outputDir, extractPathData(deleted).getIntermediateContainerFilename()).delete()
+    Truth.assertThat(compileResources(files, outputDir, options, logger).compiled)
+      .containsExactly(deleted)
+
+    // Different options invalidate everything.
+    val pseudolocalized = compileResources(
+      files, outputDir, ResourceCompilerOptions(pseudolocalize = true), logger)
+    Truth.assertThat(pseudolocalized.compiled).containsExactlyElementsIn(files)
+  }
+
+  @Test
+  fun benchmarkParallelAndCachedCompilation() {
+    val files = writeResourceTree(filesPerConfig = 30)
+    val valuesFiles = files.filter { it.parentFile.name.startsWith("values") }
+    val options = ResourceCompilerOptions()
+
+    // Warm up the class loading and the JIT.
+    compileValuesTable(valuesFiles.take(20), options, logger)
+
+    val serialDir = tempFolder.newFolder("serial")
+    var start = System.nanoTime()
+    files.forEach { compileResource(it, serialDir, options, logger) }
+    val serialMillis = (System.nanoTime() - start) / 1_000_000
+
+    val parallelDir = tempFolder.newFolder("parallel")
+    start = System.nanoTime()
+    compileResources(files, parallelDir, options, logger)
+    val parallelMillis = (System.nanoTime() - start) / 1_000_000
+
+    start = System.nanoTime()
+    val cached = compileResources(files, parallelDir, options, logger)
+    val cachedMillis = (System.nanoTime() - start) / 1_000_000
+    Truth.assertThat(cached.compiled).isEmpty()
+
+    start = System.nanoTime()
+    serialTable(valuesFiles)
+    val serialTableMillis = (System.nanoTime() - start) / 1_000_000
+
+    start = System.nanoTime()
+    compileValuesTable(valuesFiles, options, logger)
+    val parallelTableMillis = (System.nanoTime() - start) / 1_000_000
+
+    println(
+      "${files.size} files: serial ${serialMillis}ms, parallel ${parallelMillis}ms " +
+        "(${defaultCompileParallelism()} threads), unchanged ${cachedMillis}ms; " +
+        "${valuesFiles.size} values files into one table: serial ${serialTableMillis}ms, " +
+        "parallel ${parallelTableMillis}ms"
+    )
+  }
+
+  /** Extracts all files one after the other into a single table. */
+  private fun serialTable(files: List<File>): ResourceTable {
+    val table = ResourceTable(logger = logger)
+    for (file in files) {
+      val pathData = extractPathData(file)
+      val extractor = TableExtractor(
+        table, pathData.source, pathData.config, TableExtractorOptions(), logger)
+      file.inputStream().use { extractor.extract(it) }
+    }
+    table.createPackage("")
+    table.sort()
+    return table
+  }
+
+  private fun writeResourceTree(filesPerConfig: Int): List<File> {
+    val files = writeValuesFiles(filesPerConfig).toMutableList()
+    for (config in listOf("", "-land", "-sw600dp")) {
+      for (index in 0 until filesPerConfig) {
+        files += writeFile("layout$config/layout_$index.xml", layout(index))
+      }
+    }
+    for (index in 0 until filesPerConfig) {
+      files += writeFile("drawable/shape_$index.xml", drawable(index))
+      files += writeFile("raw/data_$index.txt", "Raw data $index\n".repeat(index + 1))
+    }
+    return files
+  }
+
+  private fun writeValuesFiles(filesPerConfig: Int): List<File> {
+    val files = mutableListOf<File>()
+    for (config in CONFIGS) {
+      for (index in 0 until filesPerConfig) {
+        files += writeFile("values$config/values_$index.xml", values(index, config))
+      }
+    }
+    files += writeFile(
+      "values/public.xml",
+      "<resources><public type=\"string\" name=\"string_0_0\"/>" +
+        "<public type=\"color\" name=\"color_1_0\"/></resources>"
+    )
+    return files
+  }
+
+  private fun writeFile(path: String, content: String): File {
+    val file = File(resDir, path)
+    file.parentFile.mkdirs()
+    file.writeText(content)
+    return file
+  }
+
+  private fun values(index: Int, config: String) = buildString {
+    appendLine("<resources xmlns:xliff=\"urn:oasis:names:tc:xliff:document:1.2\">")
+    // Declared by every file, so that the collision resolution across files is exercised.
+    appendLine("  <item type=\"id\" name=\"shared_id\"/>")
+    for (i in 0 until 100) {
+      appendLine("  <string name=\"string_${index}_$i\">Text $i of %1\$s in values$config</string>")
+    }
+    appendLine("  <string name=\"styled_$index\">Hello <b>world</b> <i>$index</i></string>")
+    for (i in 0 until 40) {
+      appendLine("  <color name=\"color_${index}_$i\">#ff${"%06x".format(index * 40 + i)}</color>")
+      appendLine("  <dimen name=\"dimen_${index}_$i\">${i}dp</dimen>")
+    }
+    appendLine("  <integer name=\"integer_$index\">$index</integer>")
+    appendLine("  <bool name=\"bool_$index\">${index % 2 == 0}</bool>")
+    appendLine("  <string-array name=\"array_$index\">")
+    appendLine("    <item>first</item>")
+    appendLine("    <item>@string/string_${index}_0</item>")
+    appendLine("  </string-array>")
+    appendLine("  <plurals name=\"plural_$index\">")
+    appendLine("    <item quantity=\"one\">One item</item>")
+    appendLine("    <item quantity=\"other\">%d items</item>")
+    appendLine("  </plurals>")
+    if (config.isEmpty()) {
+      appendLine("  <attr name=\"attr_$index\" format=\"reference|color\"/>")
+      appendLine("  <declare-styleable name=\"View$index\">")
+      appendLine("    <attr name=\"attr_$index\"/>")
+      appendLine("    <attr name=\"mode_$index\">")
+      appendLine("      <enum name=\"first\" value=\"0\"/>")
+      appendLine("      <enum name=\"second\" value=\"1\"/>")
+      appendLine("    </attr>")
+      appendLine("  </declare-styleable>")
+    }
+    appendLine("  <style name=\"Theme.Sample$index\" parent=\"android:Theme\">")
+    appendLine("    <item name=\"android:textSize\">${12 + index}sp</item>")
+    appendLine("    <item name=\"android:colorPrimary\">@color/color_${index}_0</item>")
+    appendLine("  </style>")
+    appendLine("</resources>")
+  }
+
+  private fun layout(index: Int) = """
+    <LinearLayout xmlns:android="http://schemas.android.com/apk/res/android"
+        android:layout_width="match_parent"
+        android:layout_height="match_parent"
+        android:orientation="vertical">
+      <TextView
+          android:id="@+id/title_$index"
+          android:layout_width="wrap_content"
+          android:layout_height="wrap_content"
+          android:text="@string/string_${index}_0"/>
+      <ImageView
+          android:id="@+id/image_$index"
+          android:layout_width="48dp"
+          android:layout_height="48dp"
+          android:src="@drawable/shape_$index"/>
+    </LinearLayout>
+  """.trimIndent()
+
+  private fun drawable(index: Int) = """
+    <shape xmlns:android="http://schemas.android.com/apk/res/android" android:shape="rectangle">
+      <solid android:color="@color/color_${index}_0"/>
+      <corners android:radius="${index}dp"/>
+    </shape>
+  """.trimIndent()
+
+  companion object {
+    private val CONFIGS = listOf("", "-fr", "-de", "-ja", "-land", "-night", "-sw600dp", "-v21")
+  }
+}
@@ -0,0 +1,263 @@
+package com.android.aaptcompiler
+
+import com.android.aaptcompiler.android.ResStringPool
+import com.android.aaptcompiler.android.hostToDevice
+import com.android.aaptcompiler.buffer.BigBuffer
+import com.google.common.truth.Truth
+import org.junit.Test
+import java.nio.ByteBuffer
+import kotlin.random.Random
+
+/**
+ * Compares the flattened pools with the output of the previous implementation of
+ * [StringPool.flattenUtf8] and [StringPool.flattenUtf16], which encoded every string and span at
+ * flatten time. [ReferenceFlattener] is that implementation, written against the public API.
+ */
+class StringPoolFlattenTest {
+
+  @Test
+  fun flattenMatchesReferenceImplementation() {
+    for (seed in 0 until 100) {
+      val random = Random(seed)
+      val (pool, styles) = randomPool(random, strings = random.nextInt(0, 300))
+      when (seed % 3) {
+        1 -> pool.sort()
+        2 -> pool.sort(compareBy { it.priority })
+      }
+
+      for (utf8 in listOf(true, false)) {
+        // The pool does not have to start at the beginning of the buffer.
+        for (offset in listOf(0, 2, 4)) {
+          val blockSize = if (seed % 2 == 0) 1024 else 16
+          val expected = BigBuffer(blockSize)
+          val actual = BigBuffer(blockSize)
+          if (offset != 0) {
+            expected.nextBlock(offset)
+            actual.nextBlock(offset)
+          }
+
+          ReferenceFlattener(pool, styles).flatten(expected, utf8)
+          if (utf8) pool.flattenUtf8(actual, null) else pool.flattenUtf16(actual, null)
+
+          Truth.assertThat(actual.toBytes()).isEqualTo(expected.toBytes())
+        }
+      }
+    }
+  }
+
+  @Test
+  fun flattenTwiceGivesSameOutput() {
+    val (pool, _) = randomPool(Random(7), strings = 500)
+
+    val first = BigBuffer(1024)
+    val second = BigBuffer(1024)
+    pool.flattenUtf8(first, null)
+    pool.flattenUtf8(second, null)
+
+    Truth.assertThat(second.toBytes()).isEqualTo(first.toBytes())
+    val test = ResStringPool.get(ByteBuffer.wrap(second.toBytes()), second.size)
+    Truth.assertThat(test.strings).hasSize(pool.size())
+  }
+
+  @Test
+  fun benchmarkFlattenLargePool() {
+    val random = Random(42)
+    // Mostly short ASCII strings with some accented characters, like the strings of an app.
+    val values = List(100_000) { index ->
+      val text = CharArray(random.nextInt(5, 60)) { if (it % 17 == 16) 'é' else 'a' + random.nextInt(26) }
+      "string_${index}_${String(text)}"
+    }
+
+    var pool = StringPool()
+    var addNanos = 0L
+    var utf8Nanos = 0L
+    var utf8AgainNanos = 0L
+    var utf16Nanos = 0L
+    var size = 0
+    val rounds = 15
+    val warmup = 5
+    for (round in 0 until rounds) {
+      System.gc()
+      var start = System.nanoTime()
+      pool = StringPool()
+      values.forEach { pool.makeRef(it) }
+      val add = System.nanoTime() - start
+
+      start = System.nanoTime()
+      val buffer = BigBuffer(1024)
+      pool.flattenUtf8(buffer, null)
+      val utf8 = System.nanoTime() - start
+
+      start = System.nanoTime()
+      pool.flattenUtf8(BigBuffer(1024), null)
+      val utf8Again = System.nanoTime() - start
+
+      start = System.nanoTime()
+      pool.flattenUtf16(BigBuffer(1024), null)
+      val utf16 = System.nanoTime() - start
+
+      if (round >= warmup) {
+        addNanos += add
+        utf8Nanos += utf8
+        utf8AgainNanos += utf8Again
+        utf16Nanos += utf16
+        size = buffer.size
+      }
+    }
+
+    val measured = (rounds - warmup) * 1_000_000.0
+    println(
+      "StringPool with ${pool.size()} strings, average of ${rounds - warmup} rounds: " +
+        "add %.1fms, UTF-8 %.1fms (again %.1fms, %d bytes), UTF-16 %.1fms".format(
+          addNanos / measured, utf8Nanos / measured, utf8AgainNanos / measured, size,
+          utf16Nanos / measured)
+    )
+  }
+
+  private fun randomPool(random: Random, strings: Int): Pair<StringPool, List<StringPool.StyleRef>> {
+    val pool = StringPool()
+    val styles = mutableListOf<StringPool.StyleRef>()
+    val priorities = longArrayOf(1L, 0x7fffffffL, 0xffffffffL, 0x81010001L)
+    for (i in 0 until strings) {
+      val value = if (i > 0 && random.nextInt(4) == 0) "dup${random.nextInt(10)}" else randomText(random)
+      pool.makeRef(value, StringPool.Context(priorities[random.nextInt(priorities.size)]))
+      if (random.nextInt(20) == 0) {
+        val spans = List(random.nextInt(0, 4)) {
+          Span("tag${random.nextInt(5)}", random.nextInt(10), random.nextInt(10, 20))
+        }
+        styles += pool.makeRef(StyleString(randomText(random), spans))
+      }
+    }
+    return pool to styles
+  }
+
+  /** Text with short and long (multi byte length) strings, non ASCII and surrogate characters. */
+  private fun randomText(random: Random): String {
+    val length = when (random.nextInt(10)) {
+      0 -> random.nextInt(200, 3000)
+      1 -> 0
+      else -> random.nextInt(1, 40)
+    }
+    val builder = StringBuilder()
+    repeat(length) {
+      when (random.nextInt(20)) {
+        0 -> builder.append('ि')
+        1 -> builder.append("😀")
+        2 -> builder.append('\uD800')
+        3 -> builder.append('é')
+        4 -> builder.append('\u0000')
+        else -> builder.append('a' + random.nextInt(26))
+      }
+    }
+    return builder.toString()
+  }
+
+  /** The previous flattening of [StringPool], kept to produce the expected output. */
+  private class ReferenceFlattener(
+    private val pool: StringPool, styleRefs: List<StringPool.StyleRef>) {
+
+    private val styles = styleRefs.sortedBy { it.index() }
+    private val strings = List(pool.size() - styles.size) { pool.entryAt(it).value }
+
+    fun flatten(out: BigBuffer, utf8: Boolean) {
+      val headerStart = out.size
+      val headerBlock = out.nextBlock(28)
+
+      var currentStringIndex = 0
+      val stringIndexBlock = if (pool.size() != 0) out.nextBlock(4*pool.size()) else null
+
+      var currentStyleIndex = 0
+      val stylesIndexBlock = if (styles.isNotEmpty()) out.nextBlock(4*styles.size) else null
+
+      val beginStringsIndex = out.size
+      val stringsStart = out.size - headerStart
+      var stylesStart = 0
+
+      if (stringIndexBlock != null) {
+        for (value in styles.map { it.value() } + strings) {
+          stringIndexBlock
+            .writeInt((out.size - beginStringsIndex).hostToDevice(), currentStringIndex)
+          currentStringIndex += 4
+          encodeString(value, utf8, out)
+        }
+        out.align4()
+      }
+
+      if (stylesIndexBlock != null) {
+        stylesStart = out.size - headerStart
+
+        for (style in styles) {
+          stylesIndexBlock.writeInt((out.size - stylesStart).hostToDevice(), currentStyleIndex)
+          currentStyleIndex += 4
+
+          if (style.spans().isNotEmpty()) {
+            val spansBlock = out.nextBlock(12*style.spans().size)
+            var location = 0
+            for (span in style.spans()) {
+              spansBlock.writeInt(span.name.index().hostToDevice(), location)
+              spansBlock.writeInt(span.firstChar.hostToDevice(), location + 4)
+              spansBlock.writeInt(span.lastChar.hostToDevice(), location + 8)
+              location += 12
+            }
+          }
+          out.nextBlock(4).writeInt(-1, 0)
+        }
+        val padding = out.nextBlock(8)
+        padding.writeInt(-1, 0)
+        padding.writeInt(-1, 4)
+        out.align4()
+      }
+
+      headerBlock.writeShort(1.toShort().hostToDevice(), 0)
+      headerBlock.writeShort(28.toShort().hostToDevice(), 2)
+      headerBlock.writeInt((out.size - headerStart).hostToDevice(), 4)
+      headerBlock.writeInt(pool.size().hostToDevice(), 8)
+      headerBlock.writeInt(styles.size.hostToDevice(), 12)
+      headerBlock.writeInt(if (utf8) 1 shl 8 else 0, 16)
+      headerBlock.writeInt(stringsStart.hostToDevice(), 20)
+      headerBlock.writeInt(stylesStart.hostToDevice(), 24)
+    }
+
+    private fun encodeString(str: String, utf8: Boolean, out: BigBuffer) {
+      if (utf8) {
+        val bytes = str.toByteArray()
+        val block = out.nextBlock(lengthUtf8(str.length) + lengthUtf8(bytes.size) + bytes.size + 1)
+        var location = encodeLengthUtf8(str.length, block, 0)
+        location += encodeLengthUtf8(bytes.size, block, location)
+        for (byte in bytes) {
+          block.writeByte(byte, location++)
+        }
+        block.writeByte(0, location)
+      } else {
+        val block = out.nextBlock((if (str.length <= 0x7fff) 2 else 4) + str.length*2 + 2)
+        var location =
+          if (str.length <= 0x7fff) {
+            block.writeShort(str.length.toShort().hostToDevice(), 0)
+            2
+          } else {
+            block.writeShort(((str.length shr 16) or 0x8000).toShort().hostToDevice(), 0)
+            block.writeShort(str.length.toShort().hostToDevice(), 2)
+            4
+          }
+        for (char in str) {
+          block.writeShort(char.code.toShort().hostToDevice(), location)
+          location += 2
+        }
+        block.writeShort(0, location)
+      }
+    }
+
+    private fun lengthUtf8(length: Int) = if (length <= 0x7f) 1 else 2
+
+    private fun encodeLengthUtf8(length: Int, out: BigBuffer.BlockRef, location: Int): Int {
+      return if (length <= 0x7f) {
+        out.writeByte(length.toByte(), location)
+        1
+      } else {
+        out.writeByte(((length shr 8) or 0x80).toByte(), location)
+        out.writeByte(length.toByte(), location + 1)
+        2
+      }
+    }
+  }
+}
@@ -35,13 +35,11 @@ package com.android.aaptcompiler
 
 import com.android.aaptcompiler.StringPool.Context.Priority.NORMAL
 import com.android.aaptcompiler.android.ChunkType
-import com.android.aaptcompiler.android.ResChunkHeader
 import com.android.aaptcompiler.android.ResStringPoolHeader
-import com.android.aaptcompiler.android.ResStringPoolRef
 import com.android.aaptcompiler.android.ResStringPoolSpan
-import com.android.aaptcompiler.android.hostToDevice
 import com.android.aaptcompiler.buffer.BigBuffer
 import com.android.utils.ILogger
+import java.nio.ByteBuffer
 
 data class Span(val name: String, var firstChar: Int, var lastChar: Int = firstChar)
 
@@ -51,7 +49,9 @@ class StringPool {
 
   private val strings = mutableListOf<Entry>()
   private val styles = mutableListOf<StyleEntry>()
-  private val indexedStrings = mutableMapOf<String, MutableList<Entry>>()
+  // The first entry of each value, further entries with the same value are chained through
+  // Entry.nextWithSameValue.
+  private val indexedStrings = HashMap<String, Entry>()
 
   class Context(
     var priority: Long = NORMAL.priority,
@@ -105,6 +105,13 @@ class StringPool {
       internal set
     lateinit var pool: StringPool
       internal set
+
+    internal var nextWithSameValue: Entry? = null
+
+    private var utf8: ByteArray? = null
+
+    /** The UTF-8 form of [value], encoded once when the pool is first flattened to UTF-8. */
+    internal fun utf8(): ByteArray = utf8 ?: value.toByteArray().also { utf8 = it }
   }
 
   class StyleEntry(val value: String, val context: Context, val spans: List<Span>) {
@@ -112,6 +119,11 @@ class StringPool {
       internal set
     var ref: Int = 0
       internal set
+
+    private var utf8: ByteArray? = null
+
+    /** The UTF-8 form of [value], encoded once when the pool is first flattened to UTF-8. */
+    internal fun utf8(): ByteArray = utf8 ?: value.toByteArray().also { utf8 = it }
   }
 
   fun size(): Int = styles.size + strings.size
@@ -133,15 +145,14 @@ class StringPool {
   }
 
   private fun makeRefImpl(str: String, context: Context, isUnique: Boolean) : Ref {
-    if (isUnique) {
-      val entries = indexedStrings[str]
-      if (entries != null) {
-        for (entry in entries) {
-          if (entry.context.priority == context.priority) {
-            return Ref(entry)
-          }
-        }
+    var last: Entry? = null
+    var existing = indexedStrings[str]
+    while (existing != null) {
+      if (isUnique && existing.context.priority == context.priority) {
+        return Ref(existing)
       }
+      last = existing
+      existing = existing.nextWithSameValue
     }
 
     val entry = Entry(str, context)
@@ -150,10 +161,11 @@ class StringPool {
     entry.pool = this
 
     strings.add(entry)
-    if (!indexedStrings.contains(str)) {
-      indexedStrings[str] = mutableListOf()
+    if (last == null) {
+      indexedStrings[str] = entry
+    } else {
+      last.nextWithSameValue = entry
     }
-    indexedStrings[str]!!.add(entry)
     return Ref(entry)
   }
 
@@ -194,180 +206,173 @@ class StringPool {
     reAssignIndices()
   }
 
+  /**
+   * Flattens the pool. Everything is measured first so that the whole pool is written into a
+   * single block of [out], the UTF-8 form of each string is encoded only once and cached in its
+   * entry.
+   */
   private fun flatten(out: BigBuffer, utf8: Boolean, logger: ILogger?) {
-    val header = ResStringPoolHeader(
-      ResChunkHeader(
-        ChunkType.STRING_POOL_TYPE.id.hostToDevice(),
-        ResStringPoolHeader.SIZE.hostToDevice()
-      ),
-      size().hostToDevice(),
-      styles.size.hostToDevice())
-    if (utf8) {
-      header.flags = ResStringPoolHeader.UTF8_FLAG or header.flags
-    }
     val headerStart = out.size
-    val headerBlock = out.nextBlock(ResStringPoolHeader.SIZE.toInt())
 
-    var currentStringIndex = 0
-    val stringIndexBlock =
-      if (size() != 0) out.nextBlock(4*size()) else null
-
-    var currentStyleIndex = 0
-    val stylesIndexBlock =
-      if (styles.size != 0) out.nextBlock(4*styles.size) else null
+    var stringsSize = 0
+    for (entry in styles) {
+      stringsSize += if (utf8) measureUtf8(entry.value, entry.utf8()) else measureUtf16(entry.value)
+    }
+    for (entry in strings) {
+      stringsSize += if (utf8) measureUtf8(entry.value, entry.utf8()) else measureUtf16(entry.value)
+    }
 
-    val beginStringsIndex = out.size
-    header.stringsStart = (out.size - headerStart).hostToDevice()
+    val stringsStart = ResStringPoolHeader.SIZE + 4*size() + 4*styles.size
+    var poolSize = stringsStart + stringsSize
+    if (size() != 0) {
+      poolSize += padding4(headerStart + poolSize)
+    }
 
-    if (stringIndexBlock != null) {
-      // Styles come first
+    val stylesStart = if (styles.isNotEmpty()) poolSize else 0
+    if (styles.isNotEmpty()) {
       for (entry in styles) {
-        stringIndexBlock
-          .writeInt((out.size - beginStringsIndex).hostToDevice(), currentStringIndex)
-        currentStringIndex += 4
-        encodeString(entry.value, utf8, out)
+        poolSize += ResStringPoolSpan.SIZE*entry.spans.size + 4
       }
-
-      // Strings come next
-      for (entry in strings) {
-        stringIndexBlock.writeInt((out.size - beginStringsIndex).hostToDevice(), currentStringIndex)
-        currentStringIndex += 4
-        encodeString(entry.value, utf8, out)
-      }
-
-      out.align4()
+      // The error checking code in the platform looks for an entire span structure worth of
+      // 0xffffffff so fill in the remaining 2 32 bit words.
+      poolSize += 8
+      poolSize += padding4(headerStart + poolSize)
     }
 
-    if (stylesIndexBlock != null) {
-      header.stylesStart = (out.size - headerStart).hostToDevice()
+    val block = out.nextBlock(poolSize).asByteBuffer()
+
+    block.putShort(0, ChunkType.STRING_POOL_TYPE.id)
+    block.putShort(2, ResStringPoolHeader.SIZE)
+    block.putInt(4, poolSize)
+    block.putInt(8, size())
+    block.putInt(12, styles.size)
+    block.putInt(16, if (utf8) ResStringPoolHeader.UTF8_FLAG else 0)
+    block.putInt(20, stringsStart)
+    block.putInt(24, stylesStart)
+
+    // Styles come first, then the strings
+    var index = ResStringPoolHeader.SIZE.toInt()
+    var location = stringsStart
+    for (entry in styles) {
+      block.putInt(index, location - stringsStart)
+      index += 4
+      location =
+        if (utf8) {
+          encodeUtf8(entry.value, entry.utf8(), block, location)
+        } else {
+          encodeUtf16(entry.value, block, location)
+        }
+    }
+    for (entry in strings) {
+      block.putInt(index, location - stringsStart)
+      index += 4
+      location =
+        if (utf8) {
+          encodeUtf8(entry.value, entry.utf8(), block, location)
+        } else {
+          encodeUtf16(entry.value, block, location)
+        }
+    }
 
+    if (styles.isNotEmpty()) {
+      location = stylesStart
       for (entry in styles) {
-        stylesIndexBlock.writeInt((out.size - header.stylesStart).hostToDevice(), currentStyleIndex)
-        currentStyleIndex +=4
-
-        if (entry.spans.isNotEmpty()) {
-          val spansBlock = out.nextBlock(ResStringPoolSpan.SIZE*entry.spans.size)
-
-          var currentSpanLocation = 0
-          for (span in entry.spans) {
-            val resSpan = ResStringPoolSpan(
-              ResStringPoolRef(
-                span.name.index().hostToDevice()),
-              span.firstChar.hostToDevice(),
-              span.lastChar.hostToDevice())
-            encodeSpan(resSpan, spansBlock, currentSpanLocation)
-            currentSpanLocation += ResStringPoolSpan.SIZE
-          }
+        // Style offsets are taken from the start of the buffer, as they always have been.
+        block.putInt(index, headerStart + location - stylesStart)
+        index += 4
+
+        for (span in entry.spans) {
+          block.putInt(location, span.name.index())
+          block.putInt(location + 4, span.firstChar)
+          block.putInt(location + 8, span.lastChar)
+          location += ResStringPoolSpan.SIZE
         }
-
-        val spanEnd = out.nextBlock(4)
-        spanEnd.writeInt(-1, 0)
+        block.putInt(location, ResStringPoolSpan.END)
+        location += 4
       }
-      // The error checking code in the platform looks for an entire span structure worth of
-      // 0xffffffff so fill in the remaining 2 32 bit words.
-      val padding = out.nextBlock(8)
-      padding.writeInt(-1, 0)
-      padding.writeInt(-1, 4)
-
-      out.align4()
+      block.putInt(location, ResStringPoolSpan.END)
+      block.putInt(location + 4, ResStringPoolSpan.END)
     }
-    // now we can set the size of the output in the header
-    header.header.size = (out.size - headerStart).hostToDevice()
-    encodeHeader(header, headerBlock)
   }
 
-  private fun encodeHeader(resHeader: ResStringPoolHeader, out: BigBuffer.BlockRef) {
-    out.writeShort(resHeader.header.typeId, 0)
-    out.writeShort(resHeader.header.headerSize, 2)
-    out.writeInt(resHeader.header.size, 4)
-
-    out.writeInt(resHeader.stringCount, 8)
-    out.writeInt(resHeader.styleCount, 12)
-    out.writeInt(resHeader.flags, 16)
-    out.writeInt(resHeader.stringsStart, 20)
-    out.writeInt(resHeader.stylesStart, 24)
+  private fun padding4(size: Int): Int {
+    val unaligned = size % 4
+    return if (unaligned != 0) 4 - unaligned else 0
   }
 
-  private fun encodeSpan(resSpan: ResStringPoolSpan, out: BigBuffer.BlockRef, location: Int) : Int {
-    out.writeInt(resSpan.name.index, location)
-    out.writeInt(resSpan.firstChar, location + 4)
-    out.writeInt(resSpan.lastChar, location + 8)
-    return 12
+  private fun measureUtf8(str: String, utf8Str: ByteArray): Int {
+    val utf8Length = utf8Str.size
+
+    // Make sure the lengths to be encoded do not exceed the maximum length that can be encoded
+    // using chars
+    if (utf8Length > UTF8_ENCODE_LENGTH_MAX ) {
+      error("String of size $utf8Length bytes is too large to encode using UTF-8 " +
+              "($UTF8_ENCODE_LENGTH_MAX bytes). " +
+              "Affected string begins with: '${str.take(STRING_PREFIX_LENGTH_FOR_ERRORS)}'...")
+    }
+
+    return getLengthUtf8(str.length) + getLengthUtf8(utf8Length) + utf8Length + 1
   }
 
-  private fun encodeString(str: String, utf8: Boolean, out: BigBuffer) {
-      if (utf8) {
-      val utf16Length = str.length
-      val utf8Str = str.toByteArray()
-      val utf8Length = utf8Str.size
-
-      // Make sure the lengths to be encoded do not exceed the maximum length that can be encoded
-      // using chars
-      if (utf8Length > UTF8_ENCODE_LENGTH_MAX ) {
-        error("String of size $utf8Length bytes is too large to encode using UTF-8 " +
-                "($UTF8_ENCODE_LENGTH_MAX bytes). " +
-                "Affected string begins with: '${str.take(STRING_PREFIX_LENGTH_FOR_ERRORS)}'...")
-      }
+  private fun measureUtf16(str: String): Int {
+    val utf16Length = str.length
 
-      val blockSize = getLengthUtf8(utf8Length) + getLengthUtf8(utf16Length) + utf8Length + 1
-      val stringBlock = out.nextBlock(blockSize)
+    // Make sure the length to be encoded does not exceed the maximum possible length that can be
+    // encoded
+    if (utf16Length > UTF16_ENCODE_LENGTH_MAX) {
+      error("String of size ${str.toByteArray().size} is too large to encode using " +
+              "UTF-16 ($UTF16_ENCODE_LENGTH_MAX bytes). " +
+              "Affected string begins with: '${str.take(STRING_PREFIX_LENGTH_FOR_ERRORS)}'...")
+    }
 
-      var locationToWrite = 0
+    return getLengthUtf16(utf16Length) + utf16Length*2 + 2
+  }
 
-      // first encode the UTF16 length
-      locationToWrite += encodeLengthUtf8(utf16Length, stringBlock, locationToWrite)
+  private fun encodeUtf8(str: String, utf8Str: ByteArray, out: ByteBuffer, location: Int): Int {
+    var locationToWrite = location
 
-      // Now encode the size of the real UTF8 string
-      locationToWrite += encodeLengthUtf8(utf8Length, stringBlock, locationToWrite)
+    // first encode the UTF16 length
+    locationToWrite += encodeLengthUtf8(str.length, out, locationToWrite)
 
-      // Now write the string
-      for (i in 0.until(utf8Length)) {
-        stringBlock.writeByte(utf8Str[i], locationToWrite)
-        ++locationToWrite
-      }
+    // Now encode the size of the real UTF8 string
+    locationToWrite += encodeLengthUtf8(utf8Str.size, out, locationToWrite)
 
-      // Now write null terminator
-      stringBlock.writeByte(0x00, locationToWrite)
-    } else {
-      val utf16Length = str.length
-
-      // Make sure the length to be encoded does not exceed the maximum possible length that can be
-      // encoded
-      if (utf16Length > UTF16_ENCODE_LENGTH_MAX) {
-        error("String of size ${str.toByteArray().size} is too large to encode using " +
-                "UTF-16 ($UTF16_ENCODE_LENGTH_MAX bytes). " +
-                "Affected string begins with: '${str.take(STRING_PREFIX_LENGTH_FOR_ERRORS)}'...")
-      }
+    // Now write the string
+    out.position(locationToWrite)
+    out.put(utf8Str)
+    locationToWrite += utf8Str.size
 
-      val blockSize = getLengthUtf16(utf16Length) + utf16Length*2 + 2
-      val stringBlock = out.nextBlock(blockSize)
+    // Now write null terminator
+    out.put(locationToWrite, 0x00)
+    return locationToWrite + 1
+  }
 
-      var locationToWrite = 0
+  private fun encodeUtf16(str: String, out: ByteBuffer, location: Int): Int {
+    var locationToWrite = location
 
-      // first encode the length
-      locationToWrite += encodeLengthUtf16(utf16Length, stringBlock, locationToWrite)
+    // first encode the length
+    locationToWrite += encodeLengthUtf16(str.length, out, locationToWrite)
 
-      // Now encode the string
-      for (i in 0.until(utf16Length)) {
-        stringBlock.writeShort(str[i].toShort().hostToDevice(), locationToWrite)
-        locationToWrite += 2
-      }
+    // Now encode the string
+    out.position(locationToWrite)
+    out.asCharBuffer().put(str)
+    locationToWrite += str.length*2
 
-      // now write null terminator
-      stringBlock.writeShort(0x0000.toShort(), locationToWrite)
-    }
+    // now write null terminator
+    out.putShort(locationToWrite, 0x0000.toShort())
+    return locationToWrite + 2
   }
 
   private fun getLengthUtf8(length: Int) =
     if (length <= ONE_BYTE_UTF8_ENCODE_LENGTH_MAX) 1 else 2
 
-  private fun encodeLengthUtf8(length: Int, out: BigBuffer.BlockRef, location: Int): Int {
+  private fun encodeLengthUtf8(length: Int, out: ByteBuffer, location: Int): Int {
     return if (length <= ONE_BYTE_UTF8_ENCODE_LENGTH_MAX) {
-      out.writeByte(length.toByte(), location)
+      out.put(location, length.toByte())
       1
     } else {
-      out.writeByte(((length shr 8) or TWO_BYTE_UTF8_LENGTH_SIGNIFIER).toByte(), location)
-      out.writeByte(length.toByte(), location + 1)
+      out.put(location, ((length shr 8) or TWO_BYTE_UTF8_LENGTH_SIGNIFIER).toByte())
+      out.put(location + 1, length.toByte())
       2
     }
   }
@@ -375,14 +380,13 @@ class StringPool {
   private fun getLengthUtf16(length: Int) =
     if (length <= ONE_CHAR_UTF16_ENCODE_LENGTH_MAX) 2 else 4
 
-  private fun encodeLengthUtf16(length: Int, out: BigBuffer.BlockRef, location: Int): Int {
+  private fun encodeLengthUtf16(length: Int, out: ByteBuffer, location: Int): Int {
     return if (length <= ONE_CHAR_UTF16_ENCODE_LENGTH_MAX) {
-      out.writeShort(length.toShort().hostToDevice(), location)
+      out.putShort(location, length.toShort())
       2
     } else {
-      out.writeShort(
-        ((length shr 16) or TWO_CHAR_UTF16_LENGTH_SIGNIFIER).toShort().hostToDevice(), location)
-      out.writeShort(length.toShort().hostToDevice(), location + 2)
+      out.putShort(location, ((length shr 16) or TWO_CHAR_UTF16_LENGTH_SIGNIFIER).toShort())
+      out.putShort(location + 2, length.toShort())
       4
     }
   }
@@ -429,8 +433,8 @@ class StringPool {
     // exceeds the maximum permitted utf-8 or utf-16 byte size.
     const val STRING_PREFIX_LENGTH_FOR_ERRORS = 42
 
-    val ENTRY_ON_VALUE = compareBy<Entry> {it.value}
-    val STYLE_ON_VALUE = compareBy<StyleEntry> {it.value}
+    val ENTRY_ON_VALUE = Comparator<Entry> { a, b -> a.value.compareTo(b.value) }
+    val STYLE_ON_VALUE = Comparator<StyleEntry> { a, b -> a.value.compareTo(b.value) }
   }
 }
 
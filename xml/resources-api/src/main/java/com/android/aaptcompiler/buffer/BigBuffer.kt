@@ -69,6 +69,18 @@ class BigBuffer(val blockSize: Int = 1024) {
       block.data.putInt(actualLocation, value)
     }
 
+    /**
+     * Returns a view of this block ref in device (little endian) byte order. Writing to the view
+     * modifies the underlying [BigBuffer], which allows writing a large entry without going through
+     * the bounds checks of the single value writes.
+     */
+    fun asByteBuffer(): ByteBuffer {
+      val data = block.data.duplicate()
+      data.position(start)
+      data.limit(start + size)
+      return data.slice().order(ByteOrder.LITTLE_ENDIAN)
+    }
+
     fun readByte(location: Int): Byte {
       if (location + 1 > size) {
         throw IndexOutOfBoundsException()
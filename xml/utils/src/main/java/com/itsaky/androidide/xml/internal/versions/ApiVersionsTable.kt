@@ -0,0 +1,398 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.xml.internal.versions
+
+import com.itsaky.androidide.xml.versions.ApiVersion
+import com.itsaky.androidide.xml.versions.ApiVersions
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * [ApiVersions] backed by a compact binary table. The table is written from the parsed
+ * `api-versions.xml` once and memory mapped afterwards, so that neither the XML has to be parsed
+ * nor the string keyed maps of [DefaultApiVersions] have to be kept in the heap.
+ *
+ * Class names are stored in a trie of their package segments, and each class has a table of its
+ * members sorted by identifier. Names are compared directly with the UTF-8 bytes in the table, so
+ * lookups do not create any strings. Each distinct combination of API levels is stored once and
+ * its [ApiVersion] instance is shared, like in [ApiVersionsParser].
+ *
+ * Layout of the table, all integers are big endian :
+ * - Header : magic, format, length and last modified time of the source XML, then the count and
+ * offset of each of the sections below.
+ * - Versions : packed `since`, `deprecated` and `removed` levels, 8 bits each.
+ * - Trie nodes : name offset, name length, class index or `-1`, first child and child count. The
+ * root is the first node and the children of each node are contiguous and sorted by name.
+ * - Classes : version index or `-1`, first member and member count.
+ * - Members : name offset, name length and version index.
+ * - Strings : the interned UTF-8 names.
+ *
+ * This class is thread safe.
+ */
+internal class ApiVersionsTable private constructor(private val buffer: ByteBuffer) : ApiVersions {
+
+  private val nodesOffset = buffer.getInt(HEADER_NODES + 4)
+  private val classesOffset = buffer.getInt(HEADER_CLASSES + 4)
+  private val membersOffset = buffer.getInt(HEADER_MEMBERS + 4)
+  private val stringsOffset = buffer.getInt(HEADER_STRINGS + 4)
+
+  private val versions = Array(buffer.getInt(HEADER_VERSIONS)) { index ->
+    unpack(buffer.getInt(buffer.getInt(HEADER_VERSIONS + 4) + index * VERSION_SIZE))
+  }
+
+  /** The number of classes in this table. */
+  val classCount: Int
+    get() = buffer.getInt(HEADER_CLASSES)
+
+  /** The number of class members in this table. */
+  val memberCount: Int
+    get() = buffer.getInt(HEADER_MEMBERS)
+
+  override fun classInfo(name: String): ApiVersion? {
+    val index = findClass(name)
+    if (index < 0) {
+      return null
+    }
+    return versionAt(buffer.getInt(classesOffset + index * CLASS_SIZE))
+  }
+
+  override fun memberInfo(className: String, identifier: String): ApiVersion? {
+    val index = findClass(className)
+    if (index < 0) {
+      return null
+    }
+
+    val klass = classesOffset + index * CLASS_SIZE
+    var low = buffer.getInt(klass + 4)
+    var high = low + buffer.getInt(klass + 8) - 1
+    while (low <= high) {
+      val mid = (low + high) ushr 1
+      val member = membersOffset + mid * MEMBER_SIZE
+      val cmp = compareName(member, identifier, 0, identifier.length)
+      when {
+        cmp < 0 -> low = mid + 1
+        cmp > 0 -> high = mid - 1
+        else -> return versionAt(buffer.getInt(member + 8))
+      }
+    }
+    return null
+  }
+
+  private fun versionAt(index: Int): ApiVersion? = if (index < 0) null else versions[index]
+
+  /**
+   * Find the index of the class with the given name, in which packages may be separated with `.` or
+   * `/` as in [DefaultApiVersions].
+   */
+  private fun findClass(name: String): Int {
+    var node = 0
+    var start = 0
+    while (true) {
+      var end = start
+      while (end < name.length && name[end] != '/' && name[end] != '.') {
+        end++
+      }
+
+      node = findChild(node, name, start, end)
+      if (node < 0) {
+        return -1
+      }
+
+      if (end == name.length) {
+        return buffer.getInt(nodesOffset + node * NODE_SIZE + 8)
+      }
+      start = end + 1
+    }
+  }
+
+  private fun findChild(node: Int, name: String, start: Int, end: Int): Int {
+    val parent = nodesOffset + node * NODE_SIZE
+    var low = buffer.getInt(parent + 12)
+    var high = low + buffer.getInt(parent + 16) - 1
+    while (low <= high) {
+      val mid = (low + high) ushr 1
+      val cmp = compareName(nodesOffset + mid * NODE_SIZE, name, start, end)
+      when {
+        cmp < 0 -> low = mid + 1
+        cmp > 0 -> high = mid - 1
+        else -> return mid
+      }
+    }
+    return -1
+  }
+
+  /**
+   * Compare the name of the record at [record], which starts with the offset and length of the name,
+   * with `name[start, end)` in the order of their UTF-8 bytes.
+   */
+  private fun compareName(record: Int, name: String, start: Int, end: Int): Int {
+    val offset = stringsOffset + buffer.getInt(record)
+    val length = buffer.getInt(record + 4)
+    var i = 0
+    var j = start
+    while (i < length && j < end) {
+      val c = name[j].code
+      if (c < 0x80) {
+        val cmp = (buffer.get(offset + i).toInt() and 0xFF) - c
+        if (cmp != 0) {
+          return cmp
+        }
+        i++
+        j++
+        continue
+      }
+
+      // Not in the API database, but compare them correctly anyway
+      val codePoint = Character.codePointAt(name, j)
+      val bytes = String(Character.toChars(codePoint)).toByteArray(Charsets.UTF_8)
+      for (b in bytes) {
+        if (i == length) {
+          return -1
+        }
+        val cmp = (buffer.get(offset + i).toInt() and 0xFF) - (b.toInt() and 0xFF)
+        if (cmp != 0) {
+          return cmp
+        }
+        i++
+      }
+      j += Character.charCount(codePoint)
+    }
+    return when {
+      i < length -> 1
+      j < end -> -1
+      else -> 0
+    }
+  }
+
+  companion object {
+
+    /** The name of the table file, which is written next to `api-versions.xml`. */
+    const val FILE_NAME = "api-versions.table"
+
+    private const val MAGIC = 0x41505654 // APVT
+    private const val FORMAT = 1
+
+    private const val HEADER_SOURCE_LENGTH = 8
+    private const val HEADER_SOURCE_MODIFIED = 16
+    private const val HEADER_VERSIONS = 24
+    private const val HEADER_NODES = 32
+    private const val HEADER_CLASSES = 40
+    private const val HEADER_MEMBERS = 48
+    private const val HEADER_STRINGS = 56
+    private const val HEADER_SIZE = 64
+
+    private const val VERSION_SIZE = 4
+
+    /** The highest API level that fits in the 8 bits each level has in the versions section. */
+    private const val MAX_LEVEL = 0xFF
+    private const val NODE_SIZE = 20
+    private const val CLASS_SIZE = 12
+    private const val MEMBER_SIZE = 12
+
+    /**
+     * Memory map the table at [tableFile].
+     *
+     * @param sourceFile The `api-versions.xml` file the table was written from.
+     * @return The table, or `null` if it does not exist, is invalid or was written from a different
+     * version of [sourceFile].
+     */
+    fun open(tableFile: File, sourceFile: File): ApiVersionsTable? {
+      if (!tableFile.isFile) {
+        return null
+      }
+
+      return try {
+        val buffer = RandomAccessFile(tableFile, "r").use { file ->
+          file.channel.map(FileChannel.MapMode.READ_ONLY, 0, file.length())
+        }
+        if (!isValid(buffer, sourceFile)) null else ApiVersionsTable(buffer)
+      } catch (e: IOException) {
+        null
+      }
+    }
+
+    private fun isValid(buffer: ByteBuffer, sourceFile: File): Boolean {
+      if (buffer.capacity() < HEADER_SIZE
+        || buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != FORMAT
+        || buffer.getLong(HEADER_SOURCE_LENGTH) != sourceFile.length()
+        || buffer.getLong(HEADER_SOURCE_MODIFIED) != sourceFile.lastModified()
+      ) {
+        return false
+      }
+
+      val stringsEnd = buffer.getInt(HEADER_STRINGS + 4).toLong() + buffer.getInt(HEADER_STRINGS)
+      return stringsEnd == buffer.capacity().toLong() && buffer.getInt(HEADER_NODES) > 0
+    }
+
+    /**
+     * Write the table for the given parsed [versions] to [tableFile]. The file is replaced
+     * atomically, so concurrent readers see either the old or the new table.
+     *
+     * @param sourceFile The `api-versions.xml` file [versions] were parsed from.
+     * @throws IllegalArgumentException If an API level is outside of `0..255`, see [MAX_LEVEL].
+     */
+    @Throws(IOException::class)
+    fun write(versions: DefaultApiVersions, sourceFile: File, tableFile: File) {
+      val bytes = TableWriter(versions).write(sourceFile.length(), sourceFile.lastModified())
+      val tmp = File.createTempFile(FILE_NAME, ".tmp", tableFile.parentFile)
+      try {
+        tmp.writeBytes(bytes)
+        Files.move(tmp.toPath(), tableFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE)
+      } finally {
+        tmp.delete()
+      }
+    }
+
+    private fun pack(version: ApiVersion): Int {
+      checkLevel(version.since)
+      checkLevel(version.deprecatedIn)
+      checkLevel(version.removedIn)
+      return (version.since shl 16) or (version.deprecatedIn shl 8) or version.removedIn
+    }
+
+    private fun checkLevel(level: Int) {
+      require(level in 0..MAX_LEVEL) { "API level $level does not fit in the table" }
+    }
+
+    private fun unpack(versions: Int): ApiVersion {
+      return ApiVersion(
+        since = (versions shr 16) and 0xFF,
+        deprecatedIn = (versions shr 8) and 0xFF,
+        removedIn = versions and 0xFF
+      )
+    }
+
+    private val UTF8_ORDER = Comparator<ByteArray> { a, b ->
+      val length = minOf(a.size, b.size)
+      for (i in 0 until length) {
+        val cmp = (a[i].toInt() and 0xFF) - (b[i].toInt() and 0xFF)
+        if (cmp != 0) {
+          return@Comparator cmp
+        }
+      }
+      a.size - b.size
+    }
+  }
+
+  private class TrieNode(val name: ByteArray) {
+    val children = sortedMapOf<ByteArray, TrieNode>(UTF8_ORDER)
+    var classIndex = -1
+  }
+
+  private class TableWriter(private val apiVersions: DefaultApiVersions) {
+
+    private val strings = ByteArrayOutputStream()
+    private val stringOffsets = HashMap<String, Int>()
+    private val versionIndices = LinkedHashMap<Int, Int>()
+
+    private fun intern(name: ByteArray): Int {
+      return stringOffsets.getOrPut(String(name, Charsets.UTF_8)) {
+        strings.size().also { strings.write(name) }
+      }
+    }
+
+    private fun versionIndex(version: ApiVersion?): Int {
+      version ?: return -1
+      return versionIndices.getOrPut(pack(version)) { versionIndices.size }
+    }
+
+    fun write(sourceLength: Long, sourceLastModified: Long): ByteArray {
+      val classNames = apiVersions.classes.keys.map { it.toByteArray(Charsets.UTF_8) }.sortedWith(UTF8_ORDER)
+
+      val root = TrieNode(ByteArray(0))
+      val classes = ArrayList<Int>(classNames.size * 3)
+      val members = ArrayList<Int>()
+
+      for (className in classNames) {
+        val (classVersion, classMembers) = apiVersions.classes[String(className, Charsets.UTF_8)]!!
+
+        var node = root
+        for (segment in String(className, Charsets.UTF_8).split('/')) {
+          val segmentBytes = segment.toByteArray(Charsets.UTF_8)
+          node = node.children.getOrPut(segmentBytes) { TrieNode(segmentBytes) }
+        }
+        node.classIndex = classes.size / 3
+
+        val sortedMembers = classMembers.entries
+          .map { it.key.toByteArray(Charsets.UTF_8) to it.value }
+          .sortedWith { a, b -> UTF8_ORDER.compare(a.first, b.first) }
+
+        classes += versionIndex(classVersion)
+        classes += members.size / 3
+        classes += sortedMembers.size
+        for ((name, version) in sortedMembers) {
+          members += intern(name)
+          members += name.size
+          members += versionIndex(version)
+        }
+      }
+
+      // Lay out the nodes breadth first, so that the children of each node are contiguous
+      val nodes = ArrayList<TrieNode>()
+      val firstChild = ArrayList<Int>()
+      nodes += root
+      var next = 0
+      while (next < nodes.size) {
+        val node = nodes[next++]
+        firstChild += nodes.size
+        nodes.addAll(node.children.values)
+      }
+      val nodeNames = nodes.map { intern(it.name) }
+
+      val versionsOffset = HEADER_SIZE
+      val nodesOffset = versionsOffset + versionIndices.size * VERSION_SIZE
+      val classesOffset = nodesOffset + nodes.size * NODE_SIZE
+      val membersOffset = classesOffset + classes.size / 3 * CLASS_SIZE
+      val stringsOffset = membersOffset + members.size / 3 * MEMBER_SIZE
+      val stringBytes = strings.toByteArray()
+
+      val buffer = ByteBuffer.allocate(stringsOffset + stringBytes.size)
+      buffer.putInt(MAGIC)
+      buffer.putInt(FORMAT)
+      buffer.putLong(sourceLength)
+      buffer.putLong(sourceLastModified)
+      buffer.putInt(versionIndices.size).putInt(versionsOffset)
+      buffer.putInt(nodes.size).putInt(nodesOffset)
+      buffer.putInt(classes.size / 3).putInt(classesOffset)
+      buffer.putInt(members.size / 3).putInt(membersOffset)
+      buffer.putInt(stringBytes.size).putInt(stringsOffset)
+
+      versionIndices.keys.forEach { buffer.putInt(it) }
+      nodes.forEachIndexed { index, node ->
+        buffer.putInt(nodeNames[index])
+        buffer.putInt(node.name.size)
+        buffer.putInt(node.classIndex)
+        buffer.putInt(firstChild[index])
+        buffer.putInt(node.children.size)
+      }
+      classes.forEach { buffer.putInt(it) }
+      members.forEach { buffer.putInt(it) }
+      buffer.put(stringBytes)
+
+      return buffer.array()
+    }
+  }
+}
@@ -24,6 +24,7 @@ import com.itsaky.androidide.xml.versions.ApiVersions
 import com.itsaky.androidide.xml.versions.ApiVersionsRegistry
 import org.slf4j.LoggerFactory
 import java.io.File
+import java.io.IOException
 import java.util.concurrent.ConcurrentHashMap
 
 /**
@@ -60,10 +61,33 @@ class DefaultApiVersionsRegistry : ApiVersionsRegistry {
       return null
     }
 
+    val tableFile = File(versionsFile.parentFile, ApiVersionsTable.FILE_NAME)
+    ApiVersionsTable.open(tableFile, versionsFile)?.let { table ->
+      if (isLoggingEnabled) {
+        log.info("Using API versions table at: $tableFile")
+      }
+      return table
+    }
+
     if (isLoggingEnabled) {
       log.info("Creating API versions table for platform dir: $platform")
     }
 
+    val versions = parseApiVersions(versionsFile)
+    try {
+      ApiVersionsTable.write(versions, versionsFile, tableFile)
+      ApiVersionsTable.open(tableFile, versionsFile)?.let { return it }
+    } catch (e: IOException) {
+      // e.g. the SDK is read only, keep using the parsed versions
+      log.warn("Failed to write API versions table to $tableFile", e)
+    } catch (e: IllegalArgumentException) {
+      // API levels which do not fit in the table, keep using the parsed versions
+      log.warn("Cannot write API versions table for $versionsFile", e)
+    }
+    return versions
+  }
+
+  internal fun parseApiVersions(versionsFile: File): DefaultApiVersions {
     return versionsFile.inputStream().buffered().use { inputStream ->
       // we do not implement the parsing logic in the registry itself for thread safety
       val versions = DefaultApiVersions()
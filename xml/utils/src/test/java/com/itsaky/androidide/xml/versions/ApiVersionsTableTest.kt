@@ -0,0 +1,193 @@
+/*
+ *  This file is part of AndroidIDE.
+ *
+ *  AndroidIDE is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  AndroidIDE is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *   along with AndroidIDE.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.itsaky.androidide.xml.versions
+
+import com.google.common.truth.Truth.assertThat
+import com.itsaky.androidide.xml.findAndroidHome
+import com.itsaky.androidide.xml.internal.versions.ApiVersionsTable
+import com.itsaky.androidide.xml.internal.versions.DefaultApiVersions
+import com.itsaky.androidide.xml.internal.versions.DefaultApiVersionsRegistry
+import org.junit.Assert.fail
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import java.io.File
+
+@RunWith(RobolectricTestRunner::class)
+class ApiVersionsTableTest {
+
+  @get:Rule
+  val tmp = TemporaryFolder()
+
+  private val apiVersionXml by lazy {
+    val platformsDir = File(findAndroidHome(), "platforms")
+    val platformDir = platformsDir.listFiles()!!.asSequence().sortedByDescending {
+      it.name.substring("android-".length).toIntOrNull() ?: 0
+    }.first()
+
+    platformDir.resolve("data/api-versions.xml")
+  }
+
+  @Test
+  fun `test table matches the parsed api-versions xml`() {
+    val parsed = DefaultApiVersionsRegistry().parseApiVersions(apiVersionXml)
+    val table = writeAndOpen(parsed, apiVersionXml)
+
+    assertThat(table.classCount).isEqualTo(parsed.classes.size)
+    assertThat(table.memberCount).isEqualTo(parsed.classes.values.sumOf { it.second.size })
+
+    for ((className, info) in parsed.classes) {
+      val (classVersion, members) = info
+      assertThat(table.classInfo(className)).isEqualTo(classVersion)
+      assertThat(table.classInfo(className.replace('/', '.'))).isEqualTo(classVersion)
+      assertThat(table.classInfo(className + "X")).isEqualTo(parsed.classInfo(className + "X"))
+
+      for ((identifier, version) in members) {
+        assertThat(table.memberInfo(className, identifier)).isEqualTo(version)
+        assertThat(table.memberInfo(className.replace('/', '.'), identifier)).isEqualTo(version)
+        assertThat(table.memberInfo(className, identifier + "X")).isNull()
+        assertThat(table.memberInfo(className, identifier.dropLast(1))).isEqualTo(members[identifier.dropLast(1)])
+      }
+    }
+  }
+
+  @Test
+  fun `test lookups in a small table`() {
+    val versions = DefaultApiVersions()
+    versions.putClass("pck/outer", ApiVersion(1, 21))
+    versions.putClass("pck/outer\$inner", ApiVersion(5))
+    versions.putClass("pck/pck/outer", ApiVersion(7, 9, 11))
+    versions.putClass("pck", ApiVersion(3))
+    versions.putMember("pck/outer", "some(I)", ApiVersion(2))
+    versions.putMember("pck/outer", "some(II)", ApiVersion(3))
+    versions.putMember("pck/outer", "field", ApiVersion(4, 8))
+    versions.putMember("pck/outer", "été()", ApiVersion(6))
+    // A class whose own version is since inception, so it is only there for its members
+    versions.putMember("pck/other", "field", ApiVersion(4))
+
+    val table = writeAndOpen(versions, tmp.newFile("api-versions.xml"))
+
+    assertThat(table.classInfo("pck/outer")).isEqualTo(ApiVersion(1, 21))
+    assertThat(table.classInfo("pck.outer")).isEqualTo(ApiVersion(1, 21))
+    assertThat(table.classInfo("pck.outer\$inner")).isEqualTo(ApiVersion(5))
+    assertThat(table.classInfo("pck/pck/outer")).isEqualTo(ApiVersion(7, 9, 11))
+    assertThat(table.classInfo("pck")).isEqualTo(ApiVersion(3))
+    assertThat(table.classInfo("pck/other")).isNull()
+
+    assertThat(table.classInfo("")).isNull()
+    assertThat(table.classInfo("pck/")).isNull()
+    assertThat(table.classInfo("pck/outer/inner")).isNull()
+    assertThat(table.classInfo("pck/pck")).isNull()
+    assertThat(table.classInfo("pck/outer2")).isNull()
+
+    assertThat(table.memberInfo("pck/outer", "some(I)")).isEqualTo(ApiVersion(2))
+    assertThat(table.memberInfo("pck.outer", "some(II)")).isEqualTo(ApiVersion(3))
+    assertThat(table.memberInfo("pck/outer", "field")).isEqualTo(ApiVersion(4, 8))
+    assertThat(table.memberInfo("pck/outer", "été()")).isEqualTo(ApiVersion(6))
+    assertThat(table.memberInfo("pck/other", "field")).isEqualTo(ApiVersion(4))
+    assertThat(table.memberInfo("pck/outer", "some(III)")).isNull()
+    assertThat(table.memberInfo("pck/outer", "some(")).isNull()
+    assertThat(table.memberInfo("pck/outer", "été(I)")).isNull()
+    assertThat(table.memberInfo("pck/outer\$inner", "field")).isNull()
+
+    // Equal versions share the same instance
+    assertThat(table.memberInfo("pck/other", "field")).isSameInstanceAs(table.memberInfo("pck/other", "field"))
+  }
+
+  @Test
+  fun `test table is not used when the xml changes`() {
+    val versions = DefaultApiVersions()
+    versions.putClass("pck/outer", ApiVersion(2))
+    val source = tmp.newFile("api-versions.xml")
+    val tableFile = File(tmp.root, ApiVersionsTable.FILE_NAME)
+    ApiVersionsTable.write(versions, source, tableFile)
+
+    assertThat(ApiVersionsTable.open(tableFile, source)).isNotNull()
+
+    source.writeText("<api version=\"35\"/>")
+    assertThat(ApiVersionsTable.open(tableFile, source)).isNull()
+
+    tableFile.writeText("not a table")
+    assertThat(ApiVersionsTable.open(tableFile, source)).isNull()
+  }
+
+  @Test
+  fun `test levels which do not fit are rejected`() {
+    val source = tmp.newFile("api-versions.xml")
+    val tableFile = File(tmp.root, ApiVersionsTable.FILE_NAME)
+    for (version in listOf(ApiVersion(256), ApiVersion(1, 300), ApiVersion(1, 2, -1))) {
+      val versions = DefaultApiVersions()
+      versions.putClass("pck/outer", ApiVersion(2))
+      versions.putMember("pck/outer", "field", version)
+      try {
+        ApiVersionsTable.write(versions, source, tableFile)
+        fail("Expected $version to be rejected")
+      } catch (e: IllegalArgumentException) {
+        // expected
+      }
+      assertThat(tableFile.exists()).isFalse()
+    }
+  }
+
+  @Test
+  fun `benchmark startup and heap of parsed xml and table`() {
+    val registry = DefaultApiVersionsRegistry()
+    val tableFile = File(tmp.root, ApiVersionsTable.FILE_NAME)
+
+    val heapBefore = usedHeap()
+    var start = System.nanoTime()
+    var parsed: DefaultApiVersions? = registry.parseApiVersions(apiVersionXml)
+    val parseMillis = (System.nanoTime() - start) / 1_000_000
+    val parsedHeap = usedHeap() - heapBefore
+
+    start = System.nanoTime()
+    ApiVersionsTable.write(parsed!!, apiVersionXml, tableFile)
+    val writeMillis = (System.nanoTime() - start) / 1_000_000
+    parsed = null
+
+    val heapBeforeTable = usedHeap()
+    start = System.nanoTime()
+    val table = ApiVersionsTable.open(tableFile, apiVersionXml)
+    val openMillis = (System.nanoTime() - start) / 1_000_000
+    val tableHeap = usedHeap() - heapBeforeTable
+    assertThat(table).isNotNull()
+
+    println(
+      "api-versions.xml: parse ${parseMillis}ms, ${parsedHeap / 1024}KB heap; " +
+        "table: written in ${writeMillis}ms, ${tableFile.length() / 1024}KB file, " +
+        "opened in ${openMillis}ms, ${tableHeap / 1024}KB heap"
+    )
+  }
+
+  private fun writeAndOpen(versions: DefaultApiVersions, source: File): ApiVersionsTable {
+    val tableFile = File(tmp.root, ApiVersionsTable.FILE_NAME)
+    ApiVersionsTable.write(versions, source, tableFile)
+    return ApiVersionsTable.open(tableFile, source)!!
+  }
+
+  private fun usedHeap(): Long {
+    val runtime = Runtime.getRuntime()
+    repeat(3) {
+      System.gc()
+      Thread.sleep(50)
+    }
+    return runtime.totalMemory() - runtime.freeMemory()
+  }
+}
@@ -39,4 +39,7 @@ dependencies {
     implementation(libs.androidx.appcompat)
     implementation(libs.androidx.constraintlayout)
     implementation(libs.androidx.core.ktx)
+
+    testImplementation(libs.tests.junit)
+    testImplementation(libs.tests.google.truth)
 }
@@ -185,6 +185,8 @@ class ParserHelper {
                     }
                     current = read();
                     switch (current) {
+                        default:
+                            break l;
                         case '0':
                         case '1':
                         case '2':
@@ -195,8 +197,6 @@ class ParserHelper {
                         case '7':
                         case '8':
                         case '9':
-                        default:
-                            break l;
                     }
                 }
         }
@@ -258,6 +258,8 @@ class ParserHelper {
                         }
                         current = read();
                         switch (current) {
+                            default:
+                                break l;
                             case '0':
                             case '1':
                             case '2':
@@ -268,8 +270,6 @@ class ParserHelper {
                             case '7':
                             case '8':
                             case '9':
-                            default:
-                                break l;
                         }
                     }
             }
@@ -354,6 +354,8 @@ class ParserHelper {
                             }
                             current = read();
                             switch (current) {
+                                default:
+                                    break l;
                                 case '0':
                                 case '1':
                                 case '2':
@@ -364,8 +366,6 @@ class ParserHelper {
                                 case '7':
                                 case '8':
                                 case '9':
-                                default:
-                                    break l;
                             }
                         }
                 }
@@ -0,0 +1,172 @@
+package com.itsvks.layouteditor.vectormaster.utilities.parser
+
+import com.google.common.truth.Truth.assertThat
+import com.itsvks.layouteditor.vectormaster.utilities.parser.PathData.ADD_ARC
+import com.itsvks.layouteditor.vectormaster.utilities.parser.PathData.ADD_CIRCLE
+import com.itsvks.layouteditor.vectormaster.utilities.parser.PathData.CLOSE
+import com.itsvks.layouteditor.vectormaster.utilities.parser.PathData.CUBIC_TO
+import com.itsvks.layouteditor.vectormaster.utilities.parser.PathData.LINE_TO
+import com.itsvks.layouteditor.vectormaster.utilities.parser.PathData.MOVE_TO
+import com.itsvks.layouteditor.vectormaster.utilities.parser.PathData.R_LINE_TO
+import com.itsvks.layouteditor.vectormaster.utilities.parser.PathData.R_MOVE_TO
+import org.junit.Test
+import kotlin.random.Random
+
+class PathDataTest {
+
+    @Test
+    fun `test implicit commands after move`() {
+        assertCommands(
+            "M0,0 10,10 20,0z",
+            MOVE_TO to floatArrayOf(0f, 0f),
+            LINE_TO to floatArrayOf(10f, 10f),
+            LINE_TO to floatArrayOf(20f, 0f),
+            CLOSE to floatArrayOf()
+        )
+        assertCommands(
+            "m1 1 2 2",
+            R_MOVE_TO to floatArrayOf(1f, 1f),
+            R_LINE_TO to floatArrayOf(2f, 2f)
+        )
+    }
+
+    @Test
+    fun `test implicit repeated commands`() {
+        assertCommands(
+            "M0 0L1 1 2 2h3 4V5",
+            MOVE_TO to floatArrayOf(0f, 0f),
+            LINE_TO to floatArrayOf(1f, 1f),
+            LINE_TO to floatArrayOf(2f, 2f),
+            R_LINE_TO to floatArrayOf(3f, 0f),
+            R_LINE_TO to floatArrayOf(4f, 0f),
+            LINE_TO to floatArrayOf(9f, 5f)
+        )
+    }
+
+    @Test
+    fun `test numbers without separators`() {
+        assertCommands(
+            "M1-2L.5.5-1.5e1,2E-1",
+            MOVE_TO to floatArrayOf(1f, -2f),
+            LINE_TO to floatArrayOf(0.5f, 0.5f),
+            LINE_TO to floatArrayOf(-15f, 0.2f)
+        )
+    }
+
+    @Test
+    fun `test relative and absolute curves are the same`() {
+        val absolute = PathData.parse("M10 10C12 14 16 14 18 10S26 6 28 10Q30 14 32 10T36 10z")
+        val relative = PathData.parse("M10 10c2 4 6 4 8 0s8-4 10 0q2 4 4 0t4 0z")
+        assertThat(relative).isEqualTo(absolute)
+        assertThat(absolute.commands.toList())
+            .containsExactly(MOVE_TO, CUBIC_TO, CUBIC_TO, CUBIC_TO, CUBIC_TO, CLOSE).inOrder()
+
+        // S reflects the second control point of C
+        assertThat(absolute.values.copyOfRange(8, 14).toList())
+            .containsExactly(20f, 6f, 26f, 6f, 28f, 10f).inOrder()
+    }
+
+    @Test
+    fun `test close moves to the start of the contour`() {
+        assertCommands(
+            "M5 5l5 0l0 5zl1 1",
+            MOVE_TO to floatArrayOf(5f, 5f),
+            R_LINE_TO to floatArrayOf(5f, 0f),
+            R_LINE_TO to floatArrayOf(0f, 5f),
+            CLOSE to floatArrayOf(),
+            R_LINE_TO to floatArrayOf(1f, 1f)
+        )
+        assertThat(PathData.parse("M5 5h5v5zH7").values.takeLast(2)).containsExactly(7f, 5f).inOrder()
+    }
+
+    @Test
+    fun `test dots are drawn as circles`() {
+        assertCommands(
+            "M3 4L3 4",
+            MOVE_TO to floatArrayOf(3f, 4f),
+            ADD_CIRCLE to floatArrayOf(3f, 4f, 1f)
+        )
+        assertCommands(
+            "m3 4l0 0",
+            R_MOVE_TO to floatArrayOf(3f, 4f),
+            ADD_CIRCLE to floatArrayOf(0f, 0f, 1f)
+        )
+    }
+
+    @Test
+    fun `test arcs`() {
+        val absolute = PathData.parse("M0 10A10 10 0 0 1 20 10")
+        val relative = PathData.parse("M0 10a10 10 0 0 1 20 0")
+        assertThat(relative).isEqualTo(absolute)
+        assertThat(absolute.commands.toList()).containsExactly(MOVE_TO, ADD_ARC).inOrder()
+        val arc = absolute.values.copyOfRange(2, 8)
+        assertThat(arc.copyOfRange(0, 4).toList()).containsExactly(0f, 0f, 20f, 20f).inOrder()
+        assertThat(arc[4]).isEqualTo(180f)
+        assertThat(arc[5]).isEqualTo(180f)
+    }
+
+    @Test
+    fun `test empty and invalid path data`() {
+        assertThat(PathData.parse("").commands.toList()).isEmpty()
+        assertCommands(
+            "M1 1 # L2 2",
+            MOVE_TO to floatArrayOf(1f, 1f),
+            LINE_TO to floatArrayOf(2f, 2f)
+        )
+    }
+
+    @Test
+    fun `test parsed data is cached`() {
+        PathData.clearCache()
+        val data = PathData.get("M0 0L1 1")
+        assertThat(PathData.get(String(charArrayOf('M', '0', ' ', '0', 'L', '1', ' ', '1')))).isSameInstanceAs(data)
+    }
+
+    @Test
+    fun `benchmark large icon set`() {
+        val random = Random(42)
+        // As many icons as fit in the cache
+        val icons = (1..1000).map { randomPath(random, 20 + random.nextInt(200)) }
+        PathData.clearCache()
+
+        var start = System.nanoTime()
+        val parsed = icons.map { PathData.get(it) }
+        val parseNanos = System.nanoTime() - start
+
+        // Icons loaded again, with new path strings
+        val reloaded = icons.map { String(it.toCharArray()) }
+        start = System.nanoTime()
+        val cached = reloaded.map { PathData.get(it) }
+        val cachedNanos = System.nanoTime() - start
+
+        val commands = parsed.sumOf { it.commands.size }
+        println("${icons.size} icons, $commands commands, ${icons.sumOf { it.length } / 1024} KiB of path data: " +
+            "parsed in ${parseNanos / 1_000_000} ms, cached in ${cachedNanos / 1000} us")
+        assertThat(cached).containsExactlyElementsIn(parsed).inOrder()
+    }
+
+    private fun randomPath(random: Random, size: Int): String {
+        fun n() = "%.2f".format(java.util.Locale.ROOT, random.nextFloat() * 48 - 24)
+        val builder = StringBuilder("M${n()},${n()}")
+        repeat(size) {
+            when (random.nextInt(8)) {
+                0 -> builder.append("l${n()},${n()}")
+                1 -> builder.append("H${n()}")
+                2 -> builder.append("v${n()}")
+                3 -> builder.append("c${n()},${n()} ${n()},${n()} ${n()},${n()}")
+                4 -> builder.append("S${n()},${n()} ${n()},${n()}")
+                5 -> builder.append("q${n()},${n()} ${n()},${n()}")
+                6 -> builder.append("a4,4 0 0 1 ${n()},${n()}")
+                else -> builder.append("z m${n()},${n()}")
+            }
+        }
+        return builder.append('z').toString()
+    }
+
+    private fun assertCommands(s: String, vararg expected: Pair<Byte, FloatArray>) {
+        val data = PathData.parse(s)
+        assertThat(data.commands.toList()).containsExactlyElementsIn(expected.map { it.first }).inOrder()
+        assertThat(data.values.toList())
+            .containsExactlyElementsIn(expected.flatMap { it.second.toList() }).inOrder()
+    }
+}